@@ -0,0 +1,116 @@
+package download.manager.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import download.manager.api.DownloadTask;
+import download.manager.http.HttpConnectionPool;
+import download.manager.impl.DownloadTaskImpl;
+import download.manager.impl.Status;
+import download.manager.impl.StatusListener;
+import download.manager.impl.TransferMode;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Whole download of one resource by {@link DownloadTaskImpl} from an in-process origin, that sends content as fast as
+ * it can. Score is time of one download, from start until the task is completed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DownloadTaskBenchmark {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Param({ "STREAM", "CHANNEL", "MAPPED" })
+    private TransferMode transferMode;
+
+    @Param({ "1048576", "67108864" })
+    private long fileSize;
+
+    @Param({ "1", "4" })
+    private int segmentsCount;
+
+    private LocalOrigin origin;
+    private ExecutorService executor;
+    private HttpConnectionPool connectionPool;
+    private File directory;
+    private String url;
+    private int downloadNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+	origin = new LocalOrigin();
+	origin.start();
+	executor = Executors.newFixedThreadPool(segmentsCount);
+	connectionPool = new HttpConnectionPool();
+	directory = Files.createTempDirectory("download-task-benchmark").toFile();
+	url = origin.url(fileSize, CHUNK_SIZE, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteFiles() {
+	File[] files = directory.listFiles();
+	if (files != null) {
+	    for (File file : files) {
+		file.delete();
+	    }
+	}
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+	executor.shutdownNow();
+	connectionPool.shutdown();
+	origin.close();
+	deleteFiles();
+	directory.delete();
+    }
+
+    @Benchmark
+    public Status download() throws InterruptedException, IOException {
+	final CountDownLatch finished = new CountDownLatch(1);
+	String fileName = new File(directory, "download-" + (downloadNumber++) + ".bin").getPath();
+	DownloadTaskImpl downloadTask = new DownloadTaskImpl(url, fileName, segmentsCount);
+	downloadTask.setTransferMode(transferMode);
+	downloadTask.setConnectionPool(connectionPool);
+	downloadTask.setStatusListener(new StatusListener() {
+
+	    @Override
+	    public void statusChanged(DownloadTask downloadTask, Status status) {
+		if ((status == Status.COMPLETED) || (status == Status.ERROR)) {
+		    finished.countDown();
+		}
+	    }
+	});
+	downloadTask.download(executor);
+	finished.await();
+	if (downloadTask.getStatus() != Status.COMPLETED) {
+	    throw new IOException("Download of " + url + " failed");
+	}
+	return downloadTask.getStatus();
+    }
+
+}
@@ -0,0 +1,105 @@
+package download.manager.benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import download.manager.impl.DownloadManagerImpl;
+import download.manager.impl.ExecutionMode;
+import download.manager.impl.Status;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Compares platform and virtual threads execution modes by downloading 1k and 10k slow resources at once from a local
+ * origin, every download is allowed to run concurrently. Virtual threads mode is skipped on JDK older than 21.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar download.manager.benchmarks.ExecutionModeBenchmark [counts...]
+ * </pre>
+ */
+public class ExecutionModeBenchmark {
+
+    private static final long CONTENT_LENGTH = 64 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final long CHUNK_DELAY_MILLIS = 100;
+    private static final long TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+	List<Integer> counts = new ArrayList<>();
+	for (String arg : args) {
+	    counts.add(Integer.valueOf(arg));
+	}
+	if (counts.isEmpty()) {
+	    counts.add(1000);
+	    counts.add(10000);
+	}
+	File directory = new File("target/execution-mode-benchmark");
+	directory.mkdirs();
+	try (LocalOrigin origin = new LocalOrigin()) {
+	    origin.start();
+	    System.out.printf("%-18s %8s %10s %12s %12s %12s %8s%n", "mode", "tasks", "wall, ms", "MB/s",
+		    "peak threads", "heap, MB", "errors");
+	    for (ExecutionMode executionMode : ExecutionMode.values()) {
+		for (int count : counts) {
+		    run(origin, directory, executionMode, count);
+		}
+	    }
+	}
+    }
+
+    private static void run(LocalOrigin origin, File directory, ExecutionMode executionMode, int count)
+	    throws InterruptedException {
+	DownloadManagerImpl downloadManager;
+	try {
+	    downloadManager = new DownloadManagerImpl(executionMode);
+	}
+	catch (IllegalStateException e) {
+	    System.out.printf("%-18s %8d skipped: %s%n", executionMode, count, e.getMessage());
+	    return;
+	}
+	System.gc();
+	ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	threadMXBean.resetPeakThreadCount();
+	Runtime runtime = Runtime.getRuntime();
+	long peakHeap = 0;
+	downloadManager.setPoolSize(count);
+	String url = origin.url(CONTENT_LENGTH, CHUNK_SIZE, CHUNK_DELAY_MILLIS);
+	List<String> ids = new ArrayList<>(count);
+	long startTime = System.nanoTime();
+	for (int i = 0; i < count; i++) {
+	    ids.add(downloadManager.addAndDownload(url, new File(directory, "resource-" + i).getPath()));
+	}
+	int finished = 0;
+	int errors = 0;
+	long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+	while ((finished < count) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(50);
+	    peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+	    finished = 0;
+	    errors = 0;
+	    for (String id : ids) {
+		Status status = downloadManager.get(id).getStatus();
+		if (status == Status.COMPLETED) {
+		    finished++;
+		}
+		else if (status == Status.ERROR) {
+		    finished++;
+		    errors++;
+		}
+	    }
+	}
+	long wallMillis = (System.nanoTime() - startTime) / 1000000;
+	double megabytesPerSecond = ((double) (count - errors) * CONTENT_LENGTH) / (1024 * 1024)
+		/ Math.max(wallMillis / 1000.0, 0.001);
+	System.out.printf("%-18s %8d %10d %12.1f %12d %12d %8d%n", executionMode, count, wallMillis,
+		megabytesPerSecond, threadMXBean.getPeakThreadCount(), peakHeap / (1024 * 1024), errors + count
+			- finished);
+	downloadManager.forceShutdown();
+	for (int i = 0; i < count; i++) {
+	    new File(directory, "resource-" + i).delete();
+	}
+    }
+
+}
@@ -0,0 +1,114 @@
+package download.manager.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import download.manager.impl.DownloadManagerImpl;
+import download.manager.impl.ExecutionMode;
+import download.manager.impl.Status;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Load test of {@link DownloadManagerImpl}: starts 1k and 10k downloads at once from a local origin, that behaves like
+ * a distant, slow or faulty server, and reports throughput and percentiles of completion times. Every download is
+ * allowed to run concurrently.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar download.manager.benchmarks.LoadTest [counts...]
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final int CONTENT_LENGTH = 64 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final long TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+	List<Integer> counts = new ArrayList<>();
+	for (String arg : args) {
+	    counts.add(Integer.valueOf(arg));
+	}
+	if (counts.isEmpty()) {
+	    counts.add(1000);
+	    counts.add(10000);
+	}
+	File directory = new File("target/load-test");
+	directory.mkdirs();
+	try (LocalOrigin origin = new LocalOrigin()) {
+	    origin.start();
+	    Map<String, String> scenarios = new LinkedHashMap<>();
+	    scenarios.put("steady", origin.content(CONTENT_LENGTH).chunk(CHUNK_SIZE).delay(10).url());
+	    scenarios.put("latency+bandwidth", origin.content(CONTENT_LENGTH).chunk(CHUNK_SIZE).latency(100)
+		    .bandwidth(128 * 1024).url());
+	    scenarios.put("stalls", origin.content(CONTENT_LENGTH).chunk(CHUNK_SIZE).stallAt(CONTENT_LENGTH / 2, 1000)
+		    .url());
+	    scenarios.put("chunked", origin.content(CONTENT_LENGTH).chunk(CHUNK_SIZE).delay(10).chunked().url());
+	    scenarios.put("no-ranges", origin.content(CONTENT_LENGTH).chunk(CHUNK_SIZE).delay(10).ignoreRanges().url());
+	    scenarios.put("resets", origin.content(CONTENT_LENGTH).chunk(CHUNK_SIZE).delay(10)
+		    .resetAt(CONTENT_LENGTH / 2).url());
+	    System.out.printf("%-18s %8s %10s %10s %8s %8s %8s %8s %8s%n", "scenario", "tasks", "wall, ms", "MB/s",
+		    "p50, ms", "p95, ms", "p99, ms", "max, ms", "errors");
+	    for (Map.Entry<String, String> scenario : scenarios.entrySet()) {
+		for (int count : counts) {
+		    run(scenario.getKey(), scenario.getValue(), directory, count);
+		}
+	    }
+	}
+    }
+
+    private static void run(String scenario, String url, File directory, int count) throws InterruptedException {
+	DownloadManagerImpl downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS);
+	downloadManager.setPoolSize(count);
+	downloadManager.setMaxConnectionsPerHost(count);
+	List<String> unfinishedIds = new ArrayList<>(count);
+	long startTime = System.nanoTime();
+	for (int i = 0; i < count; i++) {
+	    unfinishedIds.add(downloadManager.addAndDownload(url, new File(directory, "resource-" + i).getPath()));
+	}
+	long[] completionMillis = new long[count];
+	int completed = 0;
+	int errors = 0;
+	long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+	while (!unfinishedIds.isEmpty() && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(20);
+	    long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+	    for (Iterator<String> iterator = unfinishedIds.iterator(); iterator.hasNext();) {
+		Status status = downloadManager.get(iterator.next()).getStatus();
+		if (status == Status.COMPLETED) {
+		    completionMillis[completed++] = elapsedMillis;
+		    iterator.remove();
+		}
+		else if ((status == Status.ERROR) || (status == Status.CANCELLED)) {
+		    errors++;
+		    iterator.remove();
+		}
+	    }
+	}
+	long wallMillis = (System.nanoTime() - startTime) / 1000000;
+	long[] completedMillis = Arrays.copyOf(completionMillis, completed);
+	Arrays.sort(completedMillis);
+	double megabytesPerSecond = ((double) completed * CONTENT_LENGTH) / (1024 * 1024)
+		/ Math.max(wallMillis / 1000.0, 0.001);
+	System.out.printf("%-18s %8d %10d %10.1f %8d %8d %8d %8d %8d%n", scenario, count, wallMillis,
+		megabytesPerSecond, percentile(completedMillis, 50), percentile(completedMillis, 95),
+		percentile(completedMillis, 99), percentile(completedMillis, 100), errors + unfinishedIds.size());
+	downloadManager.forceShutdown();
+	for (int i = 0; i < count; i++) {
+	    new File(directory, "resource-" + i).delete();
+	}
+    }
+
+    private static long percentile(long[] sortedValues, int percent) {
+	if (sortedValues.length == 0) {
+	    return -1;
+	}
+	int index = (int) Math.ceil((percent / 100.0) * sortedValues.length) - 1;
+	return sortedValues[Math.max(index, 0)];
+    }
+
+}
@@ -0,0 +1,101 @@
+package download.manager.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import download.manager.impl.BufferPool;
+import download.manager.impl.Transfer;
+import download.manager.impl.TransferMode;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Mapped windows against positional channel writes: copies content from memory into a file sized up front, either as
+ * one stream or as segments, whose reads are interleaved like reads of parallel connections. Both modes read into
+ * pooled buffers of adaptive size. Score is time to write the whole file, throughput is {@code fileSize / score}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedTransferBenchmark {
+
+    @Param({ "CHANNEL", "MAPPED" })
+    private TransferMode transferMode;
+
+    @Param({ "16777216", "268435456" })
+    private int fileSize;
+
+    @Param({ "1", "4" })
+    private int segmentsCount;
+
+    private byte[] content;
+    private BufferPool bufferPool;
+    private File targetFile;
+    private RandomAccessFile targetRandomAccessFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+	content = new byte[fileSize / segmentsCount];
+	for (int i = 0; i < content.length; i++) {
+	    content[i] = LocalOrigin.contentByte(i);
+	}
+	targetFile = File.createTempFile("mapped-transfer-benchmark", ".bin");
+	targetRandomAccessFile = new RandomAccessFile(targetFile, "rw");
+	targetRandomAccessFile.setLength(fileSize);
+	bufferPool = new BufferPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+	targetRandomAccessFile.close();
+	targetFile.delete();
+    }
+
+    @Benchmark
+    public long transferFile() throws IOException {
+	Transfer[] transfers = new Transfer[segmentsCount];
+	long[] positions = new long[segmentsCount];
+	for (int i = 0; i < segmentsCount; i++) {
+	    transfers[i] = transferMode.open(new ByteArrayInputStream(content), targetRandomAccessFile, bufferPool);
+	    positions[i] = (long) i * content.length;
+	}
+	long transferredBytes = 0;
+	while (transferredBytes < fileSize) {
+	    for (int i = 0; i < segmentsCount; i++) {
+		long end = (long) (i + 1) * content.length;
+		if (positions[i] < end) {
+		    int numberOfTransferredBytes = transfers[i].transfer(positions[i], end - positions[i]);
+		    if (numberOfTransferredBytes == -1) {
+			throw new IllegalStateException("Content ended at position " + positions[i]);
+		    }
+		    positions[i] += numberOfTransferredBytes;
+		    transferredBytes += numberOfTransferredBytes;
+		}
+	    }
+	}
+	for (Transfer transfer : transfers) {
+	    transfer.release();
+	}
+	return transferredBytes;
+    }
+
+}
@@ -0,0 +1,102 @@
+package download.manager.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import download.manager.impl.BufferPool;
+import download.manager.impl.ChannelTransfer;
+import download.manager.impl.StreamTransfer;
+import download.manager.impl.Transfer;
+import download.manager.impl.TransferMode;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Write path alone: copies content from memory to a file through stream and channel transfers with different buffer
+ * sizes, or with pooled buffers of adaptive size. Score is time to write the whole file, throughput is
+ * {@code fileSize / score}, run with {@code -prof gc} to see allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    private static final String POOLED = "pooled";
+
+    @Param({ "STREAM", "CHANNEL" })
+    private TransferMode transferMode;
+
+    // 1024 is the fixed buffer of stream transfer, 131072 of channel transfer, pooled reads adapt their size
+    @Param({ "1024", "8192", "65536", "131072", POOLED })
+    private String bufferSize;
+
+    @Param({ "1048576", "16777216" })
+    private int fileSize;
+
+    private byte[] content;
+    private BufferPool bufferPool;
+    private File targetFile;
+    private RandomAccessFile targetRandomAccessFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+	content = new byte[fileSize];
+	for (int i = 0; i < fileSize; i++) {
+	    content[i] = LocalOrigin.contentByte(i);
+	}
+	targetFile = File.createTempFile("transfer-benchmark", ".bin");
+	targetRandomAccessFile = new RandomAccessFile(targetFile, "rw");
+	bufferPool = new BufferPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+	targetRandomAccessFile.close();
+	targetFile.delete();
+    }
+
+    @Benchmark
+    public long transferFile() throws IOException {
+	InputStream inputStream = new ByteArrayInputStream(content);
+	Transfer transfer;
+	if (POOLED.equals(bufferSize)) {
+	    transfer = transferMode.open(inputStream, targetRandomAccessFile, bufferPool);
+	}
+	else if (transferMode == TransferMode.STREAM) {
+	    transfer = new StreamTransfer(inputStream, targetRandomAccessFile, Integer.parseInt(bufferSize));
+	}
+	else {
+	    transfer = new ChannelTransfer(inputStream, targetRandomAccessFile, Integer.parseInt(bufferSize));
+	}
+	long position = 0;
+	while (position < fileSize) {
+	    int numberOfTransferredBytes = transfer.transfer(position, fileSize - position);
+	    if (numberOfTransferredBytes == -1) {
+		throw new IllegalStateException("Content ended at position " + position);
+	    }
+	    position += numberOfTransferredBytes;
+	}
+	return position;
+    }
+
+}
@@ -0,0 +1,75 @@
+package download.manager.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import download.manager.metrics.DownloadMetrics;
+
+/**
+ * Progress updates after every read, from as many threads as segments of a task: a counter guarded by a lock against
+ * an atomic counter, and the progress path of a real task with and without metrics. Lives in the package of
+ * {@link DownloadTaskImpl} to call its segment callbacks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ProgressUpdateBenchmark {
+
+    private static final int READ_SIZE = DownloadTaskImpl.BUFFER_SIZE;
+    private static final String URL = "http://localhost/resource.bin";
+
+    private final Lock lock = new ReentrantLock();
+    private long lockedBytes;
+    private final AtomicLong atomicBytes = new AtomicLong();
+    private final DownloadTaskImpl downloadTask = new DownloadTaskImpl(URL, "progress-benchmark.bin", 4);
+    private final DownloadTaskImpl measuredDownloadTask = new DownloadTaskImpl(URL, "progress-benchmark.bin", 4);
+
+    public ProgressUpdateBenchmark() {
+	measuredDownloadTask.setMetrics(new DownloadMetrics());
+    }
+
+    @Benchmark
+    public long lockedCounter() {
+	lock.lock();
+	try {
+	    lockedBytes += READ_SIZE;
+	    return lockedBytes;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    @Benchmark
+    public long atomicCounter() {
+	return atomicBytes.addAndGet(READ_SIZE);
+    }
+
+    @Benchmark
+    public void taskProgress() {
+	downloadTask.segmentProgress(READ_SIZE, 0);
+    }
+
+    @Benchmark
+    public void taskProgressWithMetrics() {
+	measuredDownloadTask.segmentProgress(READ_SIZE, 1000);
+    }
+
+}
@@ -0,0 +1,13 @@
+package download.manager.api;
+
+/**
+ * Algorithm of expected checksums of a resource, digests are written as lower case hexadecimal strings, CRC32 as
+ * eight digits of its big-endian value.
+ */
+public enum ChecksumAlgorithm {
+
+    SHA_256,
+
+    CRC32;
+
+}
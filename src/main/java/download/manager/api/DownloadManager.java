@@ -1,5 +1,15 @@
 package download.manager.api;
 
+import java.util.Collection;
+import java.util.List;
+
+import download.manager.http.ConnectionPoolStatistics;
+import download.manager.impl.BatchOperation;
+import download.manager.impl.BatchResult;
+import download.manager.impl.HostQueueStatistics;
+import download.manager.impl.Status;
+import download.manager.impl.TransferMode;
+
 /**
  * Main API that provided to the end user.
  * 
@@ -12,6 +22,63 @@ public interface DownloadManager {
 
     public String addAndDownload(String url, String fileName);
 
+    /**
+     * Adds download task that fetches given resource over several connections, each loading its own byte range.
+     * 
+     * @param url
+     *            URL of resource
+     * @param fileName
+     *            name of target file
+     * @param segmentsCount
+     *            number of parallel connections
+     * @return download task identifier
+     */
+    public String add(String url, String fileName, int segmentsCount);
+
+    /**
+     * Adds download task that fetches given resource over several connections and starts downloading it.
+     * 
+     * @param url
+     *            URL of resource
+     * @param fileName
+     *            name of target file
+     * @param segmentsCount
+     *            number of parallel connections
+     * @return download task identifier
+     */
+    public String addAndDownload(String url, String fileName, int segmentsCount);
+
+    /**
+     * Adds download task, that verifies checksums of the resource while it is downloaded. A chunk, that does not match
+     * its checksum, is downloaded again, a resource, that does not match its checksum, fails the task.
+     * 
+     * @param url
+     *            URL of resource
+     * @param fileName
+     *            name of target file
+     * @param segmentsCount
+     *            number of parallel connections
+     * @param expectedChecksum
+     *            checksums, the resource should match, may be {@code null}
+     * @return download task identifier
+     */
+    public String add(String url, String fileName, int segmentsCount, ExpectedChecksum expectedChecksum);
+
+    /**
+     * Adds download task, that verifies checksums of the resource while it is downloaded, and starts downloading it.
+     * 
+     * @param url
+     *            URL of resource
+     * @param fileName
+     *            name of target file
+     * @param segmentsCount
+     *            number of parallel connections
+     * @param expectedChecksum
+     *            checksums, the resource should match, may be {@code null}
+     * @return download task identifier
+     */
+    public String addAndDownload(String url, String fileName, int segmentsCount, ExpectedChecksum expectedChecksum);
+
     /**
      * Cancels download task by given identifier.
      * 
@@ -42,6 +109,73 @@ public interface DownloadManager {
      */
     public DownloadTask get(String downloadTaskId);
 
+    /**
+     * Returns download tasks with given identifiers, identifiers of unknown tasks are skipped.
+     * 
+     * @param downloadTaskIds
+     *            download task identifiers
+     * @return found download tasks
+     */
+    public List<DownloadTask> get(Collection<String> downloadTaskIds);
+
+    /**
+     * Applies operation to download tasks with given identifiers, large batches are split into parts, that are
+     * applied in parallel.
+     * 
+     * @param operation
+     *            applied operation
+     * @param downloadTaskIds
+     *            download task identifiers, duplicates are applied once
+     * @return aggregated result of the operation
+     */
+    public BatchResult apply(BatchOperation operation, Collection<String> downloadTaskIds);
+
+    /**
+     * Applies operation to all download tasks, that have given status now.
+     * 
+     * @param operation
+     *            applied operation
+     * @param status
+     *            status of selected tasks, {@code null} selects all tasks
+     * @return aggregated result of the operation
+     */
+    public BatchResult apply(BatchOperation operation, Status status);
+
+    /**
+     * Returns page of download tasks with given status, in the order they were added.
+     * 
+     * @param status
+     *            status of returned tasks, {@code null} returns tasks of any status
+     * @param offset
+     *            number of tasks to skip
+     * @param limit
+     *            maximal number of returned tasks
+     * @return download tasks of the page
+     */
+    public List<DownloadTask> list(Status status, int offset, int limit);
+
+    /**
+     * Returns page of identifiers of download tasks with given status, in the order they were added.
+     * 
+     * @param status
+     *            status of selected tasks, {@code null} selects tasks of any status
+     * @param offset
+     *            number of tasks to skip
+     * @param limit
+     *            maximal number of returned identifiers
+     * @return identifiers of the page
+     */
+    public List<String> listIds(Status status, int offset, int limit);
+
+    /**
+     * Returns number of download tasks with given status, without iterating over them.
+     * 
+     * @param status
+     *            status of counted tasks, {@code null} counts all tasks
+     * @return number of download tasks
+     */
+    public long count(Status status);
+
     /**
      * Pauses download task by given identifier.
      * 
@@ -59,13 +193,95 @@ public interface DownloadManager {
     public void resume(String downloadTaskId);
 
     /**
-     * Sets pool size for internal thread pool.
+     * Sets pool size for internal thread pool. When download tasks are run in virtual threads, sets the number of tasks
+     * that can be downloaded at the same time.
      * 
      * @param poolSize
-     *            number of pooled threads
+     *            number of pooled threads, or concurrency limit of virtual threads
      */
     public void setPoolSize(int poolSize);
 
+    /**
+     * Limits bandwidth of all download tasks together, could be changed while tasks are downloading.
+     * 
+     * @param bytesPerSecond
+     *            limit in bytes per second, {@code 0} means no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond);
+
+    /**
+     * Limits bandwidth of all download tasks that download from given host, could be changed while tasks are
+     * downloading.
+     * 
+     * @param host
+     *            host name, {@code "*"} sets limit of every host that has no limit of its own
+     * @param bytesPerSecond
+     *            limit in bytes per second, {@code 0} means no limit
+     */
+    public void setHostBandwidthLimit(String host, long bytesPerSecond);
+
+    /**
+     * Limits bandwidth of download task by given identifier, could be changed while the task is downloading.
+     * 
+     * @param downloadTaskId
+     *            download task identifier
+     * @param bytesPerSecond
+     *            limit in bytes per second, {@code 0} means no limit
+     */
+    public void setTaskBandwidthLimit(String downloadTaskId, long bytesPerSecond);
+
+    /**
+     * Sets how many connections download tasks may open to one host at the same time, the rest of work for the host
+     * waits in its queue, while queues of other hosts are served in turn. Throttled downloads, that keep their
+     * connection open, count too. Until it is set, the limit follows the pool size.
+     * 
+     * @param maxConnectionsPerHost
+     *            maximal number of connections to one host
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost);
+
+    /**
+     * Returns queue depth and number of running downloads per host.
+     * 
+     * @return list of statistics, one per host
+     */
+    public List<HostQueueStatistics> getHostQueueStatistics();
+
+    /**
+     * Returns counters of keep-alive connections shared by download tasks: reuse rate, number and average time of
+     * handshakes.
+     * 
+     * @return snapshot of connection pool statistics
+     */
+    public ConnectionPoolStatistics getConnectionPoolStatistics();
+
+    /**
+     * Returns metrics of the manager: download rates, latencies, pool usage, tasks per status and errors by cause.
+     * 
+     * @return metrics in Prometheus text exposition format
+     */
+    public String getMetrics();
+
+    /**
+     * Sets how often progress of downloading tasks is stored in their temporary files, so after a crash they continue
+     * from the last checkpoint instead of the beginning.
+     * 
+     * @param intervalMillis
+     *            milliseconds between periodic checkpoints
+     * @param bytesThreshold
+     *            number of downloaded bytes after which a task is checkpointed before the interval ends, {@code 0}
+     *            means only periodic checkpoints
+     */
+    public void setCheckpointPolicy(long intervalMillis, long bytesThreshold);
+
+    /**
+     * Sets the way newly added download tasks move bytes from connection to target file.
+     * 
+     * @param transferMode
+     *            transfer mode {@link TransferMode}
+     */
+    public void setTransferMode(TransferMode transferMode);
+
     /**
      * Shutdowns current instance of {@link DownloadManager}.
      */
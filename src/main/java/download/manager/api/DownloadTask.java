@@ -1,6 +1,6 @@
 package download.manager.api;
 
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executor;
 
 import download.manager.impl.Status;
 
@@ -34,12 +34,13 @@ public interface DownloadTask {
     public String getUrl();
 
     /**
-     * Starts loading specified resource with the help of provided thread pool.
+     * Starts loading specified resource with the help of provided executor, either a pool of platform threads or an
+     * executor of virtual threads.
      * 
-     * @param threadPool
-     *            thread pool
+     * @param executor
+     *            executor that runs the task
      */
-    public void download(ThreadPoolExecutor threadPool);
+    public void download(Executor executor);
 
     /**
      * Pauses current download task.
@@ -89,6 +90,13 @@ public interface DownloadTask {
 
     public String getProgress();
 
+    /**
+     * Returns number of connections this task was asked to split its resource into.
+     * 
+     * @return number of segments
+     */
+    public int getSegmentsCount();
+
     public String getFileName();
 
 }
@@ -0,0 +1,95 @@
+package download.manager.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Checksums, that a downloaded resource should match: digest of the whole resource and digests of its chunks of fixed
+ * size, either may be missing. A chunk, that does not match its digest, is downloaded again, while a mismatch of the
+ * whole resource can not be located and fails the download.
+ */
+public class ExpectedChecksum {
+
+    private final ChecksumAlgorithm algorithm;
+    private final String digest;
+    private final long chunkSize;
+    private final List<String> chunkDigests;
+
+    /**
+     * @param algorithm
+     *            algorithm of all digests
+     * @param digest
+     *            digest of the whole resource, may be {@code null} if chunk digests are given
+     * @param chunkSize
+     *            size of every chunk but the last one, ignored without chunk digests
+     * @param chunkDigests
+     *            digests of chunks from the beginning of the resource, may be {@code null}
+     */
+    public ExpectedChecksum(ChecksumAlgorithm algorithm, String digest, long chunkSize, List<String> chunkDigests) {
+	Validate.notNull(algorithm, "Passed checksum algorithm can not be null!");
+	Validate.isTrue((digest != null) || (chunkDigests != null), "Either digest or chunk digests should be passed!");
+	Validate.isTrue((chunkDigests == null) || (chunkSize > 0), "Chunk size should be positive, but was: %d",
+		chunkSize);
+	this.algorithm = algorithm;
+	this.digest = normalize(digest);
+	this.chunkSize = (chunkDigests == null) ? 0 : chunkSize;
+	if (chunkDigests == null) {
+	    this.chunkDigests = null;
+	}
+	else {
+	    List<String> normalizedChunkDigests = new ArrayList<>(chunkDigests.size());
+	    for (String chunkDigest : chunkDigests) {
+		normalizedChunkDigests.add(normalize(chunkDigest));
+	    }
+	    this.chunkDigests = Collections.unmodifiableList(normalizedChunkDigests);
+	}
+    }
+
+    /**
+     * Returns checksum of the whole resource only.
+     */
+    public static ExpectedChecksum of(ChecksumAlgorithm algorithm, String digest) {
+	Validate.notBlank(digest, "Passed digest must be not null and not empty!");
+	return new ExpectedChecksum(algorithm, digest, 0, null);
+    }
+
+    private static String normalize(String digest) {
+	return (digest == null) ? null : digest.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    public ChecksumAlgorithm getAlgorithm() {
+	return algorithm;
+    }
+
+    /**
+     * Returns digest of the whole resource, {@code null} if only chunks are verified.
+     */
+    public String getDigest() {
+	return digest;
+    }
+
+    /**
+     * Returns size of chunks, {@code 0} if there are no chunk digests.
+     */
+    public long getChunkSize() {
+	return chunkSize;
+    }
+
+    /**
+     * Returns digests of chunks, {@code null} if only the whole resource is verified.
+     */
+    public List<String> getChunkDigests() {
+	return chunkDigests;
+    }
+
+    @Override
+    public String toString() {
+	return algorithm + ((digest == null) ? "" : (" " + digest))
+		+ ((chunkDigests == null) ? "" : (" [" + chunkDigests.size() + " chunks of " + chunkSize + " bytes]"));
+    }
+
+}
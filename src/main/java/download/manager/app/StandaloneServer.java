@@ -6,8 +6,14 @@ import org.eclipse.jetty.servlet.ServletHolder;
 
 import com.sun.jersey.spi.container.servlet.ServletContainer;
 
+import download.manager.controller.DownloadManagerController;
+import download.manager.controller.ProgressStream;
+import download.manager.controller.ProgressStreamServlet;
+
 public class StandaloneServer {
 
+    public static final String STREAM_INTERVAL_PROPERTY = "download.manager.stream.interval";
+
     public static void main(String[] args) throws Exception {
 	ServletHolder sh = new ServletHolder(ServletContainer.class);
 	sh.setInitParameter("com.sun.jersey.config.property.resourceConfigClass",
@@ -17,6 +23,11 @@ public class StandaloneServer {
 	Server server = new Server(8080);
 	ServletContextHandler sch = new ServletContextHandler(server, "/");
 	sch.addServlet(sh, "/*");
+	ProgressStream progressStream = new ProgressStream(DownloadManagerController.getDownloadManager(), Long.getLong(
+		STREAM_INTERVAL_PROPERTY, ProgressStream.DEFAULT_INTERVAL_MILLIS));
+	ServletHolder streamHolder = new ServletHolder(new ProgressStreamServlet(progressStream));
+	streamHolder.setAsyncSupported(true);
+	sch.addServlet(streamHolder, "/dm/events");
 	server.start();
 	server.join();
     }
@@ -0,0 +1,54 @@
+package download.manager.cache;
+
+/**
+ * Cached copy of a resource: name of its file in the cache directory, its length and validators, the resource is
+ * revalidated with.
+ */
+public class CacheEntry {
+
+    private final String url;
+    private final String fileName;
+    private final long length;
+    private final String entityTag;
+    private final String lastModified;
+
+    public CacheEntry(String url, String fileName, long length, String entityTag, String lastModified) {
+	this.url = url;
+	this.fileName = fileName;
+	this.length = length;
+	this.entityTag = entityTag;
+	this.lastModified = lastModified;
+    }
+
+    public String getUrl() {
+	return url;
+    }
+
+    public String getFileName() {
+	return fileName;
+    }
+
+    public long getLength() {
+	return length;
+    }
+
+    /**
+     * Returns {@code ETag} of the cached resource, {@code null} if the server sent none.
+     */
+    public String getEntityTag() {
+	return entityTag;
+    }
+
+    /**
+     * Returns {@code Last-Modified} of the cached resource, {@code null} if the server sent none.
+     */
+    public String getLastModified() {
+	return lastModified;
+    }
+
+    @Override
+    public String toString() {
+	return url + " [" + length + " bytes, " + fileName + "]";
+    }
+
+}
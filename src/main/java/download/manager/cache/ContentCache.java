@@ -0,0 +1,401 @@
+package download.manager.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of downloaded resources, keyed by URL. Every entry keeps validators of its resource, so a download of
+ * a cached URL asks the server with {@code If-None-Match} or {@code If-Modified-Since} and, on {@code 304 Not Modified},
+ * copies the cached file instead of transferring the body. Files are copied with {@link FileChannel#transferTo}, in
+ * the kernel, not linked, since target files are written in place by later downloads and would change the cached copy.
+ * <p>
+ * Cached files take at most the byte budget of the cache, least recently used entries are evicted first. The index of
+ * entries, in their usage order, is kept in memory and replaced atomically in {@code index.dat}, so the cache survives
+ * restarts. Stored and removed entries are written right away, while the usage order changed by lookups is written
+ * every {@link #INDEX_FLUSH_INTERVAL_MILLIS} and on {@link #shutdown()}, so a hit never waits for the disk.
+ */
+public class ContentCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentCache.class);
+
+    public static final String INDEX_FILE_NAME = "index.dat";
+    public static final long DEFAULT_BUDGET_BYTES = 1024L * 1024 * 1024;
+    public static final long INDEX_FLUSH_INTERVAL_MILLIS = 10000;
+    private static final int INDEX_MAGIC = 0x444D4349;
+    private static final String NEW_FILE_SUFFIX = ".new";
+    private static final String CACHED_FILE_SUFFIX = ".bin";
+
+    private final File directory;
+    private final File indexFile;
+    private final long budgetBytes;
+    // iterates from the least recently used entry, guarded by this
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    // incremented by every change of entries or their usage order, guarded by this
+    private long version;
+    // serializes writers of the index, so an older snapshot never replaces a newer one
+    private final Object indexLock = new Object();
+    // guarded by indexLock
+    private long writtenVersion;
+    private final ScheduledExecutorService indexWriter;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Opens cache in given directory and reads its index. Entries, whose files are missing or were changed, are
+     * dropped, files, that no entry refers to, are deleted.
+     *
+     * @param directory
+     *            directory of cached files and their index, created if missing
+     * @param budgetBytes
+     *            maximum total length of cached files
+     * @throws IOException
+     *             if the directory could not be created or the index could not be read
+     */
+    public ContentCache(File directory, long budgetBytes) throws IOException {
+	Validate.notNull(directory, "Passed directory can not be null!");
+	Validate.isTrue(budgetBytes > 0, "Cache budget should be positive, but was: %d", budgetBytes);
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Could not create cache directory " + directory);
+	}
+	this.directory = directory;
+	this.budgetBytes = budgetBytes;
+	indexFile = new File(directory, INDEX_FILE_NAME);
+	readIndex();
+	deleteUnknownFiles();
+	synchronized (this) {
+	    evict();
+	}
+	LOGGER.info("Content cache in directory: '{}' holds '{}' resources of '{}' bytes.", new Object[] { directory,
+		entries.size(), sizeBytes });
+	indexWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "download-cache-index");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	indexWriter.scheduleWithFixedDelay(new Runnable() {
+
+	    @Override
+	    public void run() {
+		flush();
+	    }
+	}, INDEX_FLUSH_INTERVAL_MILLIS, INDEX_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void readIndex() throws IOException {
+	if (!indexFile.exists()) {
+	    return;
+	}
+	try (DataInputStream input = new DataInputStream(new FileInputStream(indexFile))) {
+	    if (input.readInt() != INDEX_MAGIC) {
+		throw new IOException("Unknown format of cache index " + indexFile);
+	    }
+	    int count = input.readInt();
+	    for (int i = 0; i < count; i++) {
+		String url = input.readUTF();
+		String fileName = input.readUTF();
+		long length = input.readLong();
+		String entityTag = emptyToNull(input.readUTF());
+		String lastModified = emptyToNull(input.readUTF());
+		if (new File(directory, fileName).length() == length) {
+		    entries.put(url, new CacheEntry(url, fileName, length, entityTag, lastModified));
+		    sizeBytes += length;
+		}
+		else {
+		    LOGGER.warn("Cached file of resource: '{}' was changed or deleted, it will be dropped.", url);
+		}
+	    }
+	}
+    }
+
+    private void deleteUnknownFiles() {
+	List<String> knownFiles = new ArrayList<>(entries.size() + 1);
+	knownFiles.add(INDEX_FILE_NAME);
+	for (CacheEntry entry : entries.values()) {
+	    knownFiles.add(entry.getFileName());
+	}
+	File[] files = directory.listFiles();
+	if (files == null) {
+	    return;
+	}
+	for (File file : files) {
+	    if (!knownFiles.contains(file.getName()) && !file.delete()) {
+		LOGGER.warn("Unknown file: '{}' in cache directory was not deleted.", file);
+	    }
+	}
+    }
+
+    /**
+     * Returns entry of given URL and marks it as recently used, the new usage order is written with the next
+     * {@link #flush()}.
+     *
+     * @return entry or {@code null} if the URL is not cached, that counts as a miss
+     */
+    public synchronized CacheEntry lookup(String url) {
+	CacheEntry entry = entries.get(url);
+	if (entry == null) {
+	    misses.incrementAndGet();
+	}
+	else {
+	    version++;
+	}
+	return entry;
+    }
+
+    /**
+     * Called when server returned the resource, although it was asked with validators of given entry, so the cached
+     * copy is outdated. It stays in the cache until the new version is stored.
+     */
+    public void stale(CacheEntry entry) {
+	LOGGER.info("Cached resource: '{}' was changed on server.", entry.getUrl());
+	misses.incrementAndGet();
+    }
+
+    /**
+     * Copies cached file of given entry to given file, after server confirmed it was not modified.
+     *
+     * @return {@code true} if the file was copied, {@code false} if the entry was evicted meanwhile or could not be
+     *         read, then the resource should be downloaded
+     */
+    public boolean restore(CacheEntry entry, File target) {
+	try {
+	    copy(new File(directory, entry.getFileName()), target);
+	}
+	catch (IOException e) {
+	    LOGGER.warn("Cached file of resource: '{}' could not be copied: {}", entry.getUrl(), e.getMessage());
+	    remove(entry);
+	    misses.incrementAndGet();
+	    return false;
+	}
+	hits.incrementAndGet();
+	savedBytes.addAndGet(entry.getLength());
+	LOGGER.info("Resource: '{}' was not modified, it was copied from cache to: '{}'.", entry.getUrl(), target);
+	return true;
+    }
+
+    /**
+     * Puts copy of given downloaded file into the cache, replacing previous version of the resource. Resources without
+     * validators can not be revalidated, so they are not cached, nor are resources larger than the whole budget.
+     */
+    public void store(String url, String entityTag, String lastModified, File file) {
+	if (((entityTag == null) && (lastModified == null)) || (file.length() > budgetBytes)) {
+	    return;
+	}
+	String fileName = UUID.randomUUID().toString() + CACHED_FILE_SUFFIX;
+	File cachedFile = new File(directory, fileName);
+	File newFile = new File(directory, fileName + NEW_FILE_SUFFIX);
+	try {
+	    copy(file, newFile);
+	    Files.move(newFile.toPath(), cachedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+	catch (IOException e) {
+	    LOGGER.warn("Resource: '{}' could not be cached: {}", url, e.getMessage());
+	    newFile.delete();
+	    return;
+	}
+	CacheEntry entry = new CacheEntry(url, fileName, cachedFile.length(), entityTag, lastModified);
+	synchronized (this) {
+	    CacheEntry previousEntry = entries.put(url, entry);
+	    sizeBytes += entry.getLength();
+	    if (previousEntry != null) {
+		deleteEntryFile(previousEntry);
+	    }
+	    evict();
+	    version++;
+	}
+	flush();
+	LOGGER.info("Resource: '{}' was cached in: '{}'.", url, cachedFile);
+    }
+
+    private void remove(CacheEntry entry) {
+	synchronized (this) {
+	    if (entries.get(entry.getUrl()) != entry) {
+		return;
+	    }
+	    entries.remove(entry.getUrl());
+	    deleteEntryFile(entry);
+	    version++;
+	}
+	flush();
+    }
+
+    /**
+     * Evicts least recently used entries, until cached files fit into the budget. Should be called while holding the
+     * lock of the cache.
+     */
+    private void evict() {
+	Iterator<CacheEntry> iterator = entries.values().iterator();
+	while ((sizeBytes > budgetBytes) && iterator.hasNext()) {
+	    CacheEntry entry = iterator.next();
+	    iterator.remove();
+	    deleteEntryFile(entry);
+	    evictions.incrementAndGet();
+	    LOGGER.info("Cached resource: '{}' was evicted.", entry.getUrl());
+	}
+    }
+
+    /**
+     * Deletes file of an entry, that was removed from the index. A copy, that reads the file at the same time, either
+     * completes or fails and downloads the resource. Should be called while holding the lock of the cache.
+     */
+    private void deleteEntryFile(CacheEntry entry) {
+	sizeBytes -= entry.getLength();
+	File file = new File(directory, entry.getFileName());
+	if (!file.delete()) {
+	    LOGGER.warn("Cached file: '{}' was not deleted.", file);
+	}
+    }
+
+    /**
+     * Replaces the index with entries from the least recently used one, if they or their usage order changed since the
+     * index was written. The index is written without holding the lock of the cache, lookups do not wait for it.
+     */
+    public void flush() {
+	List<CacheEntry> snapshot;
+	long snapshotVersion;
+	synchronized (this) {
+	    snapshot = new ArrayList<>(entries.values());
+	    snapshotVersion = version;
+	}
+	synchronized (indexLock) {
+	    if ((snapshotVersion > writtenVersion) && writeIndexQuietly(snapshot)) {
+		writtenVersion = snapshotVersion;
+	    }
+	}
+    }
+
+    /**
+     * Stops writing the index periodically and writes the usage order changed since the last write.
+     */
+    public void shutdown() {
+	indexWriter.shutdownNow();
+	flush();
+    }
+
+    /**
+     * Replaces the index with given entries. Should be called while holding the lock of the index.
+     *
+     * @return {@code true} if the index was written
+     */
+    private boolean writeIndexQuietly(List<CacheEntry> snapshot) {
+	File newFile = new File(indexFile.getPath() + NEW_FILE_SUFFIX);
+	try {
+	    try (FileOutputStream fileOutputStream = new FileOutputStream(newFile);
+		    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+		output.writeInt(INDEX_MAGIC);
+		output.writeInt(snapshot.size());
+		for (CacheEntry entry : snapshot) {
+		    output.writeUTF(entry.getUrl());
+		    output.writeUTF(entry.getFileName());
+		    output.writeLong(entry.getLength());
+		    output.writeUTF((entry.getEntityTag() == null) ? "" : entry.getEntityTag());
+		    output.writeUTF((entry.getLastModified() == null) ? "" : entry.getLastModified());
+		}
+		output.flush();
+		fileOutputStream.getFD().sync();
+	    }
+	    Files.move(newFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		    StandardCopyOption.ATOMIC_MOVE);
+	    return true;
+	}
+	catch (IOException e) {
+	    LOGGER.error("Cache index: '{}' could not be written: {}", indexFile, e.getMessage());
+	    return false;
+	}
+    }
+
+    /**
+     * Copies given file with {@link FileChannel#transferTo}, the kernel moves the bytes without copying them to user
+     * space. The copy is forced to disk.
+     */
+    private static void copy(File source, File target) throws IOException {
+	try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		FileChannel targetChannel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+	    long length = sourceChannel.size();
+	    long position = 0;
+	    while (position < length) {
+		position += sourceChannel.transferTo(position, length - position, targetChannel);
+	    }
+	    targetChannel.force(false);
+	}
+    }
+
+    private static String emptyToNull(String value) {
+	return value.isEmpty() ? null : value;
+    }
+
+    public long getBudgetBytes() {
+	return budgetBytes;
+    }
+
+    public synchronized long getSizeBytes() {
+	return sizeBytes;
+    }
+
+    public synchronized int getEntriesCount() {
+	return entries.size();
+    }
+
+    /**
+     * Returns entries from the least recently used one.
+     */
+    public synchronized List<CacheEntry> getEntries() {
+	return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Returns number of downloads, that were served from the cache.
+     */
+    public long getHits() {
+	return hits.get();
+    }
+
+    /**
+     * Returns number of downloads of resources, that were not cached, were changed or could not be copied.
+     */
+    public long getMisses() {
+	return misses.get();
+    }
+
+    /**
+     * Returns number of bytes, that were copied from the cache instead of being downloaded.
+     */
+    public long getSavedBytes() {
+	return savedBytes.get();
+    }
+
+    public long getEvictions() {
+	return evictions.get();
+    }
+
+}
@@ -0,0 +1,38 @@
+package download.manager.controller;
+
+public class BandwidthLimitResponse {
+    private String scope;
+    private String target;
+    private long bytesPerSecond;
+
+    public BandwidthLimitResponse(String scope, String target, long bytesPerSecond) {
+	this.scope = scope;
+	this.target = target;
+	this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public String getScope() {
+	return scope;
+    }
+
+    public void setScope(String scope) {
+	this.scope = scope;
+    }
+
+    public String getTarget() {
+	return target;
+    }
+
+    public void setTarget(String target) {
+	this.target = target;
+    }
+
+    public long getBytesPerSecond() {
+	return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+	this.bytesPerSecond = bytesPerSecond;
+    }
+
+}
@@ -0,0 +1,56 @@
+package download.manager.controller;
+
+import java.util.List;
+
+/**
+ * Selects download tasks of a batch operation, either by identifiers or by their current status. Status of a batch
+ * returns only a page of the selected identifiers, given by offset and limit.
+ */
+public class BatchRequest {
+
+    private List<String> ids;
+    private String status;
+    private int offset;
+    private int limit = 100;
+
+    public BatchRequest() {
+    }
+
+    public List<String> getIds() {
+	return ids;
+    }
+
+    public void setIds(List<String> ids) {
+	this.ids = ids;
+    }
+
+    public String getStatus() {
+	return status;
+    }
+
+    public void setStatus(String status) {
+	this.status = status;
+    }
+
+    public int getOffset() {
+	return offset;
+    }
+
+    public void setOffset(int offset) {
+	this.offset = offset;
+    }
+
+    public int getLimit() {
+	return limit;
+    }
+
+    public void setLimit(int limit) {
+	this.limit = limit;
+    }
+
+    @Override
+    public String toString() {
+	return (ids == null) ? ("status=" + status) : ("ids=" + ids.size());
+    }
+
+}
@@ -0,0 +1,44 @@
+package download.manager.controller;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Status of a batch: number of selected tasks per status and a page of their identifiers.
+ */
+public class BatchStatusResponse {
+    private Map<String, Long> byStatus;
+    private List<String> ids;
+    private List<String> notFound;
+
+    public BatchStatusResponse(Map<String, Long> byStatus, List<String> ids, List<String> notFound) {
+	this.byStatus = byStatus;
+	this.ids = ids;
+	this.notFound = notFound;
+    }
+
+    public Map<String, Long> getByStatus() {
+	return byStatus;
+    }
+
+    public void setByStatus(Map<String, Long> byStatus) {
+	this.byStatus = byStatus;
+    }
+
+    public List<String> getIds() {
+	return ids;
+    }
+
+    public void setIds(List<String> ids) {
+	this.ids = ids;
+    }
+
+    public List<String> getNotFound() {
+	return notFound;
+    }
+
+    public void setNotFound(List<String> notFound) {
+	this.notFound = notFound;
+    }
+
+}
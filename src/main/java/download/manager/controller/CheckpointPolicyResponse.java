@@ -0,0 +1,28 @@
+package download.manager.controller;
+
+public class CheckpointPolicyResponse {
+    private long intervalMillis;
+    private long bytesThreshold;
+
+    public CheckpointPolicyResponse(long intervalMillis, long bytesThreshold) {
+	this.intervalMillis = intervalMillis;
+	this.bytesThreshold = bytesThreshold;
+    }
+
+    public long getIntervalMillis() {
+	return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+	this.intervalMillis = intervalMillis;
+    }
+
+    public long getBytesThreshold() {
+	return bytesThreshold;
+    }
+
+    public void setBytesThreshold(long bytesThreshold) {
+	this.bytesThreshold = bytesThreshold;
+    }
+
+}
@@ -1,13 +1,20 @@
 package download.manager.controller;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
@@ -17,21 +24,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import download.manager.api.DownloadManager;
+import download.manager.api.DownloadTask;
+import download.manager.eventloop.EventLoopDownloadManager;
+import download.manager.impl.BatchOperation;
 import download.manager.impl.DownloadManagerImpl;
+import download.manager.impl.Status;
+import download.manager.metrics.PrometheusWriter;
 
 @Path("/dm")
 public class DownloadManagerController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadManagerController.class);
 
-    private final DownloadManager DOWNLOAD_MANAGER = DownloadManagerImpl.getInstance();
+    public static final String ENGINE_PROPERTY = "download.manager.engine";
+    public static final String EVENT_LOOP_ENGINE = "eventloop";
+
+    private final DownloadManager DOWNLOAD_MANAGER = getDownloadManager();
+
+    /**
+     * Returns manager of the engine chosen by {@link #ENGINE_PROPERTY}, it is shared by all resources of the server.
+     */
+    public static DownloadManager getDownloadManager() {
+	return EVENT_LOOP_ENGINE.equals(System.getProperty(ENGINE_PROPERTY)) ? EventLoopDownloadManager.getInstance()
+		: DownloadManagerImpl.getInstance();
+    }
 
     @GET
     @Path("/add")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response addDownloadTask(@QueryParam("url") String url, @QueryParam("filename") String fileName) {
+    public Response addDownloadTask(@QueryParam("url") String url, @QueryParam("filename") String fileName,
+	    @QueryParam("segments") @DefaultValue("1") int segmentsCount) {
 	LOGGER.info("Passed URL: '{}', passed file name: '{}'.", url, fileName);
-	String id = DOWNLOAD_MANAGER.add(url, fileName);
+	String id = DOWNLOAD_MANAGER.add(url, fileName, segmentsCount);
 	DownloadResponse downloadResponse = new DownloadResponse(DOWNLOAD_MANAGER.get(id));
 	return Response.status(200).entity(downloadResponse).build();
     }
@@ -69,9 +93,10 @@ public class DownloadManagerController {
     @GET
     @Path("/addload")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response addAndDownload(@QueryParam("url") String url, @QueryParam("filename") String fileName) {
+    public Response addAndDownload(@QueryParam("url") String url, @QueryParam("filename") String fileName,
+	    @QueryParam("segments") @DefaultValue("1") int segmentsCount) {
 	LOGGER.info("Passed URL: '{}', passed file name: '{}'.", url, fileName);
-	String id = DOWNLOAD_MANAGER.addAndDownload(url, fileName);
+	String id = DOWNLOAD_MANAGER.addAndDownload(url, fileName, segmentsCount);
 	DownloadResponse downloadResponse = new DownloadResponse(DOWNLOAD_MANAGER.get(id));
 	return Response.status(200).entity(downloadResponse).build();
     }
@@ -95,6 +120,101 @@ public class DownloadManagerController {
 	return Response.status(200).entity(downloadResponse).build();
     }
 
+    @GET
+    @Path("/list")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listDownloadTasks(@QueryParam("status") String status,
+	    @QueryParam("offset") @DefaultValue("0") int offset, @QueryParam("limit") @DefaultValue("100") int limit) {
+	LOGGER.info("Download tasks with status: '{}', from: '{}', limited to: '{}', will be returned.", new Object[] {
+		status, offset, limit });
+	Status parsedStatus = Status.parse(status);
+	if ((status != null) && (parsedStatus == null)) {
+	    return Response.status(400).entity("Unknown status: " + status).build();
+	}
+	List<DownloadTask> downloadTasks = DOWNLOAD_MANAGER.list(parsedStatus, offset, limit);
+	List<DownloadResponse> downloadResponses = new ArrayList<>(downloadTasks.size());
+	for (DownloadTask downloadTask : downloadTasks) {
+	    downloadResponses.add(new DownloadResponse(downloadTask));
+	}
+	return Response.status(200).entity(downloadResponses).build();
+    }
+
+    @GET
+    @Path("/count")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response countDownloadTasks() {
+	LOGGER.info("Number of download tasks by status will be returned.");
+	Map<String, Long> byStatus = new LinkedHashMap<>();
+	for (Status status : Status.values()) {
+	    byStatus.put(status.name(), DOWNLOAD_MANAGER.count(status));
+	}
+	return Response.status(200).entity(new TaskCountResponse(DOWNLOAD_MANAGER.count(null), byStatus)).build();
+    }
+
+    @POST
+    @Path("/batch/status")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response statusOfDownloadTasks(BatchRequest batchRequest) {
+	LOGGER.info("Status of download tasks selected by: '{}', will be returned.", batchRequest);
+	int offset = batchRequest.getOffset();
+	int limit = batchRequest.getLimit();
+	if ((offset < 0) || (limit <= 0)) {
+	    return Response.status(400).entity("Offset can not be negative and limit should be positive").build();
+	}
+	Map<String, Long> byStatus = new LinkedHashMap<>();
+	List<String> ids;
+	List<String> notFound = new ArrayList<>();
+	if (batchRequest.getIds() != null) {
+	    List<DownloadTask> downloadTasks = DOWNLOAD_MANAGER.get(batchRequest.getIds());
+	    Set<String> foundIds = new LinkedHashSet<>();
+	    for (DownloadTask downloadTask : downloadTasks) {
+		foundIds.add(downloadTask.getId());
+		String statusName = downloadTask.getStatus().name();
+		Long count = byStatus.get(statusName);
+		byStatus.put(statusName, (count == null) ? 1 : (count + 1));
+	    }
+	    for (String id : batchRequest.getIds()) {
+		if (!foundIds.contains(id)) {
+		    notFound.add(id);
+		}
+	    }
+	    List<String> allIds = new ArrayList<>(foundIds);
+	    int toIndex = (int) Math.min((long) offset + limit, allIds.size());
+	    ids = (offset < toIndex) ? allIds.subList(offset, toIndex) : Collections.<String> emptyList();
+	}
+	else {
+	    Status status = Status.parse(batchRequest.getStatus());
+	    if (status == null) {
+		return Response.status(400).entity("Either ids or a known status should be passed").build();
+	    }
+	    // counted and paged by the index of the status, without looking at the tasks
+	    byStatus.put(status.name(), DOWNLOAD_MANAGER.count(status));
+	    ids = DOWNLOAD_MANAGER.listIds(status, offset, limit);
+	}
+	return Response.status(200).entity(new BatchStatusResponse(byStatus, ids, notFound)).build();
+    }
+
+    @POST
+    @Path("/batch/{operation}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response applyToDownloadTasks(@PathParam("operation") String operation, BatchRequest batchRequest) {
+	LOGGER.info("Operation: '{}' will be applied to download tasks selected by: '{}'.", operation, batchRequest);
+	BatchOperation batchOperation = BatchOperation.parse(operation);
+	if (batchOperation == null) {
+	    return Response.status(400).entity("Unknown operation: " + operation).build();
+	}
+	if (batchRequest.getIds() != null) {
+	    return Response.status(200).entity(DOWNLOAD_MANAGER.apply(batchOperation, batchRequest.getIds())).build();
+	}
+	Status status = Status.parse(batchRequest.getStatus());
+	if (status == null) {
+	    return Response.status(400).entity("Either ids or a known status should be passed").build();
+	}
+	return Response.status(200).entity(DOWNLOAD_MANAGER.apply(batchOperation, status)).build();
+    }
+
     @GET
     @Path("/cancel")
     @Produces(MediaType.APPLICATION_JSON)
@@ -124,4 +244,75 @@ public class DownloadManagerController {
 	DownloadResponse downloadResponse = new DownloadResponse(DOWNLOAD_MANAGER.get(id));
 	return Response.status(200).entity(downloadResponse).build();
     }
+
+    @GET
+    @Path("/hosts")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response hostQueues() {
+	LOGGER.info("Statistics of host queues will be returned.");
+	return Response.status(200).entity(DOWNLOAD_MANAGER.getHostQueueStatistics()).build();
+    }
+
+    @GET
+    @Path("/hosts/connections")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response limitConnectionsPerHost(@QueryParam("max") int maxConnectionsPerHost) {
+	LOGGER.info("Maximal number of connections per host will be changed to: '{}'.", maxConnectionsPerHost);
+	DOWNLOAD_MANAGER.setMaxConnectionsPerHost(maxConnectionsPerHost);
+	return Response.status(200).entity(DOWNLOAD_MANAGER.getHostQueueStatistics()).build();
+    }
+
+    @GET
+    @Path("/connections")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response connectionPool() {
+	LOGGER.info("Statistics of connection pool will be returned.");
+	return Response.status(200).entity(DOWNLOAD_MANAGER.getConnectionPoolStatistics()).build();
+    }
+
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response metrics() {
+	return Response.status(200).type(PrometheusWriter.CONTENT_TYPE).entity(DOWNLOAD_MANAGER.getMetrics()).build();
+    }
+
+    @GET
+    @Path("/limit")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response limitBandwidth(@QueryParam("rate") long bytesPerSecond) {
+	LOGGER.info("Bandwidth of all download tasks will be limited to: '{}' bytes per second.", bytesPerSecond);
+	DOWNLOAD_MANAGER.setBandwidthLimit(bytesPerSecond);
+	return Response.status(200).entity(new BandwidthLimitResponse("global", null, bytesPerSecond)).build();
+    }
+
+    @GET
+    @Path("/limit/host")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response limitHostBandwidth(@QueryParam("host") String host, @QueryParam("rate") long bytesPerSecond) {
+	LOGGER.info("Bandwidth of host: '{}' will be limited to: '{}' bytes per second.", host, bytesPerSecond);
+	DOWNLOAD_MANAGER.setHostBandwidthLimit(host, bytesPerSecond);
+	return Response.status(200).entity(new BandwidthLimitResponse("host", host, bytesPerSecond)).build();
+    }
+
+    @GET
+    @Path("/limit/task")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response limitTaskBandwidth(@QueryParam("id") String id, @QueryParam("rate") long bytesPerSecond) {
+	LOGGER.info("Bandwidth of download task with given ID: '{}' will be limited to: '{}' bytes per second.", id,
+		bytesPerSecond);
+	DOWNLOAD_MANAGER.setTaskBandwidthLimit(id, bytesPerSecond);
+	return Response.status(200).entity(new BandwidthLimitResponse("task", id, bytesPerSecond)).build();
+    }
+
+    @GET
+    @Path("/checkpoint")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response checkpointPolicy(@QueryParam("interval") long intervalMillis,
+	    @QueryParam("bytes") long bytesThreshold) {
+	LOGGER.info("Progress of download tasks will be checkpointed every '{}' ms, or after '{}' bytes.", intervalMillis,
+		bytesThreshold);
+	DOWNLOAD_MANAGER.setCheckpointPolicy(intervalMillis, bytesThreshold);
+	return Response.status(200).entity(new CheckpointPolicyResponse(intervalMillis, bytesThreshold)).build();
+    }
 }
@@ -0,0 +1,350 @@
+package download.manager.controller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import download.manager.api.DownloadManager;
+import download.manager.api.DownloadTask;
+import download.manager.impl.Status;
+
+/**
+ * Pushes progress of download tasks to subscribers as server-sent events. Once per interval every subscription gets a
+ * single event with all of its tasks, whose status or progress changed since the previous event, subscriptions without
+ * changes get nothing but a rare heartbeat comment. A task, that has left the status a subscription follows, is sent
+ * once more with its new status.
+ * <p>
+ * Events are written without blocking, through a {@link WriteListener}. Updates for a subscriber, that does not read
+ * fast enough, wait in its queue, where a newer update of a task replaces the older one, so the queue never holds more
+ * than one update per task. Tasks are listed once per interval for all subscriptions, and only with statuses, whose
+ * tasks could have changed, see {@link #findChangedStatuses()}. All statuses are listed every
+ * {@link #FULL_SCAN_MILLIS}.
+ */
+public class ProgressStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressStream.class);
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 500;
+    public static final long FULL_SCAN_MILLIS = 15000;
+    private static final long HEARTBEAT_MILLIS = 15000;
+    private static final byte[] HEARTBEAT = ": heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EVENT_PREFIX = "event: progress\ndata: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EVENT_SUFFIX = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final DownloadManager downloadManager;
+    private final Set<Subscription> subscriptions = Collections
+	    .newSetFromMap(new ConcurrentHashMap<Subscription, Boolean>());
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService publisher;
+    // touched only by the publisher thread
+    private final Map<Status, Long> counts = new EnumMap<>(Status.class);
+    private long lastFullScanTime;
+
+    /**
+     * Subscriber of the stream, that follows either given tasks or all tasks with given status.
+     */
+    private class Subscription implements WriteListener {
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream outputStream;
+	private final List<String> ids;
+	private final Status status;
+	// touched only by the publisher thread
+	private final Map<String, String> sentStates = new HashMap<>();
+	private boolean scanned;
+	// guarded by this, written by the publisher thread or by the container, once the stream is ready
+	private final Map<String, ProgressUpdate> pendingUpdates = new LinkedHashMap<>();
+	private boolean pendingHeartbeat;
+	private boolean pendingFlush;
+	private long lastWriteTime = System.currentTimeMillis();
+
+	private Subscription(AsyncContext asyncContext, ServletOutputStream outputStream, List<String> ids,
+		Status status) {
+	    this.asyncContext = asyncContext;
+	    this.outputStream = outputStream;
+	    this.ids = ids;
+	    this.status = status;
+	}
+
+	/**
+	 * Queues given updates, replacing queued updates of the same tasks, or a heartbeat, if nothing was written for
+	 * a while.
+	 */
+	private synchronized void offer(List<ProgressUpdate> updates, long now) {
+	    for (ProgressUpdate update : updates) {
+		pendingUpdates.put(update.getId(), update);
+	    }
+	    if (pendingUpdates.isEmpty() && ((now - lastWriteTime) >= HEARTBEAT_MILLIS)) {
+		pendingHeartbeat = true;
+	    }
+	}
+
+	/**
+	 * Writes queued updates as one event, as long as the stream accepts data without blocking. Otherwise the
+	 * container calls it again, once the stream is ready.
+	 */
+	@Override
+	public synchronized void onWritePossible() throws IOException {
+	    while (outputStream.isReady()) {
+		if (!pendingUpdates.isEmpty()) {
+		    byte[] data = objectMapper.writeValueAsBytes(new ArrayList<>(pendingUpdates.values()));
+		    pendingUpdates.clear();
+		    pendingHeartbeat = false;
+		    write(event(data));
+		}
+		else if (pendingHeartbeat) {
+		    pendingHeartbeat = false;
+		    write(HEARTBEAT);
+		}
+		else if (pendingFlush) {
+		    pendingFlush = false;
+		    outputStream.flush();
+		}
+		else {
+		    return;
+		}
+	    }
+	}
+
+	private void write(byte[] bytes) throws IOException {
+	    outputStream.write(bytes);
+	    pendingFlush = true;
+	    lastWriteTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+	    LOGGER.info("Subscriber of progress stream was disconnected: {}", throwable.getMessage());
+	    close();
+	}
+
+	private void close() {
+	    subscriptions.remove(this);
+	    complete(this);
+	}
+    }
+
+    public ProgressStream(DownloadManager downloadManager, long intervalMillis) {
+	Validate.notNull(downloadManager, "Passed download manager can not be null!");
+	Validate.isTrue(intervalMillis > 0, "Interval should be positive, but was: %d", intervalMillis);
+	this.downloadManager = downloadManager;
+	publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "progress-stream");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	publisher.scheduleWithFixedDelay(new Runnable() {
+
+	    @Override
+	    public void run() {
+		publish();
+	    }
+	}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	LOGGER.info("Progress of download tasks will be streamed every '{}' ms.", intervalMillis);
+    }
+
+    /**
+     * Registers subscriber, that gets the current state of its tasks with the next event. Output stream of the
+     * response is switched to non-blocking writes.
+     *
+     * @param asyncContext
+     *            started asynchronous request of the subscriber
+     * @param ids
+     *            identifiers of followed tasks, or {@code null} to follow tasks by status
+     * @param status
+     *            status of followed tasks, {@code null} with no identifiers follows all tasks
+     * @return handle, that is passed to {@link #unsubscribe(Object)}
+     * @throws IOException
+     *             if the output stream of the response could not be obtained
+     */
+    public Object subscribe(AsyncContext asyncContext, List<String> ids, Status status) throws IOException {
+	Subscription subscription = new Subscription(asyncContext, asyncContext.getResponse().getOutputStream(), ids,
+		status);
+	subscriptions.add(subscription);
+	subscription.outputStream.setWriteListener(subscription);
+	LOGGER.info("New subscriber of progress stream, '{}' subscribers in total.", subscriptions.size());
+	return subscription;
+    }
+
+    public void unsubscribe(Object subscription) {
+	subscriptions.remove(subscription);
+    }
+
+    public int getSubscribersCount() {
+	return subscriptions.size();
+    }
+
+    /**
+     * Queues changes of followed tasks for every subscription and writes them to subscribers, whose streams are ready.
+     */
+    void publish() {
+	long now = System.currentTimeMillis();
+	Map<Status, List<DownloadTask>> listedTasks = new EnumMap<>(Status.class);
+	Set<Status> changedStatuses = findChangedStatuses();
+	if ((now - lastFullScanTime) >= FULL_SCAN_MILLIS) {
+	    lastFullScanTime = now;
+	    changedStatuses = EnumSet.allOf(Status.class);
+	}
+	for (Subscription subscription : subscriptions) {
+	    try {
+		subscription.offer(collectUpdates(subscription, changedStatuses, listedTasks), now);
+		subscription.onWritePossible();
+	    }
+	    catch (IOException | IllegalStateException e) {
+		LOGGER.info("Subscriber of progress stream was disconnected: {}", e.getMessage());
+		subscription.close();
+	    }
+	    catch (RuntimeException e) {
+		LOGGER.error("Progress could not be published: {}", e.getMessage());
+	    }
+	}
+    }
+
+    /**
+     * Finds statuses, whose tasks could have changed since the previous interval, from counts of tasks, without
+     * listing them. Downloading tasks change their progress, so they are always listed. Other tasks change only their
+     * status: final statuses are never left, so a new task of them changes their count. Created and paused tasks can be
+     * replaced by another task without changing their count, but the other task changes a count somewhere else.
+     */
+    private Set<Status> findChangedStatuses() {
+	Set<Status> changedStatuses = EnumSet.of(Status.DOWNLOADING);
+	for (Status status : Status.values()) {
+	    Long count = downloadManager.count(status);
+	    if (!count.equals(counts.put(status, count))) {
+		changedStatuses.add(status);
+	    }
+	}
+	if (changedStatuses.size() > 1) {
+	    changedStatuses.add(Status.CREATED);
+	    changedStatuses.add(Status.PAUSED);
+	}
+	return changedStatuses;
+    }
+
+    private List<DownloadTask> list(Status status, Map<Status, List<DownloadTask>> listedTasks) {
+	List<DownloadTask> downloadTasks = listedTasks.get(status);
+	if (downloadTasks == null) {
+	    downloadTasks = downloadManager.list(status, 0, Integer.MAX_VALUE);
+	    listedTasks.put(status, downloadTasks);
+	}
+	return downloadTasks;
+    }
+
+    /**
+     * Compares current state of followed tasks with the state sent last time. A new subscription is compared with all
+     * its tasks, later ones only with tasks of changed statuses.
+     */
+    private List<ProgressUpdate> collectUpdates(Subscription subscription, Set<Status> changedStatuses,
+	    Map<Status, List<DownloadTask>> listedTasks) {
+	List<ProgressUpdate> updates = new ArrayList<>();
+	if (subscription.ids != null) {
+	    for (DownloadTask downloadTask : downloadManager.get(subscription.ids)) {
+		addIfChanged(subscription, downloadTask, updates);
+	    }
+	    return updates;
+	}
+	Set<Status> followedStatuses = (subscription.status == null) ? EnumSet.allOf(Status.class) : EnumSet
+		.of(subscription.status);
+	boolean scanAll = !subscription.scanned || changedStatuses.containsAll(followedStatuses);
+	subscription.scanned = true;
+	Set<String> seenIds = new HashSet<>();
+	for (Status status : followedStatuses) {
+	    if (scanAll || changedStatuses.contains(status)) {
+		for (DownloadTask downloadTask : list(status, listedTasks)) {
+		    seenIds.add(downloadTask.getId());
+		    addIfChanged(subscription, downloadTask, updates);
+		}
+	    }
+	}
+	if (scanAll && (subscription.status != null)) {
+	    addLeftTasks(subscription, seenIds, updates);
+	}
+	else if (scanAll) {
+	    // removed tasks are forgotten
+	    subscription.sentStates.keySet().retainAll(seenIds);
+	}
+	return updates;
+    }
+
+    /**
+     * Sends tasks, that have left followed status, with their new status once and forgets them.
+     */
+    private void addLeftTasks(Subscription subscription, Set<String> seenIds, List<ProgressUpdate> updates) {
+	for (Iterator<String> iterator = subscription.sentStates.keySet().iterator(); iterator.hasNext();) {
+	    String id = iterator.next();
+	    if (!seenIds.contains(id)) {
+		iterator.remove();
+		DownloadTask downloadTask = downloadManager.get(id);
+		if (downloadTask != null) {
+		    updates.add(new ProgressUpdate(id, downloadTask.getStatus(), downloadTask.getProgress()));
+		}
+	    }
+	}
+    }
+
+    private void addIfChanged(Subscription subscription, DownloadTask downloadTask, List<ProgressUpdate> updates) {
+	Status status = downloadTask.getStatus();
+	String progress = downloadTask.getProgress();
+	String state = status.name() + ':' + progress;
+	if (!state.equals(subscription.sentStates.put(downloadTask.getId(), state))) {
+	    updates.add(new ProgressUpdate(downloadTask.getId(), status, progress));
+	}
+    }
+
+    private static byte[] event(byte[] data) {
+	byte[] event = new byte[EVENT_PREFIX.length + data.length + EVENT_SUFFIX.length];
+	System.arraycopy(EVENT_PREFIX, 0, event, 0, EVENT_PREFIX.length);
+	System.arraycopy(data, 0, event, EVENT_PREFIX.length, data.length);
+	System.arraycopy(EVENT_SUFFIX, 0, event, EVENT_PREFIX.length + data.length, EVENT_SUFFIX.length);
+	return event;
+    }
+
+    private void complete(Subscription subscription) {
+	try {
+	    subscription.asyncContext.complete();
+	}
+	catch (IllegalStateException e) {
+	    LOGGER.debug("Request of subscriber was already completed.");
+	}
+    }
+
+    /**
+     * Stops publishing and closes streams of all subscribers.
+     */
+    public void shutdown() {
+	publisher.shutdownNow();
+	for (Subscription subscription : subscriptions) {
+	    complete(subscription);
+	}
+	subscriptions.clear();
+    }
+
+}
@@ -0,0 +1,90 @@
+package download.manager.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.impl.Status;
+
+/**
+ * Streams progress of download tasks as server-sent events: {@code GET /dm/events?ids=a,b,c} follows given tasks,
+ * {@code GET /dm/events?status=DOWNLOADING} follows tasks with given status, without parameters all tasks are
+ * followed. Should be registered with asynchronous support.
+ */
+public class ProgressStreamServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressStreamServlet.class);
+
+    private final transient ProgressStream progressStream;
+
+    public ProgressStreamServlet(ProgressStream progressStream) {
+	this.progressStream = progressStream;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+	List<String> ids = parseIds(request.getParameter("ids"));
+	String statusParameter = request.getParameter("status");
+	Status status = Status.parse(statusParameter);
+	if ((statusParameter != null) && (status == null)) {
+	    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown status: " + statusParameter);
+	    return;
+	}
+	LOGGER.info("Progress of download tasks: '{}', with status: '{}', will be streamed.", ids, status);
+	response.setStatus(HttpServletResponse.SC_OK);
+	response.setContentType("text/event-stream");
+	response.setCharacterEncoding("UTF-8");
+	response.setHeader("Cache-Control", "no-cache");
+	response.flushBuffer();
+
+	AsyncContext asyncContext = request.startAsync();
+	asyncContext.setTimeout(0);
+	final Object subscription = progressStream.subscribe(asyncContext, ids, status);
+	asyncContext.addListener(new AsyncListener() {
+
+	    @Override
+	    public void onComplete(AsyncEvent event) {
+		progressStream.unsubscribe(subscription);
+	    }
+
+	    @Override
+	    public void onTimeout(AsyncEvent event) {
+		progressStream.unsubscribe(subscription);
+	    }
+
+	    @Override
+	    public void onError(AsyncEvent event) {
+		progressStream.unsubscribe(subscription);
+	    }
+
+	    @Override
+	    public void onStartAsync(AsyncEvent event) {
+	    }
+	});
+    }
+
+    private List<String> parseIds(String idsParameter) {
+	if ((idsParameter == null) || idsParameter.trim().isEmpty()) {
+	    return null;
+	}
+	List<String> ids = new ArrayList<>();
+	for (String id : idsParameter.split(",")) {
+	    if (!id.trim().isEmpty()) {
+		ids.add(id.trim());
+	    }
+	}
+	return ids;
+    }
+
+}
@@ -0,0 +1,43 @@
+package download.manager.controller;
+
+import download.manager.impl.Status;
+
+/**
+ * Status and progress of one download task, as pushed by {@link ProgressStream}.
+ */
+public class ProgressUpdate {
+    private String id;
+    private Status status;
+    private String progress;
+
+    public ProgressUpdate(String id, Status status, String progress) {
+	this.id = id;
+	this.status = status;
+	this.progress = progress;
+    }
+
+    public String getId() {
+	return id;
+    }
+
+    public void setId(String id) {
+	this.id = id;
+    }
+
+    public Status getStatus() {
+	return status;
+    }
+
+    public void setStatus(Status status) {
+	this.status = status;
+    }
+
+    public String getProgress() {
+	return progress;
+    }
+
+    public void setProgress(String progress) {
+	this.progress = progress;
+    }
+
+}
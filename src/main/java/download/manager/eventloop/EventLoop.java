@@ -0,0 +1,207 @@
+package download.manager.eventloop;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single thread that drives non-blocking connections of many {@link EventLoopDownloadTask}s with one
+ * {@link Selector}. Everything that touches a socket is executed on this thread, other threads hand work over through
+ * {@link #execute(Runnable)}. A connection, that neither connects nor receives anything within the timeout of the loop,
+ * fails its task.
+ */
+public class EventLoop implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoop.class);
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+    private static final long MAX_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final Selector selector;
+    private final long timeoutNanos;
+    private final long checkIntervalMillis;
+    private long nextCheckTime;
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    // connections, whose host names are being resolved, keep the loop running like registered ones
+    private final AtomicInteger pendingResolutions = new AtomicInteger();
+    private volatile boolean shuttingDown = false;
+    private volatile boolean terminated = false;
+
+    public EventLoop(final String name) {
+	this(name, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates loop, whose connections fail after given time without progress.
+     * 
+     * @param name
+     *            name of the loop thread
+     * @param timeoutMillis
+     *            milliseconds a connection may take to connect, or wait for the next bytes of the response
+     */
+    public EventLoop(final String name, final long timeoutMillis) {
+	Validate.isTrue(timeoutMillis > 0, "Timeout should be positive, but was: %d", timeoutMillis);
+	timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	checkIntervalMillis = Math.max(1, Math.min(MAX_CHECK_INTERVAL_MILLIS, timeoutMillis / 4));
+	try {
+	    selector = Selector.open();
+	}
+	catch (IOException e) {
+	    throw new RuntimeException("Could not open selector for event loop " + name, e);
+	}
+	thread = new Thread(this, name);
+	thread.setDaemon(true);
+    }
+
+    public void start() {
+	LOGGER.info("Event loop: '{}' will be started.", thread.getName());
+	thread.start();
+    }
+
+    /**
+     * Queues given command to be executed on the event loop thread.
+     * 
+     * @param command
+     *            command that works with channels of this loop
+     */
+    public void execute(Runnable command) {
+	if (terminated) {
+	    LOGGER.warn("Event loop: '{}' was terminated, command will be ignored.", thread.getName());
+	    return;
+	}
+	commands.add(command);
+	selector.wakeup();
+    }
+
+    SelectionKey register(SelectableChannel channel, int interestOps, EventLoopDownloadTask downloadTask)
+	    throws ClosedChannelException {
+	return channel.register(selector, interestOps, downloadTask);
+    }
+
+    /**
+     * Returns moment, after which a connection, that makes progress now, is considered stalled.
+     */
+    long deadline() {
+	return System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * Marks a host name being resolved off the loop thread, the loop does not finish before
+     * {@link #resolutionFinished()} is called on the loop thread.
+     */
+    void resolutionStarted() {
+	pendingResolutions.incrementAndGet();
+    }
+
+    void resolutionFinished() {
+	pendingResolutions.decrementAndGet();
+    }
+
+    /**
+     * Stops the loop once all registered connections are finished.
+     */
+    public void shutdown() {
+	shuttingDown = true;
+	selector.wakeup();
+    }
+
+    /**
+     * Stops the loop right away, leaving registered connections as they are.
+     */
+    public void shutdownNow() {
+	terminated = true;
+	selector.wakeup();
+    }
+
+    private void runCommands() {
+	Runnable command;
+	while ((command = commands.poll()) != null) {
+	    try {
+		command.run();
+	    }
+	    catch (RuntimeException e) {
+		LOGGER.error("Command of event loop failed.", e);
+	    }
+	}
+    }
+
+    private void processSelectedKeys() {
+	Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+	while (iterator.hasNext()) {
+	    SelectionKey selectionKey = iterator.next();
+	    iterator.remove();
+	    if (selectionKey.isValid()) {
+		try {
+		    ((EventLoopDownloadTask) selectionKey.attachment()).handle(selectionKey);
+		}
+		catch (RuntimeException e) {
+		    LOGGER.error("Selected key of event loop could not be handled.", e);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Fails connections, whose deadline has passed, at most once per check interval.
+     */
+    private void checkDeadlines() {
+	long now = System.nanoTime();
+	if ((now - nextCheckTime) < 0) {
+	    return;
+	}
+	nextCheckTime = now + TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+	for (SelectionKey selectionKey : new ArrayList<>(selector.keys())) {
+	    if (selectionKey.isValid()) {
+		try {
+		    ((EventLoopDownloadTask) selectionKey.attachment()).checkDeadline(now);
+		}
+		catch (RuntimeException e) {
+		    LOGGER.error("Deadline of event loop connection could not be checked.", e);
+		}
+	    }
+	}
+    }
+
+    @Override
+    public void run() {
+	nextCheckTime = System.nanoTime();
+	while (!terminated) {
+	    try {
+		selector.select(checkIntervalMillis);
+		runCommands();
+		processSelectedKeys();
+		checkDeadlines();
+		if (shuttingDown && selector.keys().isEmpty() && commands.isEmpty() && (pendingResolutions.get() == 0)) {
+		    terminated = true;
+		}
+	    }
+	    catch (IOException e) {
+		LOGGER.error(e.getMessage());
+	    }
+	}
+	LOGGER.info("Event loop: '{}' was stopped.", thread.getName());
+	try {
+	    for (SelectionKey selectionKey : selector.keys()) {
+		selectionKey.channel().close();
+	    }
+	    selector.close();
+	}
+	catch (IOException e) {
+	    LOGGER.warn(e.getMessage());
+	}
+    }
+
+}
@@ -0,0 +1,208 @@
+package download.manager.eventloop;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.api.DownloadTask;
+import download.manager.api.ExpectedChecksum;
+import download.manager.http.ConnectionPoolStatistics;
+import download.manager.impl.AbstractDownloadManager;
+import download.manager.impl.HostQueueStatistics;
+import download.manager.impl.TransferMode;
+
+/**
+ * {@link download.manager.api.DownloadManager} that multiplexes all transfers over a few {@link EventLoop} threads
+ * instead of giving each download its own pooled thread. Number of concurrent downloads is bounded by sockets and file
+ * descriptors, not by threads.
+ */
+public class EventLoopDownloadManager extends AbstractDownloadManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoopDownloadManager.class);
+
+    public static final int DEFAULT_EVENT_LOOPS_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final int RESOLVER_THREADS_COUNT = 4;
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    // host names are resolved with blocking calls, off the event loop threads, idle resolver threads go away
+    private final ThreadPoolExecutor resolver = new ThreadPoolExecutor(RESOLVER_THREADS_COUNT, RESOLVER_THREADS_COUNT,
+	    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+		    Thread thread = new Thread(runnable, "download-resolver-" + threadNumber.incrementAndGet());
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+
+    public static EventLoopDownloadManager getInstance() {
+	return SingletonHolder.HOLDER_INSTANCE;
+    }
+
+    public static class SingletonHolder {
+	public static final EventLoopDownloadManager HOLDER_INSTANCE = new EventLoopDownloadManager();
+    }
+
+    private EventLoopDownloadManager() {
+	resolver.allowCoreThreadTimeOut(true);
+	LOGGER.info("New event loops: '{}', will be created.", DEFAULT_EVENT_LOOPS_COUNT);
+	eventLoops = new EventLoop[DEFAULT_EVENT_LOOPS_COUNT];
+	for (int i = 0; i < eventLoops.length; i++) {
+	    eventLoops[i] = new EventLoop("download-event-loop-" + i);
+	    eventLoops[i].start();
+	}
+    }
+
+    @Override
+    protected DownloadTask createDownloadTask(final String url, final String fileName, final int segmentsCount,
+	    final ExpectedChecksum expectedChecksum) {
+	if (segmentsCount > 1) {
+	    LOGGER.warn("Event loop downloads resource over a single connection, '{}' segments will not be used.",
+		    segmentsCount);
+	}
+	if (expectedChecksum != null) {
+	    LOGGER.warn("Event loop does not verify checksums, checksum: '{}' will be ignored.", expectedChecksum);
+	}
+	EventLoop eventLoop = eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+	EventLoopDownloadTask downloadTask = new EventLoopDownloadTask(url, fileName, eventLoop, resolver);
+	downloadTask.setStatusListener(downloadTasks);
+	return downloadTask;
+    }
+
+    @Override
+    protected void start(DownloadTask downloadTask) {
+	((EventLoopDownloadTask) downloadTask).download();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#forceShutdown()
+     */
+    @Override
+    public void forceShutdown() {
+	for (EventLoop eventLoop : eventLoops) {
+	    eventLoop.shutdownNow();
+	}
+	resolver.shutdownNow();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setPoolSize(int)
+     */
+    @Override
+    public void setPoolSize(int poolSize) {
+	LOGGER.warn("Number of event loops is fixed to '{}', pool size: '{}' will be ignored.", eventLoops.length,
+		poolSize);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setBandwidthLimit(long)
+     */
+    @Override
+    public void setBandwidthLimit(long bytesPerSecond) {
+	LOGGER.warn("Event loop does not limit bandwidth, limit: '{}' will be ignored.", bytesPerSecond);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setHostBandwidthLimit(String, long)
+     */
+    @Override
+    public void setHostBandwidthLimit(String host, long bytesPerSecond) {
+	LOGGER.warn("Event loop does not limit bandwidth, limit: '{}' of host: '{}' will be ignored.", bytesPerSecond,
+		host);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setTaskBandwidthLimit(String, long)
+     */
+    @Override
+    public void setTaskBandwidthLimit(String downloadTaskId, long bytesPerSecond) {
+	LOGGER.warn("Event loop does not limit bandwidth, limit: '{}' of download task: '{}' will be ignored.",
+		bytesPerSecond, downloadTaskId);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setMaxConnectionsPerHost(int)
+     */
+    @Override
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+	LOGGER.warn("Event loop does not queue downloads per host, limit: '{}' will be ignored.", maxConnectionsPerHost);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#getHostQueueStatistics()
+     */
+    @Override
+    public List<HostQueueStatistics> getHostQueueStatistics() {
+	return Collections.emptyList();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#getConnectionPoolStatistics()
+     */
+    @Override
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+	// every event loop task opens its own connection
+	return new ConnectionPoolStatistics(0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setCheckpointPolicy(long, long)
+     */
+    @Override
+    public void setCheckpointPolicy(long intervalMillis, long bytesThreshold) {
+	LOGGER.warn("Event loop stores progress only on pause, checkpoint policy will be ignored.");
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setTransferMode(TransferMode)
+     */
+    @Override
+    public void setTransferMode(TransferMode transferMode) {
+	LOGGER.warn("Event loop always writes with asynchronous file channel, transfer mode: '{}' will be ignored.",
+		transferMode);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#shutdown()
+     */
+    @Override
+    public void shutdown() {
+	for (EventLoop eventLoop : eventLoops) {
+	    eventLoop.shutdown();
+	}
+    }
+
+}
@@ -0,0 +1,729 @@
+package download.manager.eventloop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.api.DownloadTask;
+import download.manager.impl.Status;
+import download.manager.impl.StatusListener;
+
+/**
+ * Download task that does not own a thread. Its connection is a non-blocking {@link SocketChannel} served by an
+ * {@link EventLoop}, received bytes are written with an {@link AsynchronousFileChannel}. While a write is in flight the
+ * task stops reading from the socket, so a slow disk throttles the connection instead of piling up memory. Host names
+ * are resolved by a separate executor, a slow resolver does not hold up other connections of the event loop. The
+ * buffer of the connection is allocated only while the task downloads.
+ * <p>
+ * Only plain HTTP resources are supported. Request is sent as HTTP/1.0, so the body always ends with the connection.
+ */
+public class EventLoopDownloadTask implements DownloadTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoopDownloadTask.class);
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_REDIRECTS = 5;
+    private static final byte[] HEADERS_END = { '\r', '\n', '\r', '\n' };
+    private static final String DELIMITER = ".";
+    private static final String TMP_FILE_EXSTENSION = "tmp";
+    private final String ID = UUID.randomUUID().toString();
+
+    private final Object lock = new Object();
+    private final String url;
+    private final String targetFileName;
+    private final String tmpFileName;
+    private final File targetFile;
+    private final File tmpFile;
+    private final EventLoop eventLoop;
+    private final Executor resolver;
+    private volatile Status status;
+    private volatile StatusListener statusListener;
+    private volatile long downloadedBytes = 0;
+    private volatile long totalContentLength = 0;
+
+    // fields below are used by the event loop thread only
+    private URL currentUrl;
+    private int redirects;
+    private SocketChannel socketChannel;
+    private SelectionKey selectionKey;
+    private ByteBuffer requestBuffer;
+    private ByteBuffer buffer;
+    // connection fails, if it does not make progress until then, a write in flight stops the clock
+    private long deadline;
+    private boolean headersWereParsed;
+    private boolean endOfStreamWasReached;
+    private long expectedEnd;
+    private boolean writeInFlight;
+    private boolean reconnectPending;
+    private AsynchronousFileChannel targetFileChannel;
+    // resolved addresses of earlier connection attempts are dropped
+    private int connectionAttempts;
+
+    private final Runnable connectCommand = new Runnable() {
+	@Override
+	public void run() {
+	    connect();
+	}
+    };
+
+    private final Runnable disconnectCommand = new Runnable() {
+	@Override
+	public void run() {
+	    closeConnection();
+	    if (!writeInFlight) {
+		closeTargetFileChannel();
+		releaseBuffers();
+	    }
+	}
+    };
+
+    private final CompletionHandler<Integer, Void> writeHandler = new CompletionHandler<Integer, Void>() {
+	@Override
+	public void completed(final Integer numberOfWrittenBytes, Void attachment) {
+	    eventLoop.execute(new Runnable() {
+		@Override
+		public void run() {
+		    writeCompleted(numberOfWrittenBytes);
+		}
+	    });
+	}
+
+	@Override
+	public void failed(final Throwable e, Void attachment) {
+	    eventLoop.execute(new Runnable() {
+		@Override
+		public void run() {
+		    writeInFlight = false;
+		    if (status == Status.DOWNLOADING) {
+			fail(new IOException("Could not write to target file " + targetFileName, e));
+		    }
+		    else {
+			closeTargetFileChannel();
+			releaseBuffers();
+		    }
+		}
+	    });
+	}
+    };
+
+    public EventLoopDownloadTask(final String url, final String fileName, final EventLoop eventLoop,
+	    final Executor resolver) {
+	Validate.notBlank(url, "Passed URL must be not null and not empty!");
+	Validate.notBlank(fileName, "Passed file name must be not null and not empty!");
+	Validate.notNull(eventLoop, "Passed event loop can not be null!");
+	Validate.notNull(resolver, "Passed resolver can not be null!");
+	try {
+	    currentUrl = new URL(url);
+	}
+	catch (MalformedURLException e) {
+	    throw new IllegalArgumentException("Passed URL is malformed: " + url, e);
+	}
+	Validate.isTrue("http".equals(currentUrl.getProtocol()), "Only HTTP resources are supported by event loop: "
+		+ url);
+
+	LOGGER.info("New download task will be created, with ID: '{}'.", ID);
+	this.url = url;
+	this.eventLoop = eventLoop;
+	this.resolver = resolver;
+	targetFileName = fileName;
+	tmpFileName = fileName + DELIMITER + ID + DELIMITER + TMP_FILE_EXSTENSION;
+	targetFile = createFile(targetFileName);
+	tmpFile = createFile(tmpFileName);
+
+	status = Status.CREATED;
+	LOGGER.info("Status of this task: '{}'.", status);
+    }
+
+    private File createFile(String fileName) {
+	LOGGER.info("New file: '{}', will be created.", fileName);
+	File file = new File(fileName);
+	try {
+	    file.createNewFile();
+	}
+	catch (IOException e) {
+	    LOGGER.error(e.getMessage());
+	}
+	return file;
+    }
+
+    private boolean deleteFile(File file) {
+	boolean wasDeleted = false;
+	if (file.exists()) {
+	    LOGGER.info("File with name: '{}' will be deleted.", file);
+	    if (!file.delete()) {
+		LOGGER.warn("File with name: '{}' was not deleted.", file);
+		file.deleteOnExit();
+	    }
+	    else {
+		wasDeleted = true;
+	    }
+	}
+	return wasDeleted;
+    }
+
+    private boolean storeProgress() {
+	boolean progressWasStored = false;
+	synchronized (lock) {
+	    try (RandomAccessFile progressRandomAccessFile = new RandomAccessFile(tmpFileName, "rw")) {
+		LOGGER.info("Store current position: '{}'.", downloadedBytes);
+		progressRandomAccessFile.writeLong(downloadedBytes);
+		progressWasStored = true;
+	    }
+	    catch (IOException e) {
+		LOGGER.error(e.getMessage());
+	    }
+	}
+	return progressWasStored;
+    }
+
+    private boolean setStatus(Status status) {
+	boolean statusInLegalState = false;
+	if (Status.isLegalTransition(this.status, status)) {
+	    this.status = status;
+	    statusInLegalState = true;
+	    StatusListener listener = statusListener;
+	    if (listener != null) {
+		listener.statusChanged(this, status);
+	    }
+	}
+	return statusInLegalState;
+    }
+
+    /**
+     * Sets listener, that is notified about every change of status of this task.
+     * 
+     * @param statusListener
+     *            status listener
+     */
+    public void setStatusListener(StatusListener statusListener) {
+	this.statusListener = statusListener;
+    }
+
+    private ByteBuffer buildRequest() {
+	String path = currentUrl.getFile().isEmpty() ? "/" : currentUrl.getFile();
+	String host = (currentUrl.getPort() == -1) ? currentUrl.getHost() : (currentUrl.getHost() + ":" + currentUrl
+		.getPort());
+	StringBuilder request = new StringBuilder();
+	request.append("GET ").append(path).append(" HTTP/1.0\r\n");
+	request.append("Host: ").append(host).append("\r\n");
+	request.append("Range: bytes=").append(downloadedBytes).append("-\r\n");
+	request.append("Connection: close\r\n\r\n");
+	return ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void connect() {
+	if (status != Status.DOWNLOADING) {
+	    return;
+	}
+	if (writeInFlight) {
+	    reconnectPending = true;
+	    return;
+	}
+	closeConnection();
+	final int attempt = ++connectionAttempts;
+	final String host = currentUrl.getHost();
+	final int port = (currentUrl.getPort() == -1) ? currentUrl.getDefaultPort() : currentUrl.getPort();
+	eventLoop.resolutionStarted();
+	try {
+	    resolver.execute(new Runnable() {
+
+		@Override
+		public void run() {
+		    // the constructor resolves the host name
+		    final InetSocketAddress address = new InetSocketAddress(host, port);
+		    eventLoop.execute(new Runnable() {
+
+			@Override
+			public void run() {
+			    eventLoop.resolutionFinished();
+			    if (attempt == connectionAttempts) {
+				connect(address);
+			    }
+			}
+		    });
+		}
+	    });
+	}
+	catch (RejectedExecutionException e) {
+	    eventLoop.resolutionFinished();
+	    fail(new IOException("Host name " + host + " could not be resolved, resolver was shut down", e));
+	}
+    }
+
+    private void connect(InetSocketAddress address) {
+	if (status != Status.DOWNLOADING) {
+	    return;
+	}
+	if (writeInFlight) {
+	    reconnectPending = true;
+	    return;
+	}
+	if (address.isUnresolved()) {
+	    fail(new UnknownHostException("Host name " + address.getHostString() + " could not be resolved"));
+	    return;
+	}
+	try {
+	    synchronized (lock) {
+		if ((targetFileChannel == null) && (status == Status.DOWNLOADING)) {
+		    targetFileChannel = AsynchronousFileChannel.open(targetFile.toPath(), StandardOpenOption.WRITE,
+			    StandardOpenOption.CREATE);
+		}
+	    }
+	    LOGGER.info("Will try to connect to given URL: '{}'", currentUrl);
+	    socketChannel = SocketChannel.open();
+	    socketChannel.configureBlocking(false);
+	    boolean connected = socketChannel.connect(address);
+	    requestBuffer = buildRequest();
+	    if (buffer == null) {
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	    }
+	    buffer.clear();
+	    headersWereParsed = false;
+	    endOfStreamWasReached = false;
+	    expectedEnd = -1;
+	    deadline = eventLoop.deadline();
+	    selectionKey = eventLoop.register(socketChannel, connected ? SelectionKey.OP_WRITE
+		    : SelectionKey.OP_CONNECT, this);
+	}
+	catch (IOException e) {
+	    fail(e);
+	}
+    }
+
+    private void closeConnection() {
+	if (selectionKey != null) {
+	    selectionKey.cancel();
+	    selectionKey = null;
+	}
+	if (socketChannel != null) {
+	    try {
+		socketChannel.close();
+	    }
+	    catch (IOException e) {
+		LOGGER.warn(e.getMessage());
+	    }
+	    socketChannel = null;
+	}
+    }
+
+    /**
+     * Lets buffers of a task, that stopped downloading, go, so finished tasks do not hold memory. Called by the event
+     * loop thread, once no write uses the buffer.
+     */
+    private void releaseBuffers() {
+	buffer = null;
+	requestBuffer = null;
+    }
+
+    /**
+     * Fails the connection, if it has not made progress until its deadline, called by the event loop thread.
+     * 
+     * @param now
+     *            current value of {@link System#nanoTime()}
+     */
+    void checkDeadline(long now) {
+	if ((status == Status.DOWNLOADING) && !writeInFlight && (socketChannel != null) && ((now - deadline) >= 0)) {
+	    fail(new SocketTimeoutException("Connection to " + currentUrl + " made no progress within the timeout"));
+	}
+    }
+
+    private void closeTargetFileChannel() {
+	synchronized (lock) {
+	    if (targetFileChannel != null) {
+		try {
+		    targetFileChannel.close();
+		}
+		catch (IOException e) {
+		    LOGGER.warn(e.getMessage());
+		}
+		targetFileChannel = null;
+	    }
+	}
+    }
+
+    /**
+     * Reacts on readiness of the task connection, called by the event loop thread.
+     *
+     * @param key
+     *            selected key of the task connection
+     */
+    void handle(SelectionKey key) {
+	try {
+	    deadline = eventLoop.deadline();
+	    if (key.isConnectable()) {
+		if (socketChannel.finishConnect()) {
+		    key.interestOps(SelectionKey.OP_WRITE);
+		}
+	    }
+	    else if (key.isWritable()) {
+		socketChannel.write(requestBuffer);
+		if (!requestBuffer.hasRemaining()) {
+		    key.interestOps(SelectionKey.OP_READ);
+		}
+	    }
+	    else if (key.isReadable()) {
+		read();
+	    }
+	}
+	catch (IOException e) {
+	    fail(e);
+	}
+    }
+
+    private void read() throws IOException {
+	if (socketChannel.read(buffer) == -1) {
+	    endOfStreamWasReached = true;
+	    closeConnection();
+	    if (!headersWereParsed) {
+		throw new IOException("Connection was closed before response headers were received from " + currentUrl);
+	    }
+	}
+	if (!headersWereParsed && !parseHeaders()) {
+	    return;
+	}
+	boolean endOfContentWasReached = (expectedEnd != -1) && ((downloadedBytes + buffer.position()) >= expectedEnd);
+	if (!buffer.hasRemaining() || endOfContentWasReached || endOfStreamWasReached) {
+	    writeBuffer();
+	}
+    }
+
+    private int indexOfHeadersEnd() {
+	byte[] bytes = buffer.array();
+	for (int i = 0; i <= (buffer.position() - HEADERS_END.length); i++) {
+	    if ((bytes[i] == HEADERS_END[0]) && (bytes[i + 1] == HEADERS_END[1]) && (bytes[i + 2] == HEADERS_END[2])
+		    && (bytes[i + 3] == HEADERS_END[3])) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Parses response headers collected in the buffer and leaves only body bytes in it.
+     *
+     * @return {@code true} if body of the response may be written, {@code false} if more bytes are needed or the
+     *         request was sent again
+     * @throws IOException
+     *             if response can not be used
+     */
+    private boolean parseHeaders() throws IOException {
+	int headersEnd = indexOfHeadersEnd();
+	if (headersEnd == -1) {
+	    if (!buffer.hasRemaining()) {
+		throw new IOException("Response headers of " + currentUrl + " are too large");
+	    }
+	    return false;
+	}
+	String[] lines = new String(buffer.array(), 0, headersEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+	buffer.flip();
+	buffer.position(headersEnd + HEADERS_END.length);
+	buffer.compact();
+
+	String[] statusLine = lines[0].split(" ");
+	if (statusLine.length < 2) {
+	    throw new IOException("Malformed status line: " + lines[0]);
+	}
+	int statusCode = Integer.parseInt(statusLine[1]);
+	Map<String, String> headers = new HashMap<>();
+	for (int i = 1; i < lines.length; i++) {
+	    int delimiterIndex = lines[i].indexOf(':');
+	    if (delimiterIndex > 0) {
+		headers.put(lines[i].substring(0, delimiterIndex).trim().toLowerCase(Locale.ROOT),
+			lines[i].substring(delimiterIndex + 1).trim());
+	    }
+	}
+	long contentLength = headers.containsKey("content-length") ? Long.parseLong(headers.get("content-length"))
+		: -1;
+
+	if ((statusCode >= 300) && (statusCode < 400) && headers.containsKey("location")) {
+	    if (++redirects > MAX_REDIRECTS) {
+		throw new IOException("Too many redirects for " + url);
+	    }
+	    currentUrl = new URL(currentUrl, headers.get("location"));
+	    LOGGER.info("Download task: '{}' was redirected to: '{}'.", ID, currentUrl);
+	    if (!"http".equals(currentUrl.getProtocol())) {
+		throw new IOException("Redirect to unsupported resource " + currentUrl);
+	    }
+	    connect();
+	    return false;
+	}
+	else if (statusCode == 206) {
+	    String contentRange = headers.get("content-range");
+	    int delimiterIndex = (contentRange == null) ? -1 : contentRange.lastIndexOf('/');
+	    if ((totalContentLength == 0) && (delimiterIndex != -1) && !contentRange.endsWith("*")) {
+		totalContentLength = Long.parseLong(contentRange.substring(delimiterIndex + 1).trim());
+	    }
+	}
+	else if (statusCode == 200) {
+	    if (downloadedBytes > 0) {
+		LOGGER.warn("Server ignored requested range, resource: '{}' will be downloaded from the beginning.",
+			url);
+		downloadedBytes = 0;
+	    }
+	    totalContentLength = contentLength;
+	}
+	else {
+	    throw new IOException("Unexpected response from " + currentUrl + ": " + lines[0]);
+	}
+	expectedEnd = (contentLength == -1) ? -1 : (downloadedBytes + contentLength);
+	headersWereParsed = true;
+	LOGGER.info("Total content length that will be downloaded: '{}'", contentLength);
+	return true;
+    }
+
+    private void writeBuffer() {
+	buffer.flip();
+	if (!buffer.hasRemaining()) {
+	    buffer.clear();
+	    writeCompleted(0);
+	    return;
+	}
+	writeInFlight = true;
+	if (selectionKey != null) {
+	    selectionKey.interestOps(0);
+	}
+	targetFileChannel.write(buffer, downloadedBytes, null, writeHandler);
+    }
+
+    private void writeCompleted(int numberOfWrittenBytes) {
+	downloadedBytes += numberOfWrittenBytes;
+	if (buffer.hasRemaining() && (status == Status.DOWNLOADING)) {
+	    targetFileChannel.write(buffer, downloadedBytes, null, writeHandler);
+	    return;
+	}
+	writeInFlight = false;
+	buffer.clear();
+	if (status != Status.DOWNLOADING) {
+	    if (status == Status.PAUSED) {
+		storeProgress();
+	    }
+	    closeTargetFileChannel();
+	    releaseBuffers();
+	}
+	else if (reconnectPending) {
+	    reconnectPending = false;
+	    connect();
+	}
+	else if ((expectedEnd != -1) && (downloadedBytes >= expectedEnd)) {
+	    complete();
+	}
+	else if (endOfStreamWasReached) {
+	    if (expectedEnd == -1) {
+		complete();
+	    }
+	    else {
+		fail(new IOException("Connection was closed before the end of resource " + currentUrl));
+	    }
+	}
+	else if (selectionKey != null) {
+	    // time spent on the disk does not count against the connection
+	    deadline = eventLoop.deadline();
+	    selectionKey.interestOps(SelectionKey.OP_READ);
+	}
+    }
+
+    private void complete() {
+	closeConnection();
+	closeTargetFileChannel();
+	releaseBuffers();
+	LOGGER.info("Resouces was successfully downloaded!");
+	synchronized (lock) {
+	    if (setStatus(Status.COMPLETED)) {
+		LOGGER.info("Status of download task was changed to: '{}'.", status);
+		if (deleteFile(tmpFile)) {
+		    LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
+		}
+	    }
+	}
+    }
+
+    private void fail(IOException e) {
+	LOGGER.error(e.getMessage());
+	closeConnection();
+	synchronized (lock) {
+	    if (setStatus(Status.ERROR)) {
+		LOGGER.info("Status of download task was changed to: '{}'.", status);
+		storeProgress();
+	    }
+	}
+	if (!writeInFlight) {
+	    closeTargetFileChannel();
+	    releaseBuffers();
+	}
+    }
+
+    @Override
+    public void cancel() {
+	if (status != Status.CANCELLED) {
+	    LOGGER.info("Cancelling download task with ID: '{}'.", ID);
+	    synchronized (lock) {
+		if (setStatus(Status.CANCELLED)) {
+		    LOGGER.info("Status of download task was changed to: '{}'.", status);
+		    eventLoop.execute(disconnectCommand);
+		    closeTargetFileChannel();
+		    if (deleteFile(tmpFile)) {
+			LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
+		    }
+		    if (deleteFile(targetFile)) {
+			LOGGER.info("Target file '{}' was deleted.", targetFile);
+		    }
+		}
+		else {
+		    LOGGER.warn(
+			    "You can not change status from '{}', to '{}', of this download task right now, try one more time later.",
+			    status, Status.CANCELLED);
+		}
+	    }
+	}
+	else {
+	    LOGGER.warn("This download task was already in '{}' state.", Status.CANCELLED);
+	}
+    }
+
+    /**
+     * Starts loading of the resource on the event loop this task was assigned to.
+     */
+    public void download() {
+	if (status != Status.DOWNLOADING) {
+	    synchronized (lock) {
+		if (setStatus(Status.DOWNLOADING)) {
+		    LOGGER.info("Status of download task was changed to: '{}'.", status);
+		    eventLoop.execute(connectCommand);
+		}
+		else {
+		    LOGGER.warn(
+			    "You can not change status from '{}', to '{}', of this download task right now, try one more time later.",
+			    status, Status.DOWNLOADING);
+		}
+	    }
+	}
+	else {
+	    LOGGER.warn("This download task was already in '{}' state.", Status.DOWNLOADING);
+	}
+    }
+
+    /**
+     * Starts loading of the resource, given executor is not used since the connection is driven by the event loop.
+     */
+    @Override
+    public void download(Executor executor) {
+	download();
+    }
+
+    @Override
+    public String getFileName() {
+	return targetFileName;
+    }
+
+    @Override
+    public String getId() {
+	return ID;
+    }
+
+    @Override
+    public String getProgress() {
+	long contentLength = totalContentLength;
+	if (contentLength <= 0) {
+	    return "0";
+	}
+	else {
+	    int downloadedPercents = Math.round((downloadedBytes / ((float) contentLength / 100)));
+	    return String.valueOf(downloadedPercents);
+	}
+    }
+
+    @Override
+    public int getSegmentsCount() {
+	return 1;
+    }
+
+    @Override
+    public Status getStatus() {
+	return status;
+    }
+
+    @Override
+    public String getUrl() {
+	return url;
+    }
+
+    @Override
+    public boolean isComplete() {
+	return status == Status.COMPLETED;
+    }
+
+    @Override
+    public boolean isPaused() {
+	return status == Status.PAUSED;
+    }
+
+    @Override
+    public void pause() {
+	if (status != Status.PAUSED) {
+	    LOGGER.info("Pausing download task with ID: '{}'.", ID);
+	    synchronized (lock) {
+		if (setStatus(Status.PAUSED)) {
+		    LOGGER.info("Status of download task was changed to: '{}'.", status);
+		    if (storeProgress()) {
+			LOGGER.info("Download progress was successfully stored in '{}'.", tmpFile);
+		    }
+		    eventLoop.execute(disconnectCommand);
+		}
+		else {
+		    LOGGER.warn(
+			    "You can not change status from '{}', to '{}', of this download task right now, try one more time later.",
+			    status, Status.PAUSED);
+		}
+	    }
+	}
+	else {
+	    LOGGER.warn("This download task was already in '{}' state.", Status.PAUSED);
+	}
+    }
+
+    @Override
+    public void resume() {
+	if (status == Status.CREATED) {
+	    LOGGER.warn("Download task with ID: '{}' was not started yet.", ID);
+	}
+	else if (status != Status.DOWNLOADING) {
+	    synchronized (lock) {
+		if (setStatus(Status.DOWNLOADING)) {
+		    LOGGER.info("Status of download task was changed to: '{}'.", status);
+		    LOGGER.info("Download task will be continued from position: '{}'.", downloadedBytes);
+		    eventLoop.execute(connectCommand);
+		}
+		else {
+		    LOGGER.warn(
+			    "You can not change status from '{}', to '{}', of this download task right now, try one more time later.",
+			    status, Status.DOWNLOADING);
+		}
+	    }
+	}
+	else {
+	    LOGGER.warn("This download task was already in '{}' state.", Status.DOWNLOADING);
+	}
+    }
+
+}
@@ -0,0 +1,79 @@
+package download.manager.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes body sent with {@code Transfer-Encoding: chunked}.
+ */
+public class ChunkedInputStream extends InputStream {
+
+    private final HttpConnection connection;
+    private final InputStream inputStream;
+    private long chunkRemainder;
+    private boolean finished;
+
+    ChunkedInputStream(HttpConnection connection) {
+	this.connection = connection;
+	inputStream = connection.getInputStream();
+    }
+
+    boolean isFinished() {
+	return finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+	byte[] oneByte = new byte[1];
+	return (read(oneByte, 0, 1) == -1) ? -1 : (oneByte[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+	if (finished) {
+	    return -1;
+	}
+	if (chunkRemainder == 0) {
+	    chunkRemainder = readChunkSize();
+	    if (chunkRemainder == 0) {
+		readTrailer();
+		finished = true;
+		return -1;
+	    }
+	}
+	int numberOfReadBytes = inputStream.read(buffer, offset, (int) Math.min(length, chunkRemainder));
+	if (numberOfReadBytes == -1) {
+	    throw new IOException("Connection was closed in the middle of a chunk");
+	}
+	chunkRemainder -= numberOfReadBytes;
+	if (chunkRemainder == 0) {
+	    // every chunk ends with its own line terminator
+	    connection.readLine();
+	}
+	return numberOfReadBytes;
+    }
+
+    private long readChunkSize() throws IOException {
+	String line = connection.readLine();
+	if (line == null) {
+	    throw new IOException("Connection was closed before the size of the next chunk");
+	}
+	int extensionIndex = line.indexOf(';');
+	String size = ((extensionIndex == -1) ? line : line.substring(0, extensionIndex)).trim();
+	try {
+	    return Long.parseLong(size, 16);
+	}
+	catch (NumberFormatException e) {
+	    throw new IOException("Illegal chunk size: " + line, e);
+	}
+    }
+
+    private void readTrailer() throws IOException {
+	String line;
+	do {
+	    line = connection.readLine();
+	}
+	while ((line != null) && !line.isEmpty());
+    }
+
+}
@@ -0,0 +1,99 @@
+package download.manager.http;
+
+/**
+ * Snapshot of {@link HttpConnectionPool} counters.
+ */
+public class ConnectionPoolStatistics {
+    private long requests;
+    private long reusedConnections;
+    private long handshakes;
+    private double averageHandshakeMillis;
+    private long evictedConnections;
+    private int idleConnections;
+    private int openConnections;
+
+    public ConnectionPoolStatistics(long requests, long reusedConnections, long handshakes,
+	    double averageHandshakeMillis, long evictedConnections, int idleConnections, int openConnections) {
+	this.requests = requests;
+	this.reusedConnections = reusedConnections;
+	this.handshakes = handshakes;
+	this.averageHandshakeMillis = averageHandshakeMillis;
+	this.evictedConnections = evictedConnections;
+	this.idleConnections = idleConnections;
+	this.openConnections = openConnections;
+    }
+
+    public long getRequests() {
+	return requests;
+    }
+
+    public void setRequests(long requests) {
+	this.requests = requests;
+    }
+
+    public long getReusedConnections() {
+	return reusedConnections;
+    }
+
+    public void setReusedConnections(long reusedConnections) {
+	this.reusedConnections = reusedConnections;
+    }
+
+    /**
+     * Returns share of requests, that were sent over an already open connection.
+     */
+    public double getReuseRate() {
+	return (requests == 0) ? 0 : ((double) reusedConnections / requests);
+    }
+
+    public long getHandshakes() {
+	return handshakes;
+    }
+
+    public void setHandshakes(long handshakes) {
+	this.handshakes = handshakes;
+    }
+
+    public double getAverageHandshakeMillis() {
+	return averageHandshakeMillis;
+    }
+
+    public void setAverageHandshakeMillis(double averageHandshakeMillis) {
+	this.averageHandshakeMillis = averageHandshakeMillis;
+    }
+
+    public long getEvictedConnections() {
+	return evictedConnections;
+    }
+
+    public void setEvictedConnections(long evictedConnections) {
+	this.evictedConnections = evictedConnections;
+    }
+
+    public int getIdleConnections() {
+	return idleConnections;
+    }
+
+    public void setIdleConnections(int idleConnections) {
+	this.idleConnections = idleConnections;
+    }
+
+    /**
+     * Returns number of connections, that are idle or carry a response.
+     */
+    public int getOpenConnections() {
+	return openConnections;
+    }
+
+    public void setOpenConnections(int openConnections) {
+	this.openConnections = openConnections;
+    }
+
+    @Override
+    public String toString() {
+	return "requests=" + requests + ", reused=" + reusedConnections + ", handshakes=" + handshakes
+		+ ", averageHandshakeMillis=" + averageHandshakeMillis + ", evicted=" + evictedConnections + ", idle="
+		+ idleConnections + ", open=" + openConnections;
+    }
+
+}
@@ -0,0 +1,122 @@
+package download.manager.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Socket to an origin, that is leased from {@link HttpConnectionPool} for one request at a time.
+ */
+public class HttpConnection implements Closeable {
+
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private final String key;
+    private final Socket socket;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private int requestsCount;
+    private long lastUsedNanos;
+
+    HttpConnection(String key, Socket socket) throws IOException {
+	this.key = key;
+	this.socket = socket;
+	inputStream = new BufferedInputStream(socket.getInputStream());
+	outputStream = new BufferedOutputStream(socket.getOutputStream());
+	lastUsedNanos = System.nanoTime();
+    }
+
+    String getKey() {
+	return key;
+    }
+
+    InputStream getInputStream() {
+	return inputStream;
+    }
+
+    int getRequestsCount() {
+	return requestsCount;
+    }
+
+    long getLastUsedNanos() {
+	return lastUsedNanos;
+    }
+
+    void markUsed() {
+	lastUsedNanos = System.nanoTime();
+    }
+
+    boolean isOpen() {
+	return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+    }
+
+    void writeRequest(String request) throws IOException {
+	requestsCount++;
+	outputStream.write(request.getBytes(StandardCharsets.ISO_8859_1));
+	outputStream.flush();
+    }
+
+    /**
+     * Reads one line of response head, without line terminator.
+     * 
+     * @return line or {@code null} if connection was closed before the first byte of the line
+     */
+    String readLine() throws IOException {
+	ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+	int nextByte;
+	while ((nextByte = inputStream.read()) != -1) {
+	    if (nextByte == '\n') {
+		return trimCarriageReturn(line.toString(StandardCharsets.ISO_8859_1.name()));
+	    }
+	    if (line.size() >= MAX_LINE_LENGTH) {
+		throw new IOException("Line of response head is longer than " + MAX_LINE_LENGTH + " bytes");
+	    }
+	    line.write(nextByte);
+	}
+	if (line.size() == 0) {
+	    return null;
+	}
+	throw new IOException("Connection was closed in the middle of response head");
+    }
+
+    private static String trimCarriageReturn(String line) {
+	return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    /**
+     * Closes the connection, unless it was closed already.
+     * 
+     * @return {@code true} if this call closed the connection
+     */
+    boolean closeIfOpen() {
+	if (!closed.compareAndSet(false, true)) {
+	    return false;
+	}
+	close();
+	return true;
+    }
+
+    @Override
+    public void close() {
+	try {
+	    socket.close();
+	}
+	catch (IOException e) {
+	    // nothing to do, the connection is dropped anyway
+	}
+    }
+
+    @Override
+    public String toString() {
+	return key + " " + socket.getLocalPort();
+    }
+
+}
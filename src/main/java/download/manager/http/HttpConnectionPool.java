@@ -0,0 +1,612 @@
+package download.manager.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.metrics.Histogram;
+
+/**
+ * Keep-alive pool of HTTP/1.1 connections shared by download tasks of one manager. Connections are kept per origin
+ * (scheme, host and port), no more than {@code maxConnectionsPerHost} open ones for an origin, idle or in use, and are
+ * closed after they stayed idle for {@code idleTimeoutMillis}. A request to an origin, that has all its connections in
+ * use, waits until one of them is given back or closed. Schemes other than http and https, as well as requests through
+ * a configured proxy, go through {@link URLConnection} without pooling.
+ */
+public class HttpConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+    // a server, that stops sending in the middle of a response, fails the read instead of blocking it forever
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    private static final int MAX_REDIRECTS = 5;
+    /**
+     * Bodies with no more bytes left are read to the end on close, so their connection could be reused.
+     */
+    private static final long MAX_DRAINED_BYTES = 64 * 1024;
+    private static final String USER_AGENT = "Java/" + System.getProperty("java.version");
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition connectionFreed = lock.newCondition();
+    private final Map<String, Deque<HttpConnection>> idleConnections = new HashMap<>();
+    // origin to number of its open connections, idle ones included
+    private final Map<String, Integer> openConnections = new HashMap<>();
+    private final int maxConnectionsPerHost;
+    private final long idleTimeoutNanos;
+    private final ScheduledExecutorService evictor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong handshakesNanos = new AtomicLong();
+    private final AtomicLong evictedConnections = new AtomicLong();
+    private final Histogram connectLatency = new Histogram();
+
+    public HttpConnectionPool() {
+	this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public HttpConnectionPool(int maxConnectionsPerHost, long idleTimeoutMillis) {
+	Validate.isTrue(maxConnectionsPerHost > 0, "Maximal number of connections per host should be positive, but was: %d",
+		maxConnectionsPerHost);
+	Validate.isTrue(idleTimeoutMillis > 0, "Idle timeout should be positive, but was: %d", idleTimeoutMillis);
+	this.maxConnectionsPerHost = maxConnectionsPerHost;
+	idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+	evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "http-connection-evictor");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	long evictionPeriod = Math.max(1, idleTimeoutMillis / 2);
+	evictor.scheduleWithFixedDelay(new Runnable() {
+
+	    @Override
+	    public void run() {
+		evictIdleConnections();
+	    }
+	}, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends GET request for given URL and reads the head of the response, following redirects.
+     * 
+     * @param url
+     *            URL of resource
+     * @param requestHeaders
+     *            additional request headers, for example {@code Range}
+     * @return response, that should be closed, or its body read to the end
+     * @throws IOException
+     *             if the request could not be sent or the response could not be read
+     */
+    public HttpResponse open(URL url, Map<String, String> requestHeaders) throws IOException {
+	URL targetUrl = url;
+	for (int redirects = 0;; redirects++) {
+	    if (!isPoolable(targetUrl)) {
+		return openDirect(targetUrl, requestHeaders);
+	    }
+	    HttpResponse response = execute(targetUrl, requestHeaders);
+	    String location = response.getHeader("Location");
+	    if ((response.getStatusCode() / 100 != 3) || (location == null) || (redirects == MAX_REDIRECTS)) {
+		return response;
+	    }
+	    response.close();
+	    targetUrl = new URL(targetUrl, location);
+	    LOGGER.info("Request was redirected to: '{}'.", targetUrl);
+	}
+    }
+
+    /**
+     * Sends GET request through {@link URLConnection}, without pooling.
+     */
+    public static HttpResponse openDirect(URL url, Map<String, String> requestHeaders) throws IOException {
+	URLConnection connectionUrl = url.openConnection();
+	for (Entry<String, String> header : requestHeaders.entrySet()) {
+	    connectionUrl.setRequestProperty(header.getKey(), header.getValue());
+	}
+	int statusCode = HttpURLConnection.HTTP_OK;
+	if (connectionUrl instanceof HttpURLConnection) {
+	    statusCode = ((HttpURLConnection) connectionUrl).getResponseCode();
+	}
+	Map<String, String> headers = new HashMap<>();
+	for (String name : connectionUrl.getHeaderFields().keySet()) {
+	    if (name != null) {
+		headers.put(name.toLowerCase(Locale.ENGLISH), connectionUrl.getHeaderField(name));
+	    }
+	}
+	InputStream body = (statusCode < 400) ? connectionUrl.getInputStream() : null;
+	if ((body == null) && (connectionUrl instanceof HttpURLConnection)) {
+	    ((HttpURLConnection) connectionUrl).disconnect();
+	}
+	return new HttpResponse(connectionUrl.getURL(), statusCode, headers, connectionUrl.getContentLengthLong(), body);
+    }
+
+    private static boolean isPoolable(URL url) {
+	String protocol = url.getProtocol();
+	return ("http".equals(protocol) || "https".equals(protocol)) && (System.getProperty(protocol + ".proxyHost") == null);
+    }
+
+    private static String keyOf(URL url) {
+	return url.getProtocol() + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + ":" + portOf(url);
+    }
+
+    private static int portOf(URL url) {
+	return (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+    }
+
+    /**
+     * Sends the request over an idle connection, or over a new one. An idle connection could have been closed by the
+     * server meanwhile, then the request is repeated over another idle connection, or over a new one.
+     */
+    private HttpResponse execute(URL url, Map<String, String> requestHeaders) throws IOException {
+	requests.incrementAndGet();
+	String key = keyOf(url);
+	HttpConnection connection;
+	while ((connection = lease(key)) != null) {
+	    try {
+		HttpResponse response = exchange(connection, url, requestHeaders);
+		if (response != null) {
+		    reusedConnections.incrementAndGet();
+		    return response;
+		}
+	    }
+	    catch (IOException e) {
+		LOGGER.debug("Idle connection: '{}' was stale: {}", connection, e.getMessage());
+	    }
+	    discard(connection);
+	}
+	connection = connect(key, url);
+	try {
+	    HttpResponse response = exchange(connection, url, requestHeaders);
+	    if (response == null) {
+		throw new IOException("Server closed connection without response to " + url);
+	    }
+	    return response;
+	}
+	catch (IOException e) {
+	    discard(connection);
+	    throw e;
+	}
+    }
+
+    /**
+     * Opens new connection to the origin, {@link #lease(String)} has already counted it.
+     */
+    private HttpConnection connect(String key, URL url) throws IOException {
+	long startTime = System.nanoTime();
+	Socket socket = new Socket();
+	try {
+	    socket.setTcpNoDelay(true);
+	    socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+	    socket.connect(new InetSocketAddress(url.getHost(), portOf(url)), CONNECT_TIMEOUT_MILLIS);
+	    if ("https".equals(url.getProtocol())) {
+		SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket,
+			url.getHost(), portOf(url), true);
+		// the certificate has to be issued for the host, not just by a trusted authority
+		SSLParameters sslParameters = sslSocket.getSSLParameters();
+		sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+		sslSocket.setSSLParameters(sslParameters);
+		sslSocket.startHandshake();
+		socket = sslSocket;
+	    }
+	}
+	catch (IOException e) {
+	    socket.close();
+	    connectionClosed(key);
+	    throw e;
+	}
+	long handshakeNanos = System.nanoTime() - startTime;
+	handshakes.incrementAndGet();
+	handshakesNanos.addAndGet(handshakeNanos);
+	connectLatency.record(handshakeNanos);
+	LOGGER.info("New connection to: '{}' was opened in '{}' ms.", key, TimeUnit.NANOSECONDS.toMillis(handshakeNanos));
+	return new HttpConnection(key, socket);
+    }
+
+    /**
+     * Writes the request and reads the head of the response.
+     * 
+     * @return response or {@code null} if the connection was closed before the response
+     */
+    private HttpResponse exchange(HttpConnection connection, URL url, Map<String, String> requestHeaders)
+	    throws IOException {
+	StringBuilder request = new StringBuilder(256);
+	String path = url.getFile().isEmpty() ? "/" : url.getFile();
+	request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+	request.append("Host: ").append(url.getHost());
+	if ((url.getPort() != -1) && (url.getPort() != url.getDefaultPort())) {
+	    request.append(':').append(url.getPort());
+	}
+	request.append("\r\n");
+	request.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+	request.append("Accept: */*\r\n");
+	for (Entry<String, String> header : requestHeaders.entrySet()) {
+	    request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+	}
+	request.append("\r\n");
+	connection.writeRequest(request.toString());
+
+	String[] statusParts;
+	int statusCode;
+	Map<String, String> headers = new HashMap<>();
+	// interim responses are skipped, the final one follows them
+	do {
+	    String statusLine = connection.readLine();
+	    if (statusLine == null) {
+		return null;
+	    }
+	    statusParts = statusLine.split(" ", 3);
+	    if ((statusParts.length < 2) || !statusParts[0].startsWith("HTTP/")) {
+		throw new IOException("Illegal status line: " + statusLine);
+	    }
+	    try {
+		statusCode = Integer.parseInt(statusParts[1]);
+	    }
+	    catch (NumberFormatException e) {
+		throw new IOException("Illegal status line: " + statusLine, e);
+	    }
+	    headers.clear();
+	    String headerLine;
+	    while (!(headerLine = readHeaderLine(connection)).isEmpty()) {
+		int delimiterIndex = headerLine.indexOf(':');
+		if (delimiterIndex > 0) {
+		    headers.put(headerLine.substring(0, delimiterIndex).trim().toLowerCase(Locale.ENGLISH), headerLine
+			    .substring(delimiterIndex + 1).trim());
+		}
+	    }
+	}
+	while ((statusCode / 100) == 1);
+	boolean keepAlive = "HTTP/1.1".equals(statusParts[0]) ? !"close".equalsIgnoreCase(headers.get("connection"))
+		: "keep-alive".equalsIgnoreCase(headers.get("connection"));
+	long contentLength = -1;
+	if (headers.containsKey("content-length")) {
+	    try {
+		contentLength = Long.parseLong(headers.get("content-length"));
+	    }
+	    catch (NumberFormatException e) {
+		throw new IOException("Illegal content length: " + headers.get("content-length"), e);
+	    }
+	}
+	ResponseInputStream body;
+	if ((statusCode == HttpURLConnection.HTTP_NO_CONTENT) || (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+	    body = new ResponseInputStream(connection, null, 0, keepAlive);
+	}
+	else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+	    contentLength = -1;
+	    body = new ResponseInputStream(connection, new ChunkedInputStream(connection), -1, keepAlive);
+	}
+	else if (contentLength >= 0) {
+	    body = new ResponseInputStream(connection, connection.getInputStream(), contentLength, keepAlive);
+	}
+	else {
+	    // body ends with the connection
+	    body = new ResponseInputStream(connection, connection.getInputStream(), -1, false);
+	}
+	return new HttpResponse(url, statusCode, headers, contentLength, body);
+    }
+
+    private static String readHeaderLine(HttpConnection connection) throws IOException {
+	String line = connection.readLine();
+	if (line == null) {
+	    throw new IOException("Connection was closed in the middle of response head");
+	}
+	return line;
+    }
+
+    /**
+     * Takes an idle connection to given origin or, if there is none, counts a new one. While the origin has
+     * {@code maxConnectionsPerHost} connections in use, waits at most {@link #CONNECT_TIMEOUT_MILLIS} for one of them
+     * to be given back or closed.
+     * 
+     * @return idle connection or {@code null} if a new connection should be opened
+     * @throws IOException
+     *             if no connection of the origin was freed in time, or the thread was interrupted
+     */
+    private HttpConnection lease(String key) throws IOException {
+	lock.lock();
+	try {
+	    long remainingNanos = TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+	    for (;;) {
+		Deque<HttpConnection> connections = idleConnections.get(key);
+		while ((connections != null) && !connections.isEmpty()) {
+		    HttpConnection connection = connections.pollLast();
+		    if (connection.isOpen() && !isExpired(connection, System.nanoTime())) {
+			return connection;
+		    }
+		    evictedConnections.incrementAndGet();
+		    discard(connection);
+		}
+		if (getOpenConnections(key) < maxConnectionsPerHost) {
+		    openConnections.put(key, getOpenConnections(key) + 1);
+		    return null;
+		}
+		if (remainingNanos <= 0) {
+		    throw new IOException("No connection to: " + key + " was freed within " + CONNECT_TIMEOUT_MILLIS
+			    + " ms, all " + maxConnectionsPerHost + " of them are in use");
+		}
+		remainingNanos = connectionFreed.awaitNanos(remainingNanos);
+	    }
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Waiting for a connection to: " + key + " was interrupted");
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    private int getOpenConnections(String key) {
+	Integer count = openConnections.get(key);
+	return (count == null) ? 0 : count;
+    }
+
+    private void connectionClosed(String key) {
+	lock.lock();
+	try {
+	    int count = getOpenConnections(key) - 1;
+	    if (count > 0) {
+		openConnections.put(key, count);
+	    }
+	    else {
+		openConnections.remove(key);
+	    }
+	    connectionFreed.signalAll();
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Closes connection, that is not in the pool, and makes room for a new connection to its origin.
+     */
+    private void discard(HttpConnection connection) {
+	if (connection.closeIfOpen()) {
+	    connectionClosed(connection.getKey());
+	}
+    }
+
+    /**
+     * Gives connection with fully read response back to the pool.
+     */
+    void release(HttpConnection connection) {
+	connection.markUsed();
+	lock.lock();
+	try {
+	    Deque<HttpConnection> connections = idleConnections.get(connection.getKey());
+	    if (connections == null) {
+		connections = new ArrayDeque<>();
+		idleConnections.put(connection.getKey(), connections);
+	    }
+	    connections.addLast(connection);
+	    // a request waiting for a connection to the origin takes this one over
+	    connectionFreed.signalAll();
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    private boolean isExpired(HttpConnection connection, long now) {
+	return (now - connection.getLastUsedNanos()) >= idleTimeoutNanos;
+    }
+
+    private void evictIdleConnections() {
+	long now = System.nanoTime();
+	lock.lock();
+	try {
+	    for (Iterator<Deque<HttpConnection>> hostsIterator = idleConnections.values().iterator(); hostsIterator
+		    .hasNext();) {
+		Deque<HttpConnection> connections = hostsIterator.next();
+		for (Iterator<HttpConnection> iterator = connections.iterator(); iterator.hasNext();) {
+		    HttpConnection connection = iterator.next();
+		    if (!connection.isOpen() || isExpired(connection, now)) {
+			iterator.remove();
+			evictedConnections.incrementAndGet();
+			discard(connection);
+		    }
+		}
+		if (connections.isEmpty()) {
+		    hostsIterator.remove();
+		}
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    public ConnectionPoolStatistics getStatistics() {
+	int idle = 0;
+	int open = 0;
+	lock.lock();
+	try {
+	    for (Deque<HttpConnection> connections : idleConnections.values()) {
+		idle += connections.size();
+	    }
+	    for (Integer count : openConnections.values()) {
+		open += count;
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+	long handshakesCount = handshakes.get();
+	double averageHandshakeMillis = (handshakesCount == 0) ? 0 : ((handshakesNanos.get() / (double) handshakesCount) / TimeUnit.MILLISECONDS
+		.toNanos(1));
+	return new ConnectionPoolStatistics(requests.get(), reusedConnections.get(), handshakesCount,
+		averageHandshakeMillis, evictedConnections.get(), idle, open);
+    }
+
+    /**
+     * Returns histogram of time spent opening new connections, including TLS handshakes.
+     */
+    public Histogram getConnectLatency() {
+	return connectLatency;
+    }
+
+    /**
+     * Closes idle connections and stops eviction, connections in use are closed when their responses are.
+     */
+    public void shutdown() {
+	evictor.shutdownNow();
+	lock.lock();
+	try {
+	    for (Deque<HttpConnection> connections : idleConnections.values()) {
+		for (HttpConnection connection : connections) {
+		    discard(connection);
+		}
+	    }
+	    idleConnections.clear();
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Body of a response, that gives its connection back to the pool as soon as the body was read to the end.
+     */
+    private class ResponseInputStream extends InputStream {
+
+	private final HttpConnection connection;
+	private final InputStream inputStream;
+	private final boolean keepAlive;
+	private long remainder;
+	private boolean finished;
+
+	/**
+	 * @param remainder
+	 *            length of the body, {@code -1} if the body ends with its encoding or with the connection
+	 */
+	ResponseInputStream(HttpConnection connection, InputStream inputStream, long remainder, boolean keepAlive)
+		throws IOException {
+	    this.connection = connection;
+	    this.inputStream = inputStream;
+	    this.remainder = remainder;
+	    this.keepAlive = keepAlive;
+	    if (remainder == 0) {
+		finish(true);
+	    }
+	}
+
+	@Override
+	public int read() throws IOException {
+	    byte[] oneByte = new byte[1];
+	    return (read(oneByte, 0, 1) == -1) ? -1 : (oneByte[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    if (finished) {
+		return -1;
+	    }
+	    if (length == 0) {
+		return 0;
+	    }
+	    int numberOfReadBytes;
+	    try {
+		numberOfReadBytes = inputStream.read(buffer, offset, (int) ((remainder == -1) ? length : Math.min(length,
+			remainder)));
+	    }
+	    catch (IOException e) {
+		finish(false);
+		throw e;
+	    }
+	    if (numberOfReadBytes == -1) {
+		if (remainder > 0) {
+		    finish(false);
+		    throw new IOException("Connection was closed with '" + remainder + "' bytes of body left");
+		}
+		finish(inputStream instanceof ChunkedInputStream);
+		return -1;
+	    }
+	    if (remainder != -1) {
+		remainder -= numberOfReadBytes;
+		if (remainder == 0) {
+		    finish(true);
+		}
+	    }
+	    else if ((inputStream instanceof ChunkedInputStream) && ((ChunkedInputStream) inputStream).isFinished()) {
+		finish(true);
+	    }
+	    return numberOfReadBytes;
+	}
+
+	@Override
+	public int available() throws IOException {
+	    if (finished) {
+		return 0;
+	    }
+	    int available = inputStream.available();
+	    return (remainder == -1) ? available : (int) Math.min(available, remainder);
+	}
+
+	private void finish(boolean fullyRead) {
+	    if (finished) {
+		return;
+	    }
+	    finished = true;
+	    if (fullyRead && keepAlive) {
+		release(connection);
+	    }
+	    else {
+		discard(connection);
+	    }
+	}
+
+	@Override
+	public void close() throws IOException {
+	    if (finished) {
+		return;
+	    }
+	    if (keepAlive && (remainder != -1) && (remainder <= MAX_DRAINED_BYTES)) {
+		byte[] buffer = new byte[(int) Math.min(remainder, 8192)];
+		try {
+		    while (!finished && (read(buffer, 0, buffer.length) != -1)) {
+			// the rest of the body is dropped
+		    }
+		}
+		catch (IOException e) {
+		    LOGGER.debug("Rest of the body could not be read: {}", e.getMessage());
+		}
+	    }
+	    finish(false);
+	}
+    }
+
+}
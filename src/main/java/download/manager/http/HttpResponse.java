@@ -0,0 +1,85 @@
+package download.manager.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Status, headers and body of a response. Closing the response, or reading its body to the end, gives the connection
+ * back to the pool.
+ */
+public class HttpResponse implements Closeable {
+
+    private final URL url;
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final long contentLength;
+    private final InputStream body;
+
+    HttpResponse(URL url, int statusCode, Map<String, String> headers, long contentLength, InputStream body) {
+	this.url = url;
+	this.statusCode = statusCode;
+	this.headers = headers;
+	this.contentLength = contentLength;
+	this.body = body;
+    }
+
+    /**
+     * Returns URL the response came from, it differs from the requested one after redirects.
+     */
+    public URL getUrl() {
+	return url;
+    }
+
+    public int getStatusCode() {
+	return statusCode;
+    }
+
+    /**
+     * Returns value of given header, names are case insensitive.
+     * 
+     * @return value or {@code null} if there is no such header
+     */
+    public String getHeader(String name) {
+	return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns length of the body, {@code -1} if it is not known.
+     */
+    public long getContentLength() {
+	return contentLength;
+    }
+
+    /**
+     * Returns body of the response, like {@link java.net.HttpURLConnection#getInputStream()} fails if the server
+     * returned an error.
+     * 
+     * @throws HttpStatusException
+     *             if status code is 400 or higher
+     */
+    public InputStream getInputStream() throws IOException {
+	if ((statusCode >= 400) || (body == null)) {
+	    close();
+	    throw new HttpStatusException(statusCode, "Server returned HTTP response code: " + statusCode + " for URL: "
+		    + url);
+	}
+	return body;
+    }
+
+    @Override
+    public void close() {
+	if (body != null) {
+	    try {
+		body.close();
+	    }
+	    catch (IOException e) {
+		// nothing to do, the connection is dropped anyway
+	    }
+	}
+    }
+
+}
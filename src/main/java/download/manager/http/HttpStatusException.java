@@ -0,0 +1,23 @@
+package download.manager.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when body of a response is asked for, but the server returned an error.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+	super(message);
+	this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+	return statusCode;
+    }
+
+}
@@ -0,0 +1,355 @@
+package download.manager.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.api.DownloadManager;
+import download.manager.api.DownloadTask;
+import download.manager.api.ExpectedChecksum;
+import download.manager.metrics.PrometheusWriter;
+
+/**
+ * Keeps the registry of download tasks and dispatches commands to them, leaving to subclasses how tasks are created
+ * and how their downloading process is driven.
+ */
+public abstract class AbstractDownloadManager implements DownloadManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractDownloadManager.class);
+
+    // parts of a batch mostly wait for task locks and disk, not for processors
+    private static final int BATCH_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int MIN_BATCH_PART_SIZE = 64;
+
+    protected final TaskRegistry downloadTasks = new TaskRegistry();
+    private final ThreadPoolExecutor batchExecutor = createBatchExecutor();
+
+    /**
+     * Creates pool, that applies batch operations to parts of a batch in parallel. Its threads are daemons and stop
+     * when idle, so the pool does not have to be shut down.
+     */
+    private static ThreadPoolExecutor createBatchExecutor() {
+	final AtomicInteger threadNumber = new AtomicInteger();
+	ThreadPoolExecutor executor = new ThreadPoolExecutor(BATCH_THREADS, BATCH_THREADS, 30, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+		    @Override
+		    public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "download-batch-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		    }
+		});
+	executor.allowCoreThreadTimeOut(true);
+	return executor;
+    }
+
+    /**
+     * Creates new download task, that is not registered yet.
+     * 
+     * @param url
+     *            URL of resource
+     * @param fileName
+     *            name of target file
+     * @param segmentsCount
+     *            number of parallel connections
+     * @param expectedChecksum
+     *            checksums, the resource should match, may be {@code null}
+     * @return new download task
+     */
+    protected abstract DownloadTask createDownloadTask(String url, String fileName, int segmentsCount,
+	    ExpectedChecksum expectedChecksum);
+
+    /**
+     * Starts downloading process of given task.
+     * 
+     * @param downloadTask
+     *            registered download task
+     */
+    protected abstract void start(DownloadTask downloadTask);
+
+    @Override
+    public String add(final String url, final String fileName) {
+	return add(url, fileName, DownloadTaskImpl.DEFAULT_SEGMENTS_COUNT);
+    }
+
+    @Override
+    public String add(final String url, final String fileName, final int segmentsCount) {
+	return add(url, fileName, segmentsCount, null);
+    }
+
+    @Override
+    public String add(final String url, final String fileName, final int segmentsCount,
+	    final ExpectedChecksum expectedChecksum) {
+	LOGGER.info("New download task was added.");
+	DownloadTask downloadTask = createDownloadTask(url, fileName, segmentsCount, expectedChecksum);
+	downloadTasks.put(downloadTask);
+	return downloadTask.getId();
+    }
+
+    @Override
+    public String addAndDownload(final String url, final String fileName) {
+	return addAndDownload(url, fileName, DownloadTaskImpl.DEFAULT_SEGMENTS_COUNT);
+    }
+
+    @Override
+    public String addAndDownload(final String url, final String fileName, final int segmentsCount) {
+	return addAndDownload(url, fileName, segmentsCount, null);
+    }
+
+    @Override
+    public String addAndDownload(final String url, final String fileName, final int segmentsCount,
+	    final ExpectedChecksum expectedChecksum) {
+	LOGGER.info("New download task will be created for URL: '{}', and will be saved to file with a name: '{}'.",
+		url, fileName);
+	DownloadTask downloadTask = createDownloadTask(url, fileName, segmentsCount, expectedChecksum);
+	downloadTasks.put(downloadTask);
+	LOGGER.info("Download task was added: '{}', to set of tasks.", downloadTasks.containsKey(downloadTask.getId()));
+	LOGGER.info("Download task will start downloading process.");
+	start(downloadTask);
+	return downloadTask.getId();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#cancel(int)
+     */
+    @Override
+    public void cancel(String downloadTaskId) {
+	if (downloadTasks.containsKey(downloadTaskId)) {
+	    LOGGER.info("Download task with ID: '{}' will be canceled.", downloadTaskId);
+	    downloadTasks.get(downloadTaskId).cancel();
+	}
+	else {
+	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	}
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#download(int)
+     */
+    @Override
+    public void download(String downloadTaskId) {
+	if (downloadTasks.containsKey(downloadTaskId)) {
+	    LOGGER.info("Download task with ID: '{}' will be downloaded.", downloadTaskId);
+	    start(downloadTasks.get(downloadTaskId));
+	}
+	else {
+	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	}
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#get(int)
+     */
+    @Override
+    public DownloadTask get(String id) {
+	return downloadTasks.get(id);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#get(Collection)
+     */
+    @Override
+    public List<DownloadTask> get(Collection<String> downloadTaskIds) {
+	Validate.notNull(downloadTaskIds, "Passed identifiers can not be null!");
+	List<DownloadTask> foundTasks = new ArrayList<>(downloadTaskIds.size());
+	for (String downloadTaskId : downloadTaskIds) {
+	    DownloadTask downloadTask = downloadTasks.get(downloadTaskId);
+	    if (downloadTask != null) {
+		foundTasks.add(downloadTask);
+	    }
+	}
+	return foundTasks;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#apply(BatchOperation, Collection)
+     */
+    @Override
+    public BatchResult apply(final BatchOperation operation, Collection<String> downloadTaskIds) {
+	Validate.notNull(operation, "Passed operation can not be null!");
+	Validate.notNull(downloadTaskIds, "Passed identifiers can not be null!");
+	List<String> uniqueIds = new ArrayList<>(new LinkedHashSet<>(downloadTaskIds));
+	LOGGER.info("Operation: '{}' will be applied to '{}' download tasks.", operation, uniqueIds.size());
+	final AtomicInteger applied = new AtomicInteger();
+	final Queue<String> notFound = new ConcurrentLinkedQueue<>();
+	final Queue<String> notApplied = new ConcurrentLinkedQueue<>();
+	int partsCount = Math.min(BATCH_THREADS, (uniqueIds.size() + MIN_BATCH_PART_SIZE - 1) / MIN_BATCH_PART_SIZE);
+	if (partsCount <= 1) {
+	    apply(operation, uniqueIds, applied, notFound, notApplied);
+	}
+	else {
+	    // tasks are locked one by one, so parts of the batch do not contend with each other
+	    List<Callable<Void>> parts = new ArrayList<>(partsCount);
+	    int partSize = (uniqueIds.size() + partsCount - 1) / partsCount;
+	    for (int from = 0; from < uniqueIds.size(); from += partSize) {
+		final List<String> partIds = uniqueIds.subList(from, Math.min(from + partSize, uniqueIds.size()));
+		parts.add(new Callable<Void>() {
+
+		    @Override
+		    public Void call() {
+			apply(operation, partIds, applied, notFound, notApplied);
+			return null;
+		    }
+		});
+	    }
+	    try {
+		batchExecutor.invokeAll(parts);
+	    }
+	    catch (InterruptedException e) {
+		LOGGER.warn("Operation: '{}' was interrupted before it was applied to all download tasks.", operation);
+		Thread.currentThread().interrupt();
+	    }
+	}
+	return new BatchResult(operation, uniqueIds.size(), applied.get(), new ArrayList<>(notFound),
+		new ArrayList<>(notApplied));
+    }
+
+    private void apply(BatchOperation operation, List<String> downloadTaskIds, AtomicInteger applied,
+	    Queue<String> notFound, Queue<String> notApplied) {
+	for (String downloadTaskId : downloadTaskIds) {
+	    DownloadTask downloadTask = downloadTasks.get(downloadTaskId);
+	    if (downloadTask == null) {
+		notFound.add(downloadTaskId);
+		continue;
+	    }
+	    Status previousStatus = downloadTask.getStatus();
+	    try {
+		operation.apply(this, downloadTask);
+	    }
+	    catch (RuntimeException e) {
+		LOGGER.warn("Operation: '{}' failed for download task with ID: '{}': {}", new Object[] { operation,
+			downloadTaskId, e.getMessage() });
+	    }
+	    if (operation.isApplied(previousStatus, downloadTask.getStatus())) {
+		applied.incrementAndGet();
+	    }
+	    else {
+		notApplied.add(downloadTaskId);
+	    }
+	}
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#apply(BatchOperation, Status)
+     */
+    @Override
+    public BatchResult apply(BatchOperation operation, Status status) {
+	return apply(operation, downloadTasks.ids(status));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#list(Status, int, int)
+     */
+    @Override
+    public List<DownloadTask> list(Status status, int offset, int limit) {
+	return downloadTasks.list(status, offset, limit);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#listIds(Status, int, int)
+     */
+    @Override
+    public List<String> listIds(Status status, int offset, int limit) {
+	return downloadTasks.ids(status, offset, limit);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#count(Status)
+     */
+    @Override
+    public long count(Status status) {
+	return downloadTasks.count(status);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#getMetrics()
+     */
+    @Override
+    public String getMetrics() {
+	PrometheusWriter writer = new PrometheusWriter();
+	writeMetrics(writer);
+	return writer.toString();
+    }
+
+    /**
+     * Writes metrics of this manager, subclasses add their own metrics to the number of tasks per status.
+     * 
+     * @param writer
+     *            writer of metrics in Prometheus text format
+     */
+    protected void writeMetrics(PrometheusWriter writer) {
+	writer.family("download_manager_tasks", "Number of download tasks per status.", "gauge");
+	for (Status status : Status.values()) {
+	    writer.sample("download_manager_tasks", "status", status.name().toLowerCase(Locale.ROOT),
+		    downloadTasks.count(status));
+	}
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#pause(int)
+     */
+    @Override
+    public void pause(String downloadTaskId) {
+	if (downloadTasks.containsKey(downloadTaskId)) {
+	    LOGGER.info("Download task with ID: '{}' will be paused.", downloadTaskId);
+	    downloadTasks.get(downloadTaskId).pause();
+	}
+	else {
+	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	}
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#resume(int)
+     */
+    @Override
+    public void resume(String downloadTaskId) {
+	if (downloadTasks.containsKey(downloadTaskId)) {
+	    LOGGER.info("Download task with ID: '{}' will be resumed.", downloadTaskId);
+	    downloadTasks.get(downloadTaskId).resume();
+	}
+	else {
+	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	}
+    }
+
+}
@@ -0,0 +1,35 @@
+package download.manager.impl;
+
+/**
+ * Read size of one connection, that follows its throughput: doubles while reads fill the whole buffer, so a fast link
+ * is read with few large reads, and halves when reads bring less than a quarter of it, so a slow link does not hold a
+ * large buffer. Used by one reading thread at a time.
+ */
+class AdaptiveReadSize {
+
+    static final int INITIAL_READ_SIZE = 16 * 1024;
+
+    private int readSize = INITIAL_READ_SIZE;
+
+    int get() {
+	return readSize;
+    }
+
+    /**
+     * Adjusts read size after a read.
+     * 
+     * @param numberOfReadBytes
+     *            number of bytes the read returned
+     * @param requestedBytes
+     *            number of bytes the read asked for
+     */
+    void update(int numberOfReadBytes, int requestedBytes) {
+	if (numberOfReadBytes >= requestedBytes) {
+	    readSize = Math.min(readSize * 2, BufferPool.MAX_BUFFER_SIZE);
+	}
+	else if (numberOfReadBytes < (requestedBytes / 4)) {
+	    readSize = Math.max(readSize / 2, BufferPool.MIN_BUFFER_SIZE);
+	}
+    }
+
+}
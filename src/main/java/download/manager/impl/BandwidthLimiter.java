@@ -0,0 +1,142 @@
+package download.manager.impl;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds bandwidth limits of a download manager: one for all its downloads and one per host, limits of single tasks are
+ * kept by tasks themselves. Throttled tasks do not sleep in their threads, they are scheduled to continue later with
+ * the timer of this limiter.
+ */
+public class BandwidthLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BandwidthLimiter.class);
+
+    /**
+     * Host name, that stands for every host without its own limit.
+     */
+    public static final String ANY_HOST = "*";
+
+    private final NanoClock clock;
+    private final TokenBucket globalBucket;
+    private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> hostLimits = new ConcurrentHashMap<>();
+    private volatile long anyHostBytesPerSecond;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+	    Thread thread = new Thread(runnable, "bandwidth-limiter");
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    });
+
+    public BandwidthLimiter() {
+	this(NanoClock.SYSTEM);
+    }
+
+    BandwidthLimiter(NanoClock clock) {
+	this.clock = clock;
+	globalBucket = new TokenBucket(0, clock);
+    }
+
+    public long getGlobalLimit() {
+	return globalBucket.getBytesPerSecond();
+    }
+
+    public void setGlobalLimit(long bytesPerSecond) {
+	LOGGER.info("Bandwidth of all download tasks will be limited to: '{}' bytes per second.", bytesPerSecond);
+	globalBucket.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * Sets bandwidth limit of given host, {@link #ANY_HOST} changes limit of every host that has no limit of its own.
+     * 
+     * @param host
+     *            host name
+     * @param bytesPerSecond
+     *            limit, {@code 0} means no limit
+     */
+    public void setHostLimit(String host, long bytesPerSecond) {
+	Validate.notEmpty(host, "Passed host can not be empty!");
+	Validate.isTrue(bytesPerSecond >= 0, "Bandwidth limit can not be negative, but was: %d", bytesPerSecond);
+	LOGGER.info("Bandwidth of host: '{}' will be limited to: '{}' bytes per second.", host, bytesPerSecond);
+	if (ANY_HOST.equals(host)) {
+	    anyHostBytesPerSecond = bytesPerSecond;
+	    for (Entry<String, TokenBucket> hostBucket : hostBuckets.entrySet()) {
+		if (!hostLimits.containsKey(hostBucket.getKey())) {
+		    hostBucket.getValue().setBytesPerSecond(bytesPerSecond);
+		}
+	    }
+	}
+	else {
+	    hostLimits.put(host, bytesPerSecond);
+	    getHostBucket(host).setBytesPerSecond(bytesPerSecond);
+	}
+    }
+
+    public long getHostLimit(String host) {
+	Long hostLimit = hostLimits.get(host);
+	return (hostLimit == null) ? anyHostBytesPerSecond : hostLimit;
+    }
+
+    /**
+     * Returns bucket shared by all downloads from given host, tasks keep it, so no lookup is needed per chunk.
+     * 
+     * @param host
+     *            host name
+     * @return bucket of given host
+     */
+    TokenBucket getHostBucket(String host) {
+	TokenBucket hostBucket = hostBuckets.get(host);
+	if (hostBucket == null) {
+	    Long hostLimit = hostLimits.get(host);
+	    TokenBucket newHostBucket = new TokenBucket((hostLimit == null) ? anyHostBytesPerSecond : hostLimit,
+		    clock);
+	    hostBucket = hostBuckets.putIfAbsent(host, newHostBucket);
+	    if (hostBucket == null) {
+		hostBucket = newHostBucket;
+	    }
+	}
+	return hostBucket;
+    }
+
+    /**
+     * Pays for transferred bytes at every level.
+     * 
+     * @return nanoseconds the task should wait before the next transfer, {@code 0} if it can go on immediately
+     */
+    long consume(TokenBucket hostBucket, TokenBucket taskBucket, int numberOfBytes) {
+	long delay = globalBucket.consume(numberOfBytes);
+	delay = Math.max(delay, hostBucket.consume(numberOfBytes));
+	return Math.max(delay, taskBucket.consume(numberOfBytes));
+    }
+
+    /**
+     * Runs given continuation of a throttled task after given delay.
+     */
+    void schedule(Runnable continuation, long delayNanos) {
+	try {
+	    timer.schedule(continuation, delayNanos, TimeUnit.NANOSECONDS);
+	}
+	catch (RejectedExecutionException e) {
+	    LOGGER.warn("Bandwidth limiter was shut down, throttled task will not be continued.");
+	}
+    }
+
+    public void shutdown() {
+	timer.shutdownNow();
+    }
+
+}
@@ -0,0 +1,103 @@
+package download.manager.impl;
+
+import download.manager.api.DownloadTask;
+
+/**
+ * Command, that is applied to many download tasks at once.
+ */
+public enum BatchOperation {
+
+    DOWNLOAD("Download") {
+	@Override
+	void apply(AbstractDownloadManager downloadManager, DownloadTask downloadTask) {
+	    downloadManager.start(downloadTask);
+	}
+
+	@Override
+	boolean isTarget(Status status) {
+	    return (status == Status.DOWNLOADING) || (status == Status.COMPLETED);
+	}
+    },
+
+    PAUSE("Pause") {
+	@Override
+	void apply(AbstractDownloadManager downloadManager, DownloadTask downloadTask) {
+	    downloadTask.pause();
+	}
+
+	@Override
+	boolean isTarget(Status status) {
+	    return status == Status.PAUSED;
+	}
+    },
+
+    RESUME("Resume") {
+	@Override
+	void apply(AbstractDownloadManager downloadManager, DownloadTask downloadTask) {
+	    downloadTask.resume();
+	}
+
+	@Override
+	boolean isTarget(Status status) {
+	    return (status == Status.DOWNLOADING) || (status == Status.COMPLETED);
+	}
+    },
+
+    CANCEL("Cancel") {
+	@Override
+	void apply(AbstractDownloadManager downloadManager, DownloadTask downloadTask) {
+	    downloadTask.cancel();
+	}
+
+	@Override
+	boolean isTarget(Status status) {
+	    return status == Status.CANCELLED;
+	}
+    };
+
+    private final String value;
+
+    private BatchOperation(String value) {
+	this.value = value;
+    }
+
+    abstract void apply(AbstractDownloadManager downloadManager, DownloadTask downloadTask);
+
+    /**
+     * Tells whether given status is one, that this operation brings a task to.
+     */
+    abstract boolean isTarget(Status status);
+
+    /**
+     * Tells whether a task was affected by this operation: it ended up in a target status and was not in one before,
+     * so a task, that was already paused, does not count as paused by {@link #PAUSE}.
+     * 
+     * @param previousStatus
+     *            status of the task before the operation
+     * @param status
+     *            status of the task after the operation
+     */
+    boolean isApplied(Status previousStatus, Status status) {
+	return !isTarget(previousStatus) && isTarget(status);
+    }
+
+    /**
+     * Finds operation by its name or value, ignoring case.
+     * 
+     * @return found operation or {@code null} if there is no such operation
+     */
+    public static BatchOperation parse(String value) {
+	for (BatchOperation operation : values()) {
+	    if (operation.name().equalsIgnoreCase(value) || operation.value.equalsIgnoreCase(value)) {
+		return operation;
+	    }
+	}
+	return null;
+    }
+
+    @Override
+    public String toString() {
+	return value;
+    }
+
+}
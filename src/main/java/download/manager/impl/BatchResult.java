@@ -0,0 +1,65 @@
+package download.manager.impl;
+
+import java.util.List;
+
+/**
+ * Aggregated outcome of a {@link BatchOperation}: how many tasks it was applied to, and identifiers of tasks, that
+ * were not found or did not change their status.
+ */
+public class BatchResult {
+    private BatchOperation operation;
+    private int requested;
+    private int applied;
+    private List<String> notFound;
+    private List<String> notApplied;
+
+    public BatchResult(BatchOperation operation, int requested, int applied, List<String> notFound,
+	    List<String> notApplied) {
+	this.operation = operation;
+	this.requested = requested;
+	this.applied = applied;
+	this.notFound = notFound;
+	this.notApplied = notApplied;
+    }
+
+    public BatchOperation getOperation() {
+	return operation;
+    }
+
+    public void setOperation(BatchOperation operation) {
+	this.operation = operation;
+    }
+
+    public int getRequested() {
+	return requested;
+    }
+
+    public void setRequested(int requested) {
+	this.requested = requested;
+    }
+
+    public int getApplied() {
+	return applied;
+    }
+
+    public void setApplied(int applied) {
+	this.applied = applied;
+    }
+
+    public List<String> getNotFound() {
+	return notFound;
+    }
+
+    public void setNotFound(List<String> notFound) {
+	this.notFound = notFound;
+    }
+
+    public List<String> getNotApplied() {
+	return notApplied;
+    }
+
+    public void setNotApplied(List<String> notApplied) {
+	this.notApplied = notApplied;
+    }
+
+}
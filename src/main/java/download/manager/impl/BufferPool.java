@@ -0,0 +1,157 @@
+package download.manager.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Read buffers shared by all download tasks of a manager. Buffers have sizes of powers of two from
+ * {@link #MIN_BUFFER_SIZE} to {@link #MAX_BUFFER_SIZE}, heap ones for stream transfers and direct ones for channel
+ * transfers. A transfer holds a buffer only for one read and write, so memory depends on the number of threads reading
+ * at the same moment, not on the number of tasks. Pooled buffers never take more than the budget: when a buffer of
+ * requested size does not fit, a smaller one is given, and when nothing fits, a temporary heap buffer is dropped on
+ * release.
+ */
+public class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    public static final long DEFAULT_BUDGET_BYTES = 64 * 1024 * 1024;
+
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int SIZE_CLASSES = (Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_SHIFT) + 1;
+
+    private final long budgetBytes;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong overBudgetAllocations = new AtomicLong();
+    private final List<Queue<ByteBuffer>> heapBuffers = createSizeClasses();
+    private final List<Queue<ByteBuffer>> directBuffers = createSizeClasses();
+
+    public BufferPool() {
+	this(DEFAULT_BUDGET_BYTES);
+    }
+
+    public BufferPool(long budgetBytes) {
+	Validate.isTrue(budgetBytes >= MIN_BUFFER_SIZE, "Budget of buffers should be at least %d bytes, but was: %d",
+		MIN_BUFFER_SIZE, budgetBytes);
+	this.budgetBytes = budgetBytes;
+    }
+
+    private static List<Queue<ByteBuffer>> createSizeClasses() {
+	List<Queue<ByteBuffer>> sizeClasses = new ArrayList<>(SIZE_CLASSES);
+	for (int i = 0; i < SIZE_CLASSES; i++) {
+	    sizeClasses.add(new ConcurrentLinkedQueue<ByteBuffer>());
+	}
+	return sizeClasses;
+    }
+
+    /**
+     * Returns the size class of the largest pooled buffer, that is not larger than given size.
+     */
+    private static int sizeClassOf(int size) {
+	int boundedSize = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, size));
+	return (31 - Integer.numberOfLeadingZeros(boundedSize)) - MIN_SIZE_SHIFT;
+    }
+
+    private static int sizeOf(int sizeClass) {
+	return MIN_BUFFER_SIZE << sizeClass;
+    }
+
+    private boolean reserve(int size) {
+	while (true) {
+	    long allocated = allocatedBytes.get();
+	    if ((allocated + size) > budgetBytes) {
+		return false;
+	    }
+	    if (allocatedBytes.compareAndSet(allocated, allocated + size)) {
+		return true;
+	    }
+	}
+    }
+
+    private ByteBuffer allocate(int size, boolean direct) {
+	allocations.incrementAndGet();
+	return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Takes a buffer for one read, it should be given back with {@link #release(ByteBuffer)} right after the read bytes
+     * were written.
+     * 
+     * @param size
+     *            wanted size, rounded down to a power of two
+     * @param direct
+     *            whether a direct buffer is wanted, a heap one may be given when the budget is exhausted
+     * @return cleared buffer, its remaining bytes may be less than wanted size
+     */
+    public ByteBuffer acquire(int size, boolean direct) {
+	acquisitions.incrementAndGet();
+	List<Queue<ByteBuffer>> buffers = direct ? directBuffers : heapBuffers;
+	for (int sizeClass = sizeClassOf(size); sizeClass >= 0; sizeClass--) {
+	    ByteBuffer buffer = buffers.get(sizeClass).poll();
+	    if (buffer != null) {
+		buffer.clear();
+		return buffer;
+	    }
+	    if (reserve(sizeOf(sizeClass))) {
+		return allocate(sizeOf(sizeClass), direct);
+	    }
+	}
+	// the budget is taken by larger buffers, one of them reads less than it could rather than memory grows
+	for (int sizeClass = sizeClassOf(size) + 1; sizeClass < SIZE_CLASSES; sizeClass++) {
+	    ByteBuffer buffer = buffers.get(sizeClass).poll();
+	    if (buffer != null) {
+		buffer.clear();
+		buffer.limit(Math.max(MIN_BUFFER_SIZE, size));
+		return buffer;
+	    }
+	}
+	overBudgetAllocations.incrementAndGet();
+	allocatedBytes.addAndGet(MIN_BUFFER_SIZE);
+	return allocate(MIN_BUFFER_SIZE, false);
+    }
+
+    /**
+     * Gives back a buffer taken with {@link #acquire(int, boolean)}, the buffer must not be used after that.
+     */
+    public void release(ByteBuffer buffer) {
+	int capacity = buffer.capacity();
+	if (allocatedBytes.get() > budgetBytes) {
+	    // buffers allocated over the budget are dropped, until pooled memory is back within the budget
+	    allocatedBytes.addAndGet(-capacity);
+	    return;
+	}
+	(buffer.isDirect() ? directBuffers : heapBuffers).get(sizeClassOf(capacity)).offer(buffer);
+    }
+
+    public long getBudgetBytes() {
+	return budgetBytes;
+    }
+
+    /**
+     * Returns memory taken by buffers, pooled and currently in use.
+     */
+    public long getAllocatedBytes() {
+	return allocatedBytes.get();
+    }
+
+    public long getAcquisitions() {
+	return acquisitions.get();
+    }
+
+    public long getAllocations() {
+	return allocations.get();
+    }
+
+    public long getOverBudgetAllocations() {
+	return overBudgetAllocations.get();
+    }
+
+}
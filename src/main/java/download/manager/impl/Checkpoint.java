@@ -0,0 +1,162 @@
+package download.manager.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of a download task, as stored in its temporary file: position up to which the target file is on disk,
+ * positions of segments, validators of the resource, that tell whether it was changed since, and position in the
+ * encoded response of a compressed resource.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x444D4350;
+    private static final String NEW_FILE_SUFFIX = ".new";
+
+    private final long downloadedBytes;
+    private final List<Segment> segments;
+    private final String entityTag;
+    private final String lastModified;
+    private final long encodedBytes;
+
+    public Checkpoint(long downloadedBytes, List<Segment> segments, String entityTag, String lastModified) {
+	this(downloadedBytes, segments, entityTag, lastModified, -1);
+    }
+
+    public Checkpoint(long downloadedBytes, List<Segment> segments, String entityTag, String lastModified,
+	    long encodedBytes) {
+	this.downloadedBytes = downloadedBytes;
+	this.segments = segments;
+	this.entityTag = entityTag;
+	this.lastModified = lastModified;
+	this.encodedBytes = encodedBytes;
+    }
+
+    public long getDownloadedBytes() {
+	return downloadedBytes;
+    }
+
+    /**
+     * Returns stored segments, {@code null} if the resource is downloaded over one connection.
+     */
+    public List<Segment> getSegments() {
+	return segments;
+    }
+
+    public String getEntityTag() {
+	return entityTag;
+    }
+
+    public String getLastModified() {
+	return lastModified;
+    }
+
+    /**
+     * Returns number of encoded bytes, that were decoded into the stored position or more, {@code -1} if the resource
+     * is not downloaded compressed.
+     */
+    public long getEncodedBytes() {
+	return encodedBytes;
+    }
+
+    /**
+     * Reads checkpoint from given file, files written by previous versions hold only the position, optionally followed
+     * by segments, or end without the encoded position.
+     * 
+     * @return stored checkpoint or {@code null} if the file is missing or empty
+     */
+    public static Checkpoint read(File file) throws IOException {
+	long fileLength = file.length();
+	if (fileLength < 4) {
+	    return null;
+	}
+	try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+	    if (fileLength == 4) {
+		return new Checkpoint(input.readInt(), null, null, null);
+	    }
+	    long downloadedBytes;
+	    String entityTag = null;
+	    String lastModified = null;
+	    int header = input.readInt();
+	    if (header == MAGIC) {
+		downloadedBytes = input.readLong();
+		entityTag = emptyToNull(input.readUTF());
+		lastModified = emptyToNull(input.readUTF());
+	    }
+	    else {
+		downloadedBytes = ((long) header << 32) | (input.readInt() & 0xFFFFFFFFL);
+		if (fileLength == 8) {
+		    return new Checkpoint(downloadedBytes, null, null, null);
+		}
+	    }
+	    int segmentsCount = input.readInt();
+	    List<Segment> segments = null;
+	    if (segmentsCount > 0) {
+		segments = new ArrayList<>(segmentsCount);
+		for (int i = 0; i < segmentsCount; i++) {
+		    long start = input.readLong();
+		    long end = input.readLong();
+		    long position = input.readLong();
+		    segments.add(new Segment(i, start, end, position));
+		}
+	    }
+	    long encodedBytes = (input.available() >= 8) ? input.readLong() : -1;
+	    return new Checkpoint(downloadedBytes, segments, entityTag, lastModified, encodedBytes);
+	}
+    }
+
+    /**
+     * Replaces given file with this checkpoint atomically: a crash leaves either the previous checkpoint or this one,
+     * never a part of it.
+     */
+    public void write(File file) throws IOException {
+	File newFile = new File(file.getPath() + NEW_FILE_SUFFIX);
+	try (FileOutputStream fileOutputStream = new FileOutputStream(newFile);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+	    output.writeInt(MAGIC);
+	    output.writeLong(downloadedBytes);
+	    output.writeUTF((entityTag == null) ? "" : entityTag);
+	    output.writeUTF((lastModified == null) ? "" : lastModified);
+	    output.writeInt((segments == null) ? 0 : segments.size());
+	    if (segments != null) {
+		for (Segment segment : segments) {
+		    output.writeLong(segment.getStart());
+		    output.writeLong(segment.getEnd());
+		    output.writeLong(segment.getPosition());
+		}
+	    }
+	    output.writeLong(encodedBytes);
+	    output.flush();
+	    fileOutputStream.getFD().sync();
+	}
+	Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tells whether resource with given validators is the same, that was checkpointed. Validators that are missing on
+     * either side are not compared.
+     */
+    public boolean matches(String entityTag, String lastModified) {
+	if ((this.entityTag != null) && (entityTag != null)) {
+	    return this.entityTag.equals(entityTag);
+	}
+	if ((this.lastModified != null) && (lastModified != null)) {
+	    return this.lastModified.equals(lastModified);
+	}
+	return true;
+    }
+
+    private static String emptyToNull(String value) {
+	return value.isEmpty() ? null : value;
+    }
+
+}
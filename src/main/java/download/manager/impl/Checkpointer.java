@@ -0,0 +1,138 @@
+package download.manager.impl;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores progress of downloading tasks in background: every task is checkpointed once per interval, and in between as
+ * soon as it has downloaded a given number of bytes since its last checkpoint. Checkpoints are written by a single
+ * thread, so downloading threads never wait for the disk.
+ */
+public class Checkpointer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Checkpointer.class);
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+    public static final long DEFAULT_BYTES_THRESHOLD = 64 * 1024 * 1024;
+
+    private final Set<DownloadTaskImpl> downloadTasks = Collections
+	    .newSetFromMap(new ConcurrentHashMap<DownloadTaskImpl, Boolean>());
+    private final BlockingQueue<Object> requests = new LinkedBlockingQueue<>();
+    private final Object wakeUp = new Object();
+    private final Thread thread;
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile long bytesThreshold = DEFAULT_BYTES_THRESHOLD;
+    private volatile boolean running = true;
+
+    public Checkpointer() {
+	thread = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		checkpointTasks();
+	    }
+	}, "download-checkpointer");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * Sets how often progress of downloading tasks is stored.
+     * 
+     * @param intervalMillis
+     *            milliseconds between periodic checkpoints of a task
+     * @param bytesThreshold
+     *            number of downloaded bytes after which a task is checkpointed before its interval ends, {@code 0}
+     *            means only periodic checkpoints
+     */
+    public void setPolicy(long intervalMillis, long bytesThreshold) {
+	Validate.isTrue(intervalMillis > 0, "Checkpoint interval should be positive, but was: %d", intervalMillis);
+	Validate.isTrue(bytesThreshold >= 0, "Checkpoint threshold can not be negative, but was: %d", bytesThreshold);
+	LOGGER.info("Downloading tasks will be checkpointed every '{}' ms, or after '{}' bytes.", intervalMillis,
+		bytesThreshold);
+	this.intervalMillis = intervalMillis;
+	this.bytesThreshold = bytesThreshold;
+	requests.add(wakeUp);
+    }
+
+    public long getIntervalMillis() {
+	return intervalMillis;
+    }
+
+    public long getBytesThreshold() {
+	return bytesThreshold;
+    }
+
+    void register(DownloadTaskImpl downloadTask) {
+	downloadTasks.add(downloadTask);
+    }
+
+    void unregister(DownloadTaskImpl downloadTask) {
+	downloadTasks.remove(downloadTask);
+    }
+
+    /**
+     * Asks for a checkpoint of given task out of turn, the caller does not wait for it.
+     */
+    void request(DownloadTaskImpl downloadTask) {
+	requests.add(downloadTask);
+    }
+
+    private void checkpointTasks() {
+	long nextCheckpointTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+	while (running) {
+	    try {
+		Object request = requests.poll(Math.max(0, nextCheckpointTime - System.nanoTime()),
+			TimeUnit.NANOSECONDS);
+		if (request == wakeUp) {
+		    // policy was changed or checkpointer is shutting down
+		    nextCheckpointTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		    continue;
+		}
+		if (request != null) {
+		    ((DownloadTaskImpl) request).checkpoint();
+		    continue;
+		}
+	    }
+	    catch (InterruptedException e) {
+		return;
+	    }
+	    checkpointAll();
+	    nextCheckpointTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+	}
+    }
+
+    private void checkpointAll() {
+	int checkpointedTasks = 0;
+	for (DownloadTaskImpl downloadTask : downloadTasks) {
+	    if (downloadTask.checkpoint()) {
+		checkpointedTasks++;
+	    }
+	}
+	LOGGER.debug("Progress of '{}' download tasks was checkpointed.", checkpointedTasks);
+    }
+
+    /**
+     * Stops the checkpointer, after progress of all downloading tasks was stored for the last time.
+     */
+    public void shutdown() {
+	running = false;
+	requests.add(wakeUp);
+	try {
+	    thread.join();
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	checkpointAll();
+    }
+
+}
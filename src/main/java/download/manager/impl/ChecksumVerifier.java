@@ -0,0 +1,490 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.api.ChecksumAlgorithm;
+import download.manager.api.ExpectedChecksum;
+
+/**
+ * Verifies checksums of a download task while it is downloaded. The task reports every range it wrote to the target
+ * file, once a chunk is written completely it is read back and hashed on the checksum executor, in parallel with other
+ * chunks and off the threads, that read from connections. The chunk was written just now, so it is read from the page
+ * cache, not from the disk. A chunk, that does not match its digest, is downloaded again. Digest of the whole resource
+ * is computed from verified chunks in their order and compared once the last chunk was hashed.
+ */
+class ChecksumVerifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumVerifier.class);
+
+    /**
+     * Size of chunks, the whole resource is hashed in, when no chunk digests are expected.
+     */
+    static final long DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    static final int MAX_REFETCHES = 3;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final DownloadTaskImpl downloadTask;
+    private final ExpectedChecksum expectedChecksum;
+    private final Executor executor;
+    private final File file;
+    private final long chunkSize;
+    // all fields below are guarded by this
+    // disjoint written ranges of the file, start to exclusive end
+    private final TreeMap<Long, Long> writtenRanges = new TreeMap<>();
+    private final BitSet submittedChunks = new BitSet();
+    private final BitSet verifiedChunks = new BitSet();
+    private final Map<Integer, Integer> refetches = new HashMap<>();
+    private long length = -1;
+    private Hasher resourceHasher;
+    private int nextHashedChunk;
+    private boolean hashing;
+    private int generation;
+    private boolean finished;
+    private String failure;
+
+    /**
+     * @param executor
+     *            executor, chunks are hashed in
+     */
+    ChecksumVerifier(DownloadTaskImpl downloadTask, ExpectedChecksum expectedChecksum, Executor executor) {
+	this.downloadTask = downloadTask;
+	this.expectedChecksum = expectedChecksum;
+	this.executor = executor;
+	file = new File(downloadTask.getFileName());
+	chunkSize = (expectedChecksum.getChunkDigests() == null) ? DEFAULT_CHUNK_SIZE : expectedChecksum.getChunkSize();
+	resourceHasher = newResourceHasher();
+    }
+
+    private Hasher newResourceHasher() {
+	return (expectedChecksum.getDigest() == null) ? null : Hasher.of(expectedChecksum.getAlgorithm());
+    }
+
+    /**
+     * Forgets everything written so far, called when the resource is downloaded from the beginning again.
+     */
+    synchronized void reset() {
+	writtenRanges.clear();
+	submittedChunks.clear();
+	verifiedChunks.clear();
+	refetches.clear();
+	length = -1;
+	resourceHasher = newResourceHasher();
+	nextHashedChunk = 0;
+	hashing = false;
+	generation++;
+	finished = false;
+	failure = null;
+    }
+
+    /**
+     * Called after given range was written to the target file.
+     */
+    void written(long offset, long numberOfBytes) {
+	if (numberOfBytes <= 0) {
+	    return;
+	}
+	List<Integer> writtenChunks;
+	synchronized (this) {
+	    if (finished) {
+		return;
+	    }
+	    addRange(offset, offset + numberOfBytes);
+	    writtenChunks = collectWrittenChunks(offset, offset + numberOfBytes);
+	}
+	submit(writtenChunks);
+    }
+
+    /**
+     * Called once the whole resource of given length was written, the task is completed when its chunks are verified.
+     */
+    void complete(long resourceLength) {
+	List<Integer> writtenChunks;
+	synchronized (this) {
+	    if (finished) {
+		return;
+	    }
+	    length = resourceLength;
+	    List<String> chunkDigests = expectedChecksum.getChunkDigests();
+	    if ((chunkDigests != null) && (chunkDigests.size() != getChunksCount())) {
+		fail("Resource has " + getChunksCount() + " chunks, but " + chunkDigests.size() + " were expected");
+		writtenChunks = null;
+	    }
+	    else {
+		writtenChunks = collectWrittenChunks(0, length);
+	    }
+	}
+	if (writtenChunks == null) {
+	    deliver();
+	    return;
+	}
+	submit(writtenChunks);
+	advance();
+    }
+
+    /**
+     * Tells whether the whole resource was written, so only verification and refetched chunks are left.
+     */
+    synchronized boolean isWritten() {
+	return length >= 0;
+    }
+
+    /**
+     * Passes outcome of the verification to the task again, if it was paused when the verification finished.
+     */
+    void resume() {
+	boolean delivered;
+	synchronized (this) {
+	    delivered = finished;
+	}
+	if (delivered) {
+	    deliver();
+	}
+	else {
+	    advance();
+	}
+    }
+
+    /**
+     * Should be called while holding the lock of the verifier.
+     */
+    private int getChunksCount() {
+	return (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    private long chunkStart(int chunk) {
+	return chunk * chunkSize;
+    }
+
+    /**
+     * Returns exclusive end of given chunk. Should be called while holding the lock of the verifier.
+     */
+    private long chunkEnd(int chunk) {
+	long end = chunkStart(chunk) + chunkSize;
+	return (length >= 0) ? Math.min(end, length) : end;
+    }
+
+    /**
+     * Returns chunks overlapping given range, that are written completely now and were not verified yet, they are
+     * marked as submitted. Should be called while holding the lock of the verifier.
+     */
+    private List<Integer> collectWrittenChunks(long start, long end) {
+	List<Integer> writtenChunks = new ArrayList<>(2);
+	if (end <= start) {
+	    return writtenChunks;
+	}
+	int lastChunk = (int) ((end - 1) / chunkSize);
+	for (int chunk = (int) (start / chunkSize); chunk <= lastChunk; chunk++) {
+	    if (!submittedChunks.get(chunk) && ((length < 0) || (chunkStart(chunk) < length))
+		    && isWritten(chunkStart(chunk), chunkEnd(chunk))) {
+		submittedChunks.set(chunk);
+		writtenChunks.add(chunk);
+	    }
+	}
+	return writtenChunks;
+    }
+
+    private boolean isWritten(long start, long end) {
+	Map.Entry<Long, Long> range = writtenRanges.floorEntry(start);
+	return (range != null) && (range.getValue() >= end);
+    }
+
+    private void addRange(long start, long end) {
+	long mergedStart = start;
+	long mergedEnd = end;
+	Map.Entry<Long, Long> previous = writtenRanges.floorEntry(start);
+	if ((previous != null) && (previous.getValue() >= start)) {
+	    mergedStart = previous.getKey();
+	    mergedEnd = Math.max(mergedEnd, previous.getValue());
+	}
+	Map.Entry<Long, Long> next = writtenRanges.ceilingEntry(mergedStart);
+	while ((next != null) && (next.getKey() <= mergedEnd)) {
+	    mergedEnd = Math.max(mergedEnd, next.getValue());
+	    writtenRanges.remove(next.getKey());
+	    next = writtenRanges.ceilingEntry(mergedStart);
+	}
+	writtenRanges.put(mergedStart, mergedEnd);
+    }
+
+    private void removeRange(long start, long end) {
+	Map.Entry<Long, Long> range = writtenRanges.lowerEntry(end);
+	while ((range != null) && (range.getValue() > start)) {
+	    writtenRanges.remove(range.getKey());
+	    if (range.getKey() < start) {
+		writtenRanges.put(range.getKey(), start);
+	    }
+	    if (range.getValue() > end) {
+		writtenRanges.put(end, range.getValue());
+	    }
+	    range = writtenRanges.lowerEntry(range.getKey());
+	}
+    }
+
+    private void submit(List<Integer> chunks) {
+	for (final int chunk : chunks) {
+	    final int submittedGeneration;
+	    synchronized (this) {
+		submittedGeneration = generation;
+	    }
+	    executor.execute(new Runnable() {
+
+		@Override
+		public void run() {
+		    verifyChunk(chunk, submittedGeneration);
+		}
+	    });
+	}
+    }
+
+    private void verifyChunk(int chunk, int submittedGeneration) {
+	long start;
+	long end;
+	synchronized (this) {
+	    if (finished || (generation != submittedGeneration)) {
+		return;
+	    }
+	    start = chunkStart(chunk);
+	    end = chunkEnd(chunk);
+	}
+	List<String> chunkDigests = expectedChecksum.getChunkDigests();
+	if (chunkDigests != null) {
+	    String digest;
+	    try {
+		Hasher hasher = Hasher.of(expectedChecksum.getAlgorithm());
+		hash(hasher, start, end);
+		digest = hasher.hexDigest();
+	    }
+	    catch (IOException e) {
+		failAndDeliver("Chunk " + chunk + " could not be read: " + e.getMessage());
+		return;
+	    }
+	    if ((chunk >= chunkDigests.size()) || !chunkDigests.get(chunk).equals(digest)) {
+		mismatch(chunk, submittedGeneration, start, end);
+		return;
+	    }
+	}
+	synchronized (this) {
+	    if (generation != submittedGeneration) {
+		return;
+	    }
+	    verifiedChunks.set(chunk);
+	}
+	advance();
+    }
+
+    private void mismatch(int chunk, int submittedGeneration, long start, long end) {
+	int attempts;
+	synchronized (this) {
+	    if (finished || (generation != submittedGeneration)) {
+		return;
+	    }
+	    Integer previousAttempts = refetches.get(chunk);
+	    attempts = (previousAttempts == null) ? 1 : (previousAttempts + 1);
+	    refetches.put(chunk, attempts);
+	    if (attempts <= MAX_REFETCHES) {
+		submittedChunks.clear(chunk);
+		removeRange(start, end);
+	    }
+	}
+	if (attempts > MAX_REFETCHES) {
+	    failAndDeliver("Chunk " + chunk + " does not match its digest after " + MAX_REFETCHES + " refetches");
+	    return;
+	}
+	LOGGER.warn("Chunk '{}' of download task: '{}' does not match its digest, bytes '{}'-'{}' will be downloaded again.",
+		new Object[] { chunk, downloadTask.getId(), start, end - 1 });
+	downloadTask.refetch(chunk, start, end - 1);
+    }
+
+    /**
+     * Hashes verified chunks into the digest of the whole resource in their order, one thread at a time, and finishes
+     * the verification once all chunks are verified and hashed.
+     */
+    private void advance() {
+	while (true) {
+	    int chunk = -1;
+	    int currentGeneration;
+	    Hasher hasher;
+	    long start = 0;
+	    long end = 0;
+	    synchronized (this) {
+		if (finished || hashing) {
+		    return;
+		}
+		currentGeneration = generation;
+		hasher = resourceHasher;
+		boolean lengthKnown = length >= 0;
+		if ((hasher != null) && verifiedChunks.get(nextHashedChunk)
+			&& (!lengthKnown || (nextHashedChunk < getChunksCount()))) {
+		    hashing = true;
+		    chunk = nextHashedChunk;
+		    start = chunkStart(chunk);
+		    end = chunkEnd(chunk);
+		}
+		else if (lengthKnown && (verifiedChunks.cardinality() == getChunksCount())
+			&& ((hasher == null) || (nextHashedChunk == getChunksCount()))) {
+		    if ((hasher != null) && !expectedChecksum.getDigest().equals(hasher.hexDigest())) {
+			fail("Digest of resource does not match " + expectedChecksum);
+		    }
+		    else {
+			finished = true;
+		    }
+		}
+		else {
+		    return;
+		}
+	    }
+	    if (chunk == -1) {
+		deliver();
+		return;
+	    }
+	    try {
+		hash(hasher, start, end);
+	    }
+	    catch (IOException e) {
+		failAndDeliver("Chunk " + chunk + " could not be read: " + e.getMessage());
+		return;
+	    }
+	    synchronized (this) {
+		if (generation != currentGeneration) {
+		    return;
+		}
+		hashing = false;
+		nextHashedChunk++;
+	    }
+	}
+    }
+
+    /**
+     * Should be called while holding the lock of the verifier.
+     */
+    private void fail(String reason) {
+	finished = true;
+	failure = reason;
+    }
+
+    private void failAndDeliver(String reason) {
+	synchronized (this) {
+	    if (finished) {
+		return;
+	    }
+	    fail(reason);
+	}
+	deliver();
+    }
+
+    private void deliver() {
+	String currentFailure;
+	synchronized (this) {
+	    currentFailure = failure;
+	}
+	if (currentFailure == null) {
+	    downloadTask.checksumVerified();
+	}
+	else {
+	    downloadTask.checksumFailed(currentFailure);
+	}
+    }
+
+    private void hash(Hasher hasher, long start, long end) throws IOException {
+	byte[] bytes = new byte[READ_BUFFER_SIZE];
+	ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    long position = start;
+	    while (position < end) {
+		buffer.clear();
+		buffer.limit((int) Math.min(bytes.length, end - position));
+		int numberOfReadBytes = channel.read(buffer, position);
+		if (numberOfReadBytes == -1) {
+		    throw new IOException("File " + file + " ends at " + position);
+		}
+		hasher.update(bytes, numberOfReadBytes);
+		position += numberOfReadBytes;
+	    }
+	}
+    }
+
+    /**
+     * Digest of one algorithm, that is fed with bytes in their order.
+     */
+    abstract static class Hasher {
+
+	abstract void update(byte[] bytes, int length);
+
+	abstract byte[] digest();
+
+	String hexDigest() {
+	    byte[] digest = digest();
+	    char[] hex = new char[digest.length * 2];
+	    for (int i = 0; i < digest.length; i++) {
+		hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0F];
+		hex[(i * 2) + 1] = HEX_DIGITS[digest[i] & 0x0F];
+	    }
+	    return new String(hex);
+	}
+
+	static Hasher of(ChecksumAlgorithm algorithm) {
+	    if (algorithm == ChecksumAlgorithm.CRC32) {
+		return new Crc32Hasher();
+	    }
+	    try {
+		return new MessageDigestHasher(MessageDigest.getInstance("SHA-256"));
+	    }
+	    catch (NoSuchAlgorithmException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+    }
+
+    private static class MessageDigestHasher extends Hasher {
+
+	private final MessageDigest messageDigest;
+
+	MessageDigestHasher(MessageDigest messageDigest) {
+	    this.messageDigest = messageDigest;
+	}
+
+	@Override
+	void update(byte[] bytes, int length) {
+	    messageDigest.update(bytes, 0, length);
+	}
+
+	@Override
+	byte[] digest() {
+	    return messageDigest.digest();
+	}
+    }
+
+    private static class Crc32Hasher extends Hasher {
+
+	private final CRC32 crc = new CRC32();
+
+	@Override
+	void update(byte[] bytes, int length) {
+	    crc.update(bytes, 0, length);
+	}
+
+	@Override
+	byte[] digest() {
+	    long value = crc.getValue();
+	    return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+    }
+
+}
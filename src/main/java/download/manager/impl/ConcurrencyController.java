@@ -0,0 +1,289 @@
+package download.manager.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.impl.ConcurrencyDecision.Action;
+import download.manager.metrics.DownloadMetrics;
+import download.manager.metrics.Histogram;
+
+/**
+ * Tunes how many downloads run at the same time, by additive increase and multiplicative decrease. Every interval the
+ * controller compares throughput of all tasks, mean time to first byte of every host and number of failed tasks with
+ * the previous interval. While work is waiting for the limit, the limit grows by one, until a step does not pay off
+ * anymore: the controller steps back below that knee and holds for a few intervals before it probes again. Failed
+ * tasks, or a host answering much slower than it used to, cut the limit by a quarter. The limit is applied to the
+ * {@link HostScheduler} and never exceeds the maximal limit, which is the pool size set by the user.
+ */
+public class ConcurrencyController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyController.class);
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 2000;
+    /**
+     * Number of limit changes kept for {@link #getDecisions()}.
+     */
+    public static final int MAX_DECISIONS = 100;
+    static final double DECREASE_FACTOR = 0.75;
+    // a step up has to add this share of throughput, otherwise the limit is past the knee
+    static final double MIN_GAIN = 0.05;
+    static final double LATENCY_TOLERANCE = 2;
+    // latency below baseline plus this slack is never treated as congestion, it is noise on fast hosts
+    static final double LATENCY_SLACK_SECONDS = 0.05;
+    // share of the difference, by which baseline latency follows higher latency
+    static final double BASELINE_DRIFT = 0.05;
+    static final int HOLD_INTERVALS = 5;
+
+    private final HostScheduler hostScheduler;
+    private final DownloadMetrics metrics;
+    private final Deque<ConcurrencyDecision> decisions = new ArrayDeque<>();
+    private final Map<Action, Long> actions = new EnumMap<>(Action.class);
+    // host to count and sum of seconds of its time to first byte at the previous sample
+    private final Map<String, double[]> previousLatencies = new HashMap<>();
+    private final Map<String, Double> baselineLatencies = new HashMap<>();
+    private int maxLimit;
+    private int limit;
+    private boolean sampled;
+    private long previousNanos;
+    private long previousBytes;
+    private long previousErrors;
+    private double previousBytesPerSecond;
+    private Action previousAction = Action.HOLD;
+    private int holdIntervals;
+    private ConcurrencyDecision lastDecision;
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates controller, that starts at half of the maximal limit.
+     *
+     * @param hostScheduler
+     *            scheduler, whose number of running pieces of work is limited
+     * @param metrics
+     *            metrics recorded by download tasks of the scheduler
+     * @param maxLimit
+     *            upper bound of the limit
+     */
+    public ConcurrencyController(HostScheduler hostScheduler, DownloadMetrics metrics, int maxLimit) {
+	Validate.notNull(hostScheduler, "Passed host scheduler can not be null!");
+	Validate.notNull(metrics, "Passed metrics can not be null!");
+	this.hostScheduler = hostScheduler;
+	this.metrics = metrics;
+	for (Action action : Action.values()) {
+	    actions.put(action, 0L);
+	}
+	setMaxLimit(maxLimit);
+    }
+
+    /**
+     * Changes upper bound of the limit, a lower bound cuts the limit right away.
+     */
+    public synchronized void setMaxLimit(int maxLimit) {
+	Validate.isTrue(maxLimit > 0, "Maximal limit should be positive, but was: %d", maxLimit);
+	this.maxLimit = maxLimit;
+	if (limit == 0) {
+	    limit = Math.max(1, maxLimit / 2);
+	}
+	else if (limit > maxLimit) {
+	    limit = maxLimit;
+	}
+	hostScheduler.setMaxInFlight(limit);
+    }
+
+    public synchronized int getMaxLimit() {
+	return maxLimit;
+    }
+
+    public synchronized int getLimit() {
+	return limit;
+    }
+
+    /**
+     * Starts adjusting the limit every given number of milliseconds.
+     */
+    public synchronized void start(long intervalMillis) {
+	Validate.isTrue(intervalMillis > 0, "Interval should be positive, but was: %d", intervalMillis);
+	Validate.validState(timer == null, "Concurrency controller was already started!");
+	LOGGER.info("Concurrency limit will be tuned every '{}' ms, starting at: '{}' of: '{}'.", new Object[] {
+		intervalMillis, limit, maxLimit });
+	timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "download-concurrency-controller");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	timer.scheduleWithFixedDelay(new Runnable() {
+
+	    @Override
+	    public void run() {
+		try {
+		    adjust(System.nanoTime());
+		}
+		catch (RuntimeException e) {
+		    // an exception would cancel the periodic task
+		    LOGGER.warn("Concurrency limit was not adjusted.", e);
+		}
+	    }
+	}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops adjusting the limit, the scheduler keeps the last one.
+     */
+    public synchronized void shutdown() {
+	if (timer != null) {
+	    timer.shutdownNow();
+	}
+    }
+
+    /**
+     * Samples metrics of the interval ending at given time and changes the limit, if the samples ask for it.
+     *
+     * @param nowNanos
+     *            current value of {@link System#nanoTime()}
+     * @return decision of the interval, {@code null} for the first sample, that has no interval before it
+     */
+    synchronized ConcurrencyDecision adjust(long nowNanos) {
+	long bytes = metrics.getDownloadedBytes();
+	long errors = 0;
+	for (Long count : metrics.getErrors().values()) {
+	    errors += count;
+	}
+	String congestion = null;
+	double worstLatencySeconds = 0;
+	for (Map.Entry<String, Histogram> hostLatency : metrics.getHostTimeToFirstByte().entrySet()) {
+	    long[] cumulativeCounts = hostLatency.getValue().getCumulativeCounts();
+	    double[] latency = { cumulativeCounts[cumulativeCounts.length - 1],
+		    hostLatency.getValue().getSumSeconds() };
+	    double[] previousLatency = previousLatencies.put(hostLatency.getKey(), latency);
+	    if (!sampled || (previousLatency == null) || (latency[0] == previousLatency[0])) {
+		continue;
+	    }
+	    double meanSeconds = (latency[1] - previousLatency[1]) / (latency[0] - previousLatency[0]);
+	    Double baselineSeconds = baselineLatencies.get(hostLatency.getKey());
+	    if ((baselineSeconds == null) || (meanSeconds < baselineSeconds)) {
+		baselineSeconds = meanSeconds;
+	    }
+	    else {
+		double threshold = Math.max(baselineSeconds * LATENCY_TOLERANCE, baselineSeconds
+			+ LATENCY_SLACK_SECONDS);
+		if ((meanSeconds > threshold) && (congestion == null)) {
+		    congestion = String.format("time to first byte of host '%s' grew from %.0f ms to %.0f ms",
+			    hostLatency.getKey(), baselineSeconds * 1000, meanSeconds * 1000);
+		}
+		baselineSeconds += (meanSeconds - baselineSeconds) * BASELINE_DRIFT;
+	    }
+	    baselineLatencies.put(hostLatency.getKey(), baselineSeconds);
+	    worstLatencySeconds = Math.max(worstLatencySeconds, meanSeconds);
+	}
+	if (!sampled || (nowNanos == previousNanos)) {
+	    sampled = true;
+	    previousNanos = nowNanos;
+	    previousBytes = bytes;
+	    previousErrors = errors;
+	    return null;
+	}
+	double bytesPerSecond = ((bytes - previousBytes) * (double) TimeUnit.SECONDS.toNanos(1))
+		/ (nowNanos - previousNanos);
+	long newErrors = errors - previousErrors;
+	previousNanos = nowNanos;
+	previousBytes = bytes;
+	previousErrors = errors;
+
+	int newLimit = limit;
+	String reason;
+	if (newErrors > 0) {
+	    newLimit = (int) (limit * DECREASE_FACTOR);
+	    reason = newErrors + " download tasks failed";
+	}
+	else if (congestion != null) {
+	    newLimit = (int) (limit * DECREASE_FACTOR);
+	    reason = congestion;
+	}
+	else if (holdIntervals > 0) {
+	    holdIntervals--;
+	    reason = "holding below the knee";
+	}
+	else if (!isSaturated()) {
+	    reason = "no work is waiting for the limit";
+	}
+	else if ((previousAction == Action.INCREASE) && (bytesPerSecond < (previousBytesPerSecond * (1 + MIN_GAIN)))) {
+	    newLimit = limit - 1;
+	    holdIntervals = HOLD_INTERVALS;
+	    reason = "throughput did not grow with the limit";
+	}
+	else if (limit < maxLimit) {
+	    newLimit = limit + 1;
+	    reason = "work is waiting for the limit";
+	}
+	else {
+	    reason = "limit reached the pool size";
+	}
+	newLimit = Math.min(Math.max(newLimit, 1), maxLimit);
+	Action action = (newLimit > limit) ? Action.INCREASE : (newLimit < limit) ? Action.DECREASE : Action.HOLD;
+	ConcurrencyDecision decision = new ConcurrencyDecision(System.currentTimeMillis(), action, reason, limit,
+		newLimit, bytesPerSecond, worstLatencySeconds, newErrors);
+	actions.put(action, actions.get(action) + 1);
+	lastDecision = decision;
+	previousAction = action;
+	previousBytesPerSecond = bytesPerSecond;
+	if (action != Action.HOLD) {
+	    LOGGER.info("Concurrency limit will be changed from: '{}' to: '{}', {}, throughput: '{}' bytes per second.",
+		    new Object[] { limit, newLimit, reason, (long) bytesPerSecond });
+	    limit = newLimit;
+	    hostScheduler.setMaxInFlight(newLimit);
+	    if (decisions.size() == MAX_DECISIONS) {
+		decisions.removeFirst();
+	    }
+	    decisions.addLast(decision);
+	}
+	return decision;
+    }
+
+    private boolean isSaturated() {
+	int queued = 0;
+	int inFlight = 0;
+	for (HostQueueStatistics hostQueueStatistics : hostScheduler.getStatistics()) {
+	    queued += hostQueueStatistics.getQueued();
+	    inFlight += hostQueueStatistics.getInFlight();
+	}
+	return (queued > 0) && (inFlight >= limit);
+    }
+
+    /**
+     * Returns last changes of the limit, the oldest first, at most {@link #MAX_DECISIONS} of them.
+     */
+    public synchronized List<ConcurrencyDecision> getDecisions() {
+	return new ArrayList<>(decisions);
+    }
+
+    /**
+     * Returns decision of the last interval, whether it changed the limit or not.
+     */
+    public synchronized ConcurrencyDecision getLastDecision() {
+	return lastDecision;
+    }
+
+    /**
+     * Returns number of decisions taken so far with given action.
+     */
+    public synchronized long getActions(Action action) {
+	return actions.get(action);
+    }
+
+}
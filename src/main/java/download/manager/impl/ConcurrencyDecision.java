@@ -0,0 +1,75 @@
+package download.manager.impl;
+
+/**
+ * One step of {@link ConcurrencyController}: how the limit of running downloads was changed, why, and what the
+ * controller saw during the interval that led to it.
+ */
+public class ConcurrencyDecision {
+
+    public enum Action {
+	INCREASE, DECREASE, HOLD
+    }
+
+    private final long timeMillis;
+    private final Action action;
+    private final String reason;
+    private final int previousLimit;
+    private final int limit;
+    private final double bytesPerSecond;
+    private final double timeToFirstByteSeconds;
+    private final long errors;
+
+    public ConcurrencyDecision(long timeMillis, Action action, String reason, int previousLimit, int limit,
+	    double bytesPerSecond, double timeToFirstByteSeconds, long errors) {
+	this.timeMillis = timeMillis;
+	this.action = action;
+	this.reason = reason;
+	this.previousLimit = previousLimit;
+	this.limit = limit;
+	this.bytesPerSecond = bytesPerSecond;
+	this.timeToFirstByteSeconds = timeToFirstByteSeconds;
+	this.errors = errors;
+    }
+
+    public long getTimeMillis() {
+	return timeMillis;
+    }
+
+    public Action getAction() {
+	return action;
+    }
+
+    public String getReason() {
+	return reason;
+    }
+
+    public int getPreviousLimit() {
+	return previousLimit;
+    }
+
+    public int getLimit() {
+	return limit;
+    }
+
+    /**
+     * Returns bytes per second downloaded by all tasks during the interval.
+     */
+    public double getBytesPerSecond() {
+	return bytesPerSecond;
+    }
+
+    /**
+     * Returns mean time to first byte of the slowest host during the interval, {@code 0} if no request was sent.
+     */
+    public double getTimeToFirstByteSeconds() {
+	return timeToFirstByteSeconds;
+    }
+
+    /**
+     * Returns number of download tasks, that failed during the interval.
+     */
+    public long getErrors() {
+	return errors;
+    }
+
+}
@@ -0,0 +1,208 @@
+package download.manager.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a response sent with {@code Content-Encoding} gzip or deflate on the fly. Ranges of such a response refer to
+ * encoded bytes, while the target file holds decoded ones, and a decoder can not start in the middle of the encoded
+ * stream. So encoded bytes read from the connection are kept in a file next to the temporary file of the task: a
+ * resumed task decodes that file again, skips bytes already written to the target file and goes on with the range,
+ * that starts at the stored encoded position. Nothing is downloaded twice.
+ */
+class ContentDecoder {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File encodedFile;
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private volatile RandomAccessFile encodedRandomAccessFile;
+
+    ContentDecoder(File encodedFile) {
+	this.encodedFile = encodedFile;
+    }
+
+    /**
+     * Tells whether responses with given {@code Content-Encoding} can be decoded, {@code null} and {@code identity}
+     * mean the response is not encoded.
+     */
+    static boolean isSupported(String contentEncoding) {
+	if (contentEncoding == null) {
+	    return false;
+	}
+	String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+	return encoding.equals("gzip") || encoding.equals("x-gzip") || encoding.equals("deflate");
+    }
+
+    /**
+     * Opens decoded stream of a response. Encoded bytes stored before the response are decoded first, and given
+     * number of decoded bytes is skipped.
+     *
+     * @param responseStream
+     *            body of the response, that starts right after the stored encoded bytes
+     * @param contentEncoding
+     *            encoding of the response
+     * @param encodedPosition
+     *            number of stored encoded bytes, that precede the response, bytes stored beyond it are dropped
+     * @param decodedPosition
+     *            number of decoded bytes already written to the target file
+     * @return stream of decoded bytes following the skipped ones
+     * @throws IOException
+     *             if stored encoded bytes are missing or do not decode to the skipped bytes
+     */
+    InputStream open(InputStream responseStream, String contentEncoding, long encodedPosition, long decodedPosition)
+	    throws IOException {
+	close();
+	RandomAccessFile randomAccessFile = new RandomAccessFile(encodedFile, "rw");
+	encodedRandomAccessFile = randomAccessFile;
+	if (randomAccessFile.length() < encodedPosition) {
+	    throw new IOException("Only " + randomAccessFile.length() + " of " + encodedPosition
+		    + " stored encoded bytes were found in " + encodedFile);
+	}
+	randomAccessFile.setLength(encodedPosition);
+	randomAccessFile.seek(encodedPosition);
+	encodedBytes.set(encodedPosition);
+	InputStream encodedStream = new StoringInputStream(responseStream, randomAccessFile);
+	if (encodedPosition > 0) {
+	    // the stored file is read to its end before the response, so it does not see bytes appended by the response
+	    encodedStream = new SequenceInputStream(new FileInputStream(encodedFile), encodedStream);
+	}
+	InputStream decodedStream = decode(encodedStream, contentEncoding);
+	skip(decodedStream, decodedPosition);
+	return decodedStream;
+    }
+
+    private static InputStream decode(InputStream encodedStream, String contentEncoding) throws IOException {
+	if (!contentEncoding.trim().toLowerCase(Locale.ENGLISH).equals("deflate")) {
+	    return new GZIPInputStream(encodedStream, BUFFER_SIZE);
+	}
+	// deflate should be wrapped in zlib format, some servers send raw deflate data though
+	PushbackInputStream pushbackStream = new PushbackInputStream(encodedStream, 2);
+	int first = pushbackStream.read();
+	int second = pushbackStream.read();
+	if (second == -1) {
+	    throw new EOFException("Deflate stream ended before its header");
+	}
+	pushbackStream.unread(second);
+	pushbackStream.unread(first);
+	boolean wrapped = ((first & 0x0F) == 8) && ((((first << 8) | second) % 31) == 0);
+	return new InflaterInputStream(pushbackStream, new Inflater(!wrapped), BUFFER_SIZE) {
+
+	    @Override
+	    public void close() throws IOException {
+		super.close();
+		// an inflater passed to the stream is not ended by the stream itself
+		inf.end();
+	    }
+	};
+    }
+
+    private static void skip(InputStream decodedStream, long numberOfBytes) throws IOException {
+	byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(numberOfBytes, 1))];
+	long remainingBytes = numberOfBytes;
+	while (remainingBytes > 0) {
+	    int numberOfReadBytes = decodedStream.read(buffer, 0, (int) Math.min(buffer.length, remainingBytes));
+	    if (numberOfReadBytes == -1) {
+		throw new EOFException("Stored encoded bytes decode to " + (numberOfBytes - remainingBytes) + " of "
+			+ numberOfBytes + " downloaded bytes");
+	    }
+	    remainingBytes -= numberOfReadBytes;
+	}
+    }
+
+    /**
+     * Returns position in the encoded stream: stored encoded bytes, together with bytes read from the response.
+     */
+    long getEncodedBytes() {
+	return encodedBytes.get();
+    }
+
+    /**
+     * Forces stored encoded bytes to the disk, before a checkpoint refers to them.
+     */
+    void force() throws IOException {
+	RandomAccessFile randomAccessFile = encodedRandomAccessFile;
+	if (randomAccessFile != null) {
+	    randomAccessFile.getChannel().force(false);
+	}
+    }
+
+    void close() throws IOException {
+	RandomAccessFile randomAccessFile = encodedRandomAccessFile;
+	encodedRandomAccessFile = null;
+	if (randomAccessFile != null) {
+	    randomAccessFile.close();
+	}
+    }
+
+    /**
+     * Closes and deletes stored encoded bytes, once the resource is completed or it is not encoded anymore.
+     */
+    void delete() throws IOException {
+	close();
+	if (encodedFile.exists() && !encodedFile.delete()) {
+	    throw new IOException("File with encoded bytes " + encodedFile + " was not deleted");
+	}
+    }
+
+    /**
+     * Appends every byte read from the response to the stored encoded bytes, before the decoder gets it.
+     */
+    private class StoringInputStream extends FilterInputStream {
+
+	private final RandomAccessFile randomAccessFile;
+
+	StoringInputStream(InputStream responseStream, RandomAccessFile randomAccessFile) {
+	    super(responseStream);
+	    this.randomAccessFile = randomAccessFile;
+	}
+
+	@Override
+	public int read() throws IOException {
+	    int value = super.read();
+	    if (value != -1) {
+		randomAccessFile.write(value);
+		encodedBytes.incrementAndGet();
+	    }
+	    return value;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    int numberOfReadBytes = super.read(buffer, offset, length);
+	    if (numberOfReadBytes > 0) {
+		randomAccessFile.write(buffer, offset, numberOfReadBytes);
+		encodedBytes.addAndGet(numberOfReadBytes);
+	    }
+	    return numberOfReadBytes;
+	}
+
+	@Override
+	public long skip(long numberOfBytes) throws IOException {
+	    // skipped bytes would be missing from stored bytes
+	    byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(numberOfBytes, 1))];
+	    int numberOfReadBytes = read(buffer, 0, (int) Math.min(buffer.length, numberOfBytes));
+	    return Math.max(numberOfReadBytes, 0);
+	}
+
+	@Override
+	public boolean markSupported() {
+	    return false;
+	}
+
+    }
+
+}
@@ -0,0 +1,247 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk stage of a manager: download tasks hand filled read buffers over to it and go on reading, while its own I/O
+ * threads write the buffers to target files. Buffers of a file are written in their order by one thread at a time,
+ * adjacent ones with a single gathering write.
+ * <p>
+ * Bytes, that were handed over and not written yet, are capped. A reader, that finds the cap exceeded, is throttled
+ * like by a bandwidth limit, it gives its thread back and continues later with its connection kept, so no thread waits
+ * for the disk while holding a lock. Each reader adds at most one buffer over the cap.
+ */
+public class DiskWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskWriter.class);
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final long DEFAULT_MAX_PENDING_BYTES = 32 * 1024 * 1024;
+    private static final long MIN_BACKPRESSURE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BACKPRESSURE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // weight of the latest write in the estimated write speed, in 1/8
+    private static final int SPEED_WEIGHT = 1;
+
+    private final BufferPool bufferPool;
+    private final long maxPendingBytes;
+    private final BlockingQueue<WriteBehindFile> readyFiles = new LinkedBlockingQueue<>();
+    private final List<Thread> threads;
+    private volatile FsyncPolicy fsyncPolicy = FsyncPolicy.CHECKPOINT;
+    private volatile boolean preallocation = false;
+    private volatile boolean running = true;
+    // estimated nanoseconds the disk takes per thousand bytes
+    private volatile long nanosPerKilobyte = 1000;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong gatheringWrites = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong backpressureDelays = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    public DiskWriter(BufferPool bufferPool) {
+	this(bufferPool, DEFAULT_THREADS, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * Creates disk stage and starts its I/O threads.
+     *
+     * @param bufferPool
+     *            pool, read buffers are taken from and given back to once they are written
+     * @param threadsCount
+     *            number of I/O threads
+     * @param maxPendingBytes
+     *            bytes, that may wait for the disk, before readers are throttled
+     */
+    public DiskWriter(BufferPool bufferPool, int threadsCount, long maxPendingBytes) {
+	Validate.notNull(bufferPool, "Passed buffer pool can not be null!");
+	Validate.isTrue(threadsCount > 0, "Number of I/O threads should be positive, but was: %d", threadsCount);
+	Validate.isTrue(maxPendingBytes > 0, "Pending bytes cap should be positive, but was: %d", maxPendingBytes);
+	this.bufferPool = bufferPool;
+	this.maxPendingBytes = maxPendingBytes;
+	threads = new ArrayList<>(threadsCount);
+	for (int i = 1; i <= threadsCount; i++) {
+	    Thread thread = new Thread(new Runnable() {
+
+		@Override
+		public void run() {
+		    writeFiles();
+		}
+	    }, "download-disk-writer-" + i);
+	    thread.setDaemon(true);
+	    threads.add(thread);
+	    thread.start();
+	}
+	LOGGER.info("Disk writer with '{}' I/O threads and '{}' bytes cap, was started.", threadsCount, maxPendingBytes);
+    }
+
+    private void writeFiles() {
+	while (running || !readyFiles.isEmpty()) {
+	    WriteBehindFile file;
+	    try {
+		file = readyFiles.poll(100, TimeUnit.MILLISECONDS);
+	    }
+	    catch (InterruptedException e) {
+		// pending writes are still written, the thread stops once there are none
+		continue;
+	    }
+	    if (file != null) {
+		file.drain();
+	    }
+	}
+    }
+
+    /**
+     * Opens given file for writes, that are done by this disk stage.
+     *
+     * @param listener
+     *            called by an I/O thread after every handed over range was written, may be {@code null}
+     */
+    WriteBehindFile open(File file, WriteBehindFile.Listener listener) throws IOException {
+	return new WriteBehindFile(this, file, listener);
+    }
+
+    /**
+     * Queues given file, that has writes to be drained by an I/O thread.
+     */
+    void ready(WriteBehindFile file) {
+	readyFiles.offer(file);
+    }
+
+    void queued(int numberOfBytes) {
+	writes.incrementAndGet();
+	pendingBytes.addAndGet(numberOfBytes);
+    }
+
+    /**
+     * Called by an I/O thread after a gathering write of given buffers.
+     */
+    void written(long numberOfBytes, long writeNanos) {
+	gatheringWrites.incrementAndGet();
+	writtenBytes.addAndGet(numberOfBytes);
+	pendingBytes.addAndGet(-numberOfBytes);
+	if (numberOfBytes >= 1024) {
+	    long latest = (writeNanos * 1024) / numberOfBytes;
+	    nanosPerKilobyte = ((nanosPerKilobyte * (8 - SPEED_WEIGHT)) + (latest * SPEED_WEIGHT)) / 8;
+	}
+    }
+
+    /**
+     * Called for queued bytes, that were dropped, because their file could not be written.
+     */
+    void dropped(long numberOfBytes) {
+	pendingBytes.addAndGet(-numberOfBytes);
+    }
+
+    void forced() {
+	fsyncs.incrementAndGet();
+    }
+
+    /**
+     * Tells how long a reader should wait before its next read, so the disk catches up.
+     *
+     * @return nanoseconds the disk needs to write pending bytes down to half of the cap, {@code 0} if pending bytes
+     *         are within the cap
+     */
+    long backpressureDelay() {
+	long pending = pendingBytes.get();
+	if (pending <= maxPendingBytes) {
+	    return 0;
+	}
+	backpressureDelays.incrementAndGet();
+	long delay = ((pending - (maxPendingBytes / 2)) / 1024) * nanosPerKilobyte;
+	return Math.max(MIN_BACKPRESSURE_DELAY_NANOS, Math.min(MAX_BACKPRESSURE_DELAY_NANOS, delay));
+    }
+
+    /**
+     * Stops I/O threads once the bytes, that were handed over, are written.
+     */
+    public void shutdown() {
+	running = false;
+	LOGGER.info("Disk writer will be stopped.");
+    }
+
+    public BufferPool getBufferPool() {
+	return bufferPool;
+    }
+
+    public long getMaxPendingBytes() {
+	return maxPendingBytes;
+    }
+
+    public int getThreadsCount() {
+	return threads.size();
+    }
+
+    /**
+     * Sets when written bytes are forced to the disk, by default only before checkpoints.
+     */
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+	Validate.notNull(fsyncPolicy, "Passed fsync policy can not be null!");
+	LOGGER.info("Fsync policy of disk writer was changed to: '{}'.", fsyncPolicy);
+	this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+	return fsyncPolicy;
+    }
+
+    /**
+     * Makes target files extended to the length of their resources as soon as it is known, so writes do not grow the
+     * file one by one. Disabled by default.
+     */
+    public void setPreallocation(boolean preallocation) {
+	this.preallocation = preallocation;
+    }
+
+    public boolean isPreallocation() {
+	return preallocation;
+    }
+
+    /**
+     * Returns bytes, that were handed over and are not written yet.
+     */
+    public long getPendingBytes() {
+	return pendingBytes.get();
+    }
+
+    /**
+     * Returns number of buffers handed over to the disk stage.
+     */
+    public long getWrites() {
+	return writes.get();
+    }
+
+    /**
+     * Returns number of writes done by I/O threads, adjacent buffers are written with one.
+     */
+    public long getGatheringWrites() {
+	return gatheringWrites.get();
+    }
+
+    public long getWrittenBytes() {
+	return writtenBytes.get();
+    }
+
+    /**
+     * Returns number of times readers were throttled, because the disk fell behind.
+     */
+    public long getBackpressureDelays() {
+	return backpressureDelays.get();
+    }
+
+    public long getFsyncs() {
+	return fsyncs.get();
+    }
+
+}
@@ -1,151 +1,619 @@
 package download.manager.impl;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import download.manager.api.DownloadManager;
 import download.manager.api.DownloadTask;
+import download.manager.api.ExpectedChecksum;
+import download.manager.cache.ContentCache;
+import download.manager.http.ConnectionPoolStatistics;
+import download.manager.http.HttpConnectionPool;
+import download.manager.journal.Journal;
+import download.manager.journal.TaskRecord;
+import download.manager.metrics.DownloadMetrics;
+import download.manager.metrics.PrometheusWriter;
 
-public class DownloadManagerImpl implements DownloadManager {
+public class DownloadManagerImpl extends AbstractDownloadManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadManagerImpl.class);
 
     public static final int DEFAULT_POOL_SIZE = 10;
+    public static final String EXECUTION_MODE_PROPERTY = "download.manager.execution.mode";
+    public static final String JOURNAL_DIRECTORY_PROPERTY = "download.manager.journal.dir";
+    public static final String JOURNAL_RETENTION_PROPERTY = "download.manager.journal.retention";
+    public static final String BUFFER_BUDGET_PROPERTY = "download.manager.buffer.budget";
+    public static final String CACHE_DIRECTORY_PROPERTY = "download.manager.cache.dir";
+    public static final String CACHE_BUDGET_PROPERTY = "download.manager.cache.budget";
+    public static final String DISK_WRITER_THREADS_PROPERTY = "download.manager.disk.writer.threads";
+    public static final String COMPRESSED_TRANSFER_PROPERTY = "download.manager.compressed.transfer";
+    public static final String ADAPTIVE_CONCURRENCY_PROPERTY = "download.manager.adaptive.concurrency";
 
-    private Map<String, DownloadTask> downloadTasks = Collections.synchronizedMap(new HashMap<String, DownloadTask>());
+    private static final String GLOBAL_RATE_KEY = "";
+
+    private final ExecutionMode executionMode;
     private ThreadPoolExecutor threadsPool;
+    private VirtualThreadExecutor virtualThreadExecutor;
+    private final HostScheduler hostScheduler;
+    // guarded by this, together with the pool size that bounds its limit
+    private ConcurrencyController concurrencyController;
+    private int poolSize = DEFAULT_POOL_SIZE;
+    // connections per host follow the pool size, until they are set
+    private int maxConnectionsPerHost;
+    private final SingleFlight singleFlight;
+    private volatile TransferMode transferMode = TransferMode.STREAM;
+    private volatile boolean compressedTransfer = Boolean.getBoolean(COMPRESSED_TRANSFER_PROPERTY);
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    private final HttpConnectionPool connectionPool = new HttpConnectionPool();
+    private final Checkpointer checkpointer = new Checkpointer();
+    private final DownloadMetrics metrics = new DownloadMetrics();
+    private final BufferPool bufferPool = new BufferPool(Long.getLong(BUFFER_BUDGET_PROPERTY,
+	    BufferPool.DEFAULT_BUDGET_BYTES));
+    private final Journal journal;
+    private volatile DiskWriter diskWriter = (Integer.getInteger(DISK_WRITER_THREADS_PROPERTY, 0) > 0) ? new DiskWriter(
+	    bufferPool, Integer.getInteger(DISK_WRITER_THREADS_PROPERTY), DiskWriter.DEFAULT_MAX_PENDING_BYTES) : null;
+    // hashes written chunks of tasks with expected checksums, off the downloading threads
+    private final ExecutorService checksumExecutor = Executors.newFixedThreadPool(Runtime.getRuntime()
+	    .availableProcessors(), new ThreadFactory() {
+
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+	    Thread thread = new Thread(runnable, "download-checksum-" + threadNumber.incrementAndGet());
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    });
+    private volatile ContentCache contentCache = (System.getProperty(CACHE_DIRECTORY_PROPERTY) == null) ? null
+	    : openContentCache(new File(System.getProperty(CACHE_DIRECTORY_PROPERTY)));
+    private final StatusListener statusListener = new StatusListener() {
+
+	@Override
+	public void statusChanged(DownloadTask downloadTask, Status status) {
+	    downloadTasks.statusChanged(downloadTask, status);
+	    singleFlight.statusChanged(downloadTask, status);
+	    if (journal != null) {
+		journal.statusChanged(downloadTask.getId(), status);
+	    }
+	}
+    };
 
     public static DownloadManagerImpl getInstance() {
 	return SingletonHolder.HOLDER_INSTANCE;
     }
 
     public static class SingletonHolder {
-	public static final DownloadManagerImpl HOLDER_INSTANCE = new DownloadManagerImpl();
+	public static final DownloadManagerImpl HOLDER_INSTANCE = new DownloadManagerImpl(
+		ExecutionMode.valueOf(System.getProperty(EXECUTION_MODE_PROPERTY, ExecutionMode.PLATFORM_THREADS.name())),
+		System.getProperty(JOURNAL_DIRECTORY_PROPERTY) == null ? null : new File(
+			System.getProperty(JOURNAL_DIRECTORY_PROPERTY)));
     }
 
-    private DownloadManagerImpl() {
-	LOGGER.info("New thread pool with size: '{}', will be created.", DEFAULT_POOL_SIZE);
-	threadsPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(DEFAULT_POOL_SIZE);
+    /**
+     * Creates manager, that runs download tasks either in a fixed pool of platform threads, or in a virtual thread per
+     * task, in both cases at most {@link #DEFAULT_POOL_SIZE} tasks are downloaded at the same time, see
+     * {@link #setPoolSize(int)}.
+     * 
+     * @param executionMode
+     *            kind of threads download tasks are run in
+     */
+    public DownloadManagerImpl(ExecutionMode executionMode) {
+	this(executionMode, null);
+    }
+
+    /**
+     * Creates manager, that records every added task and every change of its status in a journal in given directory.
+     * Tasks found in the journal are restored: downloading ones are started again and continue from their stored
+     * progress, paused ones wait for {@link #resume(String)}.
+     * 
+     * @param executionMode
+     *            kind of threads download tasks are run in
+     * @param journalDirectory
+     *            directory of the journal, or {@code null} if tasks should not survive a restart
+     */
+    public DownloadManagerImpl(ExecutionMode executionMode, File journalDirectory) {
+	Validate.notNull(executionMode, "Passed execution mode can not be null!");
+	this.executionMode = executionMode;
+	if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+	    LOGGER.info("New virtual thread executor with concurrency limit: '{}', will be created.", DEFAULT_POOL_SIZE);
+	    virtualThreadExecutor = new VirtualThreadExecutor(DEFAULT_POOL_SIZE);
+	}
+	else {
+	    LOGGER.info("New thread pool with size: '{}', will be created.", DEFAULT_POOL_SIZE);
+	    threadsPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(DEFAULT_POOL_SIZE);
+	}
+	hostScheduler = new HostScheduler(getExecutor(), DEFAULT_POOL_SIZE);
+	singleFlight = new SingleFlight(getExecutor());
+	journal = (journalDirectory == null) ? null : openJournal(journalDirectory);
+	if (Boolean.getBoolean(ADAPTIVE_CONCURRENCY_PROPERTY)) {
+	    setAdaptiveConcurrency(true);
+	}
+	if (journal != null) {
+	    recover();
+	}
+    }
+
+    private static Journal openJournal(File journalDirectory) {
+	LOGGER.info("Download tasks will be recorded in journal, in directory: '{}'.", journalDirectory);
+	try {
+	    return new Journal(journalDirectory, Journal.DEFAULT_SNAPSHOT_THRESHOLD, Long.getLong(
+		    JOURNAL_RETENTION_PROPERTY, Journal.DEFAULT_RETENTION_MILLIS));
+	}
+	catch (IOException e) {
+	    throw new IllegalStateException("Journal in directory " + journalDirectory + " could not be opened", e);
+	}
+    }
+
+    private static ContentCache openContentCache(File cacheDirectory) {
+	LOGGER.info("Downloaded resources will be cached in directory: '{}'.", cacheDirectory);
+	try {
+	    return new ContentCache(cacheDirectory, Long.getLong(CACHE_BUDGET_PROPERTY, ContentCache.DEFAULT_BUDGET_BYTES));
+	}
+	catch (IOException e) {
+	    throw new IllegalStateException("Content cache in directory " + cacheDirectory + " could not be opened", e);
+	}
+    }
+
+    private void recover() {
+	int resumedTasks = 0;
+	for (TaskRecord taskRecord : journal.getRecoveredTasks()) {
+	    boolean wasDownloading = taskRecord.getStatus() == Status.DOWNLOADING;
+	    DownloadTaskImpl downloadTask = new DownloadTaskImpl(taskRecord.getId(), taskRecord.getUrl(),
+		    taskRecord.getFileName(), taskRecord.getSegmentsCount(), wasDownloading ? Status.CREATED
+			    : taskRecord.getStatus());
+	    configure(downloadTask);
+	    downloadTasks.put(downloadTask);
+	    if (wasDownloading) {
+		start(downloadTask);
+		resumedTasks++;
+	    }
+	    else if (taskRecord.getStatus() == Status.PAUSED) {
+		downloadTask.setExecutor(hostScheduler);
+	    }
+	}
+	LOGGER.info("'{}' download tasks were restored, '{}' of them continue downloading.", downloadTasks.size(),
+		resumedTasks);
+    }
+
+    private void configure(DownloadTaskImpl downloadTask) {
+	downloadTask.setTransferMode(transferMode);
+	downloadTask.setExecutionMode(executionMode);
+	downloadTask.setBandwidthLimiter(bandwidthLimiter);
+	downloadTask.setConnectionPool(connectionPool);
+	downloadTask.setCheckpointer(checkpointer);
+	downloadTask.setMetrics(metrics);
+	downloadTask.setBufferPool(bufferPool);
+	downloadTask.setContentCache(contentCache);
+	downloadTask.setDiskWriter(diskWriter);
+	downloadTask.setCompressedTransfer(compressedTransfer);
+	downloadTask.setChecksumExecutor(checksumExecutor);
+	downloadTask.setStatusListener(statusListener);
+    }
+
+    /**
+     * Makes download tasks added from now on revalidate cached copies of their resources and cache downloaded ones,
+     * by default resources are cached only if {@link #CACHE_DIRECTORY_PROPERTY} is set.
+     * 
+     * @param contentCache
+     *            content cache or {@code null} to download every resource again
+     */
+    public void setContentCache(ContentCache contentCache) {
+	this.contentCache = contentCache;
+    }
+
+    public ContentCache getContentCache() {
+	return contentCache;
+    }
+
+    /**
+     * Makes download tasks added from now on hand read bytes over to given disk stage, so a slow disk does not hold up
+     * reading threads. By default bytes are written by reading threads, unless {@link #DISK_WRITER_THREADS_PROPERTY}
+     * is set. The disk writer is stopped together with the manager.
+     * 
+     * @param diskWriter
+     *            disk writer or {@code null} to write by reading threads
+     */
+    public void setDiskWriter(DiskWriter diskWriter) {
+	this.diskWriter = diskWriter;
+    }
+
+    public DiskWriter getDiskWriter() {
+	return diskWriter;
+    }
+
+    /**
+     * Makes download tasks added from now on ask for gzip or deflate encoded responses and decode them while they are
+     * written, see {@link DownloadTaskImpl#setCompressedTransfer(boolean)}. By default responses are not compressed,
+     * unless {@link #COMPRESSED_TRANSFER_PROPERTY} is set.
+     */
+    public void setCompressedTransfer(boolean compressedTransfer) {
+	LOGGER.info("Compressed transfer: '{}', will be used for new download tasks.", compressedTransfer);
+	this.compressedTransfer = compressedTransfer;
+    }
+
+    public boolean isCompressedTransfer() {
+	return compressedTransfer;
+    }
+
+    /**
+     * Turns compressed transfer on or off for given task, it takes effect once the task downloads its resource from
+     * the first byte.
+     */
+    public void setTaskCompressedTransfer(String downloadTaskId, boolean compressedTransfer) {
+	DownloadTask downloadTask = get(downloadTaskId);
+	Validate.notNull(downloadTask, "Download task with ID: '%s' does not exist!", downloadTaskId);
+	((DownloadTaskImpl) downloadTask).setCompressedTransfer(compressedTransfer);
+    }
+
+    /**
+     * Lets a {@link ConcurrencyController} tune how many tasks are downloaded at the same time, between one and the
+     * pool size, which stays the upper bound, see {@link #setPoolSize(int)}. Turned off, the limit goes back to the
+     * pool size. By default the limit is the pool size, unless {@link #ADAPTIVE_CONCURRENCY_PROPERTY} is set.
+     */
+    public synchronized void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+	if (adaptiveConcurrency && (concurrencyController == null)) {
+	    concurrencyController = new ConcurrencyController(hostScheduler, metrics, poolSize);
+	    concurrencyController.start(ConcurrencyController.DEFAULT_INTERVAL_MILLIS);
+	}
+	else if (!adaptiveConcurrency && (concurrencyController != null)) {
+	    LOGGER.info("Concurrency limit will not be tuned anymore, it is set to pool size: '{}'.", poolSize);
+	    concurrencyController.shutdown();
+	    concurrencyController = null;
+	    hostScheduler.setMaxInFlight(poolSize);
+	}
+    }
+
+    public synchronized ConcurrencyController getConcurrencyController() {
+	return concurrencyController;
+    }
+
+    private synchronized void shutdownConcurrencyController() {
+	if (concurrencyController != null) {
+	    concurrencyController.shutdown();
+	}
+    }
+
+    public ExecutionMode getExecutionMode() {
+	return executionMode;
+    }
+
+    private Executor getExecutor() {
+	return (executionMode == ExecutionMode.VIRTUAL_THREADS) ? virtualThreadExecutor : threadsPool;
     }
 
     @Override
-    public String add(final String url, final String fileName) {
-	LOGGER.info("New download task was added.");
-	DownloadTask downloadTask = new DownloadTaskImpl(url, fileName);
-	downloadTasks.put(downloadTask.getId(), downloadTask);
-	return downloadTask.getId();
+    protected DownloadTask createDownloadTask(final String url, final String fileName, final int segmentsCount,
+	    final ExpectedChecksum expectedChecksum) {
+	DownloadTaskImpl downloadTask = new DownloadTaskImpl(url, fileName, segmentsCount);
+	// checksums are not journaled, recovered tasks are not verified
+	downloadTask.setExpectedChecksum(expectedChecksum);
+	if (journal != null) {
+	    journal.taskAdded(downloadTask.getId(), url, fileName, segmentsCount);
+	}
+	configure(downloadTask);
+	return downloadTask;
     }
 
+    /**
+     * Starts given task, unless another task downloads the same URL, then the task follows that task and gets its file,
+     * see {@link SingleFlight}.
+     */
     @Override
-    public String addAndDownload(final String url, final String fileName) {
-	LOGGER.info("New download task will be created for URL: '{}', and will be saved to file with a name: '{}'.",
-		url, fileName);
-	DownloadTask downloadTask = new DownloadTaskImpl(url, fileName);
-	downloadTasks.put(downloadTask.getId(), downloadTask);
-	LOGGER.info("Download task was added: '{}', to set of tasks.", downloadTasks.containsKey(downloadTask.getId()));
-	LOGGER.info("Download task will start downloading process.");
-	downloadTask.download(threadsPool);
-	return downloadTask.getId();
+    protected void start(DownloadTask downloadTask) {
+	DownloadTaskImpl downloadTaskImpl = (DownloadTaskImpl) downloadTask;
+	if (!singleFlight.join(downloadTaskImpl, hostScheduler)) {
+	    downloadTask.download(hostScheduler);
+	    if (downloadTask.getStatus() != Status.DOWNLOADING) {
+		singleFlight.leave(downloadTaskImpl);
+	    }
+	}
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#cancel(int)
+     * @see DownloadManager#forceShutdown()
      */
     @Override
-    public void cancel(String downloadTaskId) {
-	if (downloadTasks.containsKey(downloadTaskId)) {
-	    LOGGER.info("Download task with ID: '{}' will be canceled.", downloadTaskId);
-	    downloadTasks.get(downloadTaskId).cancel();
+    public void forceShutdown() {
+	// progress is stored before downloading threads are interrupted
+	checkpointer.shutdown();
+	shutdownConcurrencyController();
+	hostScheduler.shutdownNow();
+	if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+	    virtualThreadExecutor.shutdownNow();
 	}
 	else {
-	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	    threadsPool.shutdownNow();
+	}
+	checksumExecutor.shutdownNow();
+	shutdownDiskWriter();
+	bandwidthLimiter.shutdown();
+	connectionPool.shutdown();
+	flushContentCache();
+	closeJournal();
+    }
+
+    /**
+     * Waits until downloading threads have stopped, after the manager was shut down.
+     * 
+     * @return {@code true} if the threads have stopped, {@code false} if the timeout elapsed before
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+	if (executionMode != ExecutionMode.VIRTUAL_THREADS) {
+	    return threadsPool.awaitTermination(timeout, unit);
+	}
+	long deadline = System.nanoTime() + unit.toNanos(timeout);
+	while (virtualThreadExecutor.getRunning() > 0) {
+	    if (System.nanoTime() >= deadline) {
+		return false;
+	    }
+	    Thread.sleep(10);
+	}
+	return true;
+    }
+
+    /**
+     * Writes usage order of cached resources, the cache stays usable, since it could be shared with other managers.
+     */
+    private void flushContentCache() {
+	ContentCache currentContentCache = contentCache;
+	if (currentContentCache != null) {
+	    currentContentCache.flush();
+	}
+    }
+
+    private void shutdownDiskWriter() {
+	DiskWriter currentDiskWriter = diskWriter;
+	if (currentDiskWriter != null) {
+	    currentDiskWriter.shutdown();
+	}
+    }
+
+    private void closeJournal() {
+	if (journal != null) {
+	    journal.close();
 	}
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#download(int)
+     * @see DownloadManager#setPoolSize(int)
      */
     @Override
-    public void download(String downloadTaskId) {
-	if (downloadTasks.containsKey(downloadTaskId)) {
-	    LOGGER.info("Download task with ID: '{}' will be downloaded.", downloadTaskId);
-	    downloadTasks.get(downloadTaskId).download(threadsPool);
+    public synchronized void setPoolSize(int poolSize) {
+	Validate.isTrue(poolSize > 0, "Pool size should be positive, but was: %d", poolSize);
+	this.poolSize = poolSize;
+	if (concurrencyController != null) {
+	    concurrencyController.setMaxLimit(poolSize);
+	}
+	else {
+	    hostScheduler.setMaxInFlight(poolSize);
+	}
+	if (maxConnectionsPerHost == 0) {
+	    hostScheduler.setMaxConnectionsPerHost(poolSize);
+	}
+	if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+	    virtualThreadExecutor.setLimit(poolSize);
+	}
+	else if (poolSize > threadsPool.getMaximumPoolSize()) {
+	    threadsPool.setMaximumPoolSize(poolSize);
+	    threadsPool.setCorePoolSize(poolSize);
 	}
 	else {
-	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	    threadsPool.setCorePoolSize(poolSize);
+	    threadsPool.setMaximumPoolSize(poolSize);
 	}
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#forceShutdown()
+     * @see DownloadManager#setBandwidthLimit(long)
      */
     @Override
-    public void forceShutdown() {
-	threadsPool.shutdownNow();
+    public void setBandwidthLimit(long bytesPerSecond) {
+	bandwidthLimiter.setGlobalLimit(bytesPerSecond);
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#get(int)
+     * @see DownloadManager#setHostBandwidthLimit(String, long)
      */
     @Override
-    public DownloadTask get(String id) {
-	return downloadTasks.get(id);
+    public void setHostBandwidthLimit(String host, long bytesPerSecond) {
+	bandwidthLimiter.setHostLimit(host, bytesPerSecond);
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#pause(int)
+     * @see DownloadManager#setTaskBandwidthLimit(String, long)
      */
     @Override
-    public void pause(String downloadTaskId) {
-	if (downloadTasks.containsKey(downloadTaskId)) {
-	    LOGGER.info("Download task with ID: '{}' will be paused.", downloadTaskId);
-	    downloadTasks.get(downloadTaskId).pause();
-	}
-	else {
-	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
-	}
+    public void setTaskBandwidthLimit(String downloadTaskId, long bytesPerSecond) {
+	DownloadTask downloadTask = get(downloadTaskId);
+	Validate.notNull(downloadTask, "Download task with ID: '%s' does not exist!", downloadTaskId);
+	((DownloadTaskImpl) downloadTask).setBandwidthLimit(bytesPerSecond);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setMaxConnectionsPerHost(int)
+     */
+    @Override
+    public synchronized void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+	hostScheduler.setMaxConnectionsPerHost(maxConnectionsPerHost);
+	this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#getHostQueueStatistics()
+     */
+    @Override
+    public List<HostQueueStatistics> getHostQueueStatistics() {
+	return hostScheduler.getStatistics();
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#resume(int)
+     * @see DownloadManager#getConnectionPoolStatistics()
      */
     @Override
-    public void resume(String downloadTaskId) {
-	if (downloadTasks.containsKey(downloadTaskId)) {
-	    LOGGER.info("Download task with ID: '{}' will be resumed.", downloadTaskId);
-	    downloadTasks.get(downloadTaskId).resume();
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+	return connectionPool.getStatistics();
+    }
+
+    @Override
+    protected void writeMetrics(PrometheusWriter writer) {
+	long downloadedBytes = metrics.getDownloadedBytes();
+	writer.counter("download_manager_downloaded_bytes_total", "Bytes downloaded by all tasks.", downloadedBytes);
+	writer.gauge("download_manager_download_rate_bytes", "Bytes per second downloaded by all tasks since last scrape.",
+		metrics.rate(GLOBAL_RATE_KEY, downloadedBytes));
+	writer.family("download_manager_task_download_rate_bytes",
+		"Bytes per second downloaded by a downloading task since last scrape.", "gauge");
+	Set<String> downloadingTaskIds = new HashSet<>();
+	for (DownloadTask downloadTask : downloadTasks.list(Status.DOWNLOADING, 0, Integer.MAX_VALUE)) {
+	    downloadingTaskIds.add(downloadTask.getId());
+	    writer.sample("download_manager_task_download_rate_bytes", "id", downloadTask.getId(),
+		    metrics.rate(downloadTask.getId(), ((DownloadTaskImpl) downloadTask).getDownloadedBytes()));
+	}
+	for (String rateKey : metrics.getRateKeys()) {
+	    if (!rateKey.equals(GLOBAL_RATE_KEY) && !downloadingTaskIds.contains(rateKey)) {
+		metrics.forgetRate(rateKey);
+	    }
+	}
+	writer.histogram("download_manager_time_to_first_byte_seconds",
+		"Time from sending a request until response headers were received.", metrics.getTimeToFirstByte());
+	writer.histogram("download_manager_connect_seconds", "Time of opening new connections, including TLS handshake.",
+		connectionPool.getConnectLatency());
+	writer.histogram("download_manager_read_seconds", "Duration of single reads from connections.",
+		metrics.getReadLatency());
+	if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+	    writer.gauge("download_manager_pool_active_threads", "Number of running downloading threads.",
+		    virtualThreadExecutor.getRunning());
 	}
 	else {
-	    LOGGER.warn("Download task with given ID: '{}' does not exist.", downloadTaskId);
+	    writer.gauge("download_manager_pool_active_threads", "Number of running downloading threads.",
+		    threadsPool.getActiveCount());
+	    writer.gauge("download_manager_pool_queue_depth", "Number of pieces of work waiting for a thread.",
+		    threadsPool.getQueue().size());
+	}
+	int queued = 0;
+	for (HostQueueStatistics hostQueueStatistics : hostScheduler.getStatistics()) {
+	    queued += hostQueueStatistics.getQueued();
+	}
+	writer.gauge("download_manager_scheduler_queue_depth",
+		"Number of pieces of work waiting for their host or the pool.", queued);
+	ConcurrencyController currentConcurrencyController = getConcurrencyController();
+	if (currentConcurrencyController != null) {
+	    writer.gauge("download_manager_concurrency_limit", "Number of tasks allowed to download at the same time.",
+		    currentConcurrencyController.getLimit());
+	    writer.gauge("download_manager_concurrency_max_limit",
+		    "Upper bound of the concurrency limit, the pool size.", currentConcurrencyController.getMaxLimit());
+	    writer.family("download_manager_concurrency_decisions_total",
+		    "Decisions of the concurrency controller by action.", "counter");
+	    for (ConcurrencyDecision.Action action : ConcurrencyDecision.Action.values()) {
+		writer.sample("download_manager_concurrency_decisions_total", "action", action.name().toLowerCase(
+			Locale.ROOT), currentConcurrencyController.getActions(action));
+	    }
+	}
+	writer.gauge("download_manager_buffer_budget_bytes", "Memory budget of read buffers.",
+		bufferPool.getBudgetBytes());
+	writer.gauge("download_manager_buffer_allocated_bytes", "Memory taken by read buffers, pooled and in use.",
+		bufferPool.getAllocatedBytes());
+	writer.counter("download_manager_buffer_acquisitions_total", "Read buffers taken from the pool.",
+		bufferPool.getAcquisitions());
+	writer.counter("download_manager_buffer_allocations_total", "Read buffers allocated by the pool.",
+		bufferPool.getAllocations());
+	writer.counter("download_manager_buffer_over_budget_allocations_total",
+		"Temporary read buffers allocated, because the budget was exhausted.", bufferPool.getOverBudgetAllocations());
+	ContentCache currentContentCache = contentCache;
+	if (currentContentCache != null) {
+	    writer.counter("download_manager_cache_hits_total", "Downloads served from the content cache.",
+		    currentContentCache.getHits());
+	    writer.counter("download_manager_cache_misses_total",
+		    "Downloads of resources, that were not cached or were changed.", currentContentCache.getMisses());
+	    writer.counter("download_manager_cache_saved_bytes_total",
+		    "Bytes copied from the content cache instead of being downloaded.", currentContentCache.getSavedBytes());
+	    writer.counter("download_manager_cache_evictions_total", "Resources evicted from the content cache.",
+		    currentContentCache.getEvictions());
+	    writer.gauge("download_manager_cache_size_bytes", "Bytes taken by the content cache.",
+		    currentContentCache.getSizeBytes());
+	    writer.gauge("download_manager_cache_budget_bytes", "Byte budget of the content cache.",
+		    currentContentCache.getBudgetBytes());
+	}
+	DiskWriter currentDiskWriter = diskWriter;
+	if (currentDiskWriter != null) {
+	    writer.gauge("download_manager_disk_pending_bytes", "Bytes handed over to the disk writer, not written yet.",
+		    currentDiskWriter.getPendingBytes());
+	    writer.counter("download_manager_disk_writes_total", "Buffers handed over to the disk writer.",
+		    currentDiskWriter.getWrites());
+	    writer.counter("download_manager_disk_gathering_writes_total",
+		    "Writes done by the disk writer, adjacent buffers are written with one.",
+		    currentDiskWriter.getGatheringWrites());
+	    writer.counter("download_manager_disk_written_bytes_total", "Bytes written by the disk writer.",
+		    currentDiskWriter.getWrittenBytes());
+	    writer.counter("download_manager_disk_backpressure_total",
+		    "Reads delayed, because the disk writer fell behind.", currentDiskWriter.getBackpressureDelays());
+	    writer.counter("download_manager_disk_fsyncs_total", "Target files forced to the disk by the disk writer.",
+		    currentDiskWriter.getFsyncs());
+	}
+	writer.counter("download_manager_encoded_bytes_total",
+		"Bytes of compressed responses read from connections.", metrics.getEncodedBytes());
+	writer.counter("download_manager_decoded_bytes_total", "Bytes decoded from compressed responses.",
+		metrics.getDecodedBytes());
+	writer.counter("download_manager_coalesced_tasks_total",
+		"Tasks, that got the file of another task downloading the same URL, instead of fetching it.",
+		singleFlight.getCoalescedTasks());
+	super.writeMetrics(writer);
+	writer.family("download_manager_errors_total", "Number of failed download tasks by cause.", "counter");
+	for (Map.Entry<String, Long> error : metrics.getErrors().entrySet()) {
+	    writer.sample("download_manager_errors_total", "cause", error.getKey(), error.getValue());
 	}
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see DownloadManager#setPoolSize(int)
+     * @see DownloadManager#setCheckpointPolicy(long, long)
      */
     @Override
-    public void setPoolSize(int poolSize) {
-	threadsPool.setCorePoolSize(poolSize);
+    public void setCheckpointPolicy(long intervalMillis, long bytesThreshold) {
+	checkpointer.setPolicy(intervalMillis, bytesThreshold);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see DownloadManager#setTransferMode(TransferMode)
+     */
+    @Override
+    public void setTransferMode(TransferMode transferMode) {
+	LOGGER.info("Transfer mode: '{}', will be used for new download tasks.", transferMode);
+	this.transferMode = transferMode;
     }
 
     /*
@@ -155,7 +623,27 @@ public class DownloadManagerImpl implements DownloadManager {
      */
     @Override
     public void shutdown() {
-	threadsPool.shutdown();
+	// queued downloads are still dispatched, executor is shut down once they are done
+	hostScheduler.shutdown(new Runnable() {
+
+	    @Override
+	    public void run() {
+		if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+		    virtualThreadExecutor.shutdown();
+		}
+		else {
+		    threadsPool.shutdown();
+		}
+		checkpointer.shutdown();
+		shutdownConcurrencyController();
+		checksumExecutor.shutdown();
+		shutdownDiskWriter();
+		bandwidthLimiter.shutdown();
+		connectionPool.shutdown();
+		flushContentCache();
+		closeJournal();
+	    }
+	});
     }
 
 }
@@ -1,13 +1,32 @@
 package download.manager.impl;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -16,40 +35,97 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import download.manager.api.DownloadTask;
+import download.manager.api.ExpectedChecksum;
+import download.manager.cache.CacheEntry;
+import download.manager.cache.ContentCache;
+import download.manager.http.HttpConnectionPool;
+import download.manager.http.HttpResponse;
+import download.manager.http.HttpStatusException;
+import download.manager.metrics.DownloadMetrics;
 
-public class DownloadTaskImpl implements Runnable, DownloadTask {
+public class DownloadTaskImpl implements HostBoundRunnable, DownloadTask {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadTaskImpl.class);
-    private static final int BUFFER_SIZE = 1024;
+    public static final int DEFAULT_SEGMENTS_COUNT = 1;
+    static final int BUFFER_SIZE = 1024;
+    private static final long MIN_SEGMENT_SIZE = 64 * 1024;
     private static final String DELIMITER = ".";
     private static final String TMP_FILE_EXSTENSION = "tmp";
-    private final String ID = UUID.randomUUID().toString();
+    private static final String ENCODED_FILE_EXTENSION = "encoded";
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+
+	@Override
+	public void execute(Runnable command) {
+	    command.run();
+	}
+    };
+    private final String ID;
 
     private Lock lock = new ReentrantLock();
-    private volatile int downloadedBytes = 0;
-    private volatile int remainderContentLength = 0;
-    private volatile int totalContentLength = 0;
+    private final Lock progressLock = new ReentrantLock();
+    private final AtomicLong downloadedBytes = new AtomicLong(0);
+    private volatile long remainderContentLength = 0;
+    private volatile long totalContentLength = 0;
     private volatile boolean makePause = false;
     private volatile Status status;
     private final String targetFileName;
     private final String tmpFileName;
     private final String url;
-    private BufferedInputStream bufferedInputStream;
+    private final String host;
+    private final int segmentsCount;
+    private volatile List<Segment> segments;
+    private volatile TransferMode transferMode = TransferMode.STREAM;
+    private volatile ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+    private final AtomicBoolean runnerActive = new AtomicBoolean(false);
+    private final Set<Thread> runnerThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    // connections of segment downloaders, closed on pause or cancel, so reads blocked on them fail at once
+    private final Set<InputStream> segmentConnections = Collections
+	    .newSetFromMap(new ConcurrentHashMap<InputStream, Boolean>());
+    private InputStream connectionInputStream;
+    private Transfer transfer;
     private RandomAccessFile targetRandomAccessFile;
     private RandomAccessFile tmpRandomAccessFile;
-    private ThreadPoolExecutor threadPool;
+    private Executor executor;
+    private final TokenBucket bandwidthBucket = new TokenBucket(0);
+    private volatile BandwidthLimiter bandwidthLimiter;
+    private volatile TokenBucket hostBucket;
+    private volatile HttpConnectionPool connectionPool;
+    private volatile StatusListener statusListener;
+    private volatile Checkpointer checkpointer;
+    private volatile DownloadMetrics metrics;
+    private volatile BufferPool bufferPool;
+    private volatile ContentCache contentCache;
+    private volatile DiskWriter diskWriter;
+    private volatile WriteBehindFile writeBehindFile;
+    private final MappedWindows mappedWindows = new MappedWindows();
+    private volatile ExpectedChecksum expectedChecksum;
+    private volatile Executor checksumExecutor;
+    private volatile ChecksumVerifier checksumVerifier;
+    private final Set<Segment> refetchedSegments = Collections.newSetFromMap(new ConcurrentHashMap<Segment, Boolean>());
+    private volatile String failureCause;
+    private volatile boolean compressedTransfer = false;
+    private volatile ContentDecoder contentDecoder;
+    private volatile long encodedContentLength = 0;
+    // position in the encoded response, that a compressed resource continues from, -1 if it is not compressed
+    private volatile long encodedPosition = -1;
+    // encoded bytes of reads, that were counted in metrics and in downloaded bytes, changed under lock
+    private volatile long countedEncodedBytes = 0;
+    private final AtomicReference<DownloadTaskImpl> leader = new AtomicReference<>();
+    private final AtomicBoolean checkpointRequested = new AtomicBoolean(false);
+    private volatile long checkpointedBytes = 0;
+    private volatile String entityTag;
+    private volatile String lastModified;
+    private boolean throttled = false;
+    private final AtomicReference<Runnable> pendingContinuation = new AtomicReference<>();
     private File targetFile;
     private File tmpFile;
 
     public DownloadTaskImpl(final String url, final String fileName) {
-	Validate.notBlank(url, "Passed URL must be not null and not empty!");
-	Validate.notBlank(fileName, "Passed file name must be not null and not empty!");
+	this(url, fileName, DEFAULT_SEGMENTS_COUNT);
+    }
 
-	LOGGER.info("New download task will be created, with ID: '{}'.", ID);
-	this.url = url;
-	targetFileName = fileName;
-	tmpFileName = fileName + DELIMITER + ID + DELIMITER + TMP_FILE_EXSTENSION;
-	LOGGER.info("Temporary file name: '{}', was built'", tmpFileName);
+    public DownloadTaskImpl(final String url, final String fileName, final int segmentsCount) {
+	this(UUID.randomUUID().toString(), url, fileName, segmentsCount, Status.CREATED);
 
 	targetFile = createFile(targetFileName);
 	targetRandomAccessFile = createRandomAccessFile(targetFile);
@@ -58,20 +134,80 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 	tmpFile = createFile(tmpFileName);
 	tmpRandomAccessFile = createRandomAccessFile(tmpFile);
 	LOGGER.info("Temporary file was created.");
+    }
 
-	status = Status.CREATED;
+    /**
+     * Restores download task with given identifier and status, for example after restart of the manager. Files are not
+     * touched until the task is downloaded again, then it continues from the progress stored in its temporary file.
+     * 
+     * @param id
+     *            identifier of the task
+     * @param url
+     *            URL of resource
+     * @param fileName
+     *            name of target file
+     * @param segmentsCount
+     *            number of parallel connections
+     * @param status
+     *            restored status
+     */
+    public DownloadTaskImpl(final String id, final String url, final String fileName, final int segmentsCount,
+	    final Status status) {
+	Validate.notBlank(id, "Passed ID must be not null and not empty!");
+	Validate.notBlank(url, "Passed URL must be not null and not empty!");
+	Validate.notBlank(fileName, "Passed file name must be not null and not empty!");
+	Validate.isTrue(segmentsCount > 0, "Passed number of segments must be positive!");
+	Validate.notNull(status, "Passed status can not be null!");
+
+	ID = id;
+	LOGGER.info("New download task will be created, with ID: '{}'.", ID);
+	this.url = url;
+	host = parseHost(url);
+	this.segmentsCount = segmentsCount;
+	targetFileName = fileName;
+	tmpFileName = fileName + DELIMITER + ID + DELIMITER + TMP_FILE_EXSTENSION;
+	LOGGER.info("Temporary file name: '{}', was built'", tmpFileName);
+	targetFile = new File(targetFileName);
+	tmpFile = new File(tmpFileName);
+
+	this.status = status;
 	LOGGER.info("Status of this task: '{}'.", status);
     }
 
     private boolean closeResources() {
 	boolean areClosed = false;
 	LOGGER.info("Files and input stream will be closed.");
+	// connection of a throttled task is closed too, its scheduled continuation is not needed anymore
+	if (throttled && (executor instanceof HostScheduler)) {
+	    ((HostScheduler) executor).release(this);
+	}
+	throttled = false;
+	pendingContinuation.set(null);
+	for (InputStream segmentConnection : segmentConnections) {
+	    closeSegmentConnection(segmentConnection);
+	}
 	try {
-	    if (bufferedInputStream != null) {
-		bufferedInputStream.close();
+	    if (connectionInputStream != null) {
+		connectionInputStream.close();
+		// a runner, that waited for the lock meanwhile, must not read from the closed connection
+		connectionInputStream = null;
+	    }
+	    if (tmpRandomAccessFile != null) {
+		tmpRandomAccessFile.close();
+	    }
+	    if (targetRandomAccessFile != null) {
+		targetRandomAccessFile.close();
+	    }
+	    WriteBehindFile currentWriteBehindFile = writeBehindFile;
+	    if (currentWriteBehindFile != null) {
+		// queued bytes are still written, the file is closed by the disk writer afterwards
+		currentWriteBehindFile.close();
+		writeBehindFile = null;
+	    }
+	    ContentDecoder decoder = contentDecoder;
+	    if (decoder != null) {
+		decoder.close();
 	    }
-	    tmpRandomAccessFile.close();
-	    targetRandomAccessFile.close();
 	    areClosed = true;
 	}
 	catch (IOException e) {
@@ -97,7 +233,7 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 	LOGGER.info("New random access file: '{}', will be created.", file.getName());
 	RandomAccessFile randomAccessFile = null;
 	try {
-	    randomAccessFile = new RandomAccessFile(file.getName(), "rw");
+	    randomAccessFile = new RandomAccessFile(file.getPath(), "rw");
 	}
 	catch (IOException e) {
 	    LOGGER.error(e.getMessage());
@@ -107,7 +243,10 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 
     private boolean deleteFile(File file) {
 	boolean wasDeleted = false;
-	synchronized (lock) {
+	lock.lock();
+	// a checkpoint written at the same time would bring the deleted temporary file back
+	progressLock.lock();
+	try {
 	    if (file.exists()) {
 		LOGGER.info("Temporary file with name: '{}' will be deleted.", file);
 		file.setWritable(true);
@@ -120,99 +259,1022 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 		}
 	    }
 	}
+	finally {
+	    progressLock.unlock();
+	    lock.unlock();
+	}
 	return wasDeleted;
     }
 
-    private BufferedInputStream openConnection() {
-	BufferedInputStream bufferedInputStream = null;
+    private HttpResponse createConnection(String range) throws IOException {
+	return createConnection(range, null);
+    }
+
+    /**
+     * Requests given range of the resource.
+     * 
+     * @param ifRange
+     *            validator of the part that was already downloaded, if the resource does not match it anymore, server
+     *            returns the whole resource instead of the range, may be {@code null}
+     */
+    private HttpResponse createConnection(String range, String ifRange) throws IOException {
+	return createConnection(range, ifRange, null);
+    }
+
+    /**
+     * Requests given range of the resource, conditionally if a cached copy of the resource is given.
+     * 
+     * @param cacheEntry
+     *            cached copy of the resource, server returns {@code 304} instead of the range if the copy is up to
+     *            date, may be {@code null}
+     */
+    private HttpResponse createConnection(String range, String ifRange, CacheEntry cacheEntry) throws IOException {
+	return createConnection(range, ifRange, cacheEntry, false);
+    }
+
+    /**
+     * Requests given range of the resource, asking for a compressed response if {@code acceptsEncoding} is set, the
+     * range then refers to encoded bytes.
+     */
+    private HttpResponse createConnection(String range, String ifRange, CacheEntry cacheEntry, boolean acceptsEncoding)
+	    throws IOException {
+	URL targetUrl = new URL(url);
+	LOGGER.info("Will try to connect to given URL: '{}'", url);
+	Map<String, String> requestHeaders = new HashMap<>(4);
+	requestHeaders.put("Range", range);
+	if (acceptsEncoding) {
+	    requestHeaders.put("Accept-Encoding", ContentDecoder.ACCEPT_ENCODING);
+	}
+	if (ifRange != null) {
+	    requestHeaders.put("If-Range", ifRange);
+	}
+	if ((cacheEntry != null) && (cacheEntry.getEntityTag() != null)) {
+	    requestHeaders.put("If-None-Match", cacheEntry.getEntityTag());
+	}
+	if ((cacheEntry != null) && (cacheEntry.getLastModified() != null)) {
+	    requestHeaders.put("If-Modified-Since", cacheEntry.getLastModified());
+	}
+	HttpConnectionPool pool = connectionPool;
+	long startTime = System.nanoTime();
+	HttpResponse response = (pool == null) ? HttpConnectionPool.openDirect(targetUrl, requestHeaders) : pool.open(
+		targetUrl, requestHeaders);
+	DownloadMetrics currentMetrics = metrics;
+	if (currentMetrics != null) {
+	    currentMetrics.recordTimeToFirstByte(host, System.nanoTime() - startTime);
+	}
+	return response;
+    }
+
+    private InputStream openConnection() {
+	InputStream connectionInputStream = null;
+	failureCause = null;
 	try {
-	    URL targetUrl = new URL(url);
-	    LOGGER.info("Will try to connect to given URL: '{}'", url);
-	    URLConnection connectionUrl = targetUrl.openConnection();
-	    connectionUrl.setRequestProperty("Range", "bytes=" + downloadedBytes + "-");
+	    long position = downloadedBytes.get();
+	    // a partly downloaded resource keeps its encoding, whether compressed transfer was switched since or not
+	    boolean continuesEncoded = (position > 0) && (encodedPosition >= 0);
+	    boolean acceptsEncoding = continuesEncoded || ((position == 0) && compressedTransfer);
+	    long requestedPosition = continuesEncoded ? encodedPosition : position;
+	    HttpResponse response = createConnection("bytes=" + requestedPosition + "-", (position > 0) ? getValidator()
+		    : null, null, acceptsEncoding);
+	    String contentEncoding = response.getHeader("Content-Encoding");
+	    boolean isEncoded = acceptsEncoding && ContentDecoder.isSupported(contentEncoding);
+	    if ((position > 0) && (response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL)
+		    && (isEncoded != continuesEncoded)) {
+		LOGGER.warn("Server changed encoding of resource: '{}', it will be downloaded from the beginning.", url);
+		response.close();
+		restartProgress();
+		return openConnection();
+	    }
+	    if ((position > 0) && (response.getStatusCode() == HttpURLConnection.HTTP_OK)) {
+		LOGGER.warn(
+			"Server ignored requested range or resource was changed, resource: '{}' will be downloaded from the beginning.",
+			url);
+		downloadedBytes.set(0);
+		totalContentLength = 0;
+		resetChecksumVerifier();
+	    }
+	    rememberValidators(response);
+	    if (isEncoded) {
+		long encodedStart = (response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) ? requestedPosition : 0;
+		return openEncodedConnection(response, contentEncoding, encodedStart);
+	    }
+	    deleteEncodedBytes();
 	    if (totalContentLength == 0) {
-		totalContentLength = connectionUrl.getContentLength();
+		// a task restored from checkpoint gets only the rest of the resource
+		long contentLength = response.getContentLength();
+		totalContentLength = ((contentLength >= 0) && (response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL)) ? (downloadedBytes
+			.get() + contentLength) : contentLength;
+	    }
+	    remainderContentLength = response.getContentLength();
+	    LOGGER.info("Total content length that will be downloaded: '{}'", remainderContentLength);
+	    // the connection reads through its own buffer, large reads go straight to the socket
+	    connectionInputStream = response.getInputStream();
+	}
+	catch (IOException e) {
+	    LOGGER.error(e.getMessage());
+	    failureCause = causeOf(e);
+	}
+	return connectionInputStream;
+    }
+
+    /**
+     * Opens decoded stream of a compressed response. The target file gets decoded bytes, while the connection and its
+     * ranges go on in encoded bytes, so the length of the resource is known only once it is completed.
+     * 
+     * @param encodedStart
+     *            position of the response in the encoded resource
+     */
+    private InputStream openEncodedConnection(HttpResponse response, String contentEncoding, long encodedStart)
+	    throws IOException {
+	long contentLength = response.getContentLength();
+	encodedContentLength = (contentLength >= 0) ? (encodedStart + contentLength) : 0;
+	totalContentLength = 0;
+	remainderContentLength = contentLength;
+	LOGGER.info("Encoded content length that will be downloaded: '{}', encoding: '{}'", contentLength,
+		contentEncoding);
+	ContentDecoder decoder = contentDecoder;
+	if (decoder == null) {
+	    decoder = new ContentDecoder(new File(targetFileName + DELIMITER + ID + DELIMITER + ENCODED_FILE_EXTENSION));
+	    contentDecoder = decoder;
+	}
+	encodedPosition = encodedStart;
+	countedEncodedBytes = encodedStart;
+	long decodedStart = downloadedBytes.get();
+	try {
+	    return decoder.open(response.getInputStream(), contentEncoding, encodedStart, decodedStart);
+	}
+	catch (IOException e) {
+	    response.close();
+	    if (decodedStart == 0) {
+		throw e;
+	    }
+	    LOGGER.warn("Stored encoded bytes of resource: '{}' were not decoded, it will be downloaded from the beginning: {}",
+		    url, e.getMessage());
+	    restartProgress();
+	    return openConnection();
+	}
+    }
+
+    /**
+     * Drops progress of the single connection, so the resource is downloaded again from its first byte.
+     */
+    private void restartProgress() {
+	downloadedBytes.set(0);
+	totalContentLength = 0;
+	resetChecksumVerifier();
+	deleteEncodedBytes();
+    }
+
+    /**
+     * Drops encoded bytes stored for a compressed resource, once the resource is not downloaded compressed anymore.
+     */
+    private void deleteEncodedBytes() {
+	encodedPosition = -1;
+	ContentDecoder decoder = contentDecoder;
+	contentDecoder = null;
+	deleteEncodedFile(decoder);
+    }
+
+    private void deleteEncodedFile(ContentDecoder decoder) {
+	if (decoder != null) {
+	    try {
+		decoder.delete();
+	    }
+	    catch (IOException e) {
+		LOGGER.warn(e.getMessage());
+	    }
+	}
+    }
+
+    private RandomAccessFile openFile(String fileName) {
+	RandomAccessFile randomAccessFile = null;
+	try {
+	    randomAccessFile = new RandomAccessFile(fileName, "rw");
+	}
+	catch (IOException e) {
+	    LOGGER.error(e.getMessage());
+	}
+	return randomAccessFile;
+    }
+
+    /**
+     * Opens target file and, unless the resource was split into segments, a connection starting at the stored
+     * position. Called at the beginning of every run, so a paused task continues exactly where it stopped.
+     */
+    private void openResources() {
+	lock.lock();
+	try {
+	    // a task cancelled before it started running must not create its deleted target file again
+	    if (!isRunning()) {
+		return;
+	    }
+	    try {
+		if (targetRandomAccessFile != null) {
+		    targetRandomAccessFile.close();
+		}
+		targetRandomAccessFile = openFile(targetFileName);
+		if (segments == null) {
+		    restoreProgress();
+		    targetRandomAccessFile.seek(downloadedBytes.get());
+		    connectionInputStream = openConnection();
+		    if (transfer != null) {
+			// transfer of a throttled run, that was paused before it continued
+			transfer.release();
+			transfer = null;
+		    }
+		    if (connectionInputStream != null) {
+			transfer = openTransfer(connectionInputStream, targetRandomAccessFile);
+		    }
+		}
+		if ((transferMode == TransferMode.MAPPED) && (totalContentLength > 0)
+			&& (targetRandomAccessFile.length() < totalContentLength)) {
+		    // windows are mapped only within the file, so it takes the whole length of the resource up front
+		    targetRandomAccessFile.setLength(totalContentLength);
+		}
+	    }
+	    catch (IOException e) {
+		LOGGER.warn(e.getMessage());
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    private void restoreProgress() {
+	try {
+	    Checkpoint checkpoint = Checkpoint.read(tmpFile);
+	    // positions of segments do not make a contiguous prefix of the resource
+	    if ((checkpoint == null) || (checkpoint.getSegments() != null)) {
+		return;
+	    }
+	    downloadedBytes.set(checkpoint.getDownloadedBytes());
+	    checkpointedBytes = checkpoint.getDownloadedBytes();
+	    encodedPosition = checkpoint.getEncodedBytes();
+	    if ((entityTag == null) && (lastModified == null)) {
+		entityTag = checkpoint.getEntityTag();
+		lastModified = checkpoint.getLastModified();
+	    }
+	    LOGGER.info("Stored position: '{}' of download task: '{}' was restored.", downloadedBytes, ID);
+	}
+	catch (IOException e) {
+	    LOGGER.warn(e.getMessage());
+	}
+    }
+
+    /**
+     * Returns validator, that is sent in {@code If-Range} header, so a resource, that was changed since it was partly
+     * downloaded, is not mixed with its previous version. Weak entity tags can not be used for ranges.
+     */
+    private String getValidator() {
+	String currentEntityTag = entityTag;
+	if ((currentEntityTag != null) && !currentEntityTag.startsWith("W/")) {
+	    return currentEntityTag;
+	}
+	return lastModified;
+    }
+
+    private void rememberValidators(HttpResponse response) {
+	entityTag = response.getHeader("ETag");
+	lastModified = response.getHeader("Last-Modified");
+    }
+
+    /**
+     * Takes positions of the task, that are not newer than bytes already written to the target file.
+     */
+    private Checkpoint captureProgress() {
+	List<Segment> currentSegments = segments;
+	if (currentSegments == null) {
+	    long position = downloadedBytes.get();
+	    ContentDecoder decoder = contentDecoder;
+	    // taken after the position, encoded bytes are never behind the decoded bytes they were decoded into, bytes
+	    // of a read, that was not counted yet, are read again
+	    return new Checkpoint(position, null, entityTag, lastModified, (decoder == null) ? -1
+		    : countedEncodedBytes);
+	}
+	List<Segment> storedSegments = new ArrayList<>(currentSegments.size());
+	long storedBytes = 0;
+	for (Segment segment : currentSegments) {
+	    long position = segment.getPosition();
+	    storedSegments.add(new Segment(segment.getIndex(), segment.getStart(), segment.getEnd(), position));
+	    storedBytes += position - segment.getStart();
+	}
+	return new Checkpoint(storedBytes, storedSegments, entityTag, lastModified);
+    }
+
+    /**
+     * Forces captured progress to disk: target file first, so the checkpoint never points past bytes that could be
+     * lost in a crash, then the checkpoint itself, replacing the previous one atomically. Should be called while
+     * holding the progress lock.
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+	WriteBehindFile currentWriteBehindFile = writeBehindFile;
+	if (currentWriteBehindFile != null) {
+	    // captured positions may be ahead of bytes, that the disk writer has not written yet
+	    currentWriteBehindFile.flush();
+	}
+	mappedWindows.force();
+	ContentDecoder decoder = contentDecoder;
+	if (decoder != null) {
+	    decoder.force();
+	}
+	if (targetFile.exists()) {
+	    try (FileChannel targetChannel = FileChannel.open(targetFile.toPath(), StandardOpenOption.WRITE)) {
+		targetChannel.force(false);
+	    }
+	}
+	checkpoint.write(tmpFile);
+	checkpointedBytes = checkpoint.getDownloadedBytes();
+    }
+
+    /**
+     * Stores progress of the task if it is downloading and went on since the previous checkpoint, called by the
+     * {@link Checkpointer}.
+     * 
+     * @return {@code true} if a checkpoint was written
+     */
+    boolean checkpoint() {
+	checkpointRequested.set(false);
+	if (status != Status.DOWNLOADING) {
+	    return false;
+	}
+	progressLock.lock();
+	try {
+	    // status is checked again, a completed task has deleted its temporary file under the same lock
+	    if (status != Status.DOWNLOADING) {
+		return false;
+	    }
+	    Checkpoint checkpoint = captureProgress();
+	    if (checkpoint.getDownloadedBytes() == checkpointedBytes) {
+		return false;
+	    }
+	    writeCheckpoint(checkpoint);
+	    LOGGER.debug("Position: '{}' of download task: '{}' was checkpointed.", checkpoint.getDownloadedBytes(), ID);
+	    return true;
+	}
+	catch (IOException e) {
+	    LOGGER.warn("Progress of download task: '{}' was not checkpointed: {}", ID, e.getMessage());
+	    return false;
+	}
+	finally {
+	    progressLock.unlock();
+	}
+    }
+
+    /**
+     * Asks checkpointer to store progress out of turn, once the task has downloaded enough bytes since its last
+     * checkpoint.
+     */
+    private void progressed(long downloaded) {
+	Checkpointer currentCheckpointer = checkpointer;
+	if ((currentCheckpointer != null) && (currentCheckpointer.getBytesThreshold() > 0)
+		&& ((downloaded - checkpointedBytes) >= currentCheckpointer.getBytesThreshold())
+		&& checkpointRequested.compareAndSet(false, true)) {
+	    currentCheckpointer.request(this);
+	}
+    }
+
+    private boolean storeProgress() {
+	boolean progressWasStored = false;
+	lock.lock();
+	try {
+	    LOGGER.info(
+		    "Progress of downloading task with ID: '{}' will be stored in temporary file, with name: '{}'.",
+		    ID, tmpFileName);
+	    LOGGER.info("Store current position: '{}'.", downloadedBytes.get());
+	    progressLock.lock();
+	    try {
+		writeCheckpoint(captureProgress());
+		progressWasStored = true;
+	    }
+	    catch (IOException e) {
+		LOGGER.error(e.getMessage());
+	    }
+	    finally {
+		progressLock.unlock();
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+	return progressWasStored;
+    }
+
+    /**
+     * Asks the server for the first byte of the resource to find out whether it supports byte ranges.
+     * 
+     * @return total length of the resource or {@code -1} if ranges are not supported
+     */
+    private long probeContentLength() {
+	long contentLength = -1;
+	try (HttpResponse response = createConnection("bytes=0-0")) {
+	    rememberValidators(response);
+	    if (response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) {
+		String contentRange = response.getHeader("Content-Range");
+		int delimiterIndex = (contentRange == null) ? -1 : contentRange.lastIndexOf('/');
+		if ((delimiterIndex != -1) && !contentRange.endsWith("*")) {
+		    contentLength = Long.parseLong(contentRange.substring(delimiterIndex + 1).trim());
+		}
+	    }
+	}
+	catch (IOException | NumberFormatException e) {
+	    LOGGER.warn(e.getMessage());
+	}
+	LOGGER.info("Probed content length of resource: '{}' is '{}'.", url, contentLength);
+	return contentLength;
+    }
+
+    /**
+     * Asks the server whether the cached copy of the resource is up to date and, if it is, completes the task with a
+     * copy of the cached file. Only a task, that has not downloaded anything yet, is revalidated.
+     * 
+     * @return {@code true} if the task was completed from the content cache
+     */
+    private boolean completeFromCache() {
+	ContentCache cache = contentCache;
+	if ((cache == null) || (downloadedBytes.get() > 0) || (segments != null)) {
+	    return false;
+	}
+	CacheEntry cacheEntry = cache.lookup(url);
+	if (cacheEntry == null) {
+	    return false;
+	}
+	try (HttpResponse response = createConnection("bytes=0-0", null, cacheEntry)) {
+	    if (response.getStatusCode() != HttpURLConnection.HTTP_NOT_MODIFIED) {
+		cache.stale(cacheEntry);
+		return false;
+	    }
+	}
+	catch (IOException e) {
+	    LOGGER.warn(e.getMessage());
+	    return false;
+	}
+	lock.lock();
+	try {
+	    if (!isRunning() || !cache.restore(cacheEntry, targetFile)) {
+		return false;
+	    }
+	    entityTag = cacheEntry.getEntityTag();
+	    lastModified = cacheEntry.getLastModified();
+	    totalContentLength = cacheEntry.getLength();
+	    remainderContentLength = cacheEntry.getLength();
+	    downloadedBytes.set(cacheEntry.getLength());
+	    ChecksumVerifier verifier = checksumVerifier;
+	    if (verifier != null) {
+		LOGGER.info("Download task: '{}' waits until checksums of the cached copy are verified.", ID);
+		closeResources();
+		verifier.reset();
+		verifier.written(0, cacheEntry.getLength());
+		verifier.complete(cacheEntry.getLength());
+		return true;
+	    }
+	    if (setStatus(Status.COMPLETED)) {
+		LOGGER.info("Download task: '{}' was completed from content cache.", ID);
+		closeResources();
+		if (deleteFile(tmpFile)) {
+		    LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
+		}
+	    }
+	    return true;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    private void resetChecksumVerifier() {
+	ChecksumVerifier verifier = checksumVerifier;
+	if (verifier != null) {
+	    refetchedSegments.clear();
+	    verifier.reset();
+	}
+    }
+
+    /**
+     * Called after given range of the target file was written, so its checksums could be verified.
+     */
+    void written(long offset, long numberOfBytes) {
+	ChecksumVerifier verifier = checksumVerifier;
+	if (verifier != null) {
+	    verifier.written(offset, numberOfBytes);
+	}
+    }
+
+    /**
+     * Hands the written resource over to checksum verification, the task is completed or failed once it is done.
+     * Should be called while holding the lock of the task.
+     * 
+     * @return {@code true} if checksums are verified, {@code false} if the task has no expected checksum
+     */
+    private boolean awaitChecksums(long resourceLength) {
+	ChecksumVerifier verifier = checksumVerifier;
+	if (verifier == null) {
+	    return false;
+	}
+	LOGGER.info("Download task: '{}' waits until its checksums are verified.", ID);
+	closeResources();
+	verifier.complete(resourceLength);
+	return true;
+    }
+
+    /**
+     * Tells whether the whole resource was written and the task waits for verification of its checksums.
+     */
+    private boolean awaitsChecksums() {
+	ChecksumVerifier verifier = checksumVerifier;
+	return (verifier != null) && verifier.isWritten();
+    }
+
+    /**
+     * Downloads given range again, after it did not match its checksum.
+     */
+    void refetch(int chunk, long start, long end) {
+	Segment segment = new Segment(chunk, start, end);
+	refetchedSegments.add(segment);
+	if (isRunning()) {
+	    submitSegment(segment);
+	}
+    }
+
+    private void submitRefetchedSegments() {
+	for (Segment segment : refetchedSegments) {
+	    if (!segment.isComplete()) {
+		submitSegment(segment);
+	    }
+	}
+    }
+
+    /**
+     * Completes the task, called by checksum verification once all checksums matched.
+     */
+    void checksumVerified() {
+	boolean completed = false;
+	lock.lock();
+	try {
+	    if (setStatus(Status.COMPLETED)) {
+		LOGGER.info("Checksums of download task: '{}' were verified, status was changed to: '{}'.", ID, status);
+		completed = true;
+		closeResources();
+		if (deleteFile(tmpFile)) {
+		    LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
+		}
+		deleteEncodedFile(contentDecoder);
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+	if (completed) {
+	    storeInCache();
+	}
+    }
+
+    /**
+     * Fails the task, called by checksum verification if a checksum did not match and could not be repaired.
+     */
+    void checksumFailed(String reason) {
+	LOGGER.error("Checksum verification of download task: '{}' failed: {}", ID, reason);
+	lock.lock();
+	try {
+	    if (setStatus(Status.ERROR)) {
+		LOGGER.info("Status of download task was changed to: '{}'.", status);
+		recordError("checksum");
+		closeResources();
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Puts the downloaded target file into the content cache, so the next download of the URL is revalidated.
+     */
+    private void storeInCache() {
+	ContentCache cache = contentCache;
+	if (cache != null) {
+	    cache.store(url, entityTag, lastModified, targetFile);
+	}
+    }
+
+    /**
+     * Splits the resource into byte ranges that will be downloaded over separate connections.
+     * 
+     * @return {@code true} if the resource was split, {@code false} if it should be downloaded over one connection
+     */
+    private boolean prepareSegments() {
+	resetChecksumVerifier();
+	long contentLength = probeContentLength();
+	if (contentLength < (segmentsCount * MIN_SEGMENT_SIZE)) {
+	    LOGGER.info("Resource: '{}' will be downloaded over a single connection.", url);
+	    return false;
+	}
+	List<Segment> newSegments = new ArrayList<>(segmentsCount);
+	long segmentSize = contentLength / segmentsCount;
+	for (int i = 0; i < segmentsCount; i++) {
+	    long start = i * segmentSize;
+	    long end = (i == (segmentsCount - 1)) ? (contentLength - 1) : ((start + segmentSize) - 1);
+	    newSegments.add(new Segment(i, start, end));
+	}
+	lock.lock();
+	try {
+	    try (RandomAccessFile randomAccessFile = new RandomAccessFile(targetFileName, "rw")) {
+		randomAccessFile.setLength(contentLength);
+	    }
+	    catch (IOException e) {
+		LOGGER.warn(e.getMessage());
+	    }
+	    totalContentLength = contentLength;
+	    remainderContentLength = contentLength;
+	    segments = newSegments;
+	}
+	finally {
+	    lock.unlock();
+	}
+	LOGGER.info("Resource: '{}' was split into '{}' segments.", url, segmentsCount);
+	return true;
+    }
+
+    /**
+     * Restores segments stored in temporary file of a task, that was split before the manager was restarted.
+     * 
+     * @return {@code true} if segments were restored
+     */
+    private boolean restoreSegments() {
+	try {
+	    Checkpoint checkpoint = Checkpoint.read(tmpFile);
+	    if ((checkpoint == null) || (checkpoint.getSegments() == null)) {
+		return false;
+	    }
+	    List<Segment> restoredSegments = checkpoint.getSegments();
+	    int storedSegmentsCount = restoredSegments.size();
+	    if ((checkpoint.getEntityTag() != null) || (checkpoint.getLastModified() != null)) {
+		long contentLength = probeContentLength();
+		if ((contentLength != (restoredSegments.get(storedSegmentsCount - 1).getEnd() + 1))
+			|| !checkpoint.matches(entityTag, lastModified)) {
+		    LOGGER.warn("Resource: '{}' was changed since it was checkpointed, it will be downloaded again.", url);
+		    return false;
+		}
+	    }
+	    long storedDownloadedBytes = checkpoint.getDownloadedBytes();
+	    lock.lock();
+	    try {
+		totalContentLength = restoredSegments.get(storedSegmentsCount - 1).getEnd() + 1;
+		remainderContentLength = totalContentLength;
+		downloadedBytes.set(storedDownloadedBytes);
+		checkpointedBytes = storedDownloadedBytes;
+		segments = restoredSegments;
+	    }
+	    finally {
+		lock.unlock();
+	    }
+	    LOGGER.info("Stored '{}' segments of download task: '{}' were restored.", storedSegmentsCount, ID);
+	    return true;
+	}
+	catch (IOException e) {
+	    LOGGER.warn(e.getMessage());
+	    return false;
+	}
+    }
+
+    private void submitSegments() {
+	for (Segment segment : segments) {
+	    if (!segment.isComplete()) {
+		submitSegment(segment);
+	    }
+	}
+    }
+
+    void submitSegment(Segment segment) {
+	try {
+	    executeContinuation(new SegmentDownloader(this, segment));
+	}
+	catch (RejectedExecutionException e) {
+	    LOGGER.warn("Segment '{}' of download task: '{}' was rejected by executor.", segment, ID);
+	}
+    }
+
+    /**
+     * Remembers the thread that works on this task now, so it could be interrupted on pause or cancel.
+     */
+    void runnerStarted() {
+	runnerThreads.add(Thread.currentThread());
+    }
+
+    void runnerFinished() {
+	runnerThreads.remove(Thread.currentThread());
+    }
+
+    /**
+     * Wakes up threads blocked on reading from connection. Only virtual threads are interrupted, since each of them
+     * belongs to a single run, while an interrupt of a pooled thread could leak to the next task it executes.
+     */
+    private void interruptRunners() {
+	if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+	    for (Thread runnerThread : runnerThreads) {
+		runnerThread.interrupt();
+	    }
+	}
+    }
+
+    /**
+     * Pays for transferred bytes in the buckets of this task, its host and the whole manager.
+     * 
+     * @return nanoseconds the task should wait before the next transfer, {@code 0} if it can go on immediately
+     */
+    long throttle(int numberOfBytes) {
+	BandwidthLimiter limiter = bandwidthLimiter;
+	if (limiter == null) {
+	    return 0;
+	}
+	long throttleDelay = limiter.consume(hostBucket, bandwidthBucket, numberOfBytes);
+	DiskWriter currentDiskWriter = diskWriter;
+	// a reader waits for the disk the same way as for the bandwidth limit, without holding its thread
+	return (currentDiskWriter == null) ? throttleDelay : Math.max(throttleDelay,
+		currentDiskWriter.backpressureDelay());
+    }
+
+    /**
+     * Continues throttled task after given delay, unless it was paused, cancelled or continued in another way
+     * meanwhile.
+     */
+    private void continueLater(long delayNanos) {
+	Runnable continuation = new Runnable() {
+
+	    @Override
+	    public void run() {
+		if (pendingContinuation.compareAndSet(this, null)) {
+		    resubmit();
+		}
+	    }
+	};
+	pendingContinuation.set(continuation);
+	park(this);
+	bandwidthLimiter.schedule(continuation, delayNanos);
+    }
+
+    /**
+     * Submits throttled segment downloader again after given delay, the downloader keeps its connection meanwhile.
+     */
+    void continueLater(final SegmentDownloader segmentDownloader, long delayNanos) {
+	park(segmentDownloader);
+	bandwidthLimiter.schedule(new Runnable() {
+
+	    @Override
+	    public void run() {
+		try {
+		    executeContinuation(segmentDownloader);
+		}
+		catch (RejectedExecutionException e) {
+		    LOGGER.warn("Throttled segment of download task: '{}' was rejected by executor.", ID);
+		}
+	    }
+	}, delayNanos);
+    }
+
+    /**
+     * Tells whether segments of this task should keep on downloading.
+     * 
+     * @return {@code true} if task is downloading and was not asked to pause
+     */
+    boolean isRunning() {
+	return !makePause && (status == Status.DOWNLOADING);
+    }
+
+    InputStream openSegmentConnection(Segment segment) throws IOException {
+	HttpResponse response = createConnection(segment.getRange(), getValidator());
+	if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+	    response.close();
+	    throw new IOException("Server did not return range " + segment.getRange() + " of resource " + url);
+	}
+	InputStream segmentConnection = response.getInputStream();
+	segmentConnections.add(segmentConnection);
+	return segmentConnection;
+    }
+
+    /**
+     * Tells whether given connection of a segment downloader was closed, because the task was stopped.
+     */
+    boolean isSegmentConnectionClosed(InputStream segmentConnection) {
+	return !segmentConnections.contains(segmentConnection);
+    }
+
+    /**
+     * Closes connection of a segment downloader, unless it was already closed, because the task was stopped.
+     */
+    void closeSegmentConnection(InputStream segmentConnection) {
+	if (segmentConnections.remove(segmentConnection)) {
+	    try {
+		segmentConnection.close();
+	    }
+	    catch (IOException e) {
+		LOGGER.warn(e.getMessage());
+	    }
+	}
+    }
+
+    /**
+     * Tells whether given connection of the single connection download was closed, because the task was stopped.
+     */
+    private boolean isConnectionClosed(InputStream connection) {
+	lock.lock();
+	try {
+	    return connectionInputStream != connection;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Called by a segment after every read from its connection.
+     * 
+     * @param numberOfBytes
+     *            number of read bytes
+     * @param readNanos
+     *            duration of the read
+     */
+    void segmentProgress(int numberOfBytes, long readNanos) {
+	recordRead(numberOfBytes, readNanos);
+	progressed(downloadedBytes.addAndGet(numberOfBytes));
+    }
+
+    /**
+     * Called by a segment after every read from its connection, once the read bytes were written to the target file.
+     * Bytes of a refetched range were counted as downloaded already.
+     */
+    void segmentProgress(Segment segment, int numberOfBytes, long readNanos) {
+	if (refetchedSegments.contains(segment)) {
+	    recordRead(numberOfBytes, readNanos);
+	}
+	else {
+	    segmentProgress(numberOfBytes, readNanos);
+	}
+	if (diskWriter == null) {
+	    written(segment.getPosition() - numberOfBytes, numberOfBytes);
+	}
+    }
+
+    long getDownloadedBytes() {
+	return downloadedBytes.get();
+    }
+
+    /**
+     * Returns bytes read from the connection, encoded bytes of a compressed resource, otherwise the same as downloaded
+     * bytes.
+     */
+    long getEncodedBytes() {
+	ContentDecoder decoder = contentDecoder;
+	return (decoder == null) ? downloadedBytes.get() : decoder.getEncodedBytes();
+    }
+
+    private void recordRead(int numberOfBytes, long readNanos) {
+	DownloadMetrics currentMetrics = metrics;
+	if (currentMetrics != null) {
+	    currentMetrics.recordRead(readNanos);
+	    if (numberOfBytes > 0) {
+		currentMetrics.recordBytes(numberOfBytes);
+	    }
+	}
+    }
+
+    /**
+     * Counts encoded bytes read from a compressed response since the previous read, including the header read when
+     * the response was opened, together with decoded bytes of this read. Should be called while holding the lock.
+     * 
+     * @return number of encoded bytes
+     */
+    private int recordDecodedRead(ContentDecoder decoder, int numberOfReadBytes) {
+	long encodedBytes = decoder.getEncodedBytes();
+	long numberOfEncodedBytes = encodedBytes - countedEncodedBytes;
+	countedEncodedBytes = encodedBytes;
+	DownloadMetrics currentMetrics = metrics;
+	if (currentMetrics != null) {
+	    currentMetrics.recordDecodedBytes(numberOfEncodedBytes, Math.max(numberOfReadBytes, 0));
+	}
+	return (int) numberOfEncodedBytes;
+    }
+
+    private void recordError(String cause) {
+	DownloadMetrics currentMetrics = metrics;
+	if (currentMetrics != null) {
+	    currentMetrics.recordError(cause);
+	}
+    }
+
+    /**
+     * Returns short name of the cause of a failure, status code for errors returned by server.
+     */
+    private static String causeOf(IOException e) {
+	return (e instanceof HttpStatusException) ? ("http_" + ((HttpStatusException) e).getStatusCode()) : e
+		.getClass().getSimpleName();
+    }
+
+    void segmentCompleted(Segment segment) {
+	LOGGER.info("Segment '{}' of download task: '{}' was downloaded.", segment.getIndex(), ID);
+	if (refetchedSegments.remove(segment)) {
+	    return;
+	}
+	boolean completed = false;
+	lock.lock();
+	try {
+	    for (Segment otherSegment : segments) {
+		if (!otherSegment.isComplete()) {
+		    return;
+		}
+	    }
+	    LOGGER.info("Resouces was successfully downloaded!");
+	    if (awaitChecksums(totalContentLength)) {
+		return;
+	    }
+	    if (setStatus(Status.COMPLETED)) {
+		LOGGER.info("Status of download task was changed to: '{}'.", status);
+		completed = true;
+		closeResources();
+		if (deleteFile(tmpFile)) {
+		    LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
+		}
 	    }
-	    remainderContentLength = connectionUrl.getContentLength();
-	    LOGGER.info("Total content length that will be downloaded: '{}'", remainderContentLength);
-	    bufferedInputStream = new BufferedInputStream(connectionUrl.getInputStream());
 	}
-	catch (IOException e) {
-	    LOGGER.error(e.getMessage());
+	finally {
+	    lock.unlock();
+	}
+	if (completed) {
+	    storeInCache();
 	}
-	return bufferedInputStream;
     }
 
-    private RandomAccessFile openFile(String fileName) {
-	RandomAccessFile randomAccessFile = null;
+    /**
+     * Called by a segment that stopped because of pause, so the stored positions include its last written bytes.
+     * 
+     * @param segment
+     *            stopped segment
+     */
+    void segmentPaused(Segment segment) {
+	lock.lock();
 	try {
-	    randomAccessFile = new RandomAccessFile(fileName, "rw");
+	    if (status == Status.PAUSED) {
+		LOGGER.info("Segment '{}' of download task: '{}' was paused.", segment, ID);
+		storeProgress();
+		closeResources();
+	    }
 	}
-	catch (IOException e) {
-	    LOGGER.error(e.getMessage());
+	finally {
+	    lock.unlock();
 	}
-	return randomAccessFile;
     }
 
-    private void openResources() {
-	synchronized (lock) {
-	    try {
-		tmpRandomAccessFile = openFile(tmpFileName);
-		targetRandomAccessFile = openFile(targetFileName);
-		downloadedBytes = tmpRandomAccessFile.readInt();
-		targetRandomAccessFile.seek(downloadedBytes);
-		bufferedInputStream = openConnection();
-	    }
-	    catch (IOException e) {
-		LOGGER.warn(e.getMessage());
+    void segmentFailed(Segment segment, IOException e) {
+	LOGGER.error("Segment '{}' of download task: '{}' was failed: {}", new Object[] { segment.getIndex(), ID,
+		e.getMessage() });
+	lock.lock();
+	try {
+	    if (setStatus(Status.ERROR)) {
+		LOGGER.info("Status of download task was changed to: '{}'.", status);
+		recordError(causeOf(e));
+		storeProgress();
+		closeResources();
 	    }
 	}
-    }
-
-    private boolean storeProgress() {
-	boolean progressWasStored = false;
-	synchronized (lock) {
-	    LOGGER.info(
-		    "Progress of downloading task with ID: '{}' will be stored in temporary file, with name: '{}'.",
-		    ID, tmpFileName);
-	    try {
-		LOGGER.info("Store current position: '{}'.", downloadedBytes);
-		openFile(tmpFileName);
-		tmpRandomAccessFile.writeInt(downloadedBytes);
-		progressWasStored = true;
-	    }
-	    catch (IOException e) {
-		LOGGER.error(e.getMessage());
-	    }
+	finally {
+	    lock.unlock();
 	}
-	return progressWasStored;
     }
 
     protected boolean setStatus(Status status) {
 	boolean statusInLegalState = false;
-	if ((this.status == Status.CREATED) && ((status == Status.DOWNLOADING) || (status == Status.CANCELLED))) {
-	    this.status = status;
-	    statusInLegalState = true;
-	}
-	else if ((this.status == Status.DOWNLOADING)
-		&& ((status == Status.CANCELLED) || (status == Status.PAUSED) || (status == Status.COMPLETED) || (status == Status.ERROR))) {
-	    this.status = status;
-	    statusInLegalState = true;
-	}
-	else if ((this.status == Status.PAUSED) && ((status == Status.CANCELLED) || (status == Status.DOWNLOADING))) {
+	if (Status.isLegalTransition(this.status, status)) {
 	    this.status = status;
+	    if (status != Status.DOWNLOADING) {
+		leader.set(null);
+	    }
 	    statusInLegalState = true;
+	    Checkpointer currentCheckpointer = checkpointer;
+	    if (currentCheckpointer != null) {
+		if (status == Status.DOWNLOADING) {
+		    currentCheckpointer.register(this);
+		}
+		else {
+		    currentCheckpointer.unregister(this);
+		}
+	    }
+	    StatusListener listener = statusListener;
+	    if (listener != null) {
+		listener.statusChanged(this, status);
+	    }
 	}
 
 	return statusInLegalState;
     }
 
     @Override
-    public synchronized void cancel() {
+    public void cancel() {
 	if (status != Status.CANCELLED) {
 	    LOGGER.info("Cancelling download task with ID: '{}'.", ID);
 	    makePause = true;
-	    synchronized (lock) {
+	    interruptRunners();
+	    lock.lock();
+	    try {
 		if (setStatus(Status.CANCELLED)) {
 		    LOGGER.info("Download task with ID: '{}', will be canceled.", ID);
 		    LOGGER.info("Status of download task was changed to: '{}'.", status);
@@ -222,7 +1284,7 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 		    else {
 			LOGGER.warn("Some resources was not successfully closed!");
 		    }
-		    if ((threadPool != null) && threadPool.remove(this)) {
+		    if (removeFromExecutor()) {
 			LOGGER.info("Download task was removed form thread pool.");
 		    }
 		    else {
@@ -235,6 +1297,7 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 		    else {
 			LOGGER.warn("Temporary file '{}' was not deleted!", tmpFileName);
 		    }
+		    deleteEncodedBytes();
 		    if (deleteFile(targetFile)) {
 			LOGGER.info("Target file '{}' was deleted.", targetFile);
 		    }
@@ -249,6 +1312,9 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 			    status, Status.CANCELLED);
 		}
 	    }
+	    finally {
+		lock.unlock();
+	    }
 	}
 	else {
 	    LOGGER.warn("This download task was already in '{}' state.", Status.CANCELLED);
@@ -256,15 +1322,16 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
     }
 
     @Override
-    public void download(ThreadPoolExecutor threadPool) {
-	Validate.notNull(threadPool, "Passed thread pool can not be null!");
+    public void download(Executor executor) {
+	Validate.notNull(executor, "Passed executor can not be null!");
 	if (status != Status.DOWNLOADING) {
-	    synchronized (lock) {
-		this.threadPool = threadPool;
+	    lock.lock();
+	    try {
+		this.executor = executor;
 		if (setStatus(Status.DOWNLOADING)) {
 		    LOGGER.info("Status of download task was changed to: '{}'.", status);
 		    LOGGER.info("Downloading process will be started.");
-		    threadPool.execute(this);
+		    executor.execute(this);
 		}
 		else {
 		    LOGGER.warn(
@@ -272,17 +1339,400 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 			    status, Status.DOWNLOADING);
 		}
 	    }
+	    finally {
+		lock.unlock();
+	    }
 	}
 	else {
 	    LOGGER.warn("This download task was already in '{}' state.", Status.DOWNLOADING);
 	}
     }
 
+    /**
+     * Starts this task without fetching the resource, it waits until given task, that downloads the same URL, is
+     * completed, see {@link SingleFlight}.
+     * 
+     * @return {@code true} if the task follows given task now
+     */
+    boolean follow(DownloadTaskImpl leadingTask, Executor executor) {
+	lock.lock();
+	try {
+	    this.executor = executor;
+	    leader.set(leadingTask);
+	    if (setStatus(Status.DOWNLOADING)) {
+		makePause = false;
+		return true;
+	    }
+	    leader.set(null);
+	    return false;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    void switchLeader(DownloadTaskImpl previousLeader, DownloadTaskImpl newLeader) {
+	leader.compareAndSet(previousLeader, newLeader);
+    }
+
+    /**
+     * Stops following given task and fetches the resource itself, if the task still follows it.
+     */
+    void downloadAlone(DownloadTaskImpl previousLeader) {
+	lock.lock();
+	try {
+	    if ((status == Status.DOWNLOADING) && leader.compareAndSet(previousLeader, null)) {
+		LOGGER.info("Download task: '{}' will download its URL itself.", ID);
+		executor.execute(this);
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Completes this task with a copy of the file of given completed task, that downloaded the same URL. The file is
+     * copied, not linked, since either task could later write its file in place. If the copy fails, the task downloads
+     * its URL itself.
+     */
+    void completeFrom(DownloadTaskImpl completedTask) {
+	lock.lock();
+	try {
+	    if ((status != Status.DOWNLOADING) || (leader.get() != completedTask)) {
+		return;
+	    }
+	    Path source = new File(completedTask.getFileName()).toPath();
+	    Path target = targetFile.toPath();
+	    try {
+		if (!target.toAbsolutePath().normalize().equals(source.toAbsolutePath().normalize())) {
+		    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		long size = Files.size(target);
+		entityTag = completedTask.entityTag;
+		lastModified = completedTask.lastModified;
+		totalContentLength = size;
+		remainderContentLength = size;
+		downloadedBytes.set(size);
+	    }
+	    catch (IOException e) {
+		LOGGER.warn("File of download task: '{}' could not be used: {}", completedTask.getId(), e.getMessage());
+		downloadAlone(completedTask);
+		return;
+	    }
+	    if (setStatus(Status.COMPLETED)) {
+		LOGGER.info("Download task: '{}' was completed with file of download task: '{}'.", ID,
+			completedTask.getId());
+		closeResources();
+		if (deleteFile(tmpFile)) {
+		    LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
+		}
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
     @Override
     public String getFileName() {
 	return targetFileName;
     }
 
+    public TransferMode getTransferMode() {
+	return transferMode;
+    }
+
+    /**
+     * Chooses how bytes are moved from connection to target file, takes effect on the next opened connection.
+     * 
+     * @param transferMode
+     *            transfer mode
+     */
+    public void setTransferMode(TransferMode transferMode) {
+	Validate.notNull(transferMode, "Passed transfer mode can not be null!");
+	this.transferMode = transferMode;
+    }
+
+    public ExecutionMode getExecutionMode() {
+	return executionMode;
+    }
+
+    /**
+     * Tells the task what kind of threads run it, so pause and cancel know whether blocked reads may be interrupted.
+     * 
+     * @param executionMode
+     *            execution mode of executor this task is submitted to
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+	Validate.notNull(executionMode, "Passed execution mode can not be null!");
+	this.executionMode = executionMode;
+    }
+
+    /**
+     * Makes the task pay for transferred bytes to given limiter, that holds limits of the whole manager and of hosts.
+     * 
+     * @param bandwidthLimiter
+     *            bandwidth limiter of the manager
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+	Validate.notNull(bandwidthLimiter, "Passed bandwidth limiter can not be null!");
+	hostBucket = bandwidthLimiter.getHostBucket(getHost());
+	this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    /**
+     * Makes the task send its requests over keep-alive connections of given pool, without a pool every request opens
+     * its own {@link URLConnection}.
+     * 
+     * @param connectionPool
+     *            connection pool of the manager
+     */
+    public void setConnectionPool(HttpConnectionPool connectionPool) {
+	Validate.notNull(connectionPool, "Passed connection pool can not be null!");
+	this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Lets given checkpointer store progress of this task while it is downloading.
+     * 
+     * @param checkpointer
+     *            checkpointer of the manager
+     */
+    public void setCheckpointer(Checkpointer checkpointer) {
+	Validate.notNull(checkpointer, "Passed checkpointer can not be null!");
+	this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Lets this task read into buffers of given pool, instead of a buffer of its own.
+     * 
+     * @param bufferPool
+     *            buffer pool of the manager
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+	Validate.notNull(bufferPool, "Passed buffer pool can not be null!");
+	this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Makes this task hand read bytes over to given disk stage, instead of writing them by the reading thread.
+     * 
+     * @param diskWriter
+     *            disk writer of the manager, {@code null} if bytes are written by the reading thread
+     */
+    public void setDiskWriter(DiskWriter diskWriter) {
+	this.diskWriter = diskWriter;
+    }
+
+    public DiskWriter getDiskWriter() {
+	return diskWriter;
+    }
+
+    /**
+     * Opens transfer from given connection to the target file, through the disk stage if the task has one, otherwise
+     * in the transfer mode of the task.
+     * 
+     * @param randomAccessFile
+     *            target file, that is written by the reading thread, unless the task writes behind
+     */
+    Transfer openTransfer(InputStream inputStream, RandomAccessFile randomAccessFile) throws IOException {
+	DiskWriter currentDiskWriter = diskWriter;
+	if (currentDiskWriter == null) {
+	    // windows of all connections are forced by checkpoints of the task
+	    return (transferMode == TransferMode.MAPPED) ? new MappedTransfer(inputStream, randomAccessFile, bufferPool,
+		    mappedWindows, MappedTransfer.DEFAULT_WINDOW_SIZE) : transferMode.open(inputStream, randomAccessFile,
+		    bufferPool);
+	}
+	return new WriteBehindTransfer(inputStream, openWriteBehindFile(currentDiskWriter),
+		currentDiskWriter.getBufferPool());
+    }
+
+    /**
+     * Returns target file, that is written by the disk stage, it is shared by all connections of the task.
+     */
+    private WriteBehindFile openWriteBehindFile(DiskWriter currentDiskWriter) throws IOException {
+	lock.lock();
+	try {
+	    if (writeBehindFile == null) {
+		WriteBehindFile file = currentDiskWriter.open(targetFile, new WriteBehindFile.Listener() {
+
+		    @Override
+		    public void written(long offset, long numberOfBytes) {
+			DownloadTaskImpl.this.written(offset, numberOfBytes);
+		    }
+		});
+		if (currentDiskWriter.isPreallocation() && (totalContentLength > 0)) {
+		    file.preallocate(totalContentLength);
+		}
+		writeBehindFile = file;
+	    }
+	    return writeBehindFile;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Waits until bytes, that were handed over to the disk stage, are written, and forces them to the disk if the fsync
+     * policy asks for it. Called once a connection has read all its bytes.
+     */
+    void flushWrites() throws IOException {
+	WriteBehindFile currentWriteBehindFile = writeBehindFile;
+	DiskWriter currentDiskWriter = diskWriter;
+	if ((currentWriteBehindFile == null) || (currentDiskWriter == null)) {
+	    return;
+	}
+	if (currentDiskWriter.getFsyncPolicy() == FsyncPolicy.COMPLETION) {
+	    currentWriteBehindFile.force();
+	}
+	else {
+	    currentWriteBehindFile.flush();
+	}
+    }
+
+    /**
+     * Makes this task verify checksums of the resource while it is downloaded, see {@link ChecksumVerifier}.
+     * 
+     * @param expectedChecksum
+     *            checksums, the resource should match, {@code null} if it is not verified
+     */
+    public void setExpectedChecksum(ExpectedChecksum expectedChecksum) {
+	this.expectedChecksum = expectedChecksum;
+    }
+
+    public ExpectedChecksum getExpectedChecksum() {
+	return expectedChecksum;
+    }
+
+    /**
+     * Makes this task ask for a gzip or deflate encoded response and decode it into the target file, see
+     * {@link ContentDecoder}. Applies to a resource downloaded over one connection from its first byte, segments are
+     * requested as they are, and a partly downloaded resource keeps the encoding it was started with.
+     * 
+     * @param compressedTransfer
+     *            {@code true} to accept compressed responses
+     */
+    public void setCompressedTransfer(boolean compressedTransfer) {
+	this.compressedTransfer = compressedTransfer;
+    }
+
+    public boolean isCompressedTransfer() {
+	return compressedTransfer;
+    }
+
+    /**
+     * Lets this task hash written chunks in given executor, by default they are hashed by the thread, that wrote them.
+     * 
+     * @param checksumExecutor
+     *            checksum executor of the manager
+     */
+    public void setChecksumExecutor(Executor checksumExecutor) {
+	Validate.notNull(checksumExecutor, "Passed checksum executor can not be null!");
+	this.checksumExecutor = checksumExecutor;
+    }
+
+    /**
+     * Lets this task revalidate a cached copy of its resource, instead of downloading it again, and cache the resource
+     * once it is downloaded.
+     * 
+     * @param contentCache
+     *            content cache of the manager, {@code null} if resources are not cached
+     */
+    public void setContentCache(ContentCache contentCache) {
+	this.contentCache = contentCache;
+    }
+
+    /**
+     * Lets this task record its downloaded bytes, latencies and errors in given metrics.
+     * 
+     * @param metrics
+     *            metrics of the manager
+     */
+    public void setMetrics(DownloadMetrics metrics) {
+	Validate.notNull(metrics, "Passed metrics can not be null!");
+	this.metrics = metrics;
+    }
+
+    public void setStatusListener(StatusListener statusListener) {
+	this.statusListener = statusListener;
+    }
+
+    /**
+     * Lets a restored paused task be resumed without being downloaded first.
+     * 
+     * @param executor
+     *            executor the task will be resumed in
+     */
+    void setExecutor(Executor executor) {
+	Validate.notNull(executor, "Passed executor can not be null!");
+	this.executor = executor;
+    }
+
+    public long getBandwidthLimit() {
+	return bandwidthBucket.getBytesPerSecond();
+    }
+
+    /**
+     * Limits bandwidth of this task, could be changed while the task is downloading.
+     * 
+     * @param bytesPerSecond
+     *            limit, {@code 0} means no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+	LOGGER.info("Bandwidth of download task: '{}' will be limited to: '{}' bytes per second.", ID, bytesPerSecond);
+	bandwidthBucket.setBytesPerSecond(bytesPerSecond);
+    }
+
+    @Override
+    public String getHost() {
+	return host;
+    }
+
+    private static String parseHost(String url) {
+	try {
+	    return new URL(url).getHost();
+	}
+	catch (MalformedURLException e) {
+	    return "";
+	}
+    }
+
+    /**
+     * Keeps open connection of given throttled work counted against the limit of its host, while it waits.
+     */
+    private void park(HostBoundRunnable runnable) {
+	if (executor instanceof HostScheduler) {
+	    ((HostScheduler) executor).park(runnable);
+	}
+    }
+
+    /**
+     * Runs given work, that continues this task after it was started, a scheduler that is shutting down still accepts
+     * it.
+     */
+    private void executeContinuation(Runnable runnable) {
+	if (executor instanceof HostScheduler) {
+	    ((HostScheduler) executor).executeContinuation(runnable);
+	}
+	else {
+	    executor.execute(runnable);
+	}
+    }
+
+    private boolean removeFromExecutor() {
+	if (executor instanceof HostScheduler) {
+	    return ((HostScheduler) executor).remove(this);
+	}
+	return (executor instanceof ThreadPoolExecutor) && ((ThreadPoolExecutor) executor).remove(this);
+    }
+
+    @Override
+    public int getSegmentsCount() {
+	return segmentsCount;
+    }
+
     @Override
     public String getId() {
 	return ID;
@@ -290,11 +1740,23 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 
     @Override
     public String getProgress() {
-	if (remainderContentLength == 0) {
+	DownloadTaskImpl leadingTask = leader.get();
+	if (leadingTask != null) {
+	    return leadingTask.getProgress();
+	}
+	ContentDecoder decoder = contentDecoder;
+	if (decoder != null) {
+	    // a compressed resource is measured in encoded bytes, its decoded length is not known before it ends
+	    long encodedLength = encodedContentLength;
+	    return (encodedLength <= 0) ? "0" : String.valueOf(Math.round((decoder.getEncodedBytes() * 100.0)
+		    / encodedLength));
+	}
+	long contentLength = totalContentLength;
+	if ((remainderContentLength == 0) || (contentLength <= 0)) {
 	    return "0";
 	}
 	else {
-	    int downloadedPercents = Math.round((downloadedBytes / ((float) totalContentLength / 100)));
+	    long downloadedPercents = Math.round((downloadedBytes.get() * 100.0) / contentLength);
 	    return String.valueOf(downloadedPercents);
 	}
     }
@@ -330,7 +1792,9 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 	if (status != Status.PAUSED) {
 	    makePause = true;
 	    LOGGER.info("Pausing download task with ID: '{}'.", ID);
-	    synchronized (lock) {
+	    interruptRunners();
+	    lock.lock();
+	    try {
 		if (setStatus(Status.PAUSED)) {
 		    LOGGER.info("Status of download task was changed to: '{}'.", status);
 		    if (storeProgress()) {
@@ -352,6 +1816,9 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 			    status, Status.PAUSED);
 		}
 	    }
+	    finally {
+		lock.unlock();
+	    }
 	}
 	else {
 	    LOGGER.warn("This download task was already in '{}' state.", Status.PAUSED);
@@ -360,12 +1827,17 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 
     @Override
     public void resume() {
-	if (status != Status.DOWNLOADING) {
-	    synchronized (lock) {
+	if (executor == null) {
+	    LOGGER.warn("Download task with ID: '{}' was not started yet.", ID);
+	}
+	else if (status != Status.DOWNLOADING) {
+	    lock.lock();
+	    try {
 		if (setStatus(Status.DOWNLOADING)) {
 		    LOGGER.info("Status of download task was changed to: '{}'.", status);
-		    openResources();
 		    makePause = false;
+		    LOGGER.info("Download task will be continued from position: '{}'.", downloadedBytes.get());
+		    executor.execute(this);
 		}
 		else {
 		    LOGGER.warn(
@@ -373,6 +1845,9 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 			    status, Status.PAUSED);
 		}
 	    }
+	    finally {
+		lock.unlock();
+	    }
 	}
 	else {
 	    LOGGER.warn("This download task was already in '{}' state.", Status.DOWNLOADING);
@@ -381,72 +1856,263 @@ public class DownloadTaskImpl implements Runnable, DownloadTask {
 
     @Override
     public void run() {
-	LOGGER.info("Downloading process of task: '{}' started.", ID);
-	synchronized (lock) {
-	    if ((bufferedInputStream = openConnection()) == null) {
+	if (!runnerActive.compareAndSet(false, true)) {
+	    LOGGER.info("Download task: '{}' is already run by another thread.", ID);
+	    return;
+	}
+	long throttleDelay = 0;
+	runnerStarted();
+	try {
+	    throttleDelay = downloadResource();
+	}
+	finally {
+	    if (throttleDelay == 0) {
+		releaseTransfer();
+	    }
+	    runnerFinished();
+	    runnerActive.set(false);
+	}
+	if (throttleDelay > 0) {
+	    continueLater(throttleDelay);
+	}
+	// the task could have been resumed while this thread was leaving it, continue on a fresh thread then
+	else if (isRunning() && (segments == null) && !awaitsChecksums()) {
+	    resubmit();
+	}
+    }
+
+    /**
+     * Releases transfer of the single connection, called by the thread, that used it, before another run can start.
+     */
+    private void releaseTransfer() {
+	lock.lock();
+	try {
+	    if (transfer != null) {
+		transfer.release();
+		transfer = null;
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    private void resubmit() {
+	try {
+	    executeContinuation(this);
+	}
+	catch (RejectedExecutionException e) {
+	    LOGGER.warn("Download task: '{}' was rejected by executor.", ID);
+	}
+    }
+
+    /**
+     * Downloads the resource until it is completed, stopped or throttled.
+     * 
+     * @return nanoseconds after which a throttled task should continue with its connection kept open, {@code 0} if the
+     *         task is not throttled
+     */
+    private long downloadResource() {
+	if (!isRunning()) {
+	    LOGGER.info("Download task: '{}' is not downloading anymore.", ID);
+	    return 0;
+	}
+	boolean continuesThrottled;
+	lock.lock();
+	try {
+	    continuesThrottled = throttled;
+	    throttled = false;
+	}
+	finally {
+	    lock.unlock();
+	}
+	if (!continuesThrottled) {
+	    LOGGER.info("Downloading process of task: '{}' started.", ID);
+	    ChecksumVerifier verifier = checksumVerifier;
+	    if ((expectedChecksum != null) && (verifier == null)) {
+		verifier = new ChecksumVerifier(this, expectedChecksum, (checksumExecutor == null) ? DIRECT_EXECUTOR
+			: checksumExecutor);
+		checksumVerifier = verifier;
+	    }
+	    else if (awaitsChecksums()) {
+		// the whole resource was written before the task was paused, only verification is left
+		LOGGER.info("Download task: '{}' continues verification of its checksums.", ID);
+		submitRefetchedSegments();
+		verifier.resume();
+		return 0;
+	    }
+	    if (completeFromCache()) {
+		return 0;
+	    }
+	    if ((segmentsCount > 1) && (segments == null) && !restoreSegments()) {
+		prepareSegments();
+	    }
+	    openResources();
+	    if (isRunning()) {
+		// chunks, that did not match their checksums before the task was paused
+		submitRefetchedSegments();
+	    }
+	    if (segments != null) {
+		if (isRunning()) {
+		    submitSegments();
+		}
+		return 0;
+	    }
+	}
+	lock.lock();
+	try {
+	    if (connectionInputStream == null) {
+		if (!isRunning()) {
+		    LOGGER.info("Download task: '{}' was stopped before its connection was opened.", ID);
+		    return 0;
+		}
+		if (setStatus(Status.ERROR)) {
+		    recordError((failureCause == null) ? "NoConnection" : failureCause);
+		}
 		throw new RuntimeException("Could not open connection with given resource " + url);
 	    }
 	}
+	finally {
+	    lock.unlock();
+	}
 	try {
 	    boolean endOfStreamWasReached = false;
-	    byte[] buffer = new byte[BUFFER_SIZE];
-	    while (((downloadedBytes < remainderContentLength) || !endOfStreamWasReached)) {
-		while (makePause) {
-		}
-		synchronized (lock) {
-		    if (Thread.currentThread().isInterrupted() || (status == Status.CANCELLED)) {
-			LOGGER.info("Downloading process of task: '{}' was interrupted.", ID);
-			break;
+	    while (!endOfStreamWasReached) {
+		InputStream connection;
+		Transfer currentTransfer;
+		ContentDecoder decoder;
+		long startPosition;
+		lock.lock();
+		try {
+		    // the connection is closed also when the task was paused and resumed since the previous read, the
+		    // resumed task continues on a fresh run then
+		    if (Thread.currentThread().isInterrupted() || !isRunning() || (connectionInputStream == null)) {
+			LOGGER.info("Downloading process of task: '{}' was stopped at position: '{}'.", ID,
+				downloadedBytes.get());
+			return 0;
+		    }
+		    connection = connectionInputStream;
+		    currentTransfer = transfer;
+		    decoder = contentDecoder;
+		    startPosition = downloadedBytes.get();
+		}
+		finally {
+		    lock.unlock();
+		}
+		// the read blocks without the lock, pause or cancel closes the connection and the read fails
+		long readStartTime = System.nanoTime();
+		int numberOfReadBytes;
+		try {
+		    numberOfReadBytes = currentTransfer.transfer(startPosition, Long.MAX_VALUE);
+		}
+		catch (IOException | RuntimeException e) {
+		    // a connection closed by pause fails the read, an ended inflater even with an unchecked
+		    // exception, the task could have been resumed meanwhile
+		    if (isConnectionClosed(connection)) {
+			LOGGER.info("Downloading process of task: '{}' was stopped at position: '{}'.", ID,
+				startPosition);
+			return 0;
+		    }
+		    throw e;
+		}
+		long readNanos = System.nanoTime() - readStartTime;
+		lock.lock();
+		try {
+		    // bytes read while the task was stopped are not counted, a resumed task reads them again
+		    if (!isRunning() || (connectionInputStream != connection)) {
+			LOGGER.info("Downloading process of task: '{}' was stopped at position: '{}'.", ID,
+				startPosition);
+			return 0;
 		    }
-		    int numberOfReadBytes = bufferedInputStream.read(buffer, 0, BUFFER_SIZE);
+		    recordRead(numberOfReadBytes, readNanos);
+		    // bandwidth of a compressed resource is taken by encoded bytes, a read may decode buffered ones only
+		    int numberOfWireBytes = (decoder == null) ? numberOfReadBytes : recordDecodedRead(decoder,
+			    numberOfReadBytes);
 		    if (numberOfReadBytes == -1) {
 			endOfStreamWasReached = true;
-			LOGGER.info("Downloaded bytes: {}; Total content size: {}", downloadedBytes,
-				remainderContentLength);
+			LOGGER.info("Downloaded bytes: {}; Total content size: {}", downloadedBytes.get(),
+				totalContentLength);
 			LOGGER.info("End of downloading resource was riched, seems that the resouces was successfully downloaded.");
 		    }
 		    else {
 			LOGGER.trace("New portion of bytes ('{}') will be written to target file: '{}'.",
 				numberOfReadBytes, targetFileName);
-			targetRandomAccessFile.write(buffer, 0, numberOfReadBytes);
-			downloadedBytes += numberOfReadBytes;
+			long position = downloadedBytes.addAndGet(numberOfReadBytes);
+			if (diskWriter == null) {
+			    written(position - numberOfReadBytes, numberOfReadBytes);
+			}
+			progressed(position);
+			endOfStreamWasReached = (totalContentLength > 0) && (position >= totalContentLength);
+			long throttleDelay = throttle(numberOfWireBytes);
+			if (!endOfStreamWasReached && (throttleDelay > 0)) {
+			    LOGGER.trace("Download task: '{}' was throttled for '{}' ns.", ID, throttleDelay);
+			    throttled = true;
+			    return throttleDelay;
+			}
 		    }
 		}
-		if ((downloadedBytes >= remainderContentLength) || endOfStreamWasReached) {
-		    LOGGER.info("Resouces was successfully downloaded!");
-		    endOfStreamWasReached = true;
-
-		    if (setStatus(Status.COMPLETED)) {
-			LOGGER.info("Status of download task was changed to: '{}'.", status);
+		finally {
+		    lock.unlock();
+		}
+	    }
+	    LOGGER.info("Resouces was successfully downloaded!");
+	    flushWrites();
+	    boolean completed = false;
+	    lock.lock();
+	    try {
+		if (awaitChecksums(downloadedBytes.get())) {
+		    return 0;
+		}
+		if (setStatus(Status.COMPLETED)) {
+		    LOGGER.info("Status of download task was changed to: '{}'.", status);
+		    completed = true;
+		    if (closeResources()) {
+			LOGGER.info("All resources were successfully  closed.");
+		    }
+		    else {
+			LOGGER.warn("Some resources was not successfully closed!");
+		    }
+		    if (deleteFile(tmpFile)) {
+			LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
 		    }
 		    else {
-			LOGGER.warn(
-				"You can not change status from '{}', to '{}', of this download task right now, try one more time later.",
-				status, Status.COMPLETED);
+			LOGGER.warn("Temporary file '{}' was not deleted!", tmpFileName);
 		    }
+		    deleteEncodedFile(contentDecoder);
+		}
+		else {
+		    LOGGER.warn(
+			    "You can not change status from '{}', to '{}', of this download task right now, try one more time later.",
+			    status, Status.COMPLETED);
 		}
 	    }
-
+	    finally {
+		lock.unlock();
+	    }
+	    if (completed) {
+		storeInCache();
+	    }
 	}
 	catch (IOException e) {
+	    if (!isRunning()) {
+		LOGGER.info("Downloading process of task: '{}' was interrupted: {}", ID, e.getMessage());
+		return 0;
+	    }
 	    LOGGER.error(e.getMessage());
-	}
-	finally {
-	    synchronized (lock) {
-		if (closeResources()) {
-		    LOGGER.info("All resources were successfully  closed.");
-		}
-		else {
-		    LOGGER.warn("Some resources was not successfully closed!");
-		}
-		if (deleteFile(tmpFile)) {
-		    LOGGER.info("Temporary file '{}' was deleted.", tmpFileName);
-		}
-		else {
-		    LOGGER.warn("Temporary file '{}' was not deleted!", tmpFileName);
+	    lock.lock();
+	    try {
+		if (setStatus(Status.ERROR)) {
+		    LOGGER.info("Status of download task was changed to: '{}'.", status);
+		    recordError(causeOf(e));
+		    storeProgress();
+		    closeResources();
 		}
 	    }
+	    finally {
+		lock.unlock();
+	    }
 	}
+	return 0;
     }
 
 }
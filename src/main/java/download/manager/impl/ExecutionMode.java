@@ -0,0 +1,18 @@
+package download.manager.impl;
+
+public enum ExecutionMode {
+
+    PLATFORM_THREADS("Platform threads"), VIRTUAL_THREADS("Virtual threads");
+
+    private final String value;
+
+    private ExecutionMode(String value) {
+	this.value = value;
+    }
+
+    @Override
+    public String toString() {
+	return value;
+    }
+
+}
@@ -0,0 +1,34 @@
+package download.manager.impl;
+
+/**
+ * Tells when the disk stage forces written bytes of a target file to the disk.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Target file is forced only before a checkpoint is stored, so a checkpoint never points past lost bytes.
+     */
+    CHECKPOINT("Checkpoint"),
+
+    /**
+     * Target file is also forced before its task is completed.
+     */
+    COMPLETION("Completion"),
+
+    /**
+     * Target file is forced after every write of the disk stage.
+     */
+    WRITE("Write");
+
+    private final String value;
+
+    private FsyncPolicy(String value) {
+	this.value = value;
+    }
+
+    @Override
+    public String toString() {
+	return value;
+    }
+
+}
@@ -0,0 +1,16 @@
+package download.manager.impl;
+
+/**
+ * Work that opens a connection to a particular host, so {@link HostScheduler} can queue it with the other work for the
+ * same host.
+ */
+public interface HostBoundRunnable extends Runnable {
+
+    /**
+     * Returns name of the host this work connects to.
+     * 
+     * @return host name
+     */
+    public String getHost();
+
+}
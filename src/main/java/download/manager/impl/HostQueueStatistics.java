@@ -0,0 +1,70 @@
+package download.manager.impl;
+
+/**
+ * Snapshot of the queue of one host in {@link HostScheduler}.
+ */
+public class HostQueueStatistics {
+    private String host;
+    private int queued;
+    private int inFlight;
+    private int parked;
+    private long dispatched;
+
+    public HostQueueStatistics(String host, int queued, int inFlight, int parked, long dispatched) {
+	this.host = host;
+	this.queued = queued;
+	this.inFlight = inFlight;
+	this.parked = parked;
+	this.dispatched = dispatched;
+    }
+
+    public String getHost() {
+	return host;
+    }
+
+    public void setHost(String host) {
+	this.host = host;
+    }
+
+    public int getQueued() {
+	return queued;
+    }
+
+    public void setQueued(int queued) {
+	this.queued = queued;
+    }
+
+    public int getInFlight() {
+	return inFlight;
+    }
+
+    public void setInFlight(int inFlight) {
+	this.inFlight = inFlight;
+    }
+
+    /**
+     * Returns number of throttled pieces of work, that keep their connection to the host open while they wait.
+     */
+    public int getParked() {
+	return parked;
+    }
+
+    public void setParked(int parked) {
+	this.parked = parked;
+    }
+
+    public long getDispatched() {
+	return dispatched;
+    }
+
+    public void setDispatched(long dispatched) {
+	this.dispatched = dispatched;
+    }
+
+    @Override
+    public String toString() {
+	return host + " [queued=" + queued + ", inFlight=" + inFlight + ", parked=" + parked + ", dispatched="
+		+ dispatched + "]";
+    }
+
+}
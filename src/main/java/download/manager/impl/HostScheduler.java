@@ -0,0 +1,427 @@
+package download.manager.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fair scheduler in front of the executor of a download manager. Work is queued per host and dispatched to the
+ * executor round-robin across hosts, no more than {@code maxInFlight} pieces of work at all and no more than
+ * {@code maxConnectionsPerHost} for one host at the same time. So a long batch from one host neither blocks downloads
+ * from other hosts, nor opens more connections to its host than allowed. Throttled work, that returned its thread but
+ * keeps its connection open, is {@link #park(HostBoundRunnable) parked}: it still counts against the limit of its host
+ * and goes ahead of the queue of its host, when it is executed again. Hosts are forgotten, once they have no queued,
+ * running or parked work.
+ */
+public class HostScheduler implements Executor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostScheduler.class);
+
+    private final Executor executor;
+    private final Lock lock = new ReentrantLock();
+    private final Map<String, HostQueue> hostQueues = new LinkedHashMap<>();
+    /**
+     * Hosts that have queued work, in the order they will be served.
+     */
+    private final Deque<HostQueue> rotation = new ArrayDeque<>();
+    private int maxInFlight;
+    private int maxConnectionsPerHost;
+    private int inFlight;
+    private boolean shutdown;
+    private boolean stopped;
+    private Runnable drainedCallback;
+
+    /**
+     * Creates scheduler, that allows given number of running pieces of work both at all and for one host, until
+     * {@link #setMaxConnectionsPerHost(int)} is called.
+     */
+    public HostScheduler(Executor executor, int maxInFlight) {
+	Validate.notNull(executor, "Passed executor can not be null!");
+	this.executor = executor;
+	this.maxConnectionsPerHost = maxInFlight;
+	setMaxInFlight(maxInFlight);
+    }
+
+    private static class HostQueue {
+	private final String host;
+	private final Deque<Runnable> commands = new ArrayDeque<>();
+	private final Set<Runnable> parked = new HashSet<>();
+	private int inFlight;
+	private long dispatched;
+
+	HostQueue(String host) {
+	    this.host = host;
+	}
+
+	int getConnections() {
+	    return inFlight + parked.size();
+	}
+
+	/**
+	 * Tells whether the next queued work may run, work that is parked already holds its connection.
+	 */
+	boolean mayConnect(int maxConnections) {
+	    return (getConnections() < maxConnections) || parked.contains(commands.peekFirst());
+	}
+
+	boolean isIdle() {
+	    return commands.isEmpty() && (getConnections() == 0);
+	}
+    }
+
+    private class Dispatched implements Runnable {
+	private final HostQueue hostQueue;
+	private final Runnable command;
+
+	Dispatched(HostQueue hostQueue, Runnable command) {
+	    this.hostQueue = hostQueue;
+	    this.command = command;
+	}
+
+	@Override
+	public void run() {
+	    try {
+		command.run();
+	    }
+	    finally {
+		completed(hostQueue);
+	    }
+	}
+    }
+
+    /**
+     * Changes how many pieces of work may run at the same time, should not exceed the size of the executor. A
+     * {@link ConcurrencyController} keeps it below the size, while more work does not pay off.
+     * 
+     * @param maxInFlight
+     *            maximal number of running pieces of work
+     */
+    public void setMaxInFlight(int maxInFlight) {
+	Validate.isTrue(maxInFlight > 0, "Maximal number of running tasks should be positive, but was: %d", maxInFlight);
+	lock.lock();
+	try {
+	    this.maxInFlight = maxInFlight;
+	}
+	finally {
+	    lock.unlock();
+	}
+	dispatch();
+    }
+
+    public int getMaxConnectionsPerHost() {
+	lock.lock();
+	try {
+	    return maxConnectionsPerHost;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Changes how many pieces of work for one host may run or be parked at the same time.
+     * 
+     * @param maxConnectionsPerHost
+     *            maximal number of connections to one host
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+	Validate.isTrue(maxConnectionsPerHost > 0, "Maximal number of connections per host should be positive, but was: %d",
+		maxConnectionsPerHost);
+	LOGGER.info("Maximal number of connections per host was changed to: '{}'.", maxConnectionsPerHost);
+	lock.lock();
+	try {
+	    this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+	finally {
+	    lock.unlock();
+	}
+	dispatch();
+    }
+
+    /**
+     * Queues given work for its host, work that is not bound to a host shares one queue. After {@link #shutdown} only
+     * parked work is accepted, so throttled tasks can finish.
+     */
+    @Override
+    public void execute(Runnable command) {
+	enqueue(command, false);
+    }
+
+    /**
+     * Queues work, that continues work already accepted by this scheduler: a segment of a running task or a task, that
+     * goes on with a fresh thread. Unlike {@link #execute(Runnable)} it is accepted until {@link #shutdownNow()}, so
+     * the scheduler drains running tasks instead of cutting them off.
+     */
+    public void executeContinuation(Runnable command) {
+	enqueue(command, true);
+    }
+
+    private void enqueue(Runnable command, boolean continuation) {
+	Validate.notNull(command, "Passed command can not be null!");
+	String host = (command instanceof HostBoundRunnable) ? ((HostBoundRunnable) command).getHost() : "";
+	lock.lock();
+	try {
+	    HostQueue hostQueue = hostQueues.get(host);
+	    boolean parked = (hostQueue != null) && hostQueue.parked.contains(command);
+	    if (stopped || (shutdown && !continuation && !parked)) {
+		throw new RejectedExecutionException("Scheduler was shut down");
+	    }
+	    if (hostQueue == null) {
+		hostQueue = new HostQueue(host);
+		hostQueues.put(host, hostQueue);
+	    }
+	    if (hostQueue.commands.isEmpty()) {
+		rotation.addLast(hostQueue);
+	    }
+	    if (parked) {
+		// it holds its connection, so it does not wait behind work, that waits for a connection
+		hostQueue.commands.addFirst(command);
+	    }
+	    else {
+		hostQueue.commands.addLast(command);
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+	dispatch();
+    }
+
+    /**
+     * Keeps connection of given running work counted for its host after the work returns its thread, until the work
+     * is executed again or {@link #release(HostBoundRunnable) released}. Called by throttled work, that keeps its
+     * connection open while it waits.
+     */
+    public void park(HostBoundRunnable command) {
+	lock.lock();
+	try {
+	    HostQueue hostQueue = hostQueues.get(command.getHost());
+	    if (hostQueue != null) {
+		hostQueue.parked.add(command);
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Stops counting connection of given parked work, because the work closed it and will not be executed again.
+     */
+    public void release(HostBoundRunnable command) {
+	Runnable callback;
+	lock.lock();
+	try {
+	    HostQueue hostQueue = hostQueues.get(command.getHost());
+	    if ((hostQueue == null) || !hostQueue.parked.remove(command)) {
+		return;
+	    }
+	    forgetIfIdle(hostQueue);
+	    callback = takeDrainedCallback();
+	}
+	finally {
+	    lock.unlock();
+	}
+	finish(callback);
+    }
+
+    /**
+     * Removes given work from the queue, if it was not dispatched yet.
+     * 
+     * @return {@code true} if the work was queued
+     */
+    public boolean remove(HostBoundRunnable command) {
+	lock.lock();
+	try {
+	    HostQueue hostQueue = hostQueues.get(command.getHost());
+	    if ((hostQueue == null) || !hostQueue.commands.remove(command)) {
+		return false;
+	    }
+	    if (hostQueue.commands.isEmpty()) {
+		rotation.remove(hostQueue);
+	    }
+	    forgetIfIdle(hostQueue);
+	    return true;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Hands queued work over to the executor, taking hosts in turn and skipping hosts that reached their limit.
+     */
+    private void dispatch() {
+	List<Dispatched> dispatched = new ArrayList<>();
+	lock.lock();
+	try {
+	    int skippedHosts = 0;
+	    while ((inFlight < maxInFlight) && (skippedHosts < rotation.size())) {
+		HostQueue hostQueue = rotation.pollFirst();
+		if (hostQueue.mayConnect(maxConnectionsPerHost)) {
+		    Runnable command = hostQueue.commands.pollFirst();
+		    hostQueue.parked.remove(command);
+		    dispatched.add(new Dispatched(hostQueue, command));
+		    hostQueue.inFlight++;
+		    hostQueue.dispatched++;
+		    inFlight++;
+		    skippedHosts = 0;
+		}
+		else {
+		    skippedHosts++;
+		}
+		if (!hostQueue.commands.isEmpty()) {
+		    rotation.addLast(hostQueue);
+		}
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+	for (Dispatched command : dispatched) {
+	    try {
+		executor.execute(command);
+	    }
+	    catch (RejectedExecutionException e) {
+		LOGGER.warn("Work for host: '{}' was rejected by executor.", command.hostQueue.host);
+		completed(command.hostQueue);
+	    }
+	}
+    }
+
+    private void completed(HostQueue hostQueue) {
+	Runnable callback;
+	lock.lock();
+	try {
+	    hostQueue.inFlight--;
+	    inFlight--;
+	    forgetIfIdle(hostQueue);
+	    callback = takeDrainedCallback();
+	}
+	finally {
+	    lock.unlock();
+	}
+	finish(callback);
+    }
+
+    private void finish(Runnable drainedCallback) {
+	if (drainedCallback != null) {
+	    drainedCallback.run();
+	}
+	else {
+	    dispatch();
+	}
+    }
+
+    /**
+     * Removes queue of a host, that has no work at all, so hosts seen once are not kept forever. Called under the lock.
+     */
+    private void forgetIfIdle(HostQueue hostQueue) {
+	if (hostQueue.isIdle() && (hostQueues.get(hostQueue.host) == hostQueue)) {
+	    hostQueues.remove(hostQueue.host);
+	}
+    }
+
+    /**
+     * Tells whether no work is queued, running or parked, that is every host was forgotten. Called under the lock.
+     */
+    private boolean isDrained() {
+	return (inFlight == 0) && hostQueues.isEmpty();
+    }
+
+    /**
+     * Returns callback of a shut down scheduler, that has just drained, so it is called only once. Called under the
+     * lock.
+     */
+    private Runnable takeDrainedCallback() {
+	if (!shutdown || !isDrained()) {
+	    return null;
+	}
+	Runnable callback = drainedCallback;
+	drainedCallback = null;
+	return callback;
+    }
+
+    /**
+     * Returns snapshot of queue depth and number of running pieces of work per host.
+     * 
+     * @return statistics of every host, that has queued, running or parked work
+     */
+    public List<HostQueueStatistics> getStatistics() {
+	lock.lock();
+	try {
+	    List<HostQueueStatistics> statistics = new ArrayList<>(hostQueues.size());
+	    for (HostQueue hostQueue : hostQueues.values()) {
+		statistics.add(new HostQueueStatistics(hostQueue.host, hostQueue.commands.size(), hostQueue.inFlight,
+			hostQueue.parked.size(), hostQueue.dispatched));
+	    }
+	    return statistics;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Stops accepting new work, already queued work is still dispatched and accepted work may still continue.
+     * 
+     * @param drainedCallback
+     *            called once all queued, running and parked work is done
+     */
+    public void shutdown(Runnable drainedCallback) {
+	boolean drained;
+	lock.lock();
+	try {
+	    shutdown = true;
+	    drained = isDrained();
+	    if (!drained) {
+		this.drainedCallback = drainedCallback;
+	    }
+	}
+	finally {
+	    lock.unlock();
+	}
+	if (drained) {
+	    drainedCallback.run();
+	}
+    }
+
+    /**
+     * Stops accepting any work, continuations included, and drops queued work.
+     */
+    public void shutdownNow() {
+	lock.lock();
+	try {
+	    shutdown = true;
+	    stopped = true;
+	    drainedCallback = null;
+	    for (Iterator<HostQueue> iterator = hostQueues.values().iterator(); iterator.hasNext();) {
+		HostQueue hostQueue = iterator.next();
+		hostQueue.commands.clear();
+		hostQueue.parked.clear();
+		if (hostQueue.isIdle()) {
+		    iterator.remove();
+		}
+	    }
+	    rotation.clear();
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+}
@@ -0,0 +1,93 @@
+package download.manager.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the connection into a mapped window of the target file, so bytes reach the page cache without a write call.
+ * Like with {@link ChannelTransfer}, the connection stream is adapted to a channel, that copies the bytes through a
+ * heap array first, so only the copy of the write is saved. The window moves on with the position and the previous
+ * one is unmapped, only one window of {@link #DEFAULT_WINDOW_SIZE} bytes is mapped at a time, whatever the size of the
+ * resource is. Windows never reach past the end of the file, so the file should be sized to the length of the
+ * resource up front, positions beyond its end are written with positional writes of a {@link ChannelTransfer}.
+ */
+public class MappedTransfer implements Transfer {
+
+    static final long DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_READ_SIZE = BufferPool.MAX_BUFFER_SIZE;
+
+    private final ReadableByteChannel sourceChannel;
+    private final FileChannel targetChannel;
+    private final ChannelTransfer unmappedTransfer;
+    private final MappedWindows windows;
+    private final long windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long fileLength = -1;
+
+    public MappedTransfer(final InputStream inputStream, final RandomAccessFile targetRandomAccessFile,
+	    final BufferPool bufferPool) {
+	this(inputStream, targetRandomAccessFile, bufferPool, new MappedWindows(), DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedTransfer(final InputStream inputStream, final RandomAccessFile targetRandomAccessFile,
+	    final BufferPool bufferPool, final MappedWindows windows, final long windowSize) {
+	sourceChannel = Channels.newChannel(inputStream);
+	targetChannel = targetRandomAccessFile.getChannel();
+	unmappedTransfer = (bufferPool == null) ? new ChannelTransfer(inputStream, targetRandomAccessFile)
+		: new ChannelTransfer(inputStream, targetRandomAccessFile, bufferPool);
+	this.windows = windows;
+	this.windowSize = windowSize;
+    }
+
+    @Override
+    public int transfer(long position, long limit) throws IOException {
+	if (position >= fileLength) {
+	    fileLength = targetChannel.size();
+	    if (position >= fileLength) {
+		return unmappedTransfer.transfer(position, limit);
+	    }
+	}
+	if ((window == null) || (position < windowStart) || (position >= (windowStart + window.capacity()))) {
+	    moveWindow(position);
+	}
+	// the window itself keeps position zero, reads go through a view of it
+	ByteBuffer target = window.duplicate();
+	int offset = (int) (position - windowStart);
+	target.position(offset);
+	target.limit((int) Math.min(window.capacity(), offset + Math.min(limit, MAX_READ_SIZE)));
+	try {
+	    return sourceChannel.read(target);
+	}
+	catch (InternalError e) {
+	    // a page of the mapping could not be backed by the disk, for example when it is full
+	    throw new IOException("Mapped window of target file could not be written", e);
+	}
+    }
+
+    private void moveWindow(long position) throws IOException {
+	release();
+	windowStart = position - (position % windowSize);
+	window = windows.map(targetChannel, windowStart, Math.min(windowSize, fileLength - windowStart));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see Transfer#release()
+     */
+    @Override
+    public void release() {
+	if (window != null) {
+	    windows.unmap(window);
+	    window = null;
+	}
+    }
+
+}
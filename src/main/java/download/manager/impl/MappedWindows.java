@@ -0,0 +1,114 @@
+package download.manager.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mapped windows of the target file of a download task. Every window is used by one transfer and unmapped by the
+ * thread of that transfer, once the transfer moves past it or is released, so the address space taken by a task does
+ * not grow with the size of its resource. Windows are forced to the disk only when progress is checkpointed.
+ */
+class MappedWindows {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedWindows.class);
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+	Object unsafe = null;
+	Method invokeCleaner = null;
+	try {
+	    Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+	    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+	    theUnsafe.setAccessible(true);
+	    unsafe = theUnsafe.get(null);
+	    invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+	}
+	catch (ReflectiveOperationException | RuntimeException e) {
+	    // before Java 9 the cleaner of the buffer is called directly
+	}
+	UNSAFE = unsafe;
+	INVOKE_CLEANER = invokeCleaner;
+    }
+
+    // guarded by this, a window is never forced and unmapped at the same time
+    private final Set<MappedByteBuffer> windows = Collections
+	    .newSetFromMap(new IdentityHashMap<MappedByteBuffer, Boolean>());
+    private final AtomicLong mappings = new AtomicLong();
+
+    /**
+     * Maps given region of the file for writing, the region must not reach past the end of the file.
+     */
+    synchronized MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+	MappedByteBuffer window = channel.map(MapMode.READ_WRITE, position, size);
+	windows.add(window);
+	mappings.incrementAndGet();
+	return window;
+    }
+
+    /**
+     * Unmaps given window, its written bytes stay in the page cache and are forced by the next checkpoint. The window
+     * must not be accessed afterwards.
+     */
+    synchronized void unmap(MappedByteBuffer window) {
+	if (windows.remove(window)) {
+	    unmapQuietly(window);
+	}
+    }
+
+    /**
+     * Forces bytes written to mapped windows to the disk.
+     */
+    synchronized void force() {
+	for (MappedByteBuffer window : windows) {
+	    window.force();
+	}
+    }
+
+    synchronized int getWindowsCount() {
+	return windows.size();
+    }
+
+    /**
+     * Returns number of windows mapped so far.
+     */
+    long getMappings() {
+	return mappings.get();
+    }
+
+    /**
+     * Releases the mapping right away, instead of when the buffer is garbage collected. If the JVM does not allow it,
+     * the mapping is left to the garbage collector.
+     */
+    private static void unmapQuietly(MappedByteBuffer window) {
+	try {
+	    if (INVOKE_CLEANER != null) {
+		INVOKE_CLEANER.invoke(UNSAFE, window);
+		return;
+	    }
+	    Method cleanerMethod = window.getClass().getMethod("cleaner");
+	    cleanerMethod.setAccessible(true);
+	    Object cleaner = cleanerMethod.invoke(window);
+	    if (cleaner != null) {
+		cleaner.getClass().getMethod("clean").invoke(cleaner);
+	    }
+	}
+	catch (ReflectiveOperationException | RuntimeException e) {
+	    LOGGER.debug("Mapped window was not unmapped, it is released by garbage collector: {}", e.getMessage());
+	}
+    }
+
+}
@@ -0,0 +1,18 @@
+package download.manager.impl;
+
+/**
+ * Source of {@link System#nanoTime()}, that tests replace to move the time by themselves.
+ */
+interface NanoClock {
+
+    NanoClock SYSTEM = new NanoClock() {
+
+	@Override
+	public long nanoTime() {
+	    return System.nanoTime();
+	}
+    };
+
+    long nanoTime();
+
+}
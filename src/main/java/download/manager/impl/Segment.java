@@ -0,0 +1,78 @@
+package download.manager.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Byte range of a resource that is downloaded over its own connection. Bounds are inclusive, position points to the
+ * next byte that should be written to the target file.
+ */
+public class Segment {
+
+    private final int index;
+    private final long start;
+    private final long end;
+    private volatile long position;
+    private final AtomicBoolean acquired = new AtomicBoolean(false);
+
+    public Segment(final int index, final long start, final long end) {
+	this(index, start, end, start);
+    }
+
+    public Segment(final int index, final long start, final long end, final long position) {
+	this.index = index;
+	this.start = start;
+	this.end = end;
+	this.position = position;
+    }
+
+    /**
+     * Marks this segment as being downloaded, so it would not be picked up by two threads at the same time.
+     * 
+     * @return {@code true} if segment was free and now belongs to the caller
+     */
+    boolean acquire() {
+	return acquired.compareAndSet(false, true);
+    }
+
+    void release() {
+	acquired.set(false);
+    }
+
+    void advance(int numberOfBytes) {
+	position += numberOfBytes;
+    }
+
+    public int getIndex() {
+	return index;
+    }
+
+    public long getStart() {
+	return start;
+    }
+
+    public long getEnd() {
+	return end;
+    }
+
+    public long getPosition() {
+	return position;
+    }
+
+    public long getRemainder() {
+	return (end - position) + 1;
+    }
+
+    public String getRange() {
+	return "bytes=" + position + "-" + end;
+    }
+
+    public boolean isComplete() {
+	return position > end;
+    }
+
+    @Override
+    public String toString() {
+	return index + ":" + start + "-" + end + "@" + position;
+    }
+
+}
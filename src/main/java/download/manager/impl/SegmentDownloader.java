@@ -0,0 +1,145 @@
+package download.manager.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads one {@link Segment} of a {@link DownloadTaskImpl} and writes it at its own offset in the target file.
+ */
+public class SegmentDownloader implements HostBoundRunnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentDownloader.class);
+
+    private final DownloadTaskImpl downloadTask;
+    private final Segment segment;
+    private volatile boolean throttled;
+    private InputStream inputStream;
+    private RandomAccessFile targetRandomAccessFile;
+    private Transfer transfer;
+
+    public SegmentDownloader(final DownloadTaskImpl downloadTask, final Segment segment) {
+	this.downloadTask = downloadTask;
+	this.segment = segment;
+    }
+
+    private void closeQuietly(AutoCloseable closeable) {
+	if (closeable != null) {
+	    try {
+		closeable.close();
+	    }
+	    catch (Exception e) {
+		LOGGER.warn(e.getMessage());
+	    }
+	}
+    }
+
+    /**
+     * Downloads the segment until it is completed, stopped or throttled. A throttled downloader keeps its connection and
+     * file open and continues with them next time it is run.
+     * 
+     * @return nanoseconds after which a throttled downloader should continue, {@code 0} if it is not throttled
+     */
+    private long download() {
+	long throttleDelay = 0;
+	try {
+	    if (transfer == null) {
+		LOGGER.info("Segment '{}' of download task: '{}' will be downloaded.", segment, downloadTask.getId());
+		inputStream = downloadTask.openSegmentConnection(segment);
+		targetRandomAccessFile = new RandomAccessFile(downloadTask.getFileName(), "rw");
+		transfer = downloadTask.openTransfer(inputStream, targetRandomAccessFile);
+	    }
+	    while (!segment.isComplete()) {
+		if (Thread.currentThread().isInterrupted() || !downloadTask.isRunning()) {
+		    LOGGER.info("Downloading of segment '{}' was stopped.", segment);
+		    downloadTask.segmentPaused(segment);
+		    return 0;
+		}
+		long readStartTime = System.nanoTime();
+		int numberOfReadBytes = transfer.transfer(segment.getPosition(), segment.getRemainder());
+		if (numberOfReadBytes == -1) {
+		    throw new IOException("Connection was closed before the end of segment " + segment);
+		}
+		segment.advance(numberOfReadBytes);
+		downloadTask.segmentProgress(segment, numberOfReadBytes, System.nanoTime() - readStartTime);
+		throttleDelay = downloadTask.throttle(numberOfReadBytes);
+		if (!segment.isComplete() && (throttleDelay > 0)) {
+		    return throttleDelay;
+		}
+	    }
+	    throttleDelay = 0;
+	    // bytes handed over to the disk stage are written before the segment counts as completed
+	    downloadTask.flushWrites();
+	    downloadTask.segmentCompleted(segment);
+	}
+	catch (IOException e) {
+	    throttleDelay = 0;
+	    // pause or cancel closes the connection to wake up a blocked read, the task could have been resumed since
+	    boolean stopped = (inputStream != null) && downloadTask.isSegmentConnectionClosed(inputStream);
+	    if (downloadTask.isRunning() && !stopped) {
+		downloadTask.segmentFailed(segment, e);
+	    }
+	    else {
+		LOGGER.info("Downloading of segment '{}' was interrupted: {}", segment, e.getMessage());
+		downloadTask.segmentPaused(segment);
+	    }
+	}
+	finally {
+	    if (throttleDelay == 0) {
+		if (inputStream != null) {
+		    downloadTask.closeSegmentConnection(inputStream);
+		}
+		closeQuietly(targetRandomAccessFile);
+		if (transfer != null) {
+		    transfer.release();
+		}
+		inputStream = null;
+		targetRandomAccessFile = null;
+		transfer = null;
+	    }
+	}
+	return throttleDelay;
+    }
+
+    @Override
+    public String getHost() {
+	return downloadTask.getHost();
+    }
+
+    @Override
+    public void run() {
+	// a throttled downloader still owns its segment
+	if (!throttled && !segment.acquire()) {
+	    return;
+	}
+	if (segment.isComplete()) {
+	    // a downloader of the run before a pause finished the segment, while this one waited for its turn
+	    segment.release();
+	    return;
+	}
+	throttled = false;
+	long throttleDelay = 0;
+	downloadTask.runnerStarted();
+	try {
+	    throttleDelay = download();
+	}
+	finally {
+	    downloadTask.runnerFinished();
+	    if (throttleDelay == 0) {
+		segment.release();
+	    }
+	}
+	if (throttleDelay > 0) {
+	    throttled = true;
+	    downloadTask.continueLater(this, throttleDelay);
+	}
+	// the task could have been resumed while this thread was leaving the segment, continue on a fresh thread then
+	else if (!segment.isComplete() && downloadTask.isRunning()) {
+	    downloadTask.submitSegment(segment);
+	}
+    }
+
+}
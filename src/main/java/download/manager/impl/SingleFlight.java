@@ -0,0 +1,204 @@
+package download.manager.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.api.DownloadTask;
+
+/**
+ * Coalesces downloads of the same URL. A task started while another task downloads its URL does not fetch the resource
+ * again, but follows the downloading task and gets its file once it is completed, see
+ * {@link DownloadTaskImpl#completeFrom(DownloadTaskImpl)}. Followers keep their own identifiers, statuses and files,
+ * paused or cancelled follower just leaves the flight. When the leading task stops without completing, the first
+ * follower fetches the resource itself and the rest follow it.
+ */
+class SingleFlight implements StatusListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    // a stopped leader's flight can be replaced under its URL before the leader is notified, so tasks find their own
+    private final ConcurrentMap<DownloadTask, Flight> taskFlights = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final AtomicLong coalescedTasks = new AtomicLong();
+
+    /**
+     * @param executor
+     *            executor, that completes followers, outside of the lock of the leading task
+     */
+    SingleFlight(Executor executor) {
+	this.executor = executor;
+    }
+
+    /**
+     * Makes given task follow the task, that downloads the same URL, or registers it as the leading task of its URL.
+     *
+     * @param downloadTask
+     *            task about to be started
+     * @param taskExecutor
+     *            executor, the task runs in, if it has to fetch the resource itself later
+     * @return {@code true} if the task follows another one, {@code false} if it should be downloaded
+     */
+    boolean join(DownloadTaskImpl downloadTask, Executor taskExecutor) {
+	// a task with expected checksums verifies its own download
+	if (!Status.isLegalTransition(downloadTask.getStatus(), Status.DOWNLOADING)
+		|| (downloadTask.getExpectedChecksum() != null)) {
+	    return false;
+	}
+	String url = downloadTask.getUrl();
+	Flight flight = flights.get(url);
+	if ((flight == null) || (flight.leader.getStatus() != Status.DOWNLOADING)) {
+	    Flight newFlight = new Flight(downloadTask);
+	    taskFlights.put(downloadTask, newFlight);
+	    if ((flight == null) ? (flights.putIfAbsent(url, newFlight) == null) : flights.replace(url, flight,
+		    newFlight)) {
+		return false;
+	    }
+	    taskFlights.remove(downloadTask, newFlight);
+	    flight = flights.get(url);
+	    if (flight == null) {
+		return false;
+	    }
+	}
+	if (!downloadTask.follow(flight.leader, taskExecutor)) {
+	    return false;
+	}
+	// the leader could finish, before the follower was added
+	synchronized (flight) {
+	    if (!flight.finished) {
+		flight.followers.add(downloadTask);
+		taskFlights.put(downloadTask, flight);
+		// a follower stopped before it was added did not find the flight to leave it, one stopped later does
+		if (downloadTask.getStatus() != Status.DOWNLOADING) {
+		    flight.followers.remove(downloadTask);
+		    taskFlights.remove(downloadTask, flight);
+		    return true;
+		}
+		coalescedTasks.incrementAndGet();
+		LOGGER.info("Download task: '{}' follows download task: '{}', that downloads the same URL.",
+			downloadTask.getId(), flight.leader.getId());
+		return true;
+	    }
+	}
+	downloadTask.downloadAlone(flight.leader);
+	return true;
+    }
+
+    /**
+     * Called after given task was started, but could not start downloading, so its flight has no leader.
+     */
+    void leave(DownloadTaskImpl downloadTask) {
+	statusChanged(downloadTask, downloadTask.getStatus());
+    }
+
+    @Override
+    public void statusChanged(DownloadTask downloadTask, Status status) {
+	if (status == Status.DOWNLOADING) {
+	    return;
+	}
+	Flight flight;
+	List<DownloadTaskImpl> followers;
+	Flight nextFlight = null;
+	while (true) {
+	    flight = taskFlights.get(downloadTask);
+	    if (flight == null) {
+		return;
+	    }
+	    synchronized (flight) {
+		// tasks of a finished flight were already moved to the next one
+		if (flight.finished) {
+		    continue;
+		}
+		taskFlights.remove(downloadTask, flight);
+		if (flight.leader != downloadTask) {
+		    flight.followers.remove(downloadTask);
+		    return;
+		}
+		flight.finished = true;
+		followers = new ArrayList<>(flight.followers);
+		if ((status == Status.COMPLETED) || followers.isEmpty()) {
+		    flights.remove(downloadTask.getUrl(), flight);
+		    for (DownloadTaskImpl follower : followers) {
+			taskFlights.remove(follower, flight);
+		    }
+		}
+		else {
+		    nextFlight = new Flight(followers.remove(0));
+		    // a task moved to the next flight can stop at once, the flight must not finish before all were moved
+		    synchronized (nextFlight) {
+			nextFlight.followers.addAll(followers);
+			taskFlights.put(nextFlight.leader, nextFlight);
+			for (DownloadTaskImpl follower : followers) {
+			    taskFlights.put(follower, nextFlight);
+			}
+		    }
+		    // fails, if a newly started task already leads the URL, the followers stay with their new leader
+		    flights.replace(downloadTask.getUrl(), flight, nextFlight);
+		}
+		break;
+	    }
+	}
+	if (status == Status.COMPLETED) {
+	    completeFollowers(flight.leader, followers);
+	}
+	else if (nextFlight != null) {
+	    promote(flight.leader, nextFlight);
+	}
+    }
+
+    private void completeFollowers(final DownloadTaskImpl leader, List<DownloadTaskImpl> followers) {
+	for (final DownloadTaskImpl follower : followers) {
+	    executor.execute(new Runnable() {
+
+		@Override
+		public void run() {
+		    follower.completeFrom(leader);
+		}
+	    });
+	}
+    }
+
+    private void promote(final DownloadTaskImpl previousLeader, Flight flight) {
+	final DownloadTaskImpl leader = flight.leader;
+	LOGGER.info("Download task: '{}' stopped, download task: '{}' will download its URL instead.",
+		previousLeader.getId(), leader.getId());
+	synchronized (flight) {
+	    for (DownloadTaskImpl follower : flight.followers) {
+		follower.switchLeader(previousLeader, leader);
+	    }
+	}
+	executor.execute(new Runnable() {
+
+	    @Override
+	    public void run() {
+		leader.downloadAlone(previousLeader);
+	    }
+	});
+    }
+
+    /**
+     * Returns number of tasks, that followed another task instead of fetching their URL.
+     */
+    long getCoalescedTasks() {
+	return coalescedTasks.get();
+    }
+
+    private static class Flight {
+
+	private final DownloadTaskImpl leader;
+	private final List<DownloadTaskImpl> followers = new ArrayList<>();
+	private boolean finished;
+
+	Flight(DownloadTaskImpl leader) {
+	    this.leader = leader;
+	}
+    }
+
+}
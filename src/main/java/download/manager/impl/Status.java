@@ -20,6 +20,44 @@ public enum Status {
 	this.value = value;
     }
 
+    /**
+     * Tells whether a download task may change its status from one value to another.
+     * 
+     * @param from
+     *            current status
+     * @param to
+     *            requested status
+     * @return {@code true} if the transition is allowed
+     */
+    public static boolean isLegalTransition(Status from, Status to) {
+	if (from == CREATED) {
+	    return (to == DOWNLOADING) || (to == CANCELLED);
+	}
+	else if (from == DOWNLOADING) {
+	    return (to == CANCELLED) || (to == PAUSED) || (to == COMPLETED) || (to == ERROR);
+	}
+	else if (from == PAUSED) {
+	    return (to == CANCELLED) || (to == DOWNLOADING);
+	}
+	return false;
+    }
+
+    /**
+     * Finds status by its name or value, ignoring case.
+     * 
+     * @param value
+     *            name or value of status, for example {@code PAUSED} or {@code Paused}
+     * @return found status or {@code null} if there is no such status
+     */
+    public static Status parse(String value) {
+	for (Status status : values()) {
+	    if (status.name().equalsIgnoreCase(value) || status.value.equalsIgnoreCase(value)) {
+		return status;
+	    }
+	}
+	return null;
+    }
+
     public boolean equalsName(String otherValue) {
 	return (otherValue == null) ? false : value.equals(otherValue);
     }
@@ -0,0 +1,21 @@
+package download.manager.impl;
+
+import download.manager.api.DownloadTask;
+
+/**
+ * Gets notified about every legal change of download task status. Called while the task holds its lock, so
+ * implementations should be quick and must not call back into the task.
+ */
+public interface StatusListener {
+
+    /**
+     * Called after status of given task was changed.
+     * 
+     * @param downloadTask
+     *            download task
+     * @param status
+     *            new status
+     */
+    public void statusChanged(DownloadTask downloadTask, Status status);
+
+}
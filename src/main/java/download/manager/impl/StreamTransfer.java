@@ -0,0 +1,81 @@
+package download.manager.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Copies the connection stream through a heap buffer with {@link RandomAccessFile#write(byte[], int, int)}. With a
+ * buffer pool every read takes a pooled buffer of adaptive size, otherwise the transfer has its own fixed buffer.
+ */
+public class StreamTransfer implements Transfer {
+
+    private final InputStream inputStream;
+    private final RandomAccessFile targetRandomAccessFile;
+    private final byte[] buffer;
+    private final BufferPool bufferPool;
+    private final AdaptiveReadSize readSize = new AdaptiveReadSize();
+    private long filePointer = -1;
+
+    public StreamTransfer(final InputStream inputStream, final RandomAccessFile targetRandomAccessFile) {
+	this(inputStream, targetRandomAccessFile, DownloadTaskImpl.BUFFER_SIZE);
+    }
+
+    public StreamTransfer(final InputStream inputStream, final RandomAccessFile targetRandomAccessFile,
+	    final int bufferSize) {
+	this.inputStream = inputStream;
+	this.targetRandomAccessFile = targetRandomAccessFile;
+	buffer = new byte[bufferSize];
+	bufferPool = null;
+    }
+
+    public StreamTransfer(final InputStream inputStream, final RandomAccessFile targetRandomAccessFile,
+	    final BufferPool bufferPool) {
+	this.inputStream = inputStream;
+	this.targetRandomAccessFile = targetRandomAccessFile;
+	buffer = null;
+	this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public int transfer(long position, long limit) throws IOException {
+	if (bufferPool == null) {
+	    return transfer(buffer, 0, (int) Math.min(buffer.length, limit), position);
+	}
+	ByteBuffer pooledBuffer = bufferPool.acquire((int) Math.min(readSize.get(), limit), false);
+	try {
+	    int requestedBytes = (int) Math.min(pooledBuffer.remaining(), limit);
+	    int numberOfReadBytes = transfer(pooledBuffer.array(), pooledBuffer.arrayOffset(), requestedBytes, position);
+	    readSize.update(numberOfReadBytes, requestedBytes);
+	    return numberOfReadBytes;
+	}
+	finally {
+	    bufferPool.release(pooledBuffer);
+	}
+    }
+
+    private int transfer(byte[] bytes, int offset, int length, long position) throws IOException {
+	int numberOfReadBytes = inputStream.read(bytes, offset, length);
+	if (numberOfReadBytes == -1) {
+	    return -1;
+	}
+	if (position != filePointer) {
+	    targetRandomAccessFile.seek(position);
+	}
+	targetRandomAccessFile.write(bytes, offset, numberOfReadBytes);
+	filePointer = position + numberOfReadBytes;
+	return numberOfReadBytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see Transfer#release()
+     */
+    @Override
+    public void release() {
+	// pooled buffers are given back after every transfer
+    }
+
+}
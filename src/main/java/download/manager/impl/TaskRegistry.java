@@ -0,0 +1,189 @@
+package download.manager.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+import download.manager.api.DownloadTask;
+
+/**
+ * Registry of download tasks, that keeps them indexed by identifier and by status. Lookups and additions do not lock
+ * the whole registry, tasks are spread over {@link #SHARDS_COUNT} independently locked shards. Index of a task and
+ * counters of statuses are moved on every status transition, so tasks of a status are listed and counted without
+ * scanning the registry.
+ */
+public class TaskRegistry implements StatusListener {
+
+    public static final int SHARDS_COUNT = 64;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>(1024, 0.75f, SHARDS_COUNT);
+    private final ConcurrentNavigableMap<Long, DownloadTask> allTasks = new ConcurrentSkipListMap<>();
+    private final Map<Status, ConcurrentNavigableMap<Long, DownloadTask>> tasksByStatus = new EnumMap<>(Status.class);
+    private final Map<Status, AtomicLong> counters = new EnumMap<>(Status.class);
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Registered task with its position in the order of registration and the status it is indexed under.
+     */
+    private static class Entry {
+	private final DownloadTask downloadTask;
+	private final long sequence;
+	private Status status;
+
+	private Entry(DownloadTask downloadTask, long sequence) {
+	    this.downloadTask = downloadTask;
+	    this.sequence = sequence;
+	}
+    }
+
+    public TaskRegistry() {
+	for (Status status : Status.values()) {
+	    tasksByStatus.put(status, new ConcurrentSkipListMap<Long, DownloadTask>());
+	    counters.put(status, new AtomicLong());
+	}
+    }
+
+    public void put(DownloadTask downloadTask) {
+	Validate.notNull(downloadTask, "Passed download task can not be null!");
+	Entry entry = new Entry(downloadTask, nextSequence.getAndIncrement());
+	// status is read under the lock of the entry, a transition notified meanwhile waits and moves the index after
+	synchronized (entry) {
+	    if (entries.putIfAbsent(downloadTask.getId(), entry) != null) {
+		throw new IllegalArgumentException("Download task with ID: " + downloadTask.getId()
+			+ " is already registered");
+	    }
+	    allTasks.put(entry.sequence, downloadTask);
+	    entry.status = downloadTask.getStatus();
+	    index(entry);
+	}
+    }
+
+    public DownloadTask get(String id) {
+	Entry entry = entries.get(id);
+	return (entry == null) ? null : entry.downloadTask;
+    }
+
+    public boolean containsKey(String id) {
+	return entries.containsKey(id);
+    }
+
+    public int size() {
+	return entries.size();
+    }
+
+    /**
+     * Returns number of tasks with given status, or of all tasks if status is {@code null}.
+     */
+    public long count(Status status) {
+	return (status == null) ? entries.size() : counters.get(status).get();
+    }
+
+    /**
+     * Returns page of tasks with given status, in the order they were registered.
+     * 
+     * @param status
+     *            status of listed tasks, {@code null} lists all tasks
+     * @param offset
+     *            number of tasks to skip
+     * @param limit
+     *            maximal number of returned tasks
+     * @return tasks of the page, empty if offset is past the last task
+     */
+    public List<DownloadTask> list(Status status, int offset, int limit) {
+	Validate.isTrue(limit > 0, "Limit should be positive, but was: %d", limit);
+	Iterator<DownloadTask> iterator = iterator(status, offset);
+	if (!iterator.hasNext()) {
+	    return Collections.emptyList();
+	}
+	List<DownloadTask> page = new ArrayList<>(Math.min(limit, 1024));
+	while ((page.size() < limit) && iterator.hasNext()) {
+	    page.add(iterator.next());
+	}
+	return page;
+    }
+
+    /**
+     * Returns page of identifiers of tasks with given status, in the order they were registered.
+     * 
+     * @param status
+     *            status of listed tasks, {@code null} lists all tasks
+     * @param offset
+     *            number of tasks to skip
+     * @param limit
+     *            maximal number of returned identifiers
+     * @return identifiers of the page, empty if offset is past the last task
+     */
+    public List<String> ids(Status status, int offset, int limit) {
+	Validate.isTrue(limit > 0, "Limit should be positive, but was: %d", limit);
+	Iterator<DownloadTask> iterator = iterator(status, offset);
+	if (!iterator.hasNext()) {
+	    return Collections.emptyList();
+	}
+	List<String> page = new ArrayList<>(Math.min(limit, 1024));
+	while ((page.size() < limit) && iterator.hasNext()) {
+	    page.add(iterator.next().getId());
+	}
+	return page;
+    }
+
+    /**
+     * Returns identifiers of all tasks with given status, collected from the index of the status.
+     * 
+     * @param status
+     *            status of listed tasks, {@code null} lists all tasks
+     */
+    public List<String> ids(Status status) {
+	List<String> ids = new ArrayList<>((int) Math.min(count(status), Integer.MAX_VALUE));
+	Iterator<DownloadTask> iterator = iterator(status, 0);
+	while (iterator.hasNext()) {
+	    ids.add(iterator.next().getId());
+	}
+	return ids;
+    }
+
+    private Iterator<DownloadTask> iterator(Status status, int offset) {
+	Validate.isTrue(offset >= 0, "Offset can not be negative, but was: %d", offset);
+	Map<Long, DownloadTask> index = (status == null) ? allTasks : tasksByStatus.get(status);
+	Iterator<DownloadTask> iterator = index.values().iterator();
+	for (int i = 0; (i < offset) && iterator.hasNext(); i++) {
+	    iterator.next();
+	}
+	return iterator;
+    }
+
+    /**
+     * Moves the task to the index of its new status.
+     */
+    @Override
+    public void statusChanged(DownloadTask downloadTask, Status status) {
+	Entry entry = entries.get(downloadTask.getId());
+	if (entry == null) {
+	    // not registered yet, it will be indexed under its current status then
+	    return;
+	}
+	synchronized (entry) {
+	    if (entry.status != status) {
+		tasksByStatus.get(entry.status).remove(entry.sequence);
+		counters.get(entry.status).decrementAndGet();
+		entry.status = status;
+		index(entry);
+	    }
+	}
+    }
+
+    private void index(Entry entry) {
+	tasksByStatus.get(entry.status).put(entry.sequence, entry.downloadTask);
+	counters.get(entry.status).incrementAndGet();
+    }
+
+}
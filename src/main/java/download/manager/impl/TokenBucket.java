@@ -0,0 +1,73 @@
+package download.manager.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Lock-free token bucket, that limits rate of transferred bytes. One token is one byte, bucket starts empty, refills
+ * with the rate and holds at most one second worth of tokens. Bytes are paid after they were read, so instead of
+ * refusing a read the bucket tells how long the reader should stay away to get back under the limit. Rate {@code 0}
+ * means no limit.
+ */
+public class TokenBucket {
+
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final NanoClock clock;
+    private volatile long bytesPerSecond;
+    /**
+     * Moment in the future, when all already paid bytes would have been transferred at the limited rate.
+     */
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong();
+
+    public TokenBucket(long bytesPerSecond) {
+	this(bytesPerSecond, NanoClock.SYSTEM);
+    }
+
+    TokenBucket(long bytesPerSecond, NanoClock clock) {
+	this.clock = clock;
+	setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+	return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+	Validate.isTrue(bytesPerSecond >= 0, "Bandwidth limit can not be negative, but was: %d", bytesPerSecond);
+	this.bytesPerSecond = bytesPerSecond;
+	// forget the debt accumulated with the previous rate
+	theoreticalArrivalTime.set(clock.nanoTime());
+    }
+
+    public boolean isLimited() {
+	return bytesPerSecond > 0;
+    }
+
+    /**
+     * Takes tokens for given number of transferred bytes.
+     * 
+     * @param numberOfBytes
+     *            number of bytes that were transferred
+     * @return nanoseconds the reader should wait before the next transfer, {@code 0} if it can go on immediately
+     */
+    public long consume(long numberOfBytes) {
+	long rate = bytesPerSecond;
+	if (rate <= 0) {
+	    return 0;
+	}
+	long cost = (long) ((numberOfBytes * (double) BURST_NANOS) / rate);
+	while (true) {
+	    long now = clock.nanoTime();
+	    long current = theoreticalArrivalTime.get();
+	    // an idle bucket is full, but never holds more than one second worth of tokens
+	    long next = Math.max(current, now - BURST_NANOS) + cost;
+	    if (theoreticalArrivalTime.compareAndSet(current, next)) {
+		return Math.max(0, next - now);
+	    }
+	}
+    }
+
+}
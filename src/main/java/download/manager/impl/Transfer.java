@@ -0,0 +1,29 @@
+package download.manager.impl;
+
+import java.io.IOException;
+
+/**
+ * Moves bytes from an opened connection to the target file of a download task.
+ */
+public interface Transfer {
+
+    /**
+     * Reads next portion of bytes from the connection and writes it to the target file.
+     * 
+     * @param position
+     *            offset in the target file the bytes should be written at
+     * @param limit
+     *            maximum number of bytes that may be read
+     * @return number of transferred bytes or {@code -1} if the end of stream was reached
+     * @throws IOException
+     *             if reading from connection or writing to file failed
+     */
+    public int transfer(long position, long limit) throws IOException;
+
+    /**
+     * Releases what the transfer holds apart from the connection and the target file, which are closed by their owner.
+     * Called by the thread, that used the transfer, once it is done with it.
+     */
+    public void release();
+
+}
@@ -0,0 +1,70 @@
+package download.manager.impl;
+
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+public enum TransferMode {
+
+    STREAM("Stream") {
+	@Override
+	public Transfer open(InputStream inputStream, RandomAccessFile targetRandomAccessFile, BufferPool bufferPool) {
+	    return (bufferPool == null) ? new StreamTransfer(inputStream, targetRandomAccessFile) : new StreamTransfer(
+		    inputStream, targetRandomAccessFile, bufferPool);
+	}
+    },
+
+    CHANNEL("Channel") {
+	@Override
+	public Transfer open(InputStream inputStream, RandomAccessFile targetRandomAccessFile, BufferPool bufferPool) {
+	    return (bufferPool == null) ? new ChannelTransfer(inputStream, targetRandomAccessFile) : new ChannelTransfer(
+		    inputStream, targetRandomAccessFile, bufferPool);
+	}
+    },
+
+    MAPPED("Mapped") {
+	@Override
+	public Transfer open(InputStream inputStream, RandomAccessFile targetRandomAccessFile, BufferPool bufferPool) {
+	    return new MappedTransfer(inputStream, targetRandomAccessFile, bufferPool);
+	}
+    };
+
+    private final String value;
+
+    private TransferMode(String value) {
+	this.value = value;
+    }
+
+    /**
+     * Creates transfer that moves bytes from given stream to given file in this mode.
+     * 
+     * @param inputStream
+     *            stream of opened connection
+     * @param targetRandomAccessFile
+     *            target file
+     * @return new transfer
+     */
+    public Transfer open(InputStream inputStream, RandomAccessFile targetRandomAccessFile) {
+	return open(inputStream, targetRandomAccessFile, null);
+    }
+
+    /**
+     * Creates transfer that moves bytes from given stream to given file in this mode, reading into buffers of given
+     * pool.
+     * 
+     * @param inputStream
+     *            stream of opened connection
+     * @param targetRandomAccessFile
+     *            target file
+     * @param bufferPool
+     *            pool of buffers shared by download tasks, {@code null} means the transfer has its own buffer
+     * @return new transfer
+     */
+    public abstract Transfer open(InputStream inputStream, RandomAccessFile targetRandomAccessFile,
+	    BufferPool bufferPool);
+
+    @Override
+    public String toString() {
+	return value;
+    }
+
+}
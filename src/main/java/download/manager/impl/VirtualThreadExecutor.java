@@ -0,0 +1,145 @@
+package download.manager.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts a new virtual thread for every submitted task, while at most {@code limit} of them are allowed to run at the
+ * same time, the rest wait for a permit parked, without occupying any carrier thread. Virtual threads are available
+ * since Java 21 only, so the executor is looked up reflectively and the project still compiles for older targets.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+
+    private final ExecutorService executorService;
+    private final Lock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private int limit;
+    private int running;
+
+    public VirtualThreadExecutor(int limit) {
+	setLimit(limit);
+	executorService = newVirtualThreadPerTaskExecutor();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+	try {
+	    Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+	    return (ExecutorService) method.invoke(null);
+	}
+	catch (NoSuchMethodException e) {
+	    throw new IllegalStateException("Virtual threads require Java 21 or newer, current version is "
+		    + System.getProperty("java.version"), e);
+	}
+	catch (IllegalAccessException | InvocationTargetException e) {
+	    throw new IllegalStateException("Could not create executor of virtual threads", e);
+	}
+    }
+
+    public int getLimit() {
+	lock.lock();
+	try {
+	    return limit;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Changes number of tasks that can run at the same time, waiting tasks are woken up if the limit grows.
+     * 
+     * @param limit
+     *            maximal number of running tasks
+     */
+    public void setLimit(int limit) {
+	Validate.isTrue(limit > 0, "Concurrency limit should be positive, but was: %d", limit);
+	lock.lock();
+	try {
+	    LOGGER.info("Concurrency limit of virtual threads was changed from '{}' to '{}'.", this.limit, limit);
+	    this.limit = limit;
+	    permitReleased.signalAll();
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    public int getRunning() {
+	lock.lock();
+	try {
+	    return running;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+	Validate.notNull(command, "Passed command can not be null!");
+	executorService.execute(new Runnable() {
+
+	    @Override
+	    public void run() {
+		try {
+		    acquire();
+		}
+		catch (InterruptedException e) {
+		    LOGGER.info("Waiting for a permit was interrupted, task will not be run.");
+		    return;
+		}
+		try {
+		    command.run();
+		}
+		finally {
+		    release();
+		}
+	    }
+	});
+    }
+
+    private void acquire() throws InterruptedException {
+	lock.lock();
+	try {
+	    while (running >= limit) {
+		permitReleased.await();
+	    }
+	    running++;
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    private void release() {
+	lock.lock();
+	try {
+	    running--;
+	    permitReleased.signal();
+	}
+	finally {
+	    lock.unlock();
+	}
+    }
+
+    public void shutdown() {
+	executorService.shutdown();
+    }
+
+    public void shutdownNow() {
+	executorService.shutdownNow();
+    }
+
+}
@@ -0,0 +1,277 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Target file, that is written by I/O threads of a {@link DiskWriter}. Readers queue filled buffers with
+ * {@link #write(long, ByteBuffer)} and return immediately, the file is drained by one I/O thread at a time, which
+ * writes runs of adjacent buffers with a single gathering write.
+ */
+class WriteBehindFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindFile.class);
+
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    /**
+     * Learns about ranges, that were written to the file.
+     */
+    interface Listener {
+
+	void written(long offset, long numberOfBytes);
+
+    }
+
+    private final DiskWriter diskWriter;
+    private final File file;
+    private final FileChannel channel;
+    private final Listener listener;
+    private final Queue<PendingWrite> writes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // fields below are guarded by this
+    private long queuedWrites;
+    private long finishedWrites;
+    private IOException failure;
+    private boolean closed;
+
+    WriteBehindFile(DiskWriter diskWriter, File file, Listener listener) throws IOException {
+	this.diskWriter = diskWriter;
+	this.file = file;
+	this.listener = listener;
+	channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Queues given buffer to be written at given position, the buffer is given back to the pool of the disk writer
+     * once it is written.
+     *
+     * @param buffer
+     *            buffer with bytes to be written between its position and limit
+     * @throws IOException
+     *             if a previous write of the file failed or the file was closed, the buffer is given back then
+     */
+    void write(long position, ByteBuffer buffer) throws IOException {
+	synchronized (this) {
+	    if ((failure != null) || closed) {
+		diskWriter.getBufferPool().release(buffer);
+		throw (failure != null) ? new IOException("Writing of file " + file + " failed: "
+			+ failure.getMessage(), failure) : new IOException("File " + file + " was closed");
+	    }
+	    queuedWrites++;
+	}
+	diskWriter.queued(buffer.remaining());
+	writes.offer(new PendingWrite(position, buffer));
+	schedule();
+    }
+
+    private void schedule() {
+	if (scheduled.compareAndSet(false, true)) {
+	    diskWriter.ready(this);
+	}
+    }
+
+    /**
+     * Extends the file to given length, unless it is longer already. The file is not filled, most file systems keep
+     * the new part sparse, but writes within the length do not change the size of the file anymore.
+     */
+    void preallocate(long length) throws IOException {
+	if (channel.size() < length) {
+	    channel.write(ByteBuffer.allocate(1), length - 1);
+	    LOGGER.debug("File: '{}' was extended to '{}' bytes.", file, length);
+	}
+    }
+
+    /**
+     * Waits until all buffers, that were queued before, are written.
+     *
+     * @throws IOException
+     *             if writing of the file failed
+     */
+    void flush() throws IOException {
+	synchronized (this) {
+	    long target = queuedWrites;
+	    boolean interrupted = false;
+	    while ((finishedWrites < target) && (failure == null)) {
+		try {
+		    wait();
+		}
+		catch (InterruptedException e) {
+		    // a paused task still waits for its bytes, they are checkpointed right after
+		    interrupted = true;
+		}
+	    }
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	    if (failure != null) {
+		throw new IOException("Writing of file " + file + " failed: " + failure.getMessage(), failure);
+	    }
+	}
+    }
+
+    /**
+     * Waits until queued buffers are written and forces them to the disk.
+     */
+    void force() throws IOException {
+	flush();
+	synchronized (this) {
+	    if (closed && !channel.isOpen()) {
+		return;
+	    }
+	}
+	channel.force(false);
+	diskWriter.forced();
+    }
+
+    /**
+     * Closes the file once queued buffers are written, nothing can be queued anymore.
+     */
+    void close() {
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    closed = true;
+	}
+	// a drain, that is running now, closes the file when it ends
+	schedule();
+    }
+
+    /**
+     * Writes queued buffers, called by an I/O thread of the disk writer.
+     */
+    void drain() {
+	List<PendingWrite> run = new ArrayList<>(MAX_GATHERED_BUFFERS);
+	while (true) {
+	    PendingWrite write;
+	    while ((write = writes.poll()) != null) {
+		if (!run.isEmpty() && ((write.getPosition() != run.get(run.size() - 1).getEnd())
+			|| (run.size() == MAX_GATHERED_BUFFERS))) {
+		    writeRun(run);
+		    run.clear();
+		}
+		run.add(write);
+	    }
+	    if (!run.isEmpty()) {
+		writeRun(run);
+		run.clear();
+	    }
+	    scheduled.set(false);
+	    // a buffer queued after the queue was found empty, but before the flag was cleared, is drained now
+	    if (writes.isEmpty() || !scheduled.compareAndSet(false, true)) {
+		break;
+	    }
+	}
+	closeIfDrained();
+    }
+
+    private void writeRun(List<PendingWrite> run) {
+	ByteBuffer[] buffers = new ByteBuffer[run.size()];
+	long numberOfBytes = 0;
+	for (int i = 0; i < buffers.length; i++) {
+	    buffers[i] = run.get(i).getBuffer();
+	    numberOfBytes += buffers[i].remaining();
+	}
+	boolean failed;
+	synchronized (this) {
+	    failed = failure != null;
+	}
+	if (failed) {
+	    diskWriter.dropped(numberOfBytes);
+	}
+	else {
+	    try {
+		long writeStartTime = System.nanoTime();
+		// only I/O threads use the position of the channel, one at a time
+		channel.position(run.get(0).getPosition());
+		long remainder = numberOfBytes;
+		while (remainder > 0) {
+		    remainder -= channel.write(buffers);
+		}
+		if (diskWriter.getFsyncPolicy() == FsyncPolicy.WRITE) {
+		    channel.force(false);
+		    diskWriter.forced();
+		}
+		diskWriter.written(numberOfBytes, System.nanoTime() - writeStartTime);
+		if (listener != null) {
+		    for (PendingWrite write : run) {
+			listener.written(write.getPosition(), write.getLength());
+		    }
+		}
+	    }
+	    catch (IOException e) {
+		LOGGER.error("Writing of file: '{}' failed: {}", file, e.getMessage());
+		diskWriter.dropped(numberOfBytes);
+		synchronized (this) {
+		    failure = e;
+		}
+	    }
+	}
+	for (ByteBuffer buffer : buffers) {
+	    diskWriter.getBufferPool().release(buffer);
+	}
+	synchronized (this) {
+	    finishedWrites += run.size();
+	    notifyAll();
+	}
+    }
+
+    private void closeIfDrained() {
+	synchronized (this) {
+	    if (!closed || (finishedWrites < queuedWrites) || !channel.isOpen()) {
+		return;
+	    }
+	}
+	try {
+	    channel.close();
+	}
+	catch (IOException e) {
+	    LOGGER.warn(e.getMessage());
+	}
+    }
+
+    /**
+     * Buffer, that waits to be written at its position.
+     */
+    private static class PendingWrite {
+
+	private final long position;
+	private final ByteBuffer buffer;
+	private final int length;
+
+	PendingWrite(long position, ByteBuffer buffer) {
+	    this.position = position;
+	    this.buffer = buffer;
+	    length = buffer.remaining();
+	}
+
+	long getPosition() {
+	    return position;
+	}
+
+	long getEnd() {
+	    return position + length;
+	}
+
+	int getLength() {
+	    return length;
+	}
+
+	ByteBuffer getBuffer() {
+	    return buffer;
+	}
+    }
+
+}
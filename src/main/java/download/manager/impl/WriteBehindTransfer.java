@@ -0,0 +1,60 @@
+package download.manager.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the connection into pooled direct buffers of adaptive size and hands every filled buffer over to the disk
+ * stage, so the reading thread goes on with the next read instead of waiting for the disk. The buffer is given back to
+ * the pool by the I/O thread, that wrote it.
+ */
+public class WriteBehindTransfer implements Transfer {
+
+    private final ReadableByteChannel sourceChannel;
+    private final WriteBehindFile targetFile;
+    private final BufferPool bufferPool;
+    private final AdaptiveReadSize readSize = new AdaptiveReadSize();
+
+    WriteBehindTransfer(final InputStream inputStream, final WriteBehindFile targetFile, final BufferPool bufferPool) {
+	sourceChannel = Channels.newChannel(inputStream);
+	this.targetFile = targetFile;
+	this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public int transfer(long position, long limit) throws IOException {
+	ByteBuffer buffer = bufferPool.acquire((int) Math.min(readSize.get(), limit), true);
+	int numberOfReadBytes;
+	try {
+	    int requestedBytes = (int) Math.min(buffer.remaining(), limit);
+	    buffer.limit(buffer.position() + requestedBytes);
+	    numberOfReadBytes = sourceChannel.read(buffer);
+	    readSize.update(numberOfReadBytes, requestedBytes);
+	}
+	catch (IOException | RuntimeException e) {
+	    bufferPool.release(buffer);
+	    throw e;
+	}
+	if (numberOfReadBytes <= 0) {
+	    bufferPool.release(buffer);
+	    return numberOfReadBytes;
+	}
+	buffer.flip();
+	targetFile.write(position, buffer);
+	return numberOfReadBytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see Transfer#release()
+     */
+    @Override
+    public void release() {
+	// buffers are given back by the disk writer, the file is closed by the task
+    }
+
+}
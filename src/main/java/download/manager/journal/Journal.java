@@ -0,0 +1,445 @@
+package download.manager.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import download.manager.impl.Status;
+
+/**
+ * Write-ahead journal of download task lifecycle: every added task and every change of its status is appended to
+ * {@code journal.log} by a single writer thread, that writes all events waiting in its queue at once and forces them
+ * to disk with one fsync. Once enough events were appended, the writer compacts the journal: it writes the last state
+ * of every task to {@code snapshot.dat}, replaces the old snapshot atomically and starts the journal from scratch.
+ * Opening a journal replays the snapshot and then the journal, a torn record at the end of the journal, left by a
+ * crash, is dropped. Completed and cancelled tasks are kept for a retention period after they finished, compaction
+ * drops older ones, so neither the snapshot nor recovery grow with the history of finished downloads.
+ */
+public class Journal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    public static final String JOURNAL_FILE_NAME = "journal.log";
+    public static final String SNAPSHOT_FILE_NAME = "snapshot.dat";
+    public static final int DEFAULT_SNAPSHOT_THRESHOLD = 100000;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int SNAPSHOT_MAGIC = 0x444D534E;
+    private static final byte ADD = 1;
+    private static final byte STATUS = 2;
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final int snapshotThreshold;
+    private final long retentionMillis;
+    private final Map<String, TaskRecord> tasks = new LinkedHashMap<>();
+    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final List<TaskRecord> recoveredTasks;
+    private final AtomicLong appendedEvents = new AtomicLong();
+    private final Object writtenEventsMonitor = new Object();
+    private long writtenEvents;
+    private FileChannel journalChannel;
+    private int eventsSinceSnapshot;
+    private volatile boolean closed;
+
+    public Journal(File directory) throws IOException {
+	this(directory, DEFAULT_SNAPSHOT_THRESHOLD, DEFAULT_RETENTION_MILLIS);
+    }
+
+    public Journal(File directory, int snapshotThreshold) throws IOException {
+	this(directory, snapshotThreshold, DEFAULT_RETENTION_MILLIS);
+    }
+
+    /**
+     * Opens journal in given directory, replays it and starts its writer.
+     * 
+     * @param directory
+     *            directory of journal and snapshot files, created if missing
+     * @param snapshotThreshold
+     *            number of appended events after which the journal is compacted into a snapshot
+     * @param retentionMillis
+     *            milliseconds after which completed and cancelled tasks are dropped by compaction, {@code 0} drops
+     *            them with the next compaction
+     * @throws IOException
+     *             if journal or snapshot could not be read
+     */
+    public Journal(File directory, int snapshotThreshold, long retentionMillis) throws IOException {
+	Validate.notNull(directory, "Passed directory can not be null!");
+	Validate.isTrue(snapshotThreshold > 0, "Snapshot threshold should be positive, but was: %d", snapshotThreshold);
+	Validate.isTrue(retentionMillis >= 0, "Retention can not be negative, but was: %d", retentionMillis);
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Could not create journal directory " + directory);
+	}
+	this.snapshotThreshold = snapshotThreshold;
+	this.retentionMillis = retentionMillis;
+	journalFile = new File(directory, JOURNAL_FILE_NAME);
+	snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+	long startTime = System.nanoTime();
+	readSnapshot();
+	long validJournalLength = replayJournal();
+	journalChannel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	if (journalChannel.size() > validJournalLength) {
+	    LOGGER.warn("Torn tail of journal: '{}' will be dropped after position: '{}'.", journalFile,
+		    validJournalLength);
+	    journalChannel.truncate(validJournalLength);
+	}
+	journalChannel.position(validJournalLength);
+	List<TaskRecord> restoredTasks = new ArrayList<>(tasks.size());
+	for (TaskRecord task : tasks.values()) {
+	    restoredTasks.add(new TaskRecord(task.getId(), task.getUrl(), task.getFileName(), task
+		    .getSegmentsCount(), task.getStatus()));
+	}
+	recoveredTasks = Collections.unmodifiableList(restoredTasks);
+	LOGGER.info("'{}' download tasks were recovered from journal in '{}' ms.", recoveredTasks.size(),
+		TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+	writer = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		writeEvents();
+	    }
+	}, "download-journal-writer");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    /**
+     * Returns tasks as they were when the journal was opened, in the order they were added.
+     */
+    public Collection<TaskRecord> getRecoveredTasks() {
+	return recoveredTasks;
+    }
+
+    public void taskAdded(String id, String url, String fileName, int segmentsCount) {
+	ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+	try (DataOutputStream output = new DataOutputStream(record)) {
+	    output.writeByte(ADD);
+	    output.writeUTF(id);
+	    output.writeUTF(url);
+	    output.writeUTF(fileName);
+	    output.writeInt(segmentsCount);
+	}
+	catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+	append(record.toByteArray());
+    }
+
+    public void statusChanged(String id, Status status) {
+	ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+	try (DataOutputStream output = new DataOutputStream(record)) {
+	    output.writeByte(STATUS);
+	    output.writeUTF(id);
+	    output.writeUTF(status.name());
+	}
+	catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+	append(record.toByteArray());
+    }
+
+    /**
+     * Queues the event for the writer, it reaches the disk with the next group fsync, within milliseconds.
+     */
+    private void append(byte[] record) {
+	if (closed) {
+	    LOGGER.warn("Journal was closed, event will not be recorded.");
+	    return;
+	}
+	appendedEvents.incrementAndGet();
+	queue.add(record);
+    }
+
+    /**
+     * Waits until all events appended so far are written and forced to disk.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+	long events = appendedEvents.get();
+	synchronized (writtenEventsMonitor) {
+	    while ((writtenEvents < events) && writer.isAlive()) {
+		writtenEventsMonitor.wait(100);
+	    }
+	}
+    }
+
+    private void markWritten(int events) {
+	synchronized (writtenEventsMonitor) {
+	    writtenEvents += events;
+	    writtenEventsMonitor.notifyAll();
+	}
+    }
+
+    private void writeEvents() {
+	List<byte[]> batch = new ArrayList<>();
+	while (!closed || !queue.isEmpty()) {
+	    try {
+		byte[] record = queue.poll(100, TimeUnit.MILLISECONDS);
+		if (record == null) {
+		    continue;
+		}
+		batch.add(record);
+		queue.drainTo(batch);
+		writeBatch(batch);
+		if (eventsSinceSnapshot >= snapshotThreshold) {
+		    compact();
+		}
+		markWritten(batch.size());
+		batch.clear();
+	    }
+	    catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return;
+	    }
+	    catch (IOException e) {
+		LOGGER.error("Events could not be written to journal: '{}': {}", journalFile, e.getMessage());
+		markWritten(batch.size());
+		batch.clear();
+	    }
+	}
+    }
+
+    private void writeBatch(List<byte[]> batch) throws IOException {
+	int batchLength = 0;
+	for (byte[] record : batch) {
+	    batchLength += record.length + 8;
+	}
+	ByteBuffer buffer = ByteBuffer.allocate(batchLength);
+	CRC32 crc = new CRC32();
+	for (byte[] record : batch) {
+	    crc.reset();
+	    crc.update(record, 0, record.length);
+	    buffer.putInt(record.length);
+	    buffer.put(record);
+	    buffer.putInt((int) crc.getValue());
+	    apply(record);
+	}
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    journalChannel.write(buffer);
+	}
+	journalChannel.force(false);
+	eventsSinceSnapshot += batch.size();
+    }
+
+    /**
+     * Updates last known state of a task with given event. A task, that finished, is stamped with the current time,
+     * which is close to the time of the event while writing, and the time of recovery while replaying.
+     */
+    private void apply(byte[] record) throws IOException {
+	try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+	    byte type = input.readByte();
+	    String id = input.readUTF();
+	    if (type == ADD) {
+		String url = input.readUTF();
+		String fileName = input.readUTF();
+		int segmentsCount = input.readInt();
+		tasks.put(id, new TaskRecord(id, url, fileName, segmentsCount, Status.CREATED));
+	    }
+	    else if (type == STATUS) {
+		Status status = Status.valueOf(input.readUTF());
+		TaskRecord task = tasks.get(id);
+		if (task != null) {
+		    task.setStatus(status);
+		    if (isFinished(status)) {
+			task.setFinishedTimeMillis(System.currentTimeMillis());
+		    }
+		}
+	    }
+	    else {
+		throw new IOException("Unknown type of journal record: " + type);
+	    }
+	}
+    }
+
+    /**
+     * Reads records from the beginning of the journal up to the first torn or corrupted one.
+     * 
+     * @return length of the valid part of the journal
+     */
+    private long replayJournal() throws IOException {
+	if (!journalFile.exists()) {
+	    return 0;
+	}
+	long validLength = 0;
+	int replayedEvents = 0;
+	CRC32 crc = new CRC32();
+	try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile),
+		64 * 1024))) {
+	    while (true) {
+		int length = input.readInt();
+		if ((length <= 0) || (length > MAX_RECORD_LENGTH)) {
+		    break;
+		}
+		byte[] record = new byte[length];
+		input.readFully(record);
+		int storedCrc = input.readInt();
+		crc.reset();
+		crc.update(record, 0, length);
+		if (storedCrc != (int) crc.getValue()) {
+		    break;
+		}
+		apply(record);
+		validLength += length + 8;
+		replayedEvents++;
+	    }
+	}
+	catch (EOFException e) {
+	    // the last record was not written completely
+	}
+	eventsSinceSnapshot = replayedEvents;
+	LOGGER.info("'{}' events were replayed from journal: '{}'.", replayedEvents, journalFile);
+	return validLength;
+    }
+
+    private void readSnapshot() throws IOException {
+	if (!snapshotFile.exists()) {
+	    return;
+	}
+	try (InputStream inputStream = new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024);
+		DataInputStream input = new DataInputStream(inputStream)) {
+	    int magic = input.readInt();
+	    if (magic != SNAPSHOT_MAGIC) {
+		throw new IOException("File " + snapshotFile + " is not a snapshot of download tasks");
+	    }
+	    int count = input.readInt();
+	    for (int i = 0; i < count; i++) {
+		String id = input.readUTF();
+		String url = input.readUTF();
+		String fileName = input.readUTF();
+		int segmentsCount = input.readInt();
+		Status status = Status.valueOf(input.readUTF());
+		TaskRecord task = new TaskRecord(id, url, fileName, segmentsCount, status);
+		task.setFinishedTimeMillis(input.readLong());
+		tasks.put(id, task);
+	    }
+	}
+	LOGGER.info("'{}' download tasks were read from snapshot: '{}'.", tasks.size(), snapshotFile);
+    }
+
+    private static boolean isFinished(Status status) {
+	return (status == Status.COMPLETED) || (status == Status.CANCELLED);
+    }
+
+    /**
+     * Drops tasks, that finished longer than the retention period ago.
+     * 
+     * @return number of dropped tasks
+     */
+    private int dropExpiredTasks() {
+	long now = System.currentTimeMillis();
+	int droppedTasks = 0;
+	for (Iterator<TaskRecord> iterator = tasks.values().iterator(); iterator.hasNext();) {
+	    TaskRecord task = iterator.next();
+	    if (isFinished(task.getStatus()) && ((now - task.getFinishedTimeMillis()) >= retentionMillis)) {
+		iterator.remove();
+		droppedTasks++;
+	    }
+	}
+	return droppedTasks;
+    }
+
+    /**
+     * Writes state of all retained tasks to a new snapshot, replaces the old one and empties the journal. A crash in
+     * between leaves either the old snapshot with the whole journal or the new snapshot with events it already
+     * contains, both are replayed to the same state, except for dropped tasks, that are dropped again.
+     */
+    private void compact() throws IOException {
+	long startTime = System.nanoTime();
+	int droppedTasks = dropExpiredTasks();
+	File newSnapshotFile = new File(snapshotFile.getPath() + ".new");
+	try (FileOutputStream fileOutputStream = new FileOutputStream(newSnapshotFile);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 64 * 1024))) {
+	    output.writeInt(SNAPSHOT_MAGIC);
+	    output.writeInt(tasks.size());
+	    for (TaskRecord task : tasks.values()) {
+		output.writeUTF(task.getId());
+		output.writeUTF(task.getUrl());
+		output.writeUTF(task.getFileName());
+		output.writeInt(task.getSegmentsCount());
+		output.writeUTF(task.getStatus().name());
+		output.writeLong(task.getFinishedTimeMillis());
+	    }
+	    output.flush();
+	    fileOutputStream.getFD().sync();
+	}
+	Files.move(newSnapshotFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+	// the rename reaches the disk with the directory, before the journal it replaces is emptied
+	syncDirectory(snapshotFile.getParentFile());
+	journalChannel.truncate(0);
+	journalChannel.position(0);
+	journalChannel.force(true);
+	eventsSinceSnapshot = 0;
+	LOGGER.info("Journal was compacted into snapshot of '{}' download tasks in '{}' ms, '{}' finished tasks were "
+		+ "dropped.", new Object[] { tasks.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+		droppedTasks });
+    }
+
+    /**
+     * Forces entries of given directory to disk. Not every platform can open a directory, there it is skipped.
+     */
+    private static void syncDirectory(File directory) {
+	try (FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+	    directoryChannel.force(true);
+	}
+	catch (IOException e) {
+	    LOGGER.debug("Directory: '{}' could not be forced to disk: {}", directory, e.getMessage());
+	}
+    }
+
+    /**
+     * Writes events that are still queued, compacts the journal and stops the writer.
+     */
+    public void close() {
+	if (closed) {
+	    return;
+	}
+	closed = true;
+	try {
+	    writer.join();
+	    compact();
+	    journalChannel.close();
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	catch (IOException e) {
+	    LOGGER.error("Journal: '{}' was not closed properly: {}", journalFile, e.getMessage());
+	}
+    }
+
+}
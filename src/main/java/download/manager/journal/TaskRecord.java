@@ -0,0 +1,65 @@
+package download.manager.journal;
+
+import download.manager.impl.Status;
+
+/**
+ * Last known state of a download task, as restored from the journal.
+ */
+public class TaskRecord {
+
+    private final String id;
+    private final String url;
+    private final String fileName;
+    private final int segmentsCount;
+    private Status status;
+    private long finishedTimeMillis;
+
+    public TaskRecord(String id, String url, String fileName, int segmentsCount, Status status) {
+	this.id = id;
+	this.url = url;
+	this.fileName = fileName;
+	this.segmentsCount = segmentsCount;
+	this.status = status;
+    }
+
+    public String getId() {
+	return id;
+    }
+
+    public String getUrl() {
+	return url;
+    }
+
+    public String getFileName() {
+	return fileName;
+    }
+
+    public int getSegmentsCount() {
+	return segmentsCount;
+    }
+
+    public Status getStatus() {
+	return status;
+    }
+
+    void setStatus(Status status) {
+	this.status = status;
+    }
+
+    /**
+     * Returns time the task was completed or cancelled at, as known to the journal, {@code 0} if it did not finish.
+     */
+    public long getFinishedTimeMillis() {
+	return finishedTimeMillis;
+    }
+
+    void setFinishedTimeMillis(long finishedTimeMillis) {
+	this.finishedTimeMillis = finishedTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+	return id + " [" + status + ", " + url + " -> " + fileName + "]";
+    }
+
+}
@@ -0,0 +1,157 @@
+package download.manager.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms, that download tasks update while downloading. All of them are atomics, recording never
+ * blocks a downloading thread, readers take what is there at the moment.
+ */
+public class DownloadMetrics {
+
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+    private final Histogram timeToFirstByte = new Histogram();
+    private final ConcurrentMap<String, Histogram> hostTimeToFirstByte = new ConcurrentHashMap<>();
+    private final Histogram readLatency = new Histogram();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, long[]> rateSamples = new ConcurrentHashMap<>();
+
+    public void recordBytes(int numberOfBytes) {
+	downloadedBytes.addAndGet(numberOfBytes);
+    }
+
+    /**
+     * Records bytes of a compressed response: encoded bytes read from the connection and decoded bytes written from
+     * them.
+     */
+    public void recordDecodedBytes(long numberOfEncodedBytes, long numberOfDecodedBytes) {
+	encodedBytes.addAndGet(numberOfEncodedBytes);
+	decodedBytes.addAndGet(numberOfDecodedBytes);
+    }
+
+    /**
+     * Records time from sending a request until its response headers were received.
+     */
+    public void recordTimeToFirstByte(long durationNanos) {
+	timeToFirstByte.record(durationNanos);
+    }
+
+    /**
+     * Records time to first byte of a request to given host, both for the host and for all hosts.
+     */
+    public void recordTimeToFirstByte(String host, long durationNanos) {
+	timeToFirstByte.record(durationNanos);
+	Histogram histogram = hostTimeToFirstByte.get(host);
+	if (histogram == null) {
+	    Histogram newHistogram = new Histogram();
+	    histogram = hostTimeToFirstByte.putIfAbsent(host, newHistogram);
+	    if (histogram == null) {
+		histogram = newHistogram;
+	    }
+	}
+	histogram.record(durationNanos);
+    }
+
+    /**
+     * Records duration of one read from a connection.
+     */
+    public void recordRead(long durationNanos) {
+	readLatency.record(durationNanos);
+    }
+
+    /**
+     * Counts a failed download task by the cause of its failure.
+     * 
+     * @param cause
+     *            short name of the cause, for example exception class name
+     */
+    public void recordError(String cause) {
+	AtomicLong counter = errors.get(cause);
+	if (counter == null) {
+	    AtomicLong newCounter = new AtomicLong();
+	    counter = errors.putIfAbsent(cause, newCounter);
+	    if (counter == null) {
+		counter = newCounter;
+	    }
+	}
+	counter.incrementAndGet();
+    }
+
+    public void recordError(Throwable cause) {
+	recordError(cause.getClass().getSimpleName());
+    }
+
+    public long getDownloadedBytes() {
+	return downloadedBytes.get();
+    }
+
+    public long getEncodedBytes() {
+	return encodedBytes.get();
+    }
+
+    public long getDecodedBytes() {
+	return decodedBytes.get();
+    }
+
+    public Histogram getTimeToFirstByte() {
+	return timeToFirstByte;
+    }
+
+    /**
+     * Returns time to first byte per host, hosts are added as they are requested and never removed.
+     */
+    public Map<String, Histogram> getHostTimeToFirstByte() {
+	return new TreeMap<>(hostTimeToFirstByte);
+    }
+
+    public Histogram getReadLatency() {
+	return readLatency;
+    }
+
+    /**
+     * Returns number of errors by their causes, sorted by cause.
+     */
+    public Map<String, Long> getErrors() {
+	Map<String, Long> errorCounts = new TreeMap<>();
+	for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+	    errorCounts.put(error.getKey(), error.getValue().get());
+	}
+	return errorCounts;
+    }
+
+    /**
+     * Returns bytes per second of a counter since the previous call with the same key, {@code 0} on the first call.
+     * Called by readers only, rates are not tracked while nobody asks for them.
+     * 
+     * @param key
+     *            key of the counter, for example identifier of a task
+     * @param bytes
+     *            current value of the counter
+     */
+    public double rate(String key, long bytes) {
+	long now = System.nanoTime();
+	long[] previousSample = rateSamples.put(key, new long[] { now, bytes });
+	if ((previousSample == null) || (now == previousSample[0])) {
+	    return 0;
+	}
+	return ((bytes - previousSample[1]) * (double) TimeUnit.SECONDS.toNanos(1)) / (now - previousSample[0]);
+    }
+
+    /**
+     * Forgets the previous sample of a rate, that will not be asked for anymore.
+     */
+    public void forgetRate(String key) {
+	rateSamples.remove(key);
+    }
+
+    public Iterable<String> getRateKeys() {
+	return rateSamples.keySet();
+    }
+
+}
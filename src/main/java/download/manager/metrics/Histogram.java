@@ -0,0 +1,69 @@
+package download.manager.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with fixed buckets. Recording is one search over a few bounds and two atomic
+ * increments, so it can be called for every read from a connection.
+ */
+public class Histogram {
+
+    /**
+     * Upper bounds of buckets in seconds, from 1 ms to 30 s.
+     */
+    public static final double[] DEFAULT_BOUNDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+	    5, 10, 30 };
+
+    private final double[] bounds;
+    private final long[] boundsNanos;
+    // the last bucket counts durations above all bounds
+    private final AtomicLongArray counts;
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public Histogram() {
+	this(DEFAULT_BOUNDS);
+    }
+
+    public Histogram(double[] bounds) {
+	this.bounds = bounds.clone();
+	boundsNanos = new long[bounds.length];
+	for (int i = 0; i < bounds.length; i++) {
+	    boundsNanos[i] = (long) (bounds[i] * TimeUnit.SECONDS.toNanos(1));
+	}
+	counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long durationNanos) {
+	int bucket = 0;
+	while ((bucket < boundsNanos.length) && (durationNanos > boundsNanos[bucket])) {
+	    bucket++;
+	}
+	counts.incrementAndGet(bucket);
+	sumNanos.addAndGet(durationNanos);
+    }
+
+    public double[] getBounds() {
+	return bounds.clone();
+    }
+
+    /**
+     * Returns number of recorded durations, that are not longer than each bound, the last value is the total count.
+     * Buckets are read one by one while recording goes on, so the snapshot is only approximately consistent.
+     */
+    public long[] getCumulativeCounts() {
+	long[] cumulativeCounts = new long[counts.length()];
+	long total = 0;
+	for (int i = 0; i < cumulativeCounts.length; i++) {
+	    total += counts.get(i);
+	    cumulativeCounts[i] = total;
+	}
+	return cumulativeCounts;
+    }
+
+    public double getSumSeconds() {
+	return sumNanos.get() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+}
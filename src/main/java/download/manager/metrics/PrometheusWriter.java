@@ -0,0 +1,71 @@
+package download.manager.metrics;
+
+import java.util.Locale;
+
+/**
+ * Builds metrics in Prometheus text exposition format, version 0.0.4.
+ */
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder text = new StringBuilder(4096);
+
+    /**
+     * Starts metric family with given name, help and type, samples of the family should follow.
+     */
+    public PrometheusWriter family(String name, String help, String type) {
+	text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+	text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	return this;
+    }
+
+    public PrometheusWriter sample(String name, double value) {
+	text.append(name).append(' ').append(format(value)).append('\n');
+	return this;
+    }
+
+    public PrometheusWriter sample(String name, String labelName, String labelValue, double value) {
+	text.append(name).append('{').append(labelName).append("=\"").append(escape(labelValue)).append("\"} ")
+		.append(format(value)).append('\n');
+	return this;
+    }
+
+    public PrometheusWriter counter(String name, String help, double value) {
+	return family(name, help, "counter").sample(name, value);
+    }
+
+    public PrometheusWriter gauge(String name, String help, double value) {
+	return family(name, help, "gauge").sample(name, value);
+    }
+
+    public PrometheusWriter histogram(String name, String help, Histogram histogram) {
+	family(name, help, "histogram");
+	double[] bounds = histogram.getBounds();
+	long[] cumulativeCounts = histogram.getCumulativeCounts();
+	for (int i = 0; i < bounds.length; i++) {
+	    sample(name + "_bucket", "le", format(bounds[i]), cumulativeCounts[i]);
+	}
+	long count = cumulativeCounts[bounds.length];
+	sample(name + "_bucket", "le", "+Inf", count);
+	sample(name + "_sum", histogram.getSumSeconds());
+	return sample(name + "_count", count);
+    }
+
+    private static String format(double value) {
+	if ((value == Math.rint(value)) && !Double.isInfinite(value) && (Math.abs(value) < 1e15)) {
+	    return Long.toString((long) value);
+	}
+	return String.format(Locale.ROOT, "%s", value);
+    }
+
+    private static String escape(String labelValue) {
+	return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String toString() {
+	return text.toString();
+    }
+
+}
@@ -0,0 +1,119 @@
+package download.manager.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentCacheTest {
+
+    private static final int LENGTH = 1024;
+
+    private File directory;
+    private File cacheDirectory;
+
+    @Before
+    public void before() throws IOException {
+	directory = new File("target/content-cache-test");
+	FileUtils.deleteDirectory(directory);
+	FileUtils.forceMkdir(directory);
+	cacheDirectory = new File(directory, "cache");
+    }
+
+    @After
+    public void after() {
+	FileUtils.deleteQuietly(directory);
+    }
+
+    private File write(String fileName, int fill) throws IOException {
+	byte[] content = new byte[LENGTH];
+	Arrays.fill(content, (byte) fill);
+	File file = new File(directory, fileName);
+	Files.write(file.toPath(), content);
+	return file;
+    }
+
+    private static String urlOf(String name) {
+	return "http://localhost/" + name;
+    }
+
+    @Test
+    public void testStoredResourceIsRestored() throws Exception {
+	ContentCache contentCache = new ContentCache(cacheDirectory, 10 * LENGTH);
+	contentCache.store(urlOf("a"), "\"a\"", null, write("a.bin", 1));
+	contentCache.store(urlOf("unvalidated"), null, null, write("unvalidated.bin", 2));
+	Assert.assertNull(contentCache.lookup(urlOf("unvalidated")));
+
+	CacheEntry entry = contentCache.lookup(urlOf("a"));
+	Assert.assertEquals("\"a\"", entry.getEntityTag());
+	File target = write("target.bin", 0);
+	Assert.assertTrue(contentCache.restore(entry, target));
+	Assert.assertTrue(FileUtils.contentEquals(new File(directory, "a.bin"), target));
+	Assert.assertEquals(1, contentCache.getHits());
+	Assert.assertEquals(1, contentCache.getMisses());
+	Assert.assertEquals(LENGTH, contentCache.getSavedBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResourceIsEvicted() throws Exception {
+	ContentCache contentCache = new ContentCache(cacheDirectory, 3 * LENGTH);
+	contentCache.store(urlOf("a"), "\"a\"", null, write("a.bin", 1));
+	contentCache.store(urlOf("b"), "\"b\"", null, write("b.bin", 2));
+	contentCache.store(urlOf("c"), "\"c\"", null, write("c.bin", 3));
+	Assert.assertNotNull(contentCache.lookup(urlOf("a")));
+	contentCache.store(urlOf("d"), "\"d\"", null, write("d.bin", 4));
+
+	Assert.assertNull(contentCache.lookup(urlOf("b")));
+	Assert.assertEquals(3, contentCache.getEntriesCount());
+	Assert.assertEquals(3 * LENGTH, contentCache.getSizeBytes());
+	Assert.assertEquals(1, contentCache.getEvictions());
+	// index and three cached files
+	Assert.assertEquals(4, cacheDirectory.list().length);
+    }
+
+    @Test
+    public void testIndexSurvivesReopen() throws Exception {
+	ContentCache contentCache = new ContentCache(cacheDirectory, 3 * LENGTH);
+	contentCache.store(urlOf("a"), "\"a\"", null, write("a.bin", 1));
+	contentCache.store(urlOf("b"), null, "Mon, 01 Jan 2024 00:00:00 GMT", write("b.bin", 2));
+	contentCache.store(urlOf("a"), "\"a2\"", null, write("a2.bin", 3));
+	Files.write(new File(cacheDirectory, "unknown.bin").toPath(), new byte[1]);
+
+	ContentCache reopenedCache = new ContentCache(cacheDirectory, 3 * LENGTH);
+	Assert.assertEquals(2, reopenedCache.getEntriesCount());
+	Assert.assertEquals(2 * LENGTH, reopenedCache.getSizeBytes());
+	Assert.assertEquals(urlOf("b"), reopenedCache.getEntries().get(0).getUrl());
+	Assert.assertEquals("\"a2\"", reopenedCache.lookup(urlOf("a")).getEntityTag());
+	Assert.assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", reopenedCache.lookup(urlOf("b")).getLastModified());
+	Assert.assertFalse(new File(cacheDirectory, "unknown.bin").exists());
+    }
+
+    @Test
+    public void testUsageOrderIsWrittenOnFlush() throws Exception {
+	ContentCache contentCache = new ContentCache(cacheDirectory, 3 * LENGTH);
+	contentCache.store(urlOf("a"), "\"a\"", null, write("a.bin", 1));
+	contentCache.store(urlOf("b"), "\"b\"", null, write("b.bin", 2));
+	File indexFile = new File(cacheDirectory, ContentCache.INDEX_FILE_NAME);
+	byte[] index = Files.readAllBytes(indexFile.toPath());
+
+	// a hit changes the order in memory only
+	Assert.assertNotNull(contentCache.lookup(urlOf("a")));
+	Assert.assertEquals(urlOf("b"), contentCache.getEntries().get(0).getUrl());
+	Assert.assertArrayEquals(index, Files.readAllBytes(indexFile.toPath()));
+	ContentCache reopenedCache = new ContentCache(cacheDirectory, 3 * LENGTH);
+	Assert.assertEquals(urlOf("a"), reopenedCache.getEntries().get(0).getUrl());
+	reopenedCache.shutdown();
+
+	contentCache.shutdown();
+	reopenedCache = new ContentCache(cacheDirectory, 3 * LENGTH);
+	Assert.assertEquals(urlOf("b"), reopenedCache.getEntries().get(0).getUrl());
+	reopenedCache.shutdown();
+    }
+
+}
@@ -0,0 +1,115 @@
+package download.manager.controller;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import download.manager.impl.DownloadManagerImpl;
+import download.manager.impl.ExecutionMode;
+
+public class ProgressStreamServletTest {
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private DownloadManagerImpl downloadManager;
+    private ProgressStream progressStream;
+    private Server server;
+    private String url;
+    private File directory;
+
+    @Before
+    public void before() throws Exception {
+	directory = Files.createTempDirectory("progress-stream-servlet-test").toFile();
+	downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS);
+	progressStream = new ProgressStream(downloadManager, 50);
+	server = new Server(0);
+	ServletContextHandler servletContextHandler = new ServletContextHandler(server, "/");
+	ServletHolder servletHolder = new ServletHolder(new ProgressStreamServlet(progressStream));
+	servletHolder.setAsyncSupported(true);
+	servletContextHandler.addServlet(servletHolder, "/dm/events");
+	server.start();
+	url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/dm/events";
+    }
+
+    @After
+    public void after() throws Exception {
+	progressStream.shutdown();
+	server.stop();
+	downloadManager.forceShutdown();
+	FileUtils.deleteQuietly(directory);
+    }
+
+    private HttpURLConnection open(String query) throws IOException {
+	HttpURLConnection connection = (HttpURLConnection) new URL(url + query).openConnection();
+	connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+	return connection;
+    }
+
+    /**
+     * Reads lines of the stream until the data line of the next event.
+     */
+    private static String nextEvent(BufferedReader reader) throws IOException {
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    if (line.startsWith("data: ")) {
+		return line;
+	    }
+	}
+	throw new IOException("Stream ended");
+    }
+
+    @Test
+    public void testProgressOfFollowedTaskIsStreamed() throws IOException {
+	String id = downloadManager.add("http://localhost/streamed.bin", new File(directory, "streamed.bin").getPath());
+	String otherId = downloadManager.add("http://localhost/other.bin", new File(directory, "other.bin").getPath());
+	HttpURLConnection connection = open("?ids=" + id);
+	try {
+	    Assert.assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+	    Assert.assertTrue(connection.getContentType().startsWith("text/event-stream"));
+	    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+		    StandardCharsets.UTF_8))) {
+		String event = nextEvent(reader);
+		Assert.assertTrue(event, event.contains("{\"id\":\"" + id + "\",\"status\":\"CREATED\""));
+		Assert.assertFalse(event, event.contains(otherId));
+		Assert.assertEquals(1, progressStream.getSubscribersCount());
+
+		downloadManager.cancel(otherId);
+		downloadManager.cancel(id);
+		event = nextEvent(reader);
+		Assert.assertTrue(event, event.contains("{\"id\":\"" + id + "\",\"status\":\"CANCELLED\""));
+		Assert.assertFalse(event, event.contains(otherId));
+	    }
+	}
+	finally {
+	    connection.disconnect();
+	}
+    }
+
+    @Test
+    public void testUnknownStatusIsRejected() throws IOException {
+	HttpURLConnection connection = open("?status=unknown");
+	try {
+	    Assert.assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, connection.getResponseCode());
+	    Assert.assertEquals(0, progressStream.getSubscribersCount());
+	}
+	finally {
+	    connection.disconnect();
+	}
+    }
+
+}
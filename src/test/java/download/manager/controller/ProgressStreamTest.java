@@ -0,0 +1,228 @@
+package download.manager.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import download.manager.api.DownloadTask;
+import download.manager.impl.DownloadManagerImpl;
+import download.manager.impl.ExecutionMode;
+import download.manager.impl.Status;
+
+public class ProgressStreamTest {
+
+    private static final String EVENT = "event: progress\n";
+
+    private final List<Status> listedStatuses = new ArrayList<>();
+    private DownloadManagerImpl downloadManager;
+    private ProgressStream progressStream;
+    private File directory;
+
+    /**
+     * Response stream, that is ready only when a test says so, as if the subscriber did not read.
+     */
+    private static class SubscriberStream extends ServletOutputStream {
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private WriteListener writeListener;
+	private boolean ready = true;
+	private boolean disconnected;
+	private boolean completed;
+
+	@Override
+	public boolean isReady() {
+	    return ready;
+	}
+
+	@Override
+	public void setWriteListener(WriteListener writeListener) {
+	    this.writeListener = writeListener;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    if (disconnected) {
+		throw new IOException("Broken pipe");
+	    }
+	    bytes.write(b);
+	}
+
+	String getWritten() {
+	    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	int getEventsCount() {
+	    String written = getWritten();
+	    int count = 0;
+	    for (int index = written.indexOf(EVENT); index >= 0; index = written.indexOf(EVENT, index + 1)) {
+		count++;
+	    }
+	    return count;
+	}
+
+	String getLastEvent() {
+	    String written = getWritten();
+	    return written.substring(written.lastIndexOf(EVENT));
+	}
+    }
+
+    @Before
+    public void before() throws IOException {
+	directory = Files.createTempDirectory("progress-stream-test").toFile();
+	downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS) {
+
+	    @Override
+	    public List<DownloadTask> list(Status status, int offset, int limit) {
+		listedStatuses.add(status);
+		return super.list(status, offset, limit);
+	    }
+	};
+	// publishes only when a test calls it
+	progressStream = new ProgressStream(downloadManager, Long.MAX_VALUE);
+    }
+
+    @After
+    public void after() {
+	progressStream.shutdown();
+	downloadManager.forceShutdown();
+	FileUtils.deleteQuietly(directory);
+    }
+
+    private String add(String name) {
+	return downloadManager.add("http://localhost/" + name, new File(directory, name).getPath());
+    }
+
+    private SubscriberStream subscribe(List<String> ids, Status status) throws IOException {
+	final SubscriberStream subscriberStream = new SubscriberStream();
+	final ServletResponse response = (ServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+		new Class<?>[] { ServletResponse.class }, new InvocationHandler() {
+
+		    @Override
+		    public Object invoke(Object proxy, Method method, Object[] args) {
+			return method.getName().equals("getOutputStream") ? subscriberStream : null;
+		    }
+		});
+	AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+		new Class<?>[] { AsyncContext.class }, new InvocationHandler() {
+
+		    @Override
+		    public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("complete")) {
+			    subscriberStream.completed = true;
+			}
+			return method.getName().equals("getResponse") ? response : null;
+		    }
+		});
+	progressStream.subscribe(asyncContext, ids, status);
+	Assert.assertNotNull(subscriberStream.writeListener);
+	return subscriberStream;
+    }
+
+    @Test
+    public void testOnlyChangedTasksAreSent() throws IOException {
+	String first = add("first.bin");
+	String second = add("second.bin");
+	SubscriberStream subscriberStream = subscribe(null, null);
+	progressStream.publish();
+	Assert.assertEquals(1, subscriberStream.getEventsCount());
+	Assert.assertTrue(subscriberStream.getLastEvent().contains(first));
+	Assert.assertTrue(subscriberStream.getLastEvent().contains(second));
+
+	progressStream.publish();
+	Assert.assertEquals(1, subscriberStream.getEventsCount());
+	downloadManager.cancel(first);
+	progressStream.publish();
+	Assert.assertEquals(2, subscriberStream.getEventsCount());
+	Assert.assertTrue(subscriberStream.getLastEvent().contains(first));
+	Assert.assertTrue(subscriberStream.getLastEvent().contains("CANCELLED"));
+	Assert.assertFalse(subscriberStream.getLastEvent().contains(second));
+    }
+
+    @Test
+    public void testUpdatesOfSlowSubscriberAreCoalesced() throws IOException {
+	String id = add("slow.bin");
+	SubscriberStream subscriberStream = subscribe(Arrays.asList(id), null);
+	subscriberStream.ready = false;
+	progressStream.publish();
+	downloadManager.cancel(id);
+	progressStream.publish();
+	Assert.assertEquals("", subscriberStream.getWritten());
+
+	// the container calls the listener, once the subscriber reads again
+	subscriberStream.ready = true;
+	subscriberStream.writeListener.onWritePossible();
+	Assert.assertEquals(1, subscriberStream.getEventsCount());
+	Assert.assertTrue(subscriberStream.getLastEvent().contains("CANCELLED"));
+	Assert.assertFalse(subscriberStream.getLastEvent().contains("CREATED"));
+    }
+
+    @Test
+    public void testOnlyStatusesWithChangedTasksAreListed() throws IOException {
+	String first = add("first.bin");
+	add("second.bin");
+	subscribe(null, null);
+	progressStream.publish();
+	Assert.assertTrue(listedStatuses.containsAll(Arrays.asList(Status.values())));
+
+	listedStatuses.clear();
+	progressStream.publish();
+	Assert.assertEquals(Arrays.asList(Status.DOWNLOADING), listedStatuses);
+	downloadManager.cancel(first);
+	listedStatuses.clear();
+	progressStream.publish();
+	Assert.assertEquals(Arrays.asList(Status.CREATED, Status.DOWNLOADING, Status.PAUSED, Status.CANCELLED),
+		listedStatuses);
+    }
+
+    @Test
+    public void testTaskLeavingFollowedStatusIsSentOnce() throws IOException {
+	String first = add("first.bin");
+	String second = add("second.bin");
+	SubscriberStream subscriberStream = subscribe(null, Status.CREATED);
+	progressStream.publish();
+	downloadManager.cancel(first);
+	String third = add("third.bin");
+	progressStream.publish();
+	Assert.assertEquals(2, subscriberStream.getEventsCount());
+	String event = subscriberStream.getLastEvent();
+	Assert.assertTrue(event, event.contains("{\"id\":\"" + first + "\",\"status\":\"CANCELLED\""));
+	Assert.assertTrue(event, event.contains(third));
+	Assert.assertFalse(event, event.contains(second));
+
+	downloadManager.cancel(third);
+	progressStream.publish();
+	progressStream.publish();
+	Assert.assertEquals(3, subscriberStream.getEventsCount());
+	Assert.assertFalse(subscriberStream.getLastEvent().contains(first));
+    }
+
+    @Test
+    public void testDisconnectedSubscriberIsRemoved() throws IOException {
+	add("first.bin");
+	SubscriberStream subscriberStream = subscribe(null, null);
+	subscriberStream.disconnected = true;
+	Assert.assertEquals(1, progressStream.getSubscribersCount());
+	progressStream.publish();
+	Assert.assertEquals(0, progressStream.getSubscribersCount());
+	Assert.assertTrue(subscriberStream.completed);
+    }
+
+}
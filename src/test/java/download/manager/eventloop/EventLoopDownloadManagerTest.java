@@ -0,0 +1,242 @@
+package download.manager.eventloop;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import download.manager.api.DownloadManager;
+import download.manager.impl.Status;
+
+public class EventLoopDownloadManagerTest {
+
+    private static final int MAX_WAIT_TIMEOUT = 10000;
+    private static final String TARGET_FILE_NAME = "event-loop-resource.bin";
+    private static final String STALLED_TARGET_FILE_NAME = "event-loop-stalled-resource.bin";
+    private static final int CONCURRENT_DOWNLOADS_COUNT = 300;
+    private static final long TIMEOUT_MILLIS = 500;
+
+    private static Server server;
+    private static String url;
+    private static String smallUrl;
+    private static File resourceDirectory;
+    private static byte[] content;
+    private static byte[] smallContent;
+
+    private DownloadManager downloadManager = EventLoopDownloadManager.getInstance();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+	content = new byte[4 * 1024 * 1024];
+	new Random(42).nextBytes(content);
+	resourceDirectory = new File("target/event-loop-origin");
+	FileUtils.forceMkdir(resourceDirectory);
+	FileUtils.writeByteArrayToFile(new File(resourceDirectory, "resource.bin"), content);
+	smallContent = new byte[64 * 1024];
+	new Random(7).nextBytes(smallContent);
+	FileUtils.writeByteArrayToFile(new File(resourceDirectory, "small-resource.bin"), smallContent);
+
+	server = new Server(0);
+	ServletContextHandler servletContextHandler = new ServletContextHandler(server, "/");
+	ServletHolder servletHolder = new ServletHolder(DefaultServlet.class);
+	servletHolder.setInitParameter("resourceBase", resourceDirectory.getAbsolutePath());
+	servletContextHandler.addServlet(servletHolder, "/*");
+	server.start();
+	url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/resource.bin";
+	smallUrl = url.replace("/resource.bin", "/small-resource.bin");
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+	server.stop();
+	FileUtils.deleteDirectory(resourceDirectory);
+    }
+
+    @After
+    public void after() {
+	FileUtils.deleteQuietly(new File(TARGET_FILE_NAME));
+	FileUtils.deleteQuietly(new File(STALLED_TARGET_FILE_NAME));
+    }
+
+    @Test
+    public void testDownload() throws InterruptedException, IOException {
+	String id = downloadManager.addAndDownload(url, TARGET_FILE_NAME);
+
+	waitForDownloadCompletion(id);
+	MatcherAssert.assertThat(downloadManager.get(id).getProgress(), Matchers.equalTo("100"));
+	MatcherAssert.assertThat(FileUtils.readFileToByteArray(new File(TARGET_FILE_NAME)), Matchers.equalTo(content));
+	MatcherAssert.assertThat(new File(TARGET_FILE_NAME + "." + id + ".tmp").exists(), Matchers.is(false));
+    }
+
+    @Test
+    public void testDownloadAndPauseAndResume() throws InterruptedException, IOException {
+	String id = downloadManager.addAndDownload(url, TARGET_FILE_NAME);
+
+	downloadManager.pause(id);
+	MatcherAssert.assertThat(downloadManager.get(id).getStatus(), Matchers.equalTo(Status.PAUSED));
+	MatcherAssert.assertThat(new File(TARGET_FILE_NAME + "." + id + ".tmp").exists(), Matchers.is(true));
+	downloadManager.resume(id);
+	MatcherAssert.assertThat(downloadManager.get(id).getStatus(), Matchers.equalTo(Status.DOWNLOADING));
+
+	waitForDownloadCompletion(id);
+	MatcherAssert.assertThat(FileUtils.readFileToByteArray(new File(TARGET_FILE_NAME)), Matchers.equalTo(content));
+    }
+
+    @Test
+    public void testDownloadAndCancel() throws InterruptedException, IOException {
+	String id = downloadManager.addAndDownload(url, TARGET_FILE_NAME);
+
+	downloadManager.cancel(id);
+	MatcherAssert.assertThat(downloadManager.get(id).getStatus(), Matchers.equalTo(Status.CANCELLED));
+	MatcherAssert.assertThat(new File(TARGET_FILE_NAME).exists(), Matchers.is(false));
+	MatcherAssert.assertThat(new File(TARGET_FILE_NAME + "." + id + ".tmp").exists(), Matchers.is(false));
+    }
+
+    @Test
+    public void testStalledResolutionDoesNotHoldUpEventLoop() throws Exception {
+	EventLoop eventLoop = new EventLoop("stalled-resolution-event-loop");
+	eventLoop.start();
+	final List<Runnable> stalledResolutions = Collections.synchronizedList(new ArrayList<Runnable>());
+	try {
+	    EventLoopDownloadTask stalledTask = new EventLoopDownloadTask(url, STALLED_TARGET_FILE_NAME, eventLoop,
+		    new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+			    stalledResolutions.add(command);
+			}
+		    });
+	    EventLoopDownloadTask downloadTask = new EventLoopDownloadTask(url, TARGET_FILE_NAME, eventLoop,
+		    new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+			    command.run();
+			}
+		    });
+	    stalledTask.download();
+	    downloadTask.download();
+	    waitForTaskCompletion(downloadTask);
+	    MatcherAssert.assertThat(FileUtils.readFileToByteArray(new File(TARGET_FILE_NAME)), Matchers.equalTo(content));
+	    MatcherAssert.assertThat(stalledTask.getStatus(), Matchers.equalTo(Status.DOWNLOADING));
+	    MatcherAssert.assertThat(stalledResolutions.size(), Matchers.equalTo(1));
+
+	    stalledResolutions.get(0).run();
+	    waitForTaskCompletion(stalledTask);
+	    MatcherAssert.assertThat(FileUtils.readFileToByteArray(new File(STALLED_TARGET_FILE_NAME)),
+		    Matchers.equalTo(content));
+	}
+	finally {
+	    eventLoop.shutdownNow();
+	}
+    }
+
+    @Test
+    public void testManyConcurrentDownloadsShareOneEventLoop() throws Exception {
+	EventLoop eventLoop = new EventLoop("concurrent-event-loop");
+	eventLoop.start();
+	ExecutorService resolver = Executors.newFixedThreadPool(4);
+	File directory = new File("target/event-loop-concurrent");
+	FileUtils.forceMkdir(directory);
+	try {
+	    List<EventLoopDownloadTask> downloadTasks = new ArrayList<>(CONCURRENT_DOWNLOADS_COUNT);
+	    for (int i = 0; i < CONCURRENT_DOWNLOADS_COUNT; i++) {
+		downloadTasks.add(new EventLoopDownloadTask(smallUrl, new File(directory, "resource-" + i + ".bin")
+			.getPath(), eventLoop, resolver));
+	    }
+	    // all of them are started before the loop gets to any of them
+	    for (EventLoopDownloadTask downloadTask : downloadTasks) {
+		downloadTask.download();
+	    }
+	    for (EventLoopDownloadTask downloadTask : downloadTasks) {
+		waitForTaskCompletion(downloadTask);
+		MatcherAssert.assertThat(FileUtils.readFileToByteArray(new File(downloadTask.getFileName())),
+			Matchers.equalTo(smallContent));
+	    }
+	}
+	finally {
+	    eventLoop.shutdownNow();
+	    resolver.shutdownNow();
+	    FileUtils.deleteQuietly(directory);
+	}
+    }
+
+    @Test
+    public void testStalledConnectionFailsAfterTimeout() throws Exception {
+	EventLoop eventLoop = new EventLoop("stalled-connection-event-loop", TIMEOUT_MILLIS);
+	eventLoop.start();
+	// the failed task keeps its temporary file
+	File directory = new File("target/event-loop-stalled");
+	FileUtils.forceMkdir(directory);
+	// accepts connections, but never answers
+	try (ServerSocket serverSocket = new ServerSocket(0)) {
+	    EventLoopDownloadTask downloadTask = new EventLoopDownloadTask("http://localhost:"
+		    + serverSocket.getLocalPort() + "/resource.bin", new File(directory, STALLED_TARGET_FILE_NAME)
+		    .getPath(), eventLoop,
+		    new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+			    command.run();
+			}
+		    });
+	    downloadTask.download();
+	    Socket socket = serverSocket.accept();
+	    try {
+		waitForTaskStatus(downloadTask, Status.ERROR);
+	    }
+	    finally {
+		socket.close();
+	    }
+	}
+	finally {
+	    eventLoop.shutdownNow();
+	    FileUtils.deleteQuietly(directory);
+	}
+    }
+
+    private void waitForTaskCompletion(EventLoopDownloadTask downloadTask) throws InterruptedException {
+	waitForTaskStatus(downloadTask, Status.COMPLETED);
+    }
+
+    private void waitForTaskStatus(EventLoopDownloadTask downloadTask, Status status) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + MAX_WAIT_TIMEOUT;
+	while ((downloadTask.getStatus() != status) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	MatcherAssert.assertThat(downloadTask.getStatus(), Matchers.equalTo(status));
+    }
+
+    private void waitForDownloadCompletion(String id) throws InterruptedException {
+	int waitTimeout = 0;
+	while ((downloadManager.get(id).getStatus() != Status.COMPLETED) && (waitTimeout != MAX_WAIT_TIMEOUT)) {
+	    Thread.sleep(100);
+	    waitTimeout += 100;
+	}
+	if (waitTimeout == MAX_WAIT_TIMEOUT) {
+	    Assert.fail("Wait timeout was run out!");
+	}
+    }
+
+}
@@ -0,0 +1,162 @@
+package download.manager.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import download.manager.origin.LocalOrigin;
+
+public class HttpConnectionPoolTest {
+
+    private static final int LENGTH = 256 * 1024;
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    private LocalOrigin localOrigin;
+    private HttpConnectionPool connectionPool;
+
+    @Before
+    public void before() throws Exception {
+	localOrigin = new LocalOrigin();
+	localOrigin.start();
+	connectionPool = new HttpConnectionPool(2, HttpConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    @After
+    public void after() throws Exception {
+	connectionPool.shutdown();
+	localOrigin.close();
+    }
+
+    private HttpResponse open(String url, Map<String, String> requestHeaders) throws IOException {
+	return connectionPool.open(new URL(url), requestHeaders);
+    }
+
+    private static void assertBody(HttpResponse response, long start, long length) throws IOException {
+	ByteArrayOutputStream body = new ByteArrayOutputStream();
+	byte[] buffer = new byte[8192];
+	try (InputStream inputStream = response.getInputStream()) {
+	    int numberOfReadBytes;
+	    while ((numberOfReadBytes = inputStream.read(buffer)) != -1) {
+		body.write(buffer, 0, numberOfReadBytes);
+	    }
+	}
+	byte[] content = body.toByteArray();
+	Assert.assertEquals(length, content.length);
+	for (int i = 0; i < length; i++) {
+	    if (content[i] != LocalOrigin.contentByte(start + i)) {
+		Assert.fail("Byte at offset " + (start + i) + " differs");
+	    }
+	}
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+	String url = localOrigin.content(LENGTH).url();
+	for (int i = 0; i < 3; i++) {
+	    long start = i * 1000;
+	    try (HttpResponse response = open(url, Collections.singletonMap("Range", "bytes=" + start + "-"))) {
+		Assert.assertEquals(206, response.getStatusCode());
+		Assert.assertEquals(LENGTH - start, response.getContentLength());
+		assertBody(response, start, LENGTH - start);
+	    }
+	}
+	ConnectionPoolStatistics statistics = connectionPool.getStatistics();
+	Assert.assertEquals(3, statistics.getRequests());
+	Assert.assertEquals(1, statistics.getHandshakes());
+	Assert.assertEquals(2, statistics.getReusedConnections());
+	Assert.assertEquals(1, statistics.getIdleConnections());
+	Assert.assertEquals(1, statistics.getOpenConnections());
+    }
+
+    @Test
+    public void testChunkedResponseIsRead() throws Exception {
+	try (HttpResponse response = open(localOrigin.content(LENGTH).chunked().url(), NO_HEADERS)) {
+	    Assert.assertEquals(200, response.getStatusCode());
+	    Assert.assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+	    Assert.assertEquals(-1, response.getContentLength());
+	    assertBody(response, 0, LENGTH);
+	}
+	// the last chunk ends the body, so the connection carries the next request
+	try (HttpResponse response = open(localOrigin.content(LENGTH).chunked().url(), NO_HEADERS)) {
+	    assertBody(response, 0, LENGTH);
+	}
+	Assert.assertEquals(1, connectionPool.getStatistics().getHandshakes());
+	Assert.assertEquals(1, connectionPool.getStatistics().getReusedConnections());
+    }
+
+    @Test
+    public void testErrorResponsesFailReading() throws Exception {
+	String[] urls = { localOrigin.content(LENGTH).error(404).url(), localOrigin.content(LENGTH).error(503).url(),
+		localOrigin.content(LENGTH).url() };
+	int[] statusCodes = { 404, 503, 416 };
+	for (int i = 0; i < urls.length; i++) {
+	    try (HttpResponse response = open(urls[i], Collections.singletonMap("Range", "bytes=" + LENGTH + "-"))) {
+		Assert.assertEquals(statusCodes[i], response.getStatusCode());
+		try {
+		    response.getInputStream();
+		    Assert.fail("Body of error response was returned");
+		}
+		catch (HttpStatusException e) {
+		    Assert.assertEquals(statusCodes[i], e.getStatusCode());
+		}
+	    }
+	}
+	try (HttpResponse response = open(localOrigin.content(LENGTH).url(), NO_HEADERS)) {
+	    assertBody(response, 0, LENGTH);
+	}
+	Assert.assertEquals(4, connectionPool.getStatistics().getRequests());
+	Assert.assertTrue(connectionPool.getStatistics().getOpenConnections() <= 1);
+    }
+
+    @Test
+    public void testOpenConnectionsPerHostAreBounded() throws Exception {
+	final String url = localOrigin.content(LENGTH).bandwidth(LENGTH / 10).url();
+	HttpResponse first = open(url, NO_HEADERS);
+	HttpResponse second = open(url, NO_HEADERS);
+	Assert.assertEquals(2, connectionPool.getStatistics().getOpenConnections());
+	ExecutorService executor = Executors.newSingleThreadExecutor();
+	try {
+	    Future<HttpResponse> third = executor.submit(new Callable<HttpResponse>() {
+
+		@Override
+		public HttpResponse call() throws Exception {
+		    return open(url, NO_HEADERS);
+		}
+	    });
+	    try {
+		third.get(300, TimeUnit.MILLISECONDS);
+		Assert.fail("Third connection to the origin was opened");
+	    }
+	    catch (TimeoutException e) {
+		// the request waits for one of the connections in use
+	    }
+	    // an unread body can not be given back to the pool, so its connection is closed
+	    first.close();
+	    try (HttpResponse response = third.get(10, TimeUnit.SECONDS)) {
+		Assert.assertEquals(200, response.getStatusCode());
+		Assert.assertEquals(2, connectionPool.getStatistics().getOpenConnections());
+	    }
+	    second.close();
+	    Assert.assertEquals(0, connectionPool.getStatistics().getOpenConnections());
+	    Assert.assertEquals(3, connectionPool.getStatistics().getHandshakes());
+	}
+	finally {
+	    executor.shutdownNow();
+	}
+    }
+
+}
@@ -0,0 +1,71 @@
+package download.manager.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import download.manager.impl.TokenBucketTest.ManualClock;
+
+public class BandwidthLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ManualClock clock = new ManualClock();
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(clock);
+
+    @After
+    public void after() {
+	bandwidthLimiter.shutdown();
+    }
+
+    private TokenBucket taskBucket(long bytesPerSecond) {
+	return new TokenBucket(bytesPerSecond, clock);
+    }
+
+    @Test
+    public void testStrictestLimitDecides() {
+	bandwidthLimiter.setGlobalLimit(1000);
+	bandwidthLimiter.setHostLimit("a", 500);
+	TokenBucket hostBucket = bandwidthLimiter.getHostBucket("a");
+	Assert.assertEquals(2 * SECOND, bandwidthLimiter.consume(hostBucket, taskBucket(0), 1000));
+	Assert.assertEquals(5 * SECOND, bandwidthLimiter.consume(hostBucket, taskBucket(200), 1000));
+	// every level was paid, not only the strictest one
+	Assert.assertEquals(3 * SECOND, bandwidthLimiter.consume(bandwidthLimiter.getHostBucket("b"), taskBucket(0),
+		1000));
+    }
+
+    @Test
+    public void testTasksOfHostShareItsLimit() {
+	bandwidthLimiter.setHostLimit("a", 1000);
+	TokenBucket hostBucket = bandwidthLimiter.getHostBucket("a");
+	Assert.assertSame(hostBucket, bandwidthLimiter.getHostBucket("a"));
+	Assert.assertEquals(SECOND / 2, bandwidthLimiter.consume(hostBucket, taskBucket(0), 500));
+	Assert.assertEquals(SECOND, bandwidthLimiter.consume(hostBucket, taskBucket(0), 500));
+	Assert.assertEquals(0, bandwidthLimiter.consume(bandwidthLimiter.getHostBucket("b"), taskBucket(0), 500));
+    }
+
+    @Test
+    public void testAnyHostLimitAppliesToHostsWithoutOwnLimit() {
+	bandwidthLimiter.setHostLimit("a", 1000);
+	TokenBucket ownLimitBucket = bandwidthLimiter.getHostBucket("a");
+	TokenBucket existingBucket = bandwidthLimiter.getHostBucket("b");
+	bandwidthLimiter.setHostLimit(BandwidthLimiter.ANY_HOST, 100);
+	Assert.assertEquals(1000, ownLimitBucket.getBytesPerSecond());
+	Assert.assertEquals(100, existingBucket.getBytesPerSecond());
+	Assert.assertEquals(100, bandwidthLimiter.getHostBucket("c").getBytesPerSecond());
+	Assert.assertEquals(100, bandwidthLimiter.getHostLimit("c"));
+	Assert.assertEquals(1000, bandwidthLimiter.getHostLimit("a"));
+    }
+
+    @Test
+    public void testRaisedGlobalLimitForgetsDebt() {
+	bandwidthLimiter.setGlobalLimit(100);
+	TokenBucket hostBucket = bandwidthLimiter.getHostBucket("a");
+	Assert.assertEquals(10 * SECOND, bandwidthLimiter.consume(hostBucket, taskBucket(0), 1000));
+	bandwidthLimiter.setGlobalLimit(1000);
+	Assert.assertEquals(SECOND, bandwidthLimiter.consume(hostBucket, taskBucket(0), 1000));
+    }
+
+}
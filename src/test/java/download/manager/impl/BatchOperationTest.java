@@ -0,0 +1,83 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import download.manager.origin.LocalOrigin;
+
+public class BatchOperationTest {
+
+    private static final int TASKS_COUNT = 300;
+
+    private LocalOrigin localOrigin;
+    private DownloadManagerImpl downloadManager;
+    private File directory;
+
+    @Before
+    public void before() throws Exception {
+	localOrigin = new LocalOrigin();
+	localOrigin.start();
+	downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS);
+	directory = new File("target/batch-test");
+	FileUtils.forceMkdir(directory);
+    }
+
+    @After
+    public void after() throws Exception {
+	// downloading threads must not outlive the origin and the directory
+	downloadManager.apply(BatchOperation.CANCEL, (Status) null);
+	downloadManager.forceShutdown();
+	Assert.assertTrue(downloadManager.awaitTermination(DownloadFixture.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	localOrigin.close();
+	FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testOperationsAreAppliedToSelectedTasks() {
+	// slow content, so no task completes during the test
+	String url = localOrigin.url(1024 * 1024, 1024, 50);
+	List<String> ids = new ArrayList<>(TASKS_COUNT);
+	for (int i = 0; i < TASKS_COUNT; i++) {
+	    ids.add(downloadManager.add(url, new File(directory, "task-" + i + ".bin").getPath()));
+	}
+
+	BatchResult downloadResult = downloadManager.apply(BatchOperation.DOWNLOAD, ids);
+	Assert.assertEquals(TASKS_COUNT, downloadResult.getRequested());
+	Assert.assertEquals(TASKS_COUNT, downloadResult.getApplied());
+	Assert.assertEquals(TASKS_COUNT, downloadManager.count(Status.DOWNLOADING));
+
+	BatchResult pauseResult = downloadManager.apply(BatchOperation.PAUSE, Status.DOWNLOADING);
+	Assert.assertEquals(TASKS_COUNT, pauseResult.getApplied());
+	Assert.assertEquals(TASKS_COUNT, downloadManager.count(Status.PAUSED));
+
+	// tasks, that are already paused, are not paused by the operation
+	BatchResult repeatedPauseResult = downloadManager.apply(BatchOperation.PAUSE, ids.subList(0, 5));
+	Assert.assertEquals(0, repeatedPauseResult.getApplied());
+	Assert.assertEquals(ids.subList(0, 5), repeatedPauseResult.getNotApplied());
+
+	BatchResult cancelResult = downloadManager.apply(BatchOperation.CANCEL,
+		Arrays.asList(ids.get(0), ids.get(0), ids.get(1), "unknown"));
+	Assert.assertEquals(3, cancelResult.getRequested());
+	Assert.assertEquals(2, cancelResult.getApplied());
+	Assert.assertEquals(Arrays.asList("unknown"), cancelResult.getNotFound());
+	Assert.assertEquals(TASKS_COUNT - 2, downloadManager.count(Status.PAUSED));
+
+	BatchResult resumeResult = downloadManager.apply(BatchOperation.RESUME, ids.subList(0, 10));
+	Assert.assertEquals(8, resumeResult.getApplied());
+	Assert.assertEquals(ids.subList(0, 2), resumeResult.getNotApplied());
+
+	BatchResult repeatedDownloadResult = downloadManager.apply(BatchOperation.DOWNLOAD, ids.subList(2, 10));
+	Assert.assertEquals(0, repeatedDownloadResult.getApplied());
+	Assert.assertEquals(8, repeatedDownloadResult.getNotApplied().size());
+    }
+
+}
@@ -0,0 +1,49 @@
+package download.manager.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testBuffersAreReusedWithinBudget() {
+	BufferPool bufferPool = new BufferPool(256 * 1024);
+	ByteBuffer buffer = bufferPool.acquire(100 * 1024, false);
+	Assert.assertEquals(64 * 1024, buffer.capacity());
+	bufferPool.release(buffer);
+	Assert.assertSame(buffer, bufferPool.acquire(64 * 1024, false));
+	bufferPool.release(buffer);
+	Assert.assertEquals(1, bufferPool.getAllocations());
+
+	List<ByteBuffer> buffers = new ArrayList<>();
+	for (int i = 0; i < 10; i++) {
+	    buffers.add(bufferPool.acquire(BufferPool.MAX_BUFFER_SIZE, true));
+	}
+	// buffers shrink to fit the budget, then temporary buffers are given
+	Assert.assertEquals(128 * 1024, buffers.get(0).capacity());
+	Assert.assertEquals(BufferPool.MIN_BUFFER_SIZE, buffers.get(9).capacity());
+	Assert.assertTrue(bufferPool.getOverBudgetAllocations() > 0);
+	for (ByteBuffer usedBuffer : buffers) {
+	    bufferPool.release(usedBuffer);
+	}
+	Assert.assertTrue(bufferPool.getAllocatedBytes() <= bufferPool.getBudgetBytes());
+    }
+
+    @Test
+    public void testReadSizeFollowsThroughput() {
+	AdaptiveReadSize readSize = new AdaptiveReadSize();
+	for (int i = 0; i < 20; i++) {
+	    readSize.update(readSize.get(), readSize.get());
+	}
+	Assert.assertEquals(BufferPool.MAX_BUFFER_SIZE, readSize.get());
+	for (int i = 0; i < 20; i++) {
+	    readSize.update(100, readSize.get());
+	}
+	Assert.assertEquals(BufferPool.MIN_BUFFER_SIZE, readSize.get());
+    }
+
+}
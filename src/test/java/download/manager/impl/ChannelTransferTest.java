@@ -0,0 +1,111 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.origin.LocalOrigin;
+
+public class ChannelTransferTest {
+
+    private static final int LENGTH = 1024 * 1024;
+    private static final int BURST_LENGTH = 48 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private File file;
+
+    @Before
+    public void before() {
+	file = fixture.file("target.bin");
+    }
+
+    /**
+     * Content of {@link LocalOrigin}, that arrives in bursts: a burst is available at once, the next one only after
+     * the burst was read.
+     */
+    private static class BurstStream extends InputStream {
+	private int position;
+	private int burstEnd;
+	private int reads;
+
+	@Override
+	public int read() throws IOException {
+	    byte[] b = new byte[1];
+	    return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+	    if (position == LENGTH) {
+		return -1;
+	    }
+	    if (position == burstEnd) {
+		burstEnd = Math.min(LENGTH, position + BURST_LENGTH);
+	    }
+	    int length = Math.min(len, burstEnd - position);
+	    for (int i = 0; i < length; i++) {
+		b[off + i] = LocalOrigin.contentByte(position++);
+	    }
+	    reads++;
+	    return length;
+	}
+
+	@Override
+	public int available() {
+	    return burstEnd - position;
+	}
+    }
+
+    private static void transferAll(Transfer transfer, long position) throws IOException {
+	while (position < LENGTH) {
+	    int numberOfTransferredBytes = transfer.transfer(position, LENGTH - position);
+	    Assert.assertTrue(numberOfTransferredBytes > 0);
+	    position += numberOfTransferredBytes;
+	}
+	Assert.assertEquals(-1, transfer.transfer(LENGTH, LENGTH));
+    }
+
+    @Test
+    public void testBurstIsWrittenAtOnce() throws Exception {
+	BurstStream stream = new BurstStream();
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+	    ChannelTransfer transfer = new ChannelTransfer(stream, randomAccessFile);
+	    // the stream is still read in small pieces, but the file gets the whole burst with one write
+	    Assert.assertEquals(BURST_LENGTH, transfer.transfer(0, LENGTH));
+	    Assert.assertTrue(stream.reads > 1);
+	    Assert.assertEquals(BURST_LENGTH, randomAccessFile.length());
+	    transferAll(transfer, BURST_LENGTH);
+	}
+	DownloadFixture.assertContent(file, LENGTH);
+    }
+
+    @Test
+    public void testLimitIsRespected() throws Exception {
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+	    ChannelTransfer transfer = new ChannelTransfer(new BurstStream(), randomAccessFile);
+	    Assert.assertEquals(100, transfer.transfer(0, 100));
+	    Assert.assertEquals(100, randomAccessFile.length());
+	}
+    }
+
+    @Test
+    public void testPooledBuffersAreReused() throws Exception {
+	BufferPool bufferPool = new BufferPool();
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+	    Transfer transfer = TransferMode.CHANNEL.open(new BurstStream(), randomAccessFile, bufferPool);
+	    transferAll(transfer, 0);
+	}
+	// every read takes a buffer, but only a few are ever allocated
+	Assert.assertTrue(bufferPool.getAllocations() < bufferPool.getAcquisitions());
+	DownloadFixture.assertContent(file, LENGTH);
+    }
+
+}
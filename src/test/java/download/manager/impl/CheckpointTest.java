@@ -0,0 +1,190 @@
+package download.manager.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+
+    private static final int MAGIC = 0x444D4350;
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void before() throws IOException {
+	directory = new File("target/checkpoint-test");
+	FileUtils.deleteDirectory(directory);
+	directory.mkdirs();
+	file = new File(directory, "resource.bin.1.tmp");
+    }
+
+    @After
+    public void after() {
+	FileUtils.deleteQuietly(directory);
+    }
+
+    private static List<Segment> segments() {
+	return Arrays.asList(new Segment(0, 0, 999, 500), new Segment(1, 1000, 1999, 1700));
+    }
+
+    private static void assertSegments(List<Segment> expected, List<Segment> actual) {
+	Assert.assertEquals(expected.size(), actual.size());
+	for (int i = 0; i < expected.size(); i++) {
+	    Assert.assertEquals(i, actual.get(i).getIndex());
+	    Assert.assertEquals(expected.get(i).getStart(), actual.get(i).getStart());
+	    Assert.assertEquals(expected.get(i).getEnd(), actual.get(i).getEnd());
+	    Assert.assertEquals(expected.get(i).getPosition(), actual.get(i).getPosition());
+	}
+    }
+
+    private DataOutputStream legacyFile() throws IOException {
+	return new DataOutputStream(new FileOutputStream(file));
+    }
+
+    @Test
+    public void testCheckpointIsWrittenWithMagicHeader() throws IOException {
+	new Checkpoint(1200, segments(), "\"v1\"", "Mon, 01 Sep 2014 10:00:00 GMT", 345).write(file);
+	try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+	    Assert.assertEquals(MAGIC, input.readInt());
+	    Assert.assertEquals(1200, input.readLong());
+	}
+
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1200, checkpoint.getDownloadedBytes());
+	assertSegments(segments(), checkpoint.getSegments());
+	Assert.assertEquals("\"v1\"", checkpoint.getEntityTag());
+	Assert.assertEquals("Mon, 01 Sep 2014 10:00:00 GMT", checkpoint.getLastModified());
+	Assert.assertEquals(345, checkpoint.getEncodedBytes());
+    }
+
+    @Test
+    public void testPositionsBeyondIntRangeAreKept() throws IOException {
+	long length = (1L << 33) + 7;
+	List<Segment> segments = Arrays.asList(new Segment(0, 0, (length / 2) - 1, Integer.MAX_VALUE + 1L),
+		new Segment(1, length / 2, length - 1, length - 5));
+	new Checkpoint(length - 10, segments, null, null, (1L << 32) + 3).write(file);
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(length - 10, checkpoint.getDownloadedBytes());
+	assertSegments(segments, checkpoint.getSegments());
+	Assert.assertEquals((1L << 32) + 3, checkpoint.getEncodedBytes());
+
+	// a legacy file of eight bytes holds the position as a long
+	try (DataOutputStream output = legacyFile()) {
+	    output.writeLong(length);
+	}
+	Assert.assertEquals(length, Checkpoint.read(file).getDownloadedBytes());
+    }
+
+    @Test
+    public void testCheckpointWithoutSegmentsAndValidators() throws IOException {
+	new Checkpoint(1200, null, null, null).write(file);
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1200, checkpoint.getDownloadedBytes());
+	Assert.assertNull(checkpoint.getSegments());
+	Assert.assertNull(checkpoint.getEntityTag());
+	Assert.assertNull(checkpoint.getLastModified());
+	Assert.assertEquals(-1, checkpoint.getEncodedBytes());
+    }
+
+    @Test
+    public void testMissingOrEmptyFileHasNoCheckpoint() throws IOException {
+	Assert.assertNull(Checkpoint.read(file));
+	Assert.assertTrue(file.createNewFile());
+	Assert.assertNull(Checkpoint.read(file));
+    }
+
+    @Test
+    public void testLegacyIntPositionIsRead() throws IOException {
+	try (DataOutputStream output = legacyFile()) {
+	    output.writeInt(1200);
+	}
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1200, checkpoint.getDownloadedBytes());
+	Assert.assertNull(checkpoint.getSegments());
+	Assert.assertEquals(-1, checkpoint.getEncodedBytes());
+    }
+
+    @Test
+    public void testLegacyLongPositionIsRead() throws IOException {
+	try (DataOutputStream output = legacyFile()) {
+	    output.writeLong(1200);
+	}
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1200, checkpoint.getDownloadedBytes());
+	Assert.assertNull(checkpoint.getSegments());
+	Assert.assertNull(checkpoint.getEntityTag());
+    }
+
+    @Test
+    public void testLegacyLongPositionWithSegmentsIsRead() throws IOException {
+	try (DataOutputStream output = legacyFile()) {
+	    output.writeLong(1200);
+	    output.writeInt(segments().size());
+	    for (Segment segment : segments()) {
+		output.writeLong(segment.getStart());
+		output.writeLong(segment.getEnd());
+		output.writeLong(segment.getPosition());
+	    }
+	}
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1200, checkpoint.getDownloadedBytes());
+	assertSegments(segments(), checkpoint.getSegments());
+	Assert.assertEquals(-1, checkpoint.getEncodedBytes());
+    }
+
+    @Test
+    public void testCheckpointWithoutEncodedPositionIsRead() throws IOException {
+	// written before compressed resources were resumed
+	try (DataOutputStream output = legacyFile()) {
+	    output.writeInt(MAGIC);
+	    output.writeLong(1200);
+	    output.writeUTF("\"v1\"");
+	    output.writeUTF("");
+	    output.writeInt(0);
+	}
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1200, checkpoint.getDownloadedBytes());
+	Assert.assertEquals("\"v1\"", checkpoint.getEntityTag());
+	Assert.assertNull(checkpoint.getLastModified());
+	Assert.assertNull(checkpoint.getSegments());
+	Assert.assertEquals(-1, checkpoint.getEncodedBytes());
+    }
+
+    @Test
+    public void testCheckpointReplacesPreviousOneThroughNewFile() throws IOException {
+	new Checkpoint(1200, segments(), null, null).write(file);
+	File newFile = new File(file.getPath() + ".new");
+	// left by a crash in the middle of a write
+	FileUtils.writeStringToFile(newFile, "torn", StandardCharsets.UTF_8);
+	new Checkpoint(1500, null, null, null).write(file);
+	Assert.assertFalse(newFile.exists());
+	Assert.assertEquals(Arrays.asList(file.getName()), Arrays.asList(directory.list()));
+	Checkpoint checkpoint = Checkpoint.read(file);
+	Assert.assertEquals(1500, checkpoint.getDownloadedBytes());
+	Assert.assertNull(checkpoint.getSegments());
+    }
+
+    @Test
+    public void testValidatorsAreMatched() {
+	Checkpoint checkpoint = new Checkpoint(1200, null, "\"v1\"", "Mon, 01 Sep 2014 10:00:00 GMT");
+	Assert.assertTrue(checkpoint.matches("\"v1\"", null));
+	Assert.assertFalse(checkpoint.matches("\"v2\"", "Mon, 01 Sep 2014 10:00:00 GMT"));
+	Assert.assertFalse(checkpoint.matches(null, "Tue, 02 Sep 2014 10:00:00 GMT"));
+	Assert.assertTrue(checkpoint.matches(null, null));
+	Assert.assertTrue(new Checkpoint(1200, null, null, null).matches("\"v2\"", null));
+    }
+
+}
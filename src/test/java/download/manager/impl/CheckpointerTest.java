@@ -0,0 +1,79 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CheckpointerTest {
+
+    private static final int LENGTH = 1024 * 1024;
+    private static final int STALL_OFFSET = LENGTH / 2;
+    private static final long THRESHOLD = 64 * 1024;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    /**
+     * Waits until the task has a checkpoint at given position or beyond.
+     */
+    private static Checkpoint awaitCheckpoint(File tmpFile, long position) throws IOException, InterruptedException {
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while (System.currentTimeMillis() < deadline) {
+	    Checkpoint checkpoint = Checkpoint.read(tmpFile);
+	    if ((checkpoint != null) && (checkpoint.getDownloadedBytes() >= position)) {
+		return checkpoint;
+	    }
+	    Thread.sleep(10);
+	}
+	throw new AssertionError("Position: " + position + " was not checkpointed");
+    }
+
+    @Test
+    public void testTaskIsCheckpointedAfterThresholdBytes() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	// the interval does not end during the test, only the threshold can trigger a checkpoint
+	downloadManager.setCheckpointPolicy(HOUR_MILLIS, THRESHOLD);
+	String url = fixture.getOrigin().content(LENGTH).stallAt(STALL_OFFSET, 10000).url();
+	String id = fixture.start(url, "stalled.bin", 1);
+	File tmpFile = new File(fixture.file("stalled.bin").getPath() + "." + id + ".tmp");
+
+	Checkpoint checkpoint = awaitCheckpoint(tmpFile, STALL_OFFSET - THRESHOLD);
+	Assert.assertEquals(Status.DOWNLOADING, downloadManager.get(id).getStatus());
+	Assert.assertTrue(checkpoint.getDownloadedBytes() <= STALL_OFFSET);
+	downloadManager.cancel(id);
+    }
+
+    @Test
+    public void testZeroThresholdLeavesOnlyPeriodicCheckpoints() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	downloadManager.setCheckpointPolicy(HOUR_MILLIS, 0);
+	String url = fixture.getOrigin().content(LENGTH).stallAt(STALL_OFFSET, 10000).url();
+	String id = fixture.start(url, "stalled.bin", 1);
+	File tmpFile = new File(fixture.file("stalled.bin").getPath() + "." + id + ".tmp");
+
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while (!"50".equals(downloadManager.get(id).getProgress()) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	Assert.assertEquals("50", downloadManager.get(id).getProgress());
+	Checkpoint checkpoint = Checkpoint.read(tmpFile);
+	Assert.assertTrue((checkpoint == null) || (checkpoint.getDownloadedBytes() == 0));
+	downloadManager.cancel(id);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThresholdIsRejected() {
+	Checkpointer checkpointer = new Checkpointer();
+	try {
+	    checkpointer.setPolicy(HOUR_MILLIS, -1);
+	}
+	finally {
+	    checkpointer.shutdown();
+	}
+    }
+
+}
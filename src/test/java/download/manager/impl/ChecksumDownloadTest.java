@@ -0,0 +1,85 @@
+package download.manager.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.api.ChecksumAlgorithm;
+import download.manager.api.ExpectedChecksum;
+import download.manager.origin.LocalOrigin;
+
+public class ChecksumDownloadTest {
+
+    private static final int LENGTH = 2 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private Status download(int segmentsCount, ExpectedChecksum expectedChecksum) throws InterruptedException {
+	return fixture.download(fixture.getOrigin().content(LENGTH).url(), "target.bin", segmentsCount,
+		expectedChecksum);
+    }
+
+    private static String digest(ChecksumAlgorithm algorithm, int start, int end) {
+	byte[] bytes = new byte[end - start];
+	for (int i = start; i < end; i++) {
+	    bytes[i - start] = LocalOrigin.contentByte(i);
+	}
+	ChecksumVerifier.Hasher hasher = ChecksumVerifier.Hasher.of(algorithm);
+	hasher.update(bytes, bytes.length);
+	return hasher.hexDigest();
+    }
+
+    private static List<String> chunkDigests() {
+	List<String> chunkDigests = new ArrayList<>();
+	for (int start = 0; start < LENGTH; start += CHUNK_SIZE) {
+	    chunkDigests.add(digest(ChecksumAlgorithm.CRC32, start, Math.min(start + CHUNK_SIZE, LENGTH)));
+	}
+	return chunkDigests;
+    }
+
+    @Test
+    public void testResourceMatchingDigestIsCompleted() throws Exception {
+	String digest = digest(ChecksumAlgorithm.SHA_256, 0, LENGTH);
+	Assert.assertEquals(Status.COMPLETED, download(4, ExpectedChecksum.of(ChecksumAlgorithm.SHA_256, digest)));
+	fixture.assertContent("target.bin", LENGTH);
+    }
+
+    @Test
+    public void testResourceNotMatchingDigestIsFailed() throws Exception {
+	String digest = digest(ChecksumAlgorithm.SHA_256, 1, LENGTH + 1);
+	Assert.assertEquals(Status.ERROR, download(1, ExpectedChecksum.of(ChecksumAlgorithm.SHA_256, digest)));
+	// the error is recorded after the status was changed
+	String error = "download_manager_errors_total{cause=\"checksum\"} 1";
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while (!downloadManager.getMetrics().contains(error) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	Assert.assertTrue(downloadManager.getMetrics().contains(error));
+    }
+
+    @Test
+    public void testChunksMatchingDigestsAreCompleted() throws Exception {
+	ExpectedChecksum expectedChecksum = new ExpectedChecksum(ChecksumAlgorithm.CRC32, digest(
+		ChecksumAlgorithm.CRC32, 0, LENGTH), CHUNK_SIZE, chunkDigests());
+	Assert.assertEquals(Status.COMPLETED, download(4, expectedChecksum));
+	fixture.assertContent("target.bin", LENGTH);
+    }
+
+    @Test
+    public void testChunkNotMatchingDigestIsRefetched() throws Exception {
+	List<String> chunkDigests = chunkDigests();
+	chunkDigests.set(3, "00000000");
+	int requests = fixture.getOrigin().getRequests();
+	Assert.assertEquals(Status.ERROR, download(1, new ExpectedChecksum(ChecksumAlgorithm.CRC32, null, CHUNK_SIZE,
+		chunkDigests)));
+	// the single stream and every refetch of the chunk
+	Assert.assertEquals(requests + 1 + ChecksumVerifier.MAX_REFETCHES, fixture.getOrigin().getRequests());
+    }
+
+}
@@ -0,0 +1,91 @@
+package download.manager.impl;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.origin.LocalOrigin;
+
+public class CompressedTransferTest {
+
+    private static final int LENGTH = 4 * 1024 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private String add(String url, String fileName) {
+	return fixture.getDownloadManager().addAndDownload(url, fixture.file(fileName).getPath());
+    }
+
+    private void assertContent(String fileName) throws IOException {
+	fixture.assertContent(fileName, LENGTH);
+	Assert.assertEquals(1, fixture.getDirectory().list().length);
+    }
+
+    private void assertMetrics(long encodedBytes, long decodedBytes) {
+	String metrics = fixture.getDownloadManager().getMetrics();
+	Assert.assertTrue(metrics, metrics.contains("download_manager_encoded_bytes_total " + encodedBytes + "\n"));
+	Assert.assertTrue(metrics, metrics.contains("download_manager_decoded_bytes_total " + decodedBytes + "\n"));
+    }
+
+    @Test
+    public void testGzipResponseIsDecoded() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	downloadManager.setCompressedTransfer(true);
+	String id = add(fixture.getOrigin().content(LENGTH).encoding("gzip").url(), "gzip.bin");
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	assertContent("gzip.bin");
+	long encodedLength = LocalOrigin.encodedContent(LENGTH, "gzip").length;
+	Assert.assertTrue(encodedLength < (LENGTH / 10));
+	Assert.assertEquals(encodedLength, ((DownloadTaskImpl) downloadManager.get(id)).getEncodedBytes());
+	Assert.assertEquals("100", downloadManager.get(id).getProgress());
+	assertMetrics(encodedLength, LENGTH);
+    }
+
+    @Test
+    public void testDeflateResponseIsDecodedForSingleTask() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	String url = fixture.getOrigin().content(LENGTH).encoding("deflate").url();
+	String id = downloadManager.add(url, fixture.file("deflate.bin").getPath());
+	downloadManager.setTaskCompressedTransfer(id, true);
+	downloadManager.download(id);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	assertContent("deflate.bin");
+	assertMetrics(LocalOrigin.encodedContent(LENGTH, "deflate").length, LENGTH);
+    }
+
+    @Test
+    public void testPausedResponseContinuesFromEncodedPosition() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	downloadManager.setCompressedTransfer(true);
+	long encodedLength = LocalOrigin.encodedContent(LENGTH, "gzip").length;
+	String id = add(fixture.getOrigin().content(LENGTH).encoding("gzip").chunk(256).delay(5).url(), "paused.bin");
+	DownloadTaskImpl downloadTask = (DownloadTaskImpl) downloadManager.get(id);
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while ((downloadTask.getEncodedBytes() < (encodedLength / 4)) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	downloadManager.pause(id);
+	Assert.assertEquals(Status.PAUSED, downloadTask.getStatus());
+	long encodedBytes = downloadTask.getEncodedBytes();
+	Assert.assertTrue(encodedBytes < encodedLength);
+	Assert.assertTrue(downloadTask.getDownloadedBytes() > encodedBytes);
+	downloadManager.resume(id);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	assertContent("paused.bin");
+	// encoded bytes read before the pause were decoded again from the disk, not downloaded twice
+	assertMetrics(encodedLength, LENGTH);
+    }
+
+    @Test
+    public void testResponseWithoutEncodingIsWrittenAsIs() throws Exception {
+	fixture.getDownloadManager().setCompressedTransfer(true);
+	String id = add(fixture.getOrigin().content(LENGTH).url(), "plain.bin");
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	assertContent("plain.bin");
+	assertMetrics(0, 0);
+    }
+
+}
@@ -0,0 +1,168 @@
+package download.manager.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import download.manager.impl.ConcurrencyDecision.Action;
+import download.manager.metrics.DownloadMetrics;
+
+public class ConcurrencyControllerTest {
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private final List<Runnable> running = new ArrayList<>();
+    private HostScheduler hostScheduler;
+    private DownloadMetrics metrics;
+    private long nowNanos;
+
+    @Before
+    public void before() {
+	// dispatched work never ends, so the scheduler runs as many pieces of work as its limit allows
+	hostScheduler = new HostScheduler(new Executor() {
+
+	    @Override
+	    public void execute(Runnable command) {
+		running.add(command);
+	    }
+	}, 1);
+	hostScheduler.setMaxConnectionsPerHost(100);
+	metrics = new DownloadMetrics();
+    }
+
+    private void queueWork(int count) {
+	for (int i = 0; i < count; i++) {
+	    hostScheduler.execute(new Runnable() {
+
+		@Override
+		public void run() {
+		}
+	    });
+	}
+    }
+
+    private ConcurrencyDecision nextInterval(ConcurrencyController controller) {
+	nowNanos += SECOND_NANOS;
+	return controller.adjust(nowNanos);
+    }
+
+    @Test
+    public void testLimitGrowsUntilThroughputStopsGrowing() {
+	ConcurrencyController controller = new ConcurrencyController(hostScheduler, metrics, 10);
+	queueWork(30);
+	Assert.assertEquals(5, running.size());
+	Assert.assertNull(controller.adjust(nowNanos));
+	// every running download adds a megabyte per second, up to seven of them
+	for (int i = 0; i < 4; i++) {
+	    metrics.recordBytes(Math.min(controller.getLimit(), 7) * MEGABYTE);
+	    nextInterval(controller);
+	}
+	List<Integer> limits = new ArrayList<>();
+	for (ConcurrencyDecision decision : controller.getDecisions()) {
+	    limits.add(decision.getLimit());
+	}
+	Assert.assertEquals("[6, 7, 8, 7]", limits.toString());
+	Assert.assertEquals(8, running.size());
+	Assert.assertEquals(Action.DECREASE, controller.getLastDecision().getAction());
+	Assert.assertEquals(7 * MEGABYTE, controller.getLastDecision().getBytesPerSecond(), 1);
+	for (int i = 0; i < ConcurrencyController.HOLD_INTERVALS; i++) {
+	    metrics.recordBytes(7 * MEGABYTE);
+	    Assert.assertEquals(Action.HOLD, nextInterval(controller).getAction());
+	}
+	metrics.recordBytes(7 * MEGABYTE);
+	Assert.assertEquals(Action.INCREASE, nextInterval(controller).getAction());
+	Assert.assertEquals(4, controller.getActions(Action.INCREASE));
+	Assert.assertEquals(1, controller.getActions(Action.DECREASE));
+    }
+
+    @Test
+    public void testLimitIsKeptWhileNoWorkWaits() {
+	ConcurrencyController controller = new ConcurrencyController(hostScheduler, metrics, 10);
+	queueWork(3);
+	controller.adjust(nowNanos);
+	metrics.recordBytes(MEGABYTE);
+	ConcurrencyDecision decision = nextInterval(controller);
+	Assert.assertEquals(Action.HOLD, decision.getAction());
+	Assert.assertEquals(5, controller.getLimit());
+	Assert.assertTrue(controller.getDecisions().isEmpty());
+    }
+
+    @Test
+    public void testFailedTasksCutLimit() {
+	ConcurrencyController controller = new ConcurrencyController(hostScheduler, metrics, 8);
+	queueWork(10);
+	controller.adjust(nowNanos);
+	metrics.recordError("IOException");
+	ConcurrencyDecision decision = nextInterval(controller);
+	Assert.assertEquals(Action.DECREASE, decision.getAction());
+	Assert.assertEquals(4, decision.getPreviousLimit());
+	Assert.assertEquals(3, decision.getLimit());
+	Assert.assertEquals(1, decision.getErrors());
+    }
+
+    @Test
+    public void testSlowerHostCutsLimit() {
+	ConcurrencyController controller = new ConcurrencyController(hostScheduler, metrics, 8);
+	queueWork(10);
+	metrics.recordTimeToFirstByte("origin", TimeUnit.MILLISECONDS.toNanos(10));
+	controller.adjust(nowNanos);
+	metrics.recordTimeToFirstByte("origin", TimeUnit.MILLISECONDS.toNanos(10));
+	metrics.recordBytes(MEGABYTE);
+	Assert.assertEquals(Action.INCREASE, nextInterval(controller).getAction());
+	// a slightly slower answer is noise, not congestion
+	metrics.recordTimeToFirstByte("origin", TimeUnit.MILLISECONDS.toNanos(40));
+	metrics.recordBytes(2 * MEGABYTE);
+	Assert.assertEquals(Action.INCREASE, nextInterval(controller).getAction());
+	metrics.recordTimeToFirstByte("origin", TimeUnit.MILLISECONDS.toNanos(200));
+	metrics.recordBytes(3 * MEGABYTE);
+	ConcurrencyDecision decision = nextInterval(controller);
+	Assert.assertEquals(Action.DECREASE, decision.getAction());
+	Assert.assertEquals(4, decision.getLimit());
+	Assert.assertTrue(decision.getReason(), decision.getReason().contains("'origin'"));
+	Assert.assertEquals(0.2, decision.getTimeToFirstByteSeconds(), 0.001);
+    }
+
+    @Test
+    public void testPoolSizeBoundsLimit() {
+	ConcurrencyController controller = new ConcurrencyController(hostScheduler, metrics, 4);
+	queueWork(10);
+	controller.adjust(nowNanos);
+	for (int i = 1; i <= 4; i++) {
+	    metrics.recordBytes(i * MEGABYTE);
+	    nextInterval(controller);
+	}
+	Assert.assertEquals(4, controller.getLimit());
+	Assert.assertEquals(Action.HOLD, controller.getLastDecision().getAction());
+	controller.setMaxLimit(2);
+	Assert.assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void testManagerPoolSizeBoundsController() {
+	DownloadManagerImpl downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS);
+	try {
+	    downloadManager.setAdaptiveConcurrency(true);
+	    ConcurrencyController controller = downloadManager.getConcurrencyController();
+	    Assert.assertEquals(DownloadManagerImpl.DEFAULT_POOL_SIZE, controller.getMaxLimit());
+	    downloadManager.setPoolSize(3);
+	    Assert.assertEquals(3, controller.getMaxLimit());
+	    Assert.assertEquals(3, controller.getLimit());
+	    String metricsText = downloadManager.getMetrics();
+	    Assert.assertTrue(metricsText, metricsText.contains("download_manager_concurrency_limit 3\n"));
+	    Assert.assertTrue(metricsText, metricsText.contains("download_manager_concurrency_max_limit 3\n"));
+	    downloadManager.setAdaptiveConcurrency(false);
+	    Assert.assertNull(downloadManager.getConcurrencyController());
+	    Assert.assertFalse(downloadManager.getMetrics().contains("download_manager_concurrency_limit"));
+	}
+	finally {
+	    downloadManager.forceShutdown();
+	}
+    }
+
+}
@@ -0,0 +1,59 @@
+package download.manager.impl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.cache.ContentCache;
+
+public class ContentCacheDownloadTest {
+
+    private static final int LENGTH = 2 * 1024 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private ContentCache contentCache;
+
+    @Before
+    public void before() throws Exception {
+	contentCache = new ContentCache(fixture.file("cache"), 10 * LENGTH);
+	fixture.getDownloadManager().setContentCache(contentCache);
+    }
+
+    @Test
+    public void testNotModifiedResourceIsCopiedFromCache() throws Exception {
+	String url = fixture.getOrigin().content(LENGTH).entityTag("v1").url();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "first.bin", 4));
+	// the file is cached after the task was completed
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while ((contentCache.getEntriesCount() == 0) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	Assert.assertEquals(1, contentCache.getEntriesCount());
+	Assert.assertEquals(1, contentCache.getMisses());
+	int requests = fixture.getOrigin().getRequests();
+
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "second.bin", 1));
+	fixture.assertContent("second.bin", LENGTH);
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "third.bin", 4));
+	fixture.assertContent("third.bin", LENGTH);
+	Assert.assertEquals(requests + 2, fixture.getOrigin().getRequests());
+	Assert.assertEquals(2, contentCache.getHits());
+	Assert.assertEquals(2 * LENGTH, contentCache.getSavedBytes());
+	Assert.assertTrue(fixture.getDownloadManager().getMetrics().contains("download_manager_cache_hits_total 2"));
+    }
+
+    @Test
+    public void testResourceWithoutValidatorsIsNotCached() throws Exception {
+	String url = fixture.getOrigin().content(LENGTH).url();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "first.bin", 1));
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "second.bin", 1));
+	fixture.assertContent("second.bin", LENGTH);
+	Assert.assertEquals(0, contentCache.getEntriesCount());
+	Assert.assertEquals(0, contentCache.getHits());
+	Assert.assertEquals(2, contentCache.getMisses());
+    }
+
+}
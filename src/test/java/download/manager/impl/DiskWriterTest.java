@@ -0,0 +1,118 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskWriterTest {
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    private File directory;
+    private File file;
+    private BufferPool bufferPool;
+    private DiskWriter diskWriter;
+
+    @Before
+    public void before() throws IOException {
+	directory = new File("target/disk-writer-test");
+	FileUtils.deleteDirectory(directory);
+	FileUtils.forceMkdir(directory);
+	file = new File(directory, "target.bin");
+	bufferPool = new BufferPool();
+	diskWriter = new DiskWriter(bufferPool, 1, 8 * BUFFER_SIZE);
+    }
+
+    @After
+    public void after() {
+	diskWriter.shutdown();
+	FileUtils.deleteQuietly(directory);
+    }
+
+    private void write(WriteBehindFile writeBehindFile, int index) throws IOException {
+	ByteBuffer buffer = bufferPool.acquire(BUFFER_SIZE, true);
+	while (buffer.hasRemaining()) {
+	    buffer.put((byte) index);
+	}
+	buffer.flip();
+	writeBehindFile.write((long) index * BUFFER_SIZE, buffer);
+    }
+
+    private void assertContent(int buffersCount) throws IOException {
+	byte[] content = Files.readAllBytes(file.toPath());
+	Assert.assertEquals(buffersCount * BUFFER_SIZE, content.length);
+	for (int i = 0; i < content.length; i++) {
+	    Assert.assertEquals(i / BUFFER_SIZE, content[i]);
+	}
+    }
+
+    @Test
+    public void testAdjacentBuffersAreGathered() throws Exception {
+	WriteBehindFile writeBehindFile = diskWriter.open(file, null);
+	// the I/O thread can not finish a write while the file is locked, so it finds the other buffers queued
+	synchronized (writeBehindFile) {
+	    for (int i = 0; i < 8; i++) {
+		write(writeBehindFile, i);
+	    }
+	}
+	writeBehindFile.flush();
+	assertContent(8);
+	Assert.assertEquals(8, diskWriter.getWrites());
+	Assert.assertTrue(diskWriter.getGatheringWrites() <= 2);
+	Assert.assertEquals(8 * BUFFER_SIZE, diskWriter.getWrittenBytes());
+	Assert.assertEquals(0, diskWriter.getPendingBytes());
+    }
+
+    @Test
+    public void testBuffersAreWrittenAtTheirPositions() throws Exception {
+	WriteBehindFile writeBehindFile = diskWriter.open(file, null);
+	for (int i = 7; i >= 0; i -= 2) {
+	    write(writeBehindFile, i);
+	}
+	for (int i = 0; i < 8; i += 2) {
+	    write(writeBehindFile, i);
+	}
+	writeBehindFile.flush();
+	assertContent(8);
+    }
+
+    @Test
+    public void testReadersAreDelayedWhenDiskFallsBehind() throws Exception {
+	WriteBehindFile writeBehindFile = diskWriter.open(file, null);
+	synchronized (writeBehindFile) {
+	    for (int i = 0; i < 9; i++) {
+		write(writeBehindFile, i);
+	    }
+	    Assert.assertTrue(diskWriter.backpressureDelay() > 0);
+	}
+	writeBehindFile.flush();
+	Assert.assertEquals(0, diskWriter.backpressureDelay());
+	Assert.assertEquals(1, diskWriter.getBackpressureDelays());
+    }
+
+    @Test
+    public void testFileIsPreallocatedAndClosed() throws Exception {
+	WriteBehindFile writeBehindFile = diskWriter.open(file, null);
+	writeBehindFile.preallocate(8 * BUFFER_SIZE);
+	Assert.assertEquals(8 * BUFFER_SIZE, file.length());
+	write(writeBehindFile, 0);
+	writeBehindFile.close();
+	writeBehindFile.flush();
+	try {
+	    write(writeBehindFile, 1);
+	    Assert.fail("Closed file should not accept writes");
+	}
+	catch (IOException e) {
+	    // expected
+	}
+	Assert.assertEquals(8 * BUFFER_SIZE, file.length());
+    }
+
+}
@@ -0,0 +1,76 @@
+package download.manager.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DownloadFaultsTest {
+
+    private static final int LENGTH = 2 * 1024 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    @Test
+    public void testChunkedResponseIsDownloaded() throws Exception {
+	String url = fixture.getOrigin().content(LENGTH).chunked().url();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "chunked.bin", 1));
+	fixture.assertContent("chunked.bin", LENGTH);
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "chunked-segments.bin", 4));
+	fixture.assertContent("chunked-segments.bin", LENGTH);
+    }
+
+    @Test
+    public void testServerIgnoringRangesIsDownloadedInOneStream() throws Exception {
+	String url = fixture.getOrigin().content(LENGTH).ignoreRanges().url();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(url, "ignored-ranges.bin", 4));
+	fixture.assertContent("ignored-ranges.bin", LENGTH);
+    }
+
+    @Test
+    public void testStalledAndSlowResponsesAreDownloaded() throws Exception {
+	String stalledUrl = fixture.getOrigin().content(LENGTH).stallAt(LENGTH / 3, 500).url();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(stalledUrl, "stalled.bin", 4));
+	fixture.assertContent("stalled.bin", LENGTH);
+
+	long startTime = System.currentTimeMillis();
+	String slowUrl = fixture.getOrigin().content(LENGTH).latency(100).bandwidth(4 * 1024 * 1024).url();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(slowUrl, "slow.bin", 1));
+	Assert.assertTrue((System.currentTimeMillis() - startTime) >= 500);
+	fixture.assertContent("slow.bin", LENGTH);
+    }
+
+    @Test
+    public void testPauseDuringStalledReadContinuesFromPausedOffset() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	String id = fixture.start(fixture.getOrigin().content(LENGTH).stallAt(LENGTH / 3, 10000).url(), "paused.bin", 1);
+	DownloadTaskImpl downloadTask = (DownloadTaskImpl) downloadManager.get(id);
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while ((downloadTask.getDownloadedBytes() < (LENGTH / 3)) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	// the runner is blocked in a read now, the pause does not wait for it
+	long startTime = System.currentTimeMillis();
+	downloadManager.pause(id);
+	Assert.assertTrue((System.currentTimeMillis() - startTime) < 5000);
+	Assert.assertEquals(Status.PAUSED, downloadTask.getStatus());
+	Assert.assertEquals(LENGTH / 3, downloadTask.getDownloadedBytes());
+
+	downloadManager.resume(id);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	fixture.assertContent("paused.bin", LENGTH);
+	// the resumed request started at the paused offset, no byte was downloaded twice
+	Assert.assertTrue(downloadManager.getMetrics().contains("download_manager_downloaded_bytes_total " + LENGTH
+		+ "\n"));
+    }
+
+    @Test
+    public void testResetConnectionFailsTask() throws Exception {
+	String url = fixture.getOrigin().content(LENGTH).resetAt(LENGTH / 3).url();
+	Assert.assertEquals(Status.ERROR, fixture.download(url, "reset.bin", 1));
+	Assert.assertEquals(Status.ERROR, fixture.download(url, "reset-segments.bin", 4));
+	Assert.assertTrue(fixture.getDownloadManager().getMetrics().contains(
+		"download_manager_errors_total{cause=\"IOException\"} 2"));
+    }
+
+}
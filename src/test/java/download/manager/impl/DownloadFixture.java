@@ -0,0 +1,118 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.rules.ExternalResource;
+
+import download.manager.api.DownloadManager;
+import download.manager.api.ExpectedChecksum;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Fixture of tests that download from a {@link LocalOrigin}: the origin on a free port, a manager running tasks in
+ * platform threads and a temporary directory for target files. All of them are created before every test and shut
+ * down or deleted after it.
+ */
+public class DownloadFixture extends ExternalResource {
+
+    public static final long TIMEOUT_MILLIS = 30000;
+
+    private LocalOrigin origin;
+    private DownloadManagerImpl downloadManager;
+    private File directory;
+
+    @Override
+    protected void before() throws Throwable {
+	origin = new LocalOrigin();
+	origin.start();
+	directory = Files.createTempDirectory("download-test").toFile();
+	downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS);
+    }
+
+    @Override
+    protected void after() {
+	downloadManager.forceShutdown();
+	origin.close();
+	FileUtils.deleteQuietly(directory);
+    }
+
+    public LocalOrigin getOrigin() {
+	return origin;
+    }
+
+    public DownloadManagerImpl getDownloadManager() {
+	return downloadManager;
+    }
+
+    public File getDirectory() {
+	return directory;
+    }
+
+    public File file(String fileName) {
+	return new File(directory, fileName);
+    }
+
+    /**
+     * Adds and starts task, that downloads given URL into given file of the directory.
+     *
+     * @return ID of the task
+     */
+    public String start(String url, String fileName, int segmentsCount) {
+	return downloadManager.addAndDownload(url, file(fileName).getPath(), segmentsCount);
+    }
+
+    /**
+     * Downloads given URL into given file of the directory and waits until the task stops downloading.
+     *
+     * @return status the task ended with
+     */
+    public Status download(String url, String fileName, int segmentsCount) throws InterruptedException {
+	return await(start(url, fileName, segmentsCount));
+    }
+
+    public Status download(String url, String fileName, int segmentsCount, ExpectedChecksum expectedChecksum)
+	    throws InterruptedException {
+	return await(downloadManager.addAndDownload(url, file(fileName).getPath(), segmentsCount, expectedChecksum));
+    }
+
+    public Status await(String id) throws InterruptedException {
+	return await(downloadManager, id);
+    }
+
+    /**
+     * Waits until given task of given manager stops downloading, at most {@link #TIMEOUT_MILLIS}.
+     *
+     * @return status of the task
+     */
+    public static Status await(DownloadManager downloadManager, String id) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+	Status status = downloadManager.get(id).getStatus();
+	while ((status == Status.DOWNLOADING) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	    status = downloadManager.get(id).getStatus();
+	}
+	return status;
+    }
+
+    public void assertContent(String fileName, long length) throws IOException {
+	assertContent(file(fileName), length);
+    }
+
+    /**
+     * Checks that given file holds content of given length, as served by {@link LocalOrigin}.
+     */
+    public static void assertContent(File file, long length) throws IOException {
+	byte[] content = Files.readAllBytes(file.toPath());
+	Assert.assertEquals(length, content.length);
+	for (int i = 0; i < length; i++) {
+	    if (content[i] != LocalOrigin.contentByte(i)) {
+		Assert.fail("Byte at offset " + i + " of " + file + " differs");
+	    }
+	}
+    }
+
+}
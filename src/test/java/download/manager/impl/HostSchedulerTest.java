@@ -0,0 +1,232 @@
+package download.manager.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HostSchedulerTest {
+
+    // work handed over to the executor, it runs only when a test runs it
+    private final List<Runnable> running = new ArrayList<>();
+    private final List<String> ran = new ArrayList<>();
+    private final Executor executor = new Executor() {
+
+	@Override
+	public void execute(Runnable command) {
+	    running.add(command);
+	}
+    };
+    private HostScheduler hostScheduler;
+
+    @Before
+    public void before() {
+	hostScheduler = new HostScheduler(executor, 1);
+    }
+
+    private class Work implements HostBoundRunnable {
+	private final String host;
+	private final String name;
+	private boolean parkOnce;
+
+	Work(String host, String name) {
+	    this.host = host;
+	    this.name = name;
+	}
+
+	@Override
+	public String getHost() {
+	    return host;
+	}
+
+	@Override
+	public void run() {
+	    ran.add(name);
+	    if (parkOnce) {
+		// throttled, it keeps its connection and continues later
+		parkOnce = false;
+		hostScheduler.park(this);
+	    }
+	}
+    }
+
+    private Work execute(String host, String name) {
+	Work work = new Work(host, name);
+	hostScheduler.execute(work);
+	return work;
+    }
+
+    private void runAll() {
+	while (!running.isEmpty()) {
+	    running.remove(0).run();
+	}
+    }
+
+    private HostQueueStatistics statistics(String host) {
+	for (HostQueueStatistics hostQueueStatistics : hostScheduler.getStatistics()) {
+	    if (hostQueueStatistics.getHost().equals(host)) {
+		return hostQueueStatistics;
+	    }
+	}
+	throw new AssertionError("No statistics of host " + host);
+    }
+
+    @Test
+    public void testHostsAreServedInTurn() {
+	hostScheduler.setMaxConnectionsPerHost(10);
+	execute("blocking", "blocking");
+	execute("a", "a1");
+	execute("a", "a2");
+	execute("a", "a3");
+	execute("b", "b1");
+	execute("c", "c1");
+	Assert.assertEquals(1, running.size());
+	runAll();
+	Assert.assertEquals("[blocking, a1, b1, c1, a2, a3]", ran.toString());
+    }
+
+    @Test
+    public void testIdleHostsAreForgotten() {
+	execute("a", "a1");
+	execute("a", "a2");
+	Assert.assertEquals(1, statistics("a").getDispatched());
+	Assert.assertEquals(1, statistics("a").getQueued());
+	runAll();
+	Assert.assertTrue(hostScheduler.getStatistics().isEmpty());
+
+	Work throttled = execute("b", "throttled");
+	throttled.parkOnce = true;
+	runAll();
+	// a parked connection keeps its host
+	Assert.assertEquals(1, statistics("b").getParked());
+	hostScheduler.release(throttled);
+	Assert.assertTrue(hostScheduler.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void testConnectionsPerHostAreLimited() {
+	hostScheduler.setMaxInFlight(10);
+	hostScheduler.setMaxConnectionsPerHost(2);
+	for (int i = 1; i <= 4; i++) {
+	    execute("a", "a" + i);
+	}
+	execute("b", "b1");
+	Assert.assertEquals(3, running.size());
+	Assert.assertEquals(2, statistics("a").getInFlight());
+	Assert.assertEquals(2, statistics("a").getQueued());
+	Assert.assertEquals(1, statistics("b").getInFlight());
+	running.remove(0).run();
+	Assert.assertEquals(3, running.size());
+	Assert.assertEquals(1, statistics("a").getQueued());
+	runAll();
+	Assert.assertEquals("[a1, a2, b1, a3, a4]", ran.toString());
+    }
+
+    @Test
+    public void testLimitPerHostFollowsMaxInFlightByDefault() {
+	hostScheduler = new HostScheduler(executor, 3);
+	Assert.assertEquals(3, hostScheduler.getMaxConnectionsPerHost());
+	for (int i = 1; i <= 5; i++) {
+	    execute("a", "a" + i);
+	}
+	Assert.assertEquals(3, running.size());
+	// a lower limit of a concurrency controller does not change the limit per host
+	hostScheduler.setMaxInFlight(2);
+	Assert.assertEquals(3, hostScheduler.getMaxConnectionsPerHost());
+    }
+
+    @Test
+    public void testParkedWorkHoldsConnectionOfItsHost() {
+	hostScheduler.setMaxInFlight(10);
+	Work throttled = execute("a", "throttled");
+	throttled.parkOnce = true;
+	execute("a", "waiting");
+	execute("b", "b1");
+	Assert.assertEquals(2, running.size());
+	runAll();
+	// the throttled work returned its thread, but its connection still counts
+	Assert.assertEquals("[throttled, b1]", ran.toString());
+	Assert.assertEquals(1, statistics("a").getParked());
+	Assert.assertEquals(1, statistics("a").getQueued());
+	Assert.assertEquals(0, statistics("a").getInFlight());
+	// continued, it goes ahead of the waiting work and does not wait for a connection
+	hostScheduler.execute(throttled);
+	Assert.assertEquals(1, running.size());
+	Assert.assertEquals(0, statistics("a").getParked());
+	runAll();
+	Assert.assertEquals("[throttled, b1, throttled, waiting]", ran.toString());
+    }
+
+    @Test
+    public void testAcceptedWorkContinuesAfterShutdown() {
+	final AtomicBoolean drained = new AtomicBoolean();
+	Work throttled = execute("a", "throttled");
+	throttled.parkOnce = true;
+	runAll();
+	hostScheduler.shutdown(new Runnable() {
+
+	    @Override
+	    public void run() {
+		drained.set(true);
+	    }
+	});
+	// the parked work still holds its connection
+	Assert.assertFalse(drained.get());
+	try {
+	    execute("b", "new");
+	    Assert.fail("New work was accepted after shutdown");
+	}
+	catch (RejectedExecutionException e) {
+	    // expected
+	}
+	hostScheduler.execute(throttled);
+	hostScheduler.executeContinuation(new Work("a", "segment"));
+	Assert.assertFalse(drained.get());
+	runAll();
+	Assert.assertEquals("[throttled, throttled, segment]", ran.toString());
+	Assert.assertTrue(drained.get());
+    }
+
+    @Test
+    public void testReleaseOfParkedWorkDrainsScheduler() {
+	final AtomicBoolean drained = new AtomicBoolean();
+	Work throttled = execute("a", "throttled");
+	throttled.parkOnce = true;
+	runAll();
+	hostScheduler.shutdown(new Runnable() {
+
+	    @Override
+	    public void run() {
+		drained.set(true);
+	    }
+	});
+	Assert.assertFalse(drained.get());
+	hostScheduler.release(throttled);
+	Assert.assertTrue(drained.get());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testContinuationIsRejectedAfterShutdownNow() {
+	hostScheduler.shutdownNow();
+	hostScheduler.executeContinuation(new Work("a", "segment"));
+    }
+
+    @Test
+    public void testReleasedWorkFreesConnectionOfItsHost() {
+	Work throttled = execute("a", "throttled");
+	throttled.parkOnce = true;
+	execute("a", "waiting");
+	runAll();
+	Assert.assertEquals("[throttled]", ran.toString());
+	hostScheduler.release(throttled);
+	Assert.assertEquals(0, statistics("a").getParked());
+	runAll();
+	Assert.assertEquals("[throttled, waiting]", ran.toString());
+    }
+
+}
@@ -0,0 +1,101 @@
+package download.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.journal.Journal;
+import download.manager.origin.LocalOrigin;
+
+/**
+ * Downloads, whose offsets do not fit into an {@code int}: the resource is larger than 2 GiB, a task resumes near its
+ * end, so only a small tail goes over the network and the rest of the target file stays sparse.
+ */
+public class LargeOffsetDownloadTest {
+
+    private static final long LENGTH = (1L << 31) + (1L << 20) + 12345;
+    private static final int TAIL_LENGTH = 256 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    /**
+     * Restores task, that was downloading from given checkpoint, in a manager started with a journal.
+     */
+    private Status resume(String fileName, int segmentsCount, Checkpoint checkpoint) throws Exception {
+	String url = fixture.getOrigin().content(LENGTH).url();
+	File targetFile = fixture.file(fileName);
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(targetFile, "rw")) {
+	    randomAccessFile.setLength(checkpoint.getDownloadedBytes());
+	}
+	checkpoint.write(new File(targetFile.getPath() + ".large.tmp"));
+	File journalDirectory = fixture.file("journal");
+	Journal journal = new Journal(journalDirectory);
+	journal.taskAdded("large", url, targetFile.getPath(), segmentsCount);
+	journal.statusChanged("large", Status.DOWNLOADING);
+	journal.close();
+
+	DownloadManagerImpl downloadManager = new DownloadManagerImpl(ExecutionMode.PLATFORM_THREADS, journalDirectory);
+	try {
+	    return DownloadFixture.await(downloadManager, "large");
+	}
+	finally {
+	    downloadManager.forceShutdown();
+	}
+    }
+
+    private static void assertContent(File file, long start, long end) throws IOException {
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+	    Assert.assertEquals(LENGTH, randomAccessFile.length());
+	    // the checkpointed head was not downloaded again, it is still a hole of zeros
+	    randomAccessFile.seek(1);
+	    Assert.assertEquals(0, randomAccessFile.read());
+	    byte[] content = new byte[(int) (end - start)];
+	    randomAccessFile.seek(start);
+	    randomAccessFile.readFully(content);
+	    for (int i = 0; i < content.length; i++) {
+		if (content[i] != LocalOrigin.contentByte(start + i)) {
+		    Assert.fail("Byte at offset " + (start + i) + " of " + file + " differs");
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testTailIsDownloadedOverOneConnection() throws Exception {
+	Assert.assertEquals(Status.COMPLETED, resume("single.bin", 1, new Checkpoint(LENGTH - TAIL_LENGTH, null, null,
+		null)));
+	assertContent(fixture.file("single.bin"), LENGTH - TAIL_LENGTH, LENGTH);
+    }
+
+    @Test
+    public void testTailsOfSegmentsAreDownloaded() throws Exception {
+	long half = LENGTH / 2;
+	Checkpoint checkpoint = new Checkpoint(LENGTH - (2 * TAIL_LENGTH), Arrays.asList(new Segment(0, 0, half - 1,
+		half - TAIL_LENGTH), new Segment(1, half, LENGTH - 1, LENGTH - TAIL_LENGTH)), null, null);
+	Assert.assertEquals(Status.COMPLETED, resume("segmented.bin", 2, checkpoint));
+	assertContent(fixture.file("segmented.bin"), half - TAIL_LENGTH, half);
+	assertContent(fixture.file("segmented.bin"), LENGTH - TAIL_LENGTH, LENGTH);
+    }
+
+    @Test
+    public void testSegmentBeyondIntRange() {
+	long start = Integer.MAX_VALUE - 10L;
+	long end = (1L << 32) + 99;
+	Segment segment = new Segment(3, start, end);
+	Assert.assertEquals((end - start) + 1, segment.getRemainder());
+	segment.advance(Integer.MAX_VALUE);
+	Assert.assertEquals(start + Integer.MAX_VALUE, segment.getPosition());
+	Assert.assertEquals("bytes=" + (start + Integer.MAX_VALUE) + "-" + end, segment.getRange());
+	Assert.assertFalse(segment.isComplete());
+	segment.advance((int) segment.getRemainder());
+	Assert.assertTrue(segment.isComplete());
+	Assert.assertEquals(0, segment.getRemainder());
+    }
+
+}
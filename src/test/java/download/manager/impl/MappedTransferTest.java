@@ -0,0 +1,85 @@
+package download.manager.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.origin.LocalOrigin;
+
+public class MappedTransferTest {
+
+    private static final int LENGTH = 4 * 1024 * 1024;
+    private static final long WINDOW_SIZE = 256 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private File file;
+
+    @Before
+    public void before() {
+	file = fixture.file("target.bin");
+    }
+
+    private static byte[] content() {
+	byte[] content = new byte[LENGTH];
+	for (int i = 0; i < LENGTH; i++) {
+	    content[i] = LocalOrigin.contentByte(i);
+	}
+	return content;
+    }
+
+    private void transfer(RandomAccessFile randomAccessFile, MappedWindows windows) throws IOException {
+	MappedTransfer transfer = new MappedTransfer(new ByteArrayInputStream(content()), randomAccessFile,
+		new BufferPool(), windows, WINDOW_SIZE);
+	long position = 0;
+	while (position < LENGTH) {
+	    int numberOfTransferredBytes = transfer.transfer(position, LENGTH - position);
+	    Assert.assertTrue(numberOfTransferredBytes > 0);
+	    position += numberOfTransferredBytes;
+	    Assert.assertTrue(windows.getWindowsCount() <= 1);
+	}
+	windows.force();
+	transfer.release();
+	Assert.assertEquals(0, windows.getWindowsCount());
+    }
+
+    @Test
+    public void testWindowsAreRecycled() throws Exception {
+	MappedWindows windows = new MappedWindows();
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+	    randomAccessFile.setLength(LENGTH);
+	    transfer(randomAccessFile, windows);
+	}
+	DownloadFixture.assertContent(file, LENGTH);
+	Assert.assertEquals(LENGTH / WINDOW_SIZE, windows.getMappings());
+    }
+
+    @Test
+    public void testFileOfUnknownLengthIsWritten() throws Exception {
+	MappedWindows windows = new MappedWindows();
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+	    transfer(randomAccessFile, windows);
+	}
+	DownloadFixture.assertContent(file, LENGTH);
+	Assert.assertEquals(0, windows.getMappings());
+    }
+
+    @Test
+    public void testResourceIsDownloadedIntoMappedFile() throws Exception {
+	fixture.getDownloadManager().setTransferMode(TransferMode.MAPPED);
+	for (int segmentsCount : new int[] { 1, 4 }) {
+	    String fileName = "download-" + segmentsCount + ".bin";
+	    Assert.assertEquals(Status.COMPLETED, fixture.download(fixture.getOrigin().content(LENGTH).url(),
+		    fileName, segmentsCount));
+	    fixture.assertContent(fileName, LENGTH);
+	}
+    }
+
+}
@@ -0,0 +1,91 @@
+package download.manager.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SegmentedDownloadTest {
+
+    // not a multiple of any segments count, so the last segment is longer than the others
+    private static final int LENGTH = (3 * 1024 * 1024) + 7;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    @Test
+    public void testSegmentedFileIsIdenticalToResource() throws Exception {
+	for (int segmentsCount : new int[] { 2, 3, 8 }) {
+	    String fileName = "segments-" + segmentsCount + ".bin";
+	    int requests = fixture.getOrigin().getRequests();
+	    Assert.assertEquals(Status.COMPLETED, fixture.download(fixture.getOrigin().content(LENGTH).url(),
+		    fileName, segmentsCount));
+	    fixture.assertContent(fileName, LENGTH);
+	    // the probe and one request of every segment
+	    Assert.assertEquals(requests + 1 + segmentsCount, fixture.getOrigin().getRequests());
+	}
+    }
+
+    @Test
+    public void testPausedSegmentedFileIsIdenticalToResource() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	String url = fixture.getOrigin().content(LENGTH).bandwidth(2 * 1024 * 1024).url();
+	String id = fixture.start(url, "paused.bin", 4);
+	DownloadTaskImpl downloadTask = (DownloadTaskImpl) downloadManager.get(id);
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while ((downloadTask.getDownloadedBytes() < (LENGTH / 4))
+		&& (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	downloadManager.pause(id);
+	Assert.assertEquals(Status.PAUSED, downloadTask.getStatus());
+	Assert.assertTrue(downloadTask.getDownloadedBytes() < LENGTH);
+	downloadManager.resume(id);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	fixture.assertContent("paused.bin", LENGTH);
+    }
+
+    @Test
+    public void testPauseClosesConnectionOfStalledSegment() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	int length = 3 * 1024 * 1024;
+	// the middle one of three segments stalls in its half
+	String url = fixture.getOrigin().content(length).stallAt(length / 2, 5000).url();
+	String id = fixture.start(url, "stalled.bin", 3);
+	DownloadTaskImpl downloadTask = (DownloadTaskImpl) downloadManager.get(id);
+	long deadline = System.currentTimeMillis() + DownloadFixture.TIMEOUT_MILLIS;
+	while ((downloadTask.getDownloadedBytes() < ((length / 6) * 5)) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	downloadManager.pause(id);
+	Assert.assertEquals(Status.PAUSED, downloadTask.getStatus());
+	// the read blocked on the stalled connection fails at once, it does not wait for the server
+	deadline = System.currentTimeMillis() + 1000;
+	while ((inFlight(downloadManager) > 0) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+	Assert.assertEquals(0, inFlight(downloadManager));
+
+	downloadManager.resume(id);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(id));
+	fixture.assertContent("stalled.bin", length);
+    }
+
+    private static int inFlight(DownloadManagerImpl downloadManager) {
+	int inFlight = 0;
+	for (HostQueueStatistics hostQueueStatistics : downloadManager.getHostQueueStatistics()) {
+	    inFlight += hostQueueStatistics.getInFlight();
+	}
+	return inFlight;
+    }
+
+    @Test
+    public void testSmallFileIsDownloadedOverSingleConnection() throws Exception {
+	int length = 100 * 1024;
+	int requests = fixture.getOrigin().getRequests();
+	Assert.assertEquals(Status.COMPLETED, fixture.download(fixture.getOrigin().content(length).url(), "small.bin",
+		8));
+	fixture.assertContent("small.bin", length);
+	Assert.assertEquals(requests + 2, fixture.getOrigin().getRequests());
+    }
+
+}
@@ -0,0 +1,124 @@
+package download.manager.impl;
+
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.origin.LocalOrigin;
+
+public class SingleFlightTest {
+
+    private static final int LENGTH = 2 * 1024 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private String slowUrl() {
+	return fixture.getOrigin().content(LENGTH).bandwidth(4 * 1024 * 1024).url();
+    }
+
+    private String add(String url, String fileName) {
+	return fixture.start(url, fileName, 1);
+    }
+
+    @Test
+    public void testTasksOfSameUrlShareOneFetch() throws Exception {
+	LocalOrigin localOrigin = fixture.getOrigin();
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	String soloId = add(localOrigin.content(LENGTH).url(), "solo.bin");
+	Assert.assertEquals(Status.COMPLETED, fixture.await(soloId));
+	int requestsOfOneTask = localOrigin.getRequests();
+
+	String url = slowUrl();
+	List<String> ids = new ArrayList<>();
+	for (int i = 0; i < 4; i++) {
+	    ids.add(add(url, "shared-" + i + ".bin"));
+	}
+	Assert.assertEquals(4, new HashSet<>(ids).size());
+	Assert.assertEquals(Status.DOWNLOADING, downloadManager.get(ids.get(3)).getStatus());
+	for (int i = 0; i < 4; i++) {
+	    Assert.assertEquals(Status.COMPLETED, fixture.await(ids.get(i)));
+	}
+	for (int i = 0; i < 4; i++) {
+	    fixture.assertContent("shared-" + i + ".bin", LENGTH);
+	    Assert.assertEquals("100", downloadManager.get(ids.get(i)).getProgress());
+	}
+	Assert.assertEquals(2 * requestsOfOneTask, localOrigin.getRequests());
+	Assert.assertTrue(downloadManager.getMetrics().contains("download_manager_coalesced_tasks_total 3"));
+	// followers got copies, so a change of the leader's file does not reach them
+	try (RandomAccessFile randomAccessFile = new RandomAccessFile(fixture.file("shared-0.bin"), "rw")) {
+	    randomAccessFile.write(~LocalOrigin.contentByte(0));
+	}
+	for (int i = 1; i < 4; i++) {
+	    fixture.assertContent("shared-" + i + ".bin", LENGTH);
+	}
+    }
+
+    @Test
+    public void testFollowerDownloadsItselfWhenLeaderIsCancelled() throws Exception {
+	String url = slowUrl();
+	String leaderId = add(url, "leader.bin");
+	String followerId = add(url, "follower.bin");
+	Thread.sleep(100);
+	fixture.getDownloadManager().cancel(leaderId);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(followerId));
+	fixture.assertContent("follower.bin", LENGTH);
+	Assert.assertFalse(fixture.file("leader.bin").exists());
+    }
+
+    @Test
+    public void testPausedFollowerLeavesTheFlight() throws Exception {
+	DownloadManagerImpl downloadManager = fixture.getDownloadManager();
+	String url = slowUrl();
+	String leaderId = add(url, "leader.bin");
+	String followerId = add(url, "follower.bin");
+	downloadManager.pause(followerId);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(leaderId));
+	Thread.sleep(100);
+	Assert.assertEquals(Status.PAUSED, downloadManager.get(followerId).getStatus());
+
+	downloadManager.resume(followerId);
+	Assert.assertEquals(Status.COMPLETED, fixture.await(followerId));
+	fixture.assertContent("follower.bin", LENGTH);
+    }
+
+    @Test
+    public void testFollowerIsPromotedWhenFlightOfStoppedLeaderWasReplaced() {
+	final List<Runnable> startedTasks = new ArrayList<>();
+	Executor taskExecutor = new Executor() {
+
+	    @Override
+	    public void execute(Runnable command) {
+		startedTasks.add(command);
+	    }
+	};
+	SingleFlight singleFlight = new SingleFlight(new Executor() {
+
+	    @Override
+	    public void execute(Runnable command) {
+		command.run();
+	    }
+	});
+	String url = fixture.getOrigin().content(LENGTH).url();
+	DownloadTaskImpl leader = new DownloadTaskImpl("leader", url, "leader.bin", 1, Status.CREATED);
+	DownloadTaskImpl follower = new DownloadTaskImpl("follower", url, "follower.bin", 1, Status.CREATED);
+	DownloadTaskImpl newcomer = new DownloadTaskImpl("newcomer", url, "newcomer.bin", 1, Status.CREATED);
+	Assert.assertFalse(singleFlight.join(leader, taskExecutor));
+	leader.setStatus(Status.DOWNLOADING);
+	Assert.assertTrue(singleFlight.join(follower, taskExecutor));
+
+	// the tasks have no listener, so the flight learns about the paused leader only after the newcomer replaced it
+	leader.setStatus(Status.PAUSED);
+	Assert.assertFalse(singleFlight.join(newcomer, taskExecutor));
+	singleFlight.statusChanged(leader, Status.PAUSED);
+	Assert.assertEquals(1, startedTasks.size());
+	Assert.assertSame(follower, startedTasks.get(0));
+    }
+
+}
@@ -0,0 +1,69 @@
+package download.manager.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import download.manager.api.DownloadTask;
+
+public class TaskRegistryTest {
+
+    private static final String URL = "http://localhost/resource.bin";
+
+    private final TaskRegistry taskRegistry = new TaskRegistry();
+
+    private DownloadTask register(String id, Status status) {
+	DownloadTask downloadTask = new DownloadTaskImpl(id, URL, id + ".bin", 1, status);
+	taskRegistry.put(downloadTask);
+	return downloadTask;
+    }
+
+    @Test
+    public void testTasksAreCountedAndListedByStatus() {
+	for (int i = 0; i < 10; i++) {
+	    register("created-" + i, Status.CREATED);
+	}
+	for (int i = 0; i < 5; i++) {
+	    register("paused-" + i, Status.PAUSED);
+	}
+	Assert.assertEquals(15, taskRegistry.count(null));
+	Assert.assertEquals(10, taskRegistry.count(Status.CREATED));
+	Assert.assertEquals(5, taskRegistry.count(Status.PAUSED));
+	Assert.assertEquals(0, taskRegistry.count(Status.DOWNLOADING));
+
+	List<DownloadTask> page = taskRegistry.list(Status.CREATED, 8, 5);
+	Assert.assertEquals(2, page.size());
+	Assert.assertEquals("created-8", page.get(0).getId());
+	Assert.assertEquals("created-9", page.get(1).getId());
+	Assert.assertTrue(taskRegistry.list(Status.PAUSED, 5, 5).isEmpty());
+	Assert.assertEquals("paused-0", taskRegistry.list(null, 10, 1).get(0).getId());
+    }
+
+    @Test
+    public void testIdentifiersAreListedByStatus() {
+	for (int i = 0; i < 3; i++) {
+	    register("created-" + i, Status.CREATED);
+	    register("paused-" + i, Status.PAUSED);
+	}
+	Assert.assertEquals(Arrays.asList("paused-0", "paused-1", "paused-2"), taskRegistry.ids(Status.PAUSED));
+	Assert.assertEquals(Arrays.asList("created-1", "created-2"), taskRegistry.ids(Status.CREATED, 1, 5));
+	Assert.assertEquals(Arrays.asList("created-0", "paused-0"), taskRegistry.ids(null, 0, 2));
+	Assert.assertTrue(taskRegistry.ids(Status.PAUSED, 3, 5).isEmpty());
+	Assert.assertTrue(taskRegistry.ids(Status.COMPLETED).isEmpty());
+    }
+
+    @Test
+    public void testTransitionMovesTaskToIndexOfNewStatus() {
+	DownloadTask downloadTask = register("task", Status.CREATED);
+	taskRegistry.statusChanged(downloadTask, Status.DOWNLOADING);
+	taskRegistry.statusChanged(downloadTask, Status.DOWNLOADING);
+	Assert.assertEquals(0, taskRegistry.count(Status.CREATED));
+	Assert.assertEquals(1, taskRegistry.count(Status.DOWNLOADING));
+	Assert.assertSame(downloadTask, taskRegistry.list(Status.DOWNLOADING, 0, 10).get(0));
+	Assert.assertTrue(taskRegistry.list(Status.CREATED, 0, 10).isEmpty());
+	Assert.assertSame(downloadTask, taskRegistry.get("task"));
+    }
+
+}
@@ -0,0 +1,86 @@
+package download.manager.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Clock, that moves only when a test moves it.
+     */
+    static class ManualClock implements NanoClock {
+	private long now = 1000 * SECOND;
+
+	@Override
+	public long nanoTime() {
+	    return now;
+	}
+
+	void advance(long nanos) {
+	    now += nanos;
+	}
+    }
+
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    public void testUnlimitedBucketNeverDelays() {
+	TokenBucket tokenBucket = new TokenBucket(0, clock);
+	Assert.assertFalse(tokenBucket.isLimited());
+	Assert.assertEquals(0, tokenBucket.consume(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testReaderFollowingDelaysKeepsRate() {
+	TokenBucket tokenBucket = new TokenBucket(1000, clock);
+	long start = clock.nanoTime();
+	for (int i = 0; i < 100; i++) {
+	    clock.advance(tokenBucket.consume(100));
+	}
+	// 10000 bytes at 1000 bytes per second
+	Assert.assertEquals(10 * SECOND, clock.nanoTime() - start);
+    }
+
+    @Test
+    public void testBucketStartsEmpty() {
+	TokenBucket tokenBucket = new TokenBucket(1000, clock);
+	Assert.assertEquals(500 * MILLISECOND, tokenBucket.consume(500));
+	Assert.assertEquals(1000 * MILLISECOND, tokenBucket.consume(500));
+	clock.advance(400 * MILLISECOND);
+	Assert.assertEquals(600 * MILLISECOND, tokenBucket.consume(0));
+    }
+
+    @Test
+    public void testIdleBucketHoldsOneSecondBurst() {
+	TokenBucket tokenBucket = new TokenBucket(1000, clock);
+	clock.advance(5 * SECOND);
+	Assert.assertEquals(0, tokenBucket.consume(1000));
+	Assert.assertEquals(MILLISECOND, tokenBucket.consume(1));
+
+	clock.advance(5 * SECOND);
+	// five idle seconds do not buy more than one second worth of bytes
+	Assert.assertEquals(SECOND, tokenBucket.consume(2000));
+    }
+
+    @Test
+    public void testChangedRateForgetsDebt() {
+	TokenBucket tokenBucket = new TokenBucket(1000, clock);
+	Assert.assertEquals(10 * SECOND, tokenBucket.consume(10000));
+	tokenBucket.setBytesPerSecond(2000);
+	Assert.assertEquals(2000, tokenBucket.getBytesPerSecond());
+	Assert.assertEquals(500 * MILLISECOND, tokenBucket.consume(1000));
+	tokenBucket.setBytesPerSecond(0);
+	Assert.assertEquals(0, tokenBucket.consume(10000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRateIsRejected() {
+	new TokenBucket(-1, clock);
+    }
+
+}
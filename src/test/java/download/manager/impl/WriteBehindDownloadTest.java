@@ -0,0 +1,65 @@
+package download.manager.impl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import download.manager.api.ChecksumAlgorithm;
+import download.manager.api.ExpectedChecksum;
+import download.manager.origin.LocalOrigin;
+
+public class WriteBehindDownloadTest {
+
+    private static final int LENGTH = 4 * 1024 * 1024;
+
+    @Rule
+    public final DownloadFixture fixture = new DownloadFixture();
+
+    private DiskWriter diskWriter;
+
+    @Before
+    public void before() {
+	// a cap below a single segment makes readers wait for the disk
+	diskWriter = new DiskWriter(new BufferPool(), 2, 256 * 1024);
+	fixture.getDownloadManager().setDiskWriter(diskWriter);
+    }
+
+    private Status download(String fileName, int segmentsCount, ExpectedChecksum expectedChecksum)
+	    throws InterruptedException {
+	return fixture.download(fixture.getOrigin().content(LENGTH).url(), fileName, segmentsCount, expectedChecksum);
+    }
+
+    @Test
+    public void testSegmentsAreWrittenBehind() throws Exception {
+	Assert.assertEquals(Status.COMPLETED, download("segments.bin", 4, null));
+	fixture.assertContent("segments.bin", LENGTH);
+	Assert.assertEquals(LENGTH, diskWriter.getWrittenBytes());
+	Assert.assertEquals(0, diskWriter.getPendingBytes());
+	Assert.assertTrue(fixture.getDownloadManager().getMetrics().contains(
+		"download_manager_disk_written_bytes_total " + LENGTH));
+    }
+
+    @Test
+    public void testPreallocatedStreamIsForcedOnCompletion() throws Exception {
+	diskWriter.setPreallocation(true);
+	diskWriter.setFsyncPolicy(FsyncPolicy.COMPLETION);
+	Assert.assertEquals(Status.COMPLETED, download("stream.bin", 1, null));
+	fixture.assertContent("stream.bin", LENGTH);
+	Assert.assertEquals(1, diskWriter.getFsyncs());
+    }
+
+    @Test
+    public void testWrittenBytesAreVerified() throws Exception {
+	byte[] content = new byte[LENGTH];
+	for (int i = 0; i < LENGTH; i++) {
+	    content[i] = LocalOrigin.contentByte(i);
+	}
+	ChecksumVerifier.Hasher hasher = ChecksumVerifier.Hasher.of(ChecksumAlgorithm.SHA_256);
+	hasher.update(content, LENGTH);
+	ExpectedChecksum expectedChecksum = ExpectedChecksum.of(ChecksumAlgorithm.SHA_256, hasher.hexDigest());
+	Assert.assertEquals(Status.COMPLETED, download("verified.bin", 4, expectedChecksum));
+	fixture.assertContent("verified.bin", LENGTH);
+    }
+
+}
@@ -12,6 +12,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
 import org.hamcrest.MatcherAssert;
 import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,20 +22,29 @@ import com.madgag.hamcrest.FileExistenceMatcher;
 import download.manager.api.DownloadManager;
 import download.manager.impl.DownloadManagerImpl;
 import download.manager.impl.Status;
+import download.manager.origin.LocalOrigin;
 
 public class DownloadManagerConcurrentTest {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadManagerConcurrentTest.class);
 
+    private static LocalOrigin localOrigin;
     private DownloadManager downloadManager = DownloadManagerImpl.getInstance();
     private static String TARGET_FILE_NAME = "dopdf-eula";
     private static String FILE_EXTENSION = ".pdf";
-    private String URL = "http://www.dopdf.com/download/pdf/dopdf-eula.pdf";
+    private static String URL;
 
     CountDownLatch addLatch = new CountDownLatch(1);
     CountDownLatch downloadLatch = new CountDownLatch(1);
     CountDownLatch resultLatch = new CountDownLatch(3);
 
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+	localOrigin = new LocalOrigin();
+	localOrigin.start();
+	URL = localOrigin.content(512 * 1024).chunk(16 * 1024).delay(10).url();
+    }
+
     @Test
     public void testDownloadAndPauseAndCancel() throws InterruptedException, IOException {
 	ExecutorService executorService = Executors.newCachedThreadPool();
@@ -88,7 +98,8 @@ public class DownloadManagerConcurrentTest {
     }
 
     @AfterClass
-    public static void afterClass() {
+    public static void afterClass() throws Exception {
+	localOrigin.close();
 	for (int i = 0; i < 30; i++) {
 	    deleteFile(TARGET_FILE_NAME + "_" + i + FILE_EXTENSION);
 	}
@@ -9,7 +9,9 @@ import org.apache.commons.io.FileUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.After;
+import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +21,7 @@ import com.madgag.hamcrest.FileExistenceMatcher;
 import download.manager.api.DownloadManager;
 import download.manager.impl.DownloadManagerImpl;
 import download.manager.impl.Status;
+import download.manager.origin.LocalOrigin;
 
 public class DownloadManagerIntegrationTests {
 
@@ -26,11 +29,26 @@ public class DownloadManagerIntegrationTests {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadManagerIntegrationTests.class);
 
+    private static LocalOrigin localOrigin;
     private final String TARGET_FILE_NAME = "dopdf-eula.pdf";
     private String tmpFileName;
-    private final String URL = "http://www.dopdf.com/download/pdf/dopdf-eula.pdf";
+    private static String URL;
     private DownloadManager downloadManager = DownloadManagerImpl.getInstance();
 
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+	localOrigin = new LocalOrigin();
+	localOrigin.start();
+	// takes about a second, so tasks can be paused while downloading, the first bytes come after half a second, so
+	// the target file is still empty, when the tests compare its size with the progress
+	URL = localOrigin.content(512 * 1024).latency(500).chunk(16 * 1024).delay(25).url();
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+	localOrigin.close();
+    }
+
     @After
     public void after() {
 	deleteFile(TARGET_FILE_NAME);
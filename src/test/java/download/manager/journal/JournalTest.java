@@ -0,0 +1,128 @@
+package download.manager.journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import download.manager.impl.Status;
+
+public class JournalTest {
+
+    private static final String URL = "http://localhost/resource.bin";
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+	directory = new File("target/journal-test");
+	FileUtils.deleteDirectory(directory);
+    }
+
+    @After
+    public void after() {
+	FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testTasksAreRecoveredFromSnapshot() throws Exception {
+	Journal journal = new Journal(directory);
+	journal.taskAdded("first", URL, "first.bin", 1);
+	journal.taskAdded("second", URL, "second.bin", 4);
+	journal.statusChanged("first", Status.DOWNLOADING);
+	journal.statusChanged("second", Status.DOWNLOADING);
+	journal.statusChanged("second", Status.PAUSED);
+	journal.close();
+
+	Journal reopenedJournal = new Journal(directory);
+	List<TaskRecord> tasks = new ArrayList<>(reopenedJournal.getRecoveredTasks());
+	reopenedJournal.close();
+	Assert.assertEquals(2, tasks.size());
+	Assert.assertEquals("first", tasks.get(0).getId());
+	Assert.assertEquals(Status.DOWNLOADING, tasks.get(0).getStatus());
+	Assert.assertEquals("second", tasks.get(1).getId());
+	Assert.assertEquals(4, tasks.get(1).getSegmentsCount());
+	Assert.assertEquals("second.bin", tasks.get(1).getFileName());
+	Assert.assertEquals(Status.PAUSED, tasks.get(1).getStatus());
+    }
+
+    @Test
+    public void testTasksAreRecoveredFromJournalWithTornTail() throws Exception {
+	Journal journal = new Journal(directory);
+	journal.taskAdded("first", URL, "first.bin", 1);
+	journal.statusChanged("first", Status.DOWNLOADING);
+	journal.flush();
+	// crash in the middle of the next record
+	try (FileOutputStream outputStream = new FileOutputStream(new File(directory, Journal.JOURNAL_FILE_NAME), true)) {
+	    outputStream.write(new byte[] { 0, 0, 0, 40, 2, 0 });
+	}
+
+	Journal reopenedJournal = new Journal(directory);
+	List<TaskRecord> tasks = new ArrayList<>(reopenedJournal.getRecoveredTasks());
+	reopenedJournal.statusChanged("first", Status.COMPLETED);
+	reopenedJournal.close();
+	Assert.assertEquals(1, tasks.size());
+	Assert.assertEquals(Status.DOWNLOADING, tasks.get(0).getStatus());
+
+	Journal lastJournal = new Journal(directory);
+	Assert.assertEquals(Status.COMPLETED, lastJournal.getRecoveredTasks().iterator().next().getStatus());
+	lastJournal.close();
+    }
+
+    @Test
+    public void testJournalIsCompactedAfterThreshold() throws Exception {
+	Journal journal = new Journal(directory, 10);
+	for (int i = 0; i < 100; i++) {
+	    journal.taskAdded("task-" + i, URL, "task-" + i + ".bin", 1);
+	    journal.flush();
+	}
+	Assert.assertTrue(new File(directory, Journal.SNAPSHOT_FILE_NAME).exists());
+	Assert.assertTrue(new File(directory, Journal.JOURNAL_FILE_NAME).length() < 10 * 64);
+	journal.close();
+
+	Journal reopenedJournal = new Journal(directory, 10);
+	Assert.assertEquals(100, reopenedJournal.getRecoveredTasks().size());
+	reopenedJournal.close();
+    }
+
+    @Test
+    public void testFinishedTasksAreDroppedAfterRetention() throws Exception {
+	Journal journal = new Journal(directory, 100, 0);
+	journal.taskAdded("completed", URL, "completed.bin", 1);
+	journal.taskAdded("paused", URL, "paused.bin", 1);
+	journal.taskAdded("cancelled", URL, "cancelled.bin", 1);
+	journal.statusChanged("completed", Status.DOWNLOADING);
+	journal.statusChanged("completed", Status.COMPLETED);
+	journal.statusChanged("paused", Status.DOWNLOADING);
+	journal.statusChanged("paused", Status.PAUSED);
+	journal.statusChanged("cancelled", Status.CANCELLED);
+	journal.close();
+
+	Journal reopenedJournal = new Journal(directory, 100, 0);
+	List<TaskRecord> tasks = new ArrayList<>(reopenedJournal.getRecoveredTasks());
+	reopenedJournal.close();
+	Assert.assertEquals(1, tasks.size());
+	Assert.assertEquals("paused", tasks.get(0).getId());
+    }
+
+    @Test
+    public void testFinishedTasksAreKeptWithinRetention() throws Exception {
+	Journal journal = new Journal(directory, 100);
+	journal.taskAdded("completed", URL, "completed.bin", 1);
+	journal.statusChanged("completed", Status.COMPLETED);
+	journal.close();
+
+	Journal reopenedJournal = new Journal(directory, 100);
+	TaskRecord task = reopenedJournal.getRecoveredTasks().iterator().next();
+	reopenedJournal.close();
+	Assert.assertEquals(Status.COMPLETED, task.getStatus());
+    }
+
+}
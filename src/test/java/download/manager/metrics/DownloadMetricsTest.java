@@ -0,0 +1,60 @@
+package download.manager.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DownloadMetricsTest {
+
+    @Test
+    public void testHistogramCountsDurationsInCumulativeBuckets() {
+	Histogram histogram = new Histogram(new double[] { 0.01, 0.1, 1 });
+	histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+	histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+	histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+	histogram.record(TimeUnit.SECONDS.toNanos(3));
+
+	Assert.assertArrayEquals(new long[] { 2, 3, 3, 4 }, histogram.getCumulativeCounts());
+	Assert.assertEquals(3.065, histogram.getSumSeconds(), 1e-9);
+    }
+
+    @Test
+    public void testMetricsAreWrittenInPrometheusFormat() {
+	DownloadMetrics metrics = new DownloadMetrics();
+	metrics.recordBytes(100);
+	metrics.recordBytes(28);
+	metrics.recordError("http_404");
+	metrics.recordError("http_404");
+	metrics.recordError("SocketTimeoutException");
+	metrics.recordRead(TimeUnit.MILLISECONDS.toNanos(2));
+
+	PrometheusWriter writer = new PrometheusWriter();
+	writer.counter("downloaded_bytes_total", "Downloaded bytes.", metrics.getDownloadedBytes());
+	writer.histogram("read_seconds", "Reads.", metrics.getReadLatency());
+	writer.family("errors_total", "Errors.", "counter");
+	for (Map.Entry<String, Long> error : metrics.getErrors().entrySet()) {
+	    writer.sample("errors_total", "cause", error.getKey(), error.getValue());
+	}
+	String text = writer.toString();
+
+	Assert.assertTrue(text.contains("# TYPE downloaded_bytes_total counter\ndownloaded_bytes_total 128\n"));
+	Assert.assertTrue(text.contains("read_seconds_bucket{le=\"0.001\"} 0\n"));
+	Assert.assertTrue(text.contains("read_seconds_bucket{le=\"0.0025\"} 1\n"));
+	Assert.assertTrue(text.contains("read_seconds_bucket{le=\"+Inf\"} 1\nread_seconds_sum 0.002\nread_seconds_count 1\n"));
+	Assert.assertTrue(text.contains("errors_total{cause=\"SocketTimeoutException\"} 1\nerrors_total{cause=\"http_404\"} 2\n"));
+    }
+
+    @Test
+    public void testRateIsMeasuredBetweenSamples() throws InterruptedException {
+	DownloadMetrics metrics = new DownloadMetrics();
+	Assert.assertEquals(0, metrics.rate("task", 0), 0);
+	Thread.sleep(100);
+	double rate = metrics.rate("task", 1000);
+	Assert.assertTrue("Rate was " + rate, (rate > 0) && (rate <= 10000));
+	metrics.forgetRate("task");
+	Assert.assertEquals(0, metrics.rate("task", 5000), 0);
+    }
+
+}
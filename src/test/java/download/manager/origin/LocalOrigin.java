@@ -0,0 +1,419 @@
+package download.manager.origin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Local HTTP origin for tests and benchmarks. Serves synthetic content of requested length, byte at offset {@code i} is
+ * {@link #contentByte(long)}. Everything else is described by the URL built with {@link #content(long)}: chunks and
+ * delays between them, latency before the response, bandwidth cap, whether {@code Range} header is honoured, chunked
+ * responses without {@code Content-Length}, entity tag for conditional requests, connection reset or stall at given
+ * offset of the content, content encoding. Responses are written asynchronously, so thousands of slow downloads do not
+ * occupy server threads.
+ */
+public class LocalOrigin implements AutoCloseable {
+
+    public static final String PATH = "/content";
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final ConcurrentMap<String, byte[]> ENCODED_CONTENTS = new ConcurrentHashMap<>();
+
+    private final Server server;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Creates origin listening on a free port chosen by the system, see {@link #getPort()}.
+     */
+    public LocalOrigin() {
+	this(0);
+    }
+
+    public LocalOrigin(int port) {
+	server = new Server();
+	ServerConnector connector = new ServerConnector(server);
+	connector.setPort(port);
+	connector.setAcceptQueueSize(10000);
+	server.addConnector(connector);
+	scheduler = Executors.newScheduledThreadPool(4);
+	ServletContextHandler context = new ServletContextHandler(server, "/");
+	ServletHolder holder = new ServletHolder(new ContentServlet());
+	holder.setAsyncSupported(true);
+	context.addServlet(holder, PATH);
+    }
+
+    public static byte contentByte(long offset) {
+	return (byte) (offset % 251);
+    }
+
+    /**
+     * Returns content of given length encoded with given {@code Content-Encoding}, gzip or deflate.
+     */
+    public static byte[] encodedContent(long length, String encoding) throws IOException {
+	String key = encoding + ":" + length;
+	byte[] encodedContent = ENCODED_CONTENTS.get(key);
+	if (encodedContent == null) {
+	    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+	    try (OutputStream outputStream = "gzip".equals(encoding) ? new GZIPOutputStream(byteArrayOutputStream)
+		    : new DeflaterOutputStream(byteArrayOutputStream)) {
+		byte[] chunk = new byte[DEFAULT_CHUNK_SIZE];
+		for (long offset = 0; offset < length; offset += chunk.length) {
+		    int size = (int) Math.min(chunk.length, length - offset);
+		    for (int i = 0; i < size; i++) {
+			chunk[i] = contentByte(offset + i);
+		    }
+		    outputStream.write(chunk, 0, size);
+		}
+	    }
+	    encodedContent = byteArrayOutputStream.toByteArray();
+	    ENCODED_CONTENTS.putIfAbsent(key, encodedContent);
+	}
+	return encodedContent;
+    }
+
+    public void start() throws Exception {
+	server.start();
+    }
+
+    /**
+     * Returns number of requests for content received so far.
+     */
+    public int getRequests() {
+	return requests.get();
+    }
+
+    /**
+     * Returns port the origin listens on, once it was started.
+     */
+    public int getPort() {
+	return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    /**
+     * Returns URL of content with given length, that is sent in chunks of given size with given delay between them.
+     */
+    public String url(long length, int chunkSize, long chunkDelayMillis) {
+	return content(length).chunk(chunkSize).delay(chunkDelayMillis).url();
+    }
+
+    /**
+     * Starts description of content with given length, that is sent as fast as possible unless told otherwise.
+     */
+    public Content content(long length) {
+	return new Content(length);
+    }
+
+    /**
+     * Stops the origin. An interrupt while the server stops is kept in the interrupt status of the calling thread.
+     */
+    @Override
+    public void close() {
+	scheduler.shutdownNow();
+	try {
+	    server.stop();
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	catch (Exception e) {
+	    throw new IllegalStateException("Local origin was not stopped", e);
+	}
+    }
+
+    /**
+     * Behaviour of the origin for one URL, every response for the URL behaves the same way. Faults happen at offsets of
+     * the content, so a download resumed after the offset does not meet them again.
+     */
+    public class Content {
+
+	private final StringBuilder query;
+
+	private Content(long length) {
+	    query = new StringBuilder("?length=").append(length);
+	}
+
+	private Content parameter(String name, Object value) {
+	    query.append('&').append(name).append('=').append(value);
+	    return this;
+	}
+
+	/**
+	 * Sends content in chunks of given size, {@link #DEFAULT_CHUNK_SIZE} by default.
+	 */
+	public Content chunk(int chunkSize) {
+	    return parameter("chunk", chunkSize);
+	}
+
+	/**
+	 * Waits given number of milliseconds between chunks.
+	 */
+	public Content delay(long chunkDelayMillis) {
+	    return parameter("delay", chunkDelayMillis);
+	}
+
+	/**
+	 * Waits given number of milliseconds before the response headers, like a distant server.
+	 */
+	public Content latency(long latencyMillis) {
+	    return parameter("latency", latencyMillis);
+	}
+
+	/**
+	 * Sends no more than given number of bytes per second on each connection.
+	 */
+	public Content bandwidth(long bytesPerSecond) {
+	    return parameter("rate", bytesPerSecond);
+	}
+
+	/**
+	 * Answers every request with the whole content and status 200, like a server without byte ranges support.
+	 */
+	public Content ignoreRanges() {
+	    return parameter("ranges", "ignore");
+	}
+
+	/**
+	 * Sends no {@code Content-Length}, so the body goes with chunked transfer encoding.
+	 */
+	public Content chunked() {
+	    return parameter("chunked", true);
+	}
+
+	/**
+	 * Closes connection abruptly, once content up to given offset was sent.
+	 */
+	public Content resetAt(long offset) {
+	    return parameter("resetAt", offset);
+	}
+
+	/**
+	 * Stops sending for given number of milliseconds, once content up to given offset was sent.
+	 */
+	public Content stallAt(long offset, long stallMillis) {
+	    return parameter("stallAt", offset).parameter("stall", stallMillis);
+	}
+
+	/**
+	 * Sends given {@code ETag} and answers {@code 304} to requests, whose {@code If-None-Match} matches it.
+	 */
+	public Content entityTag(String entityTag) {
+	    return parameter("etag", entityTag);
+	}
+
+	/**
+	 * Encodes content with given {@code Content-Encoding}, gzip or deflate, if the request accepts it. Ranges,
+	 * resets and stalls then refer to offsets of the encoded content.
+	 */
+	public Content encoding(String encoding) {
+	    return parameter("encoding", encoding);
+	}
+
+	/**
+	 * Answers every request with given error status code and no content.
+	 */
+	public Content error(int statusCode) {
+	    return parameter("error", statusCode);
+	}
+
+	public String url() {
+	    return "http://localhost:" + getPort() + PATH + query;
+	}
+
+    }
+
+    private static long longParameter(HttpServletRequest request, String name, long defaultValue) {
+	String value = request.getParameter(name);
+	return (value == null) ? defaultValue : Long.parseLong(value);
+    }
+
+    private class ContentServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+	    requests.incrementAndGet();
+	    String error = request.getParameter("error");
+	    if (error != null) {
+		response.sendError(Integer.parseInt(error));
+		return;
+	    }
+	    long length = Long.parseLong(request.getParameter("length"));
+	    String entityTag = request.getParameter("etag");
+	    if (entityTag != null) {
+		entityTag = "\"" + entityTag + "\"";
+		response.setHeader("ETag", entityTag);
+		if (entityTag.equals(request.getHeader("If-None-Match"))) {
+		    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		    return;
+		}
+	    }
+	    byte[] encodedContent = null;
+	    String encoding = request.getParameter("encoding");
+	    String acceptEncoding = request.getHeader("Accept-Encoding");
+	    if ((encoding != null) && (acceptEncoding != null) && acceptEncoding.contains(encoding)) {
+		encodedContent = encodedContent(length, encoding);
+		length = encodedContent.length;
+		response.setHeader("Content-Encoding", encoding);
+	    }
+	    long start = 0;
+	    long end = length - 1;
+	    String range = request.getHeader("Range");
+	    if ((range != null) && range.startsWith("bytes=") && !"ignore".equals(request.getParameter("ranges"))) {
+		String[] bounds = range.substring("bytes=".length()).split("-", -1);
+		start = Long.parseLong(bounds[0]);
+		if (!bounds[1].isEmpty()) {
+		    end = Math.min(end, Long.parseLong(bounds[1]));
+		}
+		if (start > end) {
+		    response.setHeader("Content-Range", "bytes */" + length);
+		    response.sendError(416);
+		    return;
+		}
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+	    }
+	    response.setContentType("application/octet-stream");
+	    if (!Boolean.parseBoolean(request.getParameter("chunked"))) {
+		response.setHeader("Content-Length", String.valueOf((end - start) + 1));
+	    }
+	    AsyncContext asyncContext = request.startAsync();
+	    asyncContext.setTimeout(0);
+	    ChunkWriter chunkWriter = new ChunkWriter(asyncContext, ((Request) request).getHttpChannel().getEndPoint(),
+		    start, end);
+	    chunkWriter.encodedContent = encodedContent;
+	    chunkWriter.chunkSize = (int) longParameter(request, "chunk", DEFAULT_CHUNK_SIZE);
+	    chunkWriter.delayNanos = TimeUnit.MILLISECONDS.toNanos(longParameter(request, "delay", 0));
+	    chunkWriter.bytesPerSecond = longParameter(request, "rate", 0);
+	    chunkWriter.resetAt = longParameter(request, "resetAt", -1);
+	    chunkWriter.stallAt = longParameter(request, "stallAt", -1);
+	    chunkWriter.stallNanos = TimeUnit.MILLISECONDS.toNanos(longParameter(request, "stall", 0));
+	    long latencyMillis = longParameter(request, "latency", 0);
+	    if (latencyMillis > 0) {
+		scheduler.schedule(chunkWriter, latencyMillis, TimeUnit.MILLISECONDS);
+	    }
+	    else {
+		chunkWriter.run();
+	    }
+	}
+    }
+
+    private class ChunkWriter implements Runnable {
+
+	private final AsyncContext asyncContext;
+	private final EndPoint endPoint;
+	private final long start;
+	private final long end;
+	private int chunkSize;
+	private long delayNanos;
+	private long bytesPerSecond;
+	private long resetAt;
+	private long stallAt;
+	private long stallNanos;
+	private long position;
+	private long startTime;
+	private byte[] encodedContent;
+
+	ChunkWriter(AsyncContext asyncContext, EndPoint endPoint, long start, long end) {
+	    this.asyncContext = asyncContext;
+	    this.endPoint = endPoint;
+	    this.start = start;
+	    this.end = end;
+	    position = start;
+	}
+
+	/**
+	 * Tells whether a fault at given offset of the content happens within this response.
+	 */
+	private boolean isWithinResponse(long offset) {
+	    return (offset > start) && (offset <= end);
+	}
+
+	@Override
+	public void run() {
+	    try {
+		if (startTime == 0) {
+		    startTime = System.nanoTime();
+		}
+		ServletOutputStream outputStream = asyncContext.getResponse().getOutputStream();
+		long chunkEnd = Math.min(position + chunkSize, end + 1);
+		if (isWithinResponse(resetAt) && (position < resetAt)) {
+		    chunkEnd = Math.min(chunkEnd, resetAt);
+		}
+		if (isWithinResponse(stallAt) && (position < stallAt)) {
+		    chunkEnd = Math.min(chunkEnd, stallAt);
+		}
+		int size = (int) (chunkEnd - position);
+		byte[] chunk = new byte[size];
+		if (encodedContent != null) {
+		    System.arraycopy(encodedContent, (int) position, chunk, 0, size);
+		}
+		else {
+		    for (int i = 0; i < size; i++) {
+			chunk[i] = contentByte(position + i);
+		    }
+		}
+		outputStream.write(chunk);
+		outputStream.flush();
+		position += size;
+		if (position > end) {
+		    asyncContext.complete();
+		}
+		else if (position == resetAt) {
+		    endPoint.close();
+		}
+		else {
+		    schedule(nextChunkDelayNanos());
+		}
+	    }
+	    catch (IOException | IllegalStateException e) {
+		// client has gone away, for example download task was paused
+		asyncContext.complete();
+	    }
+	}
+
+	private long nextChunkDelayNanos() {
+	    long delay = delayNanos;
+	    if (position == stallAt) {
+		delay = Math.max(delay, stallNanos);
+	    }
+	    if (bytesPerSecond > 0) {
+		// the next chunk is due when bytes sent so far fit into the bandwidth
+		long dueTime = startTime + (((position - start) * TimeUnit.SECONDS.toNanos(1)) / bytesPerSecond);
+		delay = Math.max(delay, dueTime - System.nanoTime());
+	    }
+	    return delay;
+	}
+
+	private void schedule(long delay) {
+	    if (delay > 0) {
+		scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+	    }
+	    else {
+		scheduler.execute(this);
+	    }
+	}
+    }
+
+}